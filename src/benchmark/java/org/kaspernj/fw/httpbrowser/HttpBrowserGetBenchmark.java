@@ -0,0 +1,76 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//Measures GET-requests against the loopback server with bodies of different sizes, sent with Content-Length or chunked, and with or without GZIP.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpBrowserGetBenchmark {
+	@Param({"128", "16384", "1048576"})
+	public int size;
+	
+	@Param({"length", "chunked"})
+	public String transfer;
+	
+	@Param({"identity", "gzip"})
+	public String encoding;
+	
+	private HttpBrowserTestServer server;
+	private HttpBrowser http;
+	private String addr;
+	
+	@Setup(Level.Trial)
+	public void setup() throws Exception{
+		server = new HttpBrowserTestServer();
+		server.setKeepAliveMax(Integer.MAX_VALUE);
+		
+		http = new HttpBrowser();
+		http.setHost(server.getHost());
+		http.setPort(server.getPort());
+		http.setEncodingGZIP(encoding.equals("gzip"));
+		
+		addr = "body?size=" + size;
+		if (transfer.equals("chunked")){
+			addr += "&chunked=1";
+		}
+		
+		if (encoding.equals("gzip")){
+			addr += "&gzip=1";
+		}
+		
+		//Fail early instead of measuring errors.
+		HttpBrowserResult res = http.get(addr);
+		if (res.getBodyAsByteArray().length != size){
+			throw new Exception("Expected a body of " + size + " bytes but got " + res.getBodyAsByteArray().length + ".");
+		}
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception{
+		http.close();
+		server.close();
+	}
+	
+	@Benchmark
+	public byte[] get() throws Exception{
+		return http.get(addr).getBodyAsByteArray();
+	}
+}
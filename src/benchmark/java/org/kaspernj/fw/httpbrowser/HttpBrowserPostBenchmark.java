@@ -0,0 +1,100 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//Measures requests with bodies against the loopback server: form-posts and multipart-uploads sent with Content-Length, and streamed bodies sent chunked.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpBrowserPostBenchmark {
+	@Param({"128", "16384", "1048576"})
+	public int size;
+	
+	private HttpBrowserTestServer server;
+	private HttpBrowser http;
+	private HashMap<String, String> postData;
+	private byte[] body;
+	private File uploadFile;
+	
+	@Setup(Level.Trial)
+	public void setup() throws Exception{
+		server = new HttpBrowserTestServer();
+		server.setKeepAliveMax(Integer.MAX_VALUE);
+		
+		http = new HttpBrowser();
+		http.setHost(server.getHost());
+		http.setPort(server.getPort());
+		
+		body = new byte[size];
+		Arrays.fill(body, (byte) 'a');
+		
+		postData = new HashMap<String, String>();
+		postData.put("data", new String(body, "US-ASCII"));
+		
+		uploadFile = File.createTempFile("httpbrowser-benchmark", ".txt");
+		uploadFile.deleteOnExit();
+		
+		OutputStream out = new FileOutputStream(uploadFile);
+		out.write(body);
+		out.close();
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception{
+		http.close();
+		server.close();
+		uploadFile.delete();
+	}
+	
+	//A form-post with a body of the given size sent with Content-Length.
+	@Benchmark
+	public String post() throws Exception{
+		return http.post("echo", postData).getBody();
+	}
+	
+	//The same number of bytes sent chunked while they are written.
+	@Benchmark
+	public String postStream() throws Exception{
+		return http.postStream("echo", "application/octet-stream", new HttpBrowserRequestBodyWriter(){
+			public void writeBody(OutputStream out) throws Exception{
+				out.write(body);
+			}
+		}).getBody();
+	}
+	
+	//A multipart-post with a field and a file of the given size.
+	@Benchmark
+	public String postMultipart() throws Exception{
+		HttpBrowserRequestPostMultipart req = http.postMultipart();
+		req.setAddress("echo");
+		req.addPost("name", "benchmark");
+		
+		HttpBrowserRequestPostMultipartFileUpload fileUpload = req.addFileUpload();
+		fileUpload.setPostName("file");
+		fileUpload.setFilePath(uploadFile.getPath());
+		
+		return req.execute().getBody();
+	}
+}
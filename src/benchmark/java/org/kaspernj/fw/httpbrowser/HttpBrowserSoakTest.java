@@ -0,0 +1,392 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+//Drives a mix of requests at a fixed rate for a long time and prints throughput, latencies, reconnects and heap/GC-statistics for every interval.
+//Runs against a HttpBrowserTestServer on the loopback-interface unless a host is given. Run with: mvn -P benchmark test-compile exec:exec@soak -Dsoak.args="--duration 3600"
+public class HttpBrowserSoakTest {
+	//A kind of request in the mix.
+	private static abstract class RequestKind {
+		String name;
+		int weight;
+		HttpBrowserHistogram latencies = new HttpBrowserHistogram();
+		AtomicLong errors = new AtomicLong();
+		
+		RequestKind(String inName){
+			name = inName;
+		}
+		
+		abstract HttpBrowserResult execute(HttpBrowser http) throws Exception;
+	}
+	
+	private static final String DEFAULT_MIX = "get=60,get-gzip=15,get-chunked=10,get-large=5,post=5,post-stream=3,upload=2";
+	
+	private HashMap<String, String> options = new HashMap<String, String>();
+	private ArrayList<RequestKind> mix = new ArrayList<RequestKind>();
+	private int totalWeight = 0;
+	
+	//Latencies are measured from the time the request should have been sent according to the rate, so a slow client or server does not hide its own delays (coordinated omission).
+	private HttpBrowserHistogram intervalLatencies = new HttpBrowserHistogram();
+	private HttpBrowserHistogram totalLatencies = new HttpBrowserHistogram();
+	private AtomicLong intervalErrors = new AtomicLong();
+	private ConcurrentHashMap<String, AtomicLong> errorTypes = new ConcurrentHashMap<String, AtomicLong>();
+	
+	private AtomicLong ticket = new AtomicLong();
+	
+	//The timings measured by the browser itself. Printed in the summary.
+	private HttpBrowserMetrics metrics = new HttpBrowserMetrics();
+	
+	public static void main(String[] args) throws Exception{
+		new HttpBrowserSoakTest(args).run();
+		System.exit(0);
+	}
+	
+	public HttpBrowserSoakTest(String[] args) throws Exception{
+		options.put("duration", "60");
+		options.put("rate", "500");
+		options.put("threads", "32");
+		options.put("connections", "16");
+		options.put("interval", "10");
+		options.put("mix", DEFAULT_MIX);
+		options.put("keep-alive-max", "100");
+		options.put("keep-alive-timeout", "5");
+		options.put("tls", "0");
+		
+		for(int i = 0; i < args.length; i++){
+			if (!args[i].startsWith("--") || i + 1 >= args.length){
+				throw new IllegalArgumentException("Expected '--option value' but got: '" + args[i] + "'. Options: --duration seconds, --rate requests-per-second, --threads, --connections, --interval seconds, --mix " + DEFAULT_MIX + ", --keep-alive-max, --keep-alive-timeout seconds, --tls 1, --host, --port.");
+			}
+			
+			options.put(args[i].substring(2), args[i + 1]);
+			i++;
+		}
+		
+		for(String part: options.get("mix").split(",")){
+			String[] nameWeight = part.split("=");
+			RequestKind kind = requestKind(nameWeight[0].trim());
+			kind.weight = Integer.parseInt(nameWeight[1].trim());
+			
+			if (kind.weight > 0){
+				mix.add(kind);
+				totalWeight += kind.weight;
+			}
+		}
+	}
+	
+	private int intOption(String name){
+		return Integer.parseInt(options.get(name));
+	}
+	
+	private RequestKind requestKind(String name) throws Exception{
+		if (name.equals("get")){
+			return getKind(name, "body?size=1024");
+		}else if(name.equals("get-gzip")){
+			return getKind(name, "body?size=16384&gzip=1");
+		}else if(name.equals("get-chunked")){
+			return getKind(name, "body?size=16384&chunked=1");
+		}else if(name.equals("get-large")){
+			return getKind(name, "body?size=262144");
+		}else if(name.equals("post")){
+			final HashMap<String, String> postData = new HashMap<String, String>();
+			postData.put("data", new String(filledArray(1024), "US-ASCII"));
+			
+			return new RequestKind(name){
+				HttpBrowserResult execute(HttpBrowser http) throws Exception{
+					return http.post("echo", postData);
+				}
+			};
+		}else if(name.equals("post-stream")){
+			final byte[] body = filledArray(16384);
+			
+			return new RequestKind(name){
+				HttpBrowserResult execute(HttpBrowser http) throws Exception{
+					return http.postStream("echo", "application/octet-stream", new HttpBrowserRequestBodyWriter(){
+						public void writeBody(OutputStream out) throws Exception{
+							out.write(body);
+						}
+					});
+				}
+			};
+		}else if(name.equals("upload")){
+			final File file = File.createTempFile("httpbrowser-soak", ".txt");
+			file.deleteOnExit();
+			
+			OutputStream out = new FileOutputStream(file);
+			out.write(filledArray(65536));
+			out.close();
+			
+			return new RequestKind(name){
+				HttpBrowserResult execute(HttpBrowser http) throws Exception{
+					HttpBrowserRequestPostMultipart req = http.postMultipart();
+					req.setAddress("echo");
+					req.addPost("name", "soak");
+					
+					HttpBrowserRequestPostMultipartFileUpload fileUpload = req.addFileUpload();
+					fileUpload.setPostName("file");
+					fileUpload.setFilePath(file.getPath());
+					
+					return req.execute();
+				}
+			};
+		}
+		
+		throw new IllegalArgumentException("Unknown kind of request: '" + name + "'.");
+	}
+	
+	private RequestKind getKind(String name, final String addr){
+		return new RequestKind(name){
+			HttpBrowserResult execute(HttpBrowser http) throws Exception{
+				return http.get(addr);
+			}
+		};
+	}
+	
+	private static byte[] filledArray(int size){
+		byte[] bytes = new byte[size];
+		Arrays.fill(bytes, (byte) 'a');
+		return bytes;
+	}
+	
+	private RequestKind pickKind(){
+		int pick = ThreadLocalRandom.current().nextInt(totalWeight);
+		
+		for(RequestKind kind: mix){
+			pick -= kind.weight;
+			if (pick < 0){
+				return kind;
+			}
+		}
+		
+		return mix.get(mix.size() - 1);
+	}
+	
+	public void run() throws Exception{
+		HttpBrowserTestServer server = null;
+		final HttpBrowser http = new HttpBrowser();
+		String host;
+		int port;
+		
+		boolean tls = (intOption("tls") != 0);
+		
+		if (options.containsKey("host")){
+			host = options.get("host");
+			port = options.containsKey("port") ? intOption("port") : (tls ? 443 : 80);
+		}else{
+			//The local server uses the self-signed test-certificate, which the browser is told to trust.
+			server = new HttpBrowserTestServer(0, tls ? HttpBrowserTestServer.createSslContext() : null);
+			http.setSslContext(HttpBrowserTestServer.createSslContext());
+			server.setKeepAliveMax(intOption("keep-alive-max"));
+			server.setKeepAliveTimeout(intOption("keep-alive-timeout"));
+			
+			host = server.getHost();
+			port = server.getPort();
+		}
+		
+		http.setHost(host);
+		http.setPort(port);
+		http.setTls(tls);
+		http.setMaxConnectionsPerHost(intOption("connections"));
+		http.addMetricsListener(metrics);
+		
+		final long periodNanos = 1000000000L / intOption("rate");
+		final long startNanos = System.nanoTime();
+		final long endNanos = startNanos + intOption("duration") * 1000000000L;
+		
+		System.out.println("Running " + options.get("rate") + " requests per second for " + options.get("duration") + " seconds against " + host + ":" + port + " with the mix: " + options.get("mix"));
+		System.out.println(String.format(Locale.US, "%8s %9s %8s %7s %9s %9s %9s %9s %9s %8s %8s %8s %9s %9s %6s %8s", "time(s)", "requests", "req/s", "errors", "p50(ms)", "p90(ms)", "p99(ms)", "p99.9(ms)", "max(ms)", "opened", "closed", "open", "heap(MB)", "max(MB)", "gc", "gc(ms)"));
+		
+		Thread[] threads = new Thread[intOption("threads")];
+		for(int i = 0; i < threads.length; i++){
+			threads[i] = new Thread(new Runnable(){
+				public void run(){
+					work(http, startNanos, endNanos, periodNanos);
+				}
+			}, "HttpBrowserSoakTest-" + i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+		
+		long intervalNanos = intOption("interval") * 1000000000L;
+		long lastNanos = startNanos;
+		long lastOpened = 0;
+		long lastClosed = 0;
+		long lastGCCount = 0;
+		long lastGCTime = 0;
+		
+		for(long reportNanos = startNanos + intervalNanos; lastNanos < endNanos; reportNanos += intervalNanos){
+			reportNanos = Math.min(reportNanos, endNanos);
+			
+			long sleepNanos;
+			while((sleepNanos = reportNanos - System.nanoTime()) > 0){
+				LockSupport.parkNanos(sleepNanos);
+			}
+			
+			long now = System.nanoTime();
+			HttpBrowserHistogram latencies = intervalLatencies.getAndReset();
+			totalLatencies.add(latencies);
+			
+			HttpBrowserConnectionPool pool = http.getConnectionPool();
+			long opened = pool.getConnectionsOpened();
+			long closed = pool.getConnectionsClosed();
+			
+			long gcCount = 0;
+			long gcTime = 0;
+			for(GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()){
+				gcCount += Math.max(0, gc.getCollectionCount());
+				gcTime += Math.max(0, gc.getCollectionTime());
+			}
+			
+			MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+			
+			System.out.println(String.format(
+				Locale.US,
+				"%8.1f %9d %8.1f %7d %9.2f %9.2f %9.2f %9.2f %9.2f %8d %8d %8d %9.1f %9.1f %6d %8d",
+				(now - startNanos) / 1e9,
+				latencies.getCount(),
+				latencies.getCount() / ((now - lastNanos) / 1e9),
+				intervalErrors.getAndSet(0),
+				latencies.getPercentile(50) / 1000.0,
+				latencies.getPercentile(90) / 1000.0,
+				latencies.getPercentile(99) / 1000.0,
+				latencies.getPercentile(99.9) / 1000.0,
+				latencies.getMax() / 1000.0,
+				opened - lastOpened,
+				closed - lastClosed,
+				pool.getConnectionsOpen(),
+				heap.getUsed() / 1048576.0,
+				heap.getMax() / 1048576.0,
+				gcCount - lastGCCount,
+				gcTime - lastGCTime
+			));
+			
+			lastNanos = now;
+			lastOpened = opened;
+			lastClosed = closed;
+			lastGCCount = gcCount;
+			lastGCTime = gcTime;
+		}
+		
+		for(Thread thread: threads){
+			thread.join();
+		}
+		
+		totalLatencies.add(intervalLatencies.getAndReset());
+		printSummary(http, server, (System.nanoTime() - startNanos) / 1e9);
+		
+		http.close();
+		if (server != null){
+			server.close();
+		}
+	}
+	
+	//Sends requests until the end-time is reached. The requests are taken as tickets, so all the threads together keep the wanted rate.
+	private void work(HttpBrowser http, long startNanos, long endNanos, long periodNanos){
+		while(true){
+			long intendedNanos = startNanos + ticket.getAndIncrement() * periodNanos;
+			if (intendedNanos >= endNanos){
+				return;
+			}
+			
+			long sleepNanos;
+			while((sleepNanos = intendedNanos - System.nanoTime()) > 0){
+				LockSupport.parkNanos(sleepNanos);
+			}
+			
+			RequestKind kind = pickKind();
+			
+			try{
+				HttpBrowserResult res = kind.execute(http);
+				if (res.getStatusCode() != 200){
+					throw new Exception("Unexpected status-code: " + res.getStatusCode());
+				}
+				
+				long latency = (System.nanoTime() - intendedNanos) / 1000;
+				intervalLatencies.record(latency);
+				kind.latencies.record(latency);
+			}catch(Exception e){
+				intervalErrors.incrementAndGet();
+				kind.errors.incrementAndGet();
+				
+				String type = e.getClass().getSimpleName() + ": " + e.getMessage();
+				AtomicLong typeCount = errorTypes.get(type);
+				if (typeCount == null){
+					errorTypes.putIfAbsent(type, new AtomicLong());
+					typeCount = errorTypes.get(type);
+				}
+				
+				typeCount.incrementAndGet();
+			}
+		}
+	}
+	
+	private void printSummary(HttpBrowser http, HttpBrowserTestServer server, double seconds){
+		HttpBrowserConnectionPool pool = http.getConnectionPool();
+		long errors = 0;
+		
+		System.out.println();
+		System.out.println(String.format(Locale.US, "%-12s %9s %7s %9s %9s %9s %9s %9s %9s", "kind", "requests", "errors", "mean(ms)", "p50(ms)", "p90(ms)", "p99(ms)", "p99.9(ms)", "max(ms)"));
+		
+		for(RequestKind kind: mix){
+			errors += kind.errors.get();
+			printLatencies(kind.name, kind.latencies, kind.errors.get());
+		}
+		
+		printLatencies("total", totalLatencies, errors);
+		
+		System.out.println();
+		System.out.println(String.format(Locale.US, "Throughput: %.1f requests per second over %.1f seconds.", totalLatencies.getCount() / seconds, seconds));
+		System.out.println("Connections opened: " + pool.getConnectionsOpened() + ", closed: " + pool.getConnectionsClosed() + ", requests per connection: " + String.format(Locale.US, "%.1f", totalLatencies.getCount() / (double) Math.max(1, pool.getConnectionsOpened())));
+		System.out.println("Stale connections replaced: " + pool.getStaleConnections() + ", requests retried: " + http.getRetriedRequests());
+		
+		if (server != null){
+			System.out.println("Connections accepted by the server: " + server.getConnectionsAccepted() + ", requests handled: " + server.getRequestsHandled());
+		}
+		
+		System.out.println();
+		System.out.println(String.format(Locale.US, "%-12s %9s %9s %9s %9s %9s", "phase", "mean(ms)", "p50(ms)", "p90(ms)", "p99(ms)", "max(ms)"));
+		printPhase("connect", metrics.getConnectTimes());
+		printPhase("handshake", metrics.getHandshakeTimes());
+		printPhase("first byte", metrics.getFirstByteTimes());
+		printPhase("headers", metrics.getHeaderTimes());
+		printPhase("body", metrics.getBodyTimes());
+		printPhase("decompress", metrics.getDecompressTimes());
+		System.out.println("Bytes on the wire: " + metrics.getWireBytes() + ", decoded body-bytes: " + metrics.getBodyBytes() + ", new connections: " + metrics.getNewConnections() + ", reused: " + metrics.getReusedConnections());
+		
+		for(String type: errorTypes.keySet()){
+			System.out.println("Error " + errorTypes.get(type).get() + "x: " + type);
+		}
+	}
+	
+	private void printPhase(String name, HttpBrowserHistogram times){
+		System.out.println(String.format(Locale.US, "%-12s %9.3f %9.3f %9.3f %9.3f %9.3f", name, times.getMean() / 1000.0, times.getPercentile(50) / 1000.0, times.getPercentile(90) / 1000.0, times.getPercentile(99) / 1000.0, times.getMax() / 1000.0));
+	}
+	
+	private void printLatencies(String name, HttpBrowserHistogram latencies, long errors){
+		System.out.println(String.format(
+			Locale.US,
+			"%-12s %9d %7d %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f",
+			name,
+			latencies.getCount(),
+			errors,
+			latencies.getMean() / 1000.0,
+			latencies.getPercentile(50) / 1000.0,
+			latencies.getPercentile(90) / 1000.0,
+			latencies.getPercentile(99) / 1000.0,
+			latencies.getPercentile(99.9) / 1000.0,
+			latencies.getMax() / 1000.0
+		));
+	}
+}
@@ -1,45 +1,52 @@
 package org.kaspernj.fw.httpbrowser;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
-import java.net.Socket;
 import java.net.URLEncoder;
-import java.text.SimpleDateFormat;
+import java.nio.file.Paths;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
+import java.util.zip.Deflater;
+import javax.net.ssl.SSLContext;
 
-/** This class can connect to HTTP-servers and get results from them. It supports keep-alive, chunked encoding, file-uploading and GZIP compression. */
+/** This class can connect to HTTP-servers and get results from them. It supports keep-alive, chunked encoding, file-uploading and GZIP- and deflate-compression with pluggable decoders for other content-codings. */
 public class HttpBrowser {
-	//Socket-connection to the host.
-	private Socket sock;
+	private static final String USER_AGENT = "Mozilla/4.0 (compatible; Java; HttpBrowser)";
 	
-	//Used to send data to the host. Public because MultipartPost-class is using it.
+	//Pool of keep-alive connections used for the requests.
+	private HttpBrowserConnectionPool pool = new HttpBrowserConnectionPool();
+	
+	//Used to send data to the host with 'sockWrite'. Set when 'sockWrite' or 'writeHeaders' checks out a connection and cleared again by 'readResult'.
+	@Deprecated
 	public OutputStream sockOut;
 	
-	//Used for thread safety.
+	//Guards the connection used by 'sockWrite' and 'readResult'. The other methods are thread safe without it.
+	@Deprecated
 	public ReentrantLock lock = new ReentrantLock();
 	
-	//Used to get data from the host.
-	private InputStream sockIn;
+	//The connection written to by 'sockWrite' until the result is read with 'readResult'.
+	private HttpBrowserConnection sockConn;
 	
-	//Used to extract data from headers.
-	private Pattern patternHeader = Pattern.compile("^(.+?)\\s*:\\s*(.+)$");
+	//Non-blocking engine used for the asynchronous requests.
+	private HttpBrowserAsyncEngine asyncEngine;
 	
-	//Used to extract data from the status-line.
-	private Pattern patternStatusLine = Pattern.compile("^HTTP/1\\.1\\s+(\\d+)\\s+(.+)$");
+	//Cache for results of get-requests. Nothing is cached if not set.
+	private HttpBrowserCache cache;
 	
-	//Given by headers and used to read data if we know the exact length.
-	private Integer cLength;
+	//Receives the timings and sizes of the requests. Nothing is measured when it is empty.
+	private CopyOnWriteArrayList<HttpBrowserMetricsListener> metricsListeners = new CopyOnWriteArrayList<HttpBrowserMetricsListener>();
 	
 	//A string containing the host or IP that should be connected to.
 	private String host;
@@ -47,25 +54,65 @@ public class HttpBrowser {
 	//An integer of what port that should be used (default is 80).
 	private Integer port = 80;
 	
-	//A string containing the content-encoding of the result.
-	private String cEnc;
-	
-	//A string containing the transfer-encoding of the result (if it is chunked).
-	private String tEnc;
-	
 	//If sat to true various debugging messages will be printed to stdout.
 	public Boolean doDebug = false;
 	
 	//If sat to true the object will tell the host, that GZIP compression is supported. Results will automatically be decompressed.
 	private Boolean encodingGZIP = true;
 	
-	private Integer keepaliveMax;
-	private Integer keepaliveTimeout;
-	private Long keepaliveInvalidAfter;
-	private Pattern patternKeepAliveMax = Pattern.compile("max=(\\d+)");
-	private Pattern patternKeepAliveTimeout = Pattern.compile("timeout=(\\d+)");
-	private Integer requestsExecutedOnCurrectConnection;
-	private ArrayList<HttpBrowserCookie> cookies = new ArrayList<HttpBrowserCookie>();
+	//The content-codings that results can be decoded from in the order they are preferred. Replaced as a whole when changed, so it can be read without locking.
+	private volatile HttpBrowserContentDecoderFactory[] contentDecoders = new HttpBrowserContentDecoderFactory[]{HttpBrowserInflaterDecoder.GZIP, HttpBrowserInflaterDecoder.DEFLATE};
+	
+	//The maximum number of requests that will be written to a connection before reading their results, when pipelining.
+	private int pipelineDepth = 16;
+	
+	//The maximum number of requests that are executed at the same time by the bulk-methods.
+	private int bulkConcurrency = 64;
+	
+	//The size of the chunks that request-bodies of unknown length are sent in.
+	private int requestChunkSize = 8192;
+	
+	//If request-bodies should be compressed with GZIP. Only bodies of at least the minimum size are compressed, and the host must accept compressed request-bodies.
+	private volatile boolean requestCompression = false;
+	private volatile int requestCompressionLevel = 6;
+	private volatile int requestCompressionMinSize = 1024;
+	
+	//The cookies set by the host and sent back with the requests. Can be shared with other browsers.
+	private volatile HttpBrowserCookieStore cookieStore = new HttpBrowserCookieJar();
+	
+	//If the connections should be made with TLS (HTTPS).
+	private volatile boolean tls = false;
+	
+	//Creates the TLS-connections. Sessions are cached by the context, so browsers sharing it resume sessions with abbreviated handshakes when reconnecting. The default context of the JVM is used if not set.
+	private volatile SSLContext sslContext;
+	
+	//The protocols offered to the host through ALPN in the order they are preferred.
+	private volatile String[] applicationProtocols = new String[]{"http/1.1"};
+	
+	//Looks up the addresses of the host when connecting. Shared with other browsers by default, so hosts are not looked up again on every reconnect.
+	private volatile HttpBrowserResolver resolver = HttpBrowserCachingResolver.getDefault();
+	
+	//How long to wait for a connection to an address of the host in milliseconds before trying the next address.
+	private volatile int connectTimeout = 10000;
+	
+	//How many times a download is resumed after the connection dropped while the body was received.
+	private volatile int downloadResumes = 5;
+	
+	//The number of requests that has been sent again, because the host closed a reused connection before answering.
+	private AtomicLong retriedRequests = new AtomicLong();
+	
+	//If the requests should be sent as streams on a single HTTP/2-connection instead of on the pool of HTTP/1.1-connections.
+	private volatile boolean http2 = false;
+	
+	//The HTTP/2-connection to the host. Replaced when it is closing.
+	private HttpBrowserHttp2Connection http2Connection;
+	private final Object http2Lock = new Object();
+	
+	//How many times a request refused by a HTTP/2-host without processing it is sent, like when the host closes the connection while the request is on its way. Requests that was queued on the connection and never sent are not counted.
+	private static final int HTTP2_ATTEMPTS = 10;
+	
+	//The headers that are the same for every request, encoded once for the current host and options. Cleared when those change.
+	private volatile byte[] staticHeaders;
 	
 	//Be sure to close all connections.
 	protected void finalize(){
@@ -76,48 +123,30 @@ public class HttpBrowser {
 		}
 	}
 	
-	//Connects to the server and sets various variables that will be used.
+	//Connects to the server and leaves the connection idle in the pool, ready for the next request.
 	public void connect() throws Exception{
 		debug( "Connecting.\n" );
-		lock.lock();
 		
-		try{
-			//Close the connection if already connected to avoid leaking memory.
-			close();
-			
-			debug("Connecting.\n");
-			sock = new Socket(host, port);
-			sockOut = sock.getOutputStream();
-			sockIn = sock.getInputStream();
-			
-			requestsExecutedOnCurrectConnection = 0;
-		}finally{
-			lock.unlock();
+		//Close existing connections to avoid leaking memory.
+		close();
+		
+		if (http2){
+			getHttp2Connection();
+			return;
 		}
+		
+		pool.release(pool.checkout(this, host, port), true);
 	}
 	
-	//Returns true if the socket is successfully connected. Otherwise false.
+	//Returns true if there is an idle connection to the server that can be reused. Otherwise false.
 	public boolean isConnected(){
-		lock.lock();
-		
-		try{
-			if (sock == null || sockOut == null || sockIn == null || sock.isClosed() || !sock.isConnected() || sock.isInputShutdown() || sock.isOutputShutdown()){
-				debug("The socket-objects has not been created or something is wrong with them.\n");
-				return false;
-			}else if(keepaliveInvalidAfter != null && keepaliveInvalidAfter <= System.currentTimeMillis()){
-				SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-				Date date = new Date(keepaliveInvalidAfter);
-				debug("Too much time has passed according to the keep-alive-max (" + keepaliveInvalidAfter + ", " + format.format( date ) + ") - the connection has been closed by the host.\n");
-				return false;
-			}else if (keepaliveMax != null && requestsExecutedOnCurrectConnection >= keepaliveMax){
-				debug("We have made the maximum number of requests per connection and should reconnect (keep-alive-max: " + keepaliveMax + ", requests-executed: " + requestsExecutedOnCurrectConnection + ".\n");
-				return false;
-			}
-			
-			return true;
-		}finally{
-			lock.unlock();
+		if (http2){
+			synchronized(http2Lock){
+				return (http2Connection != null && http2Connection.isUsable());
+			}
 		}
+		
+		return pool.hasIdleConnection(host, port);
 	}
 	
 	//Connects to the host if not already connected.
@@ -130,6 +159,7 @@ public class HttpBrowser {
 	//Sets the hostname or IP that the object should connect to.
 	public void setHost(String inHost){
 		host = inHost;
+		staticHeaders = null;
 	}
 	
 	//Sets the port that should be used for the connection.
@@ -140,446 +170,1383 @@ public class HttpBrowser {
 	//If GZIP compression should be used for the request.
 	public void setEncodingGZIP(Boolean inVal){
 		encodingGZIP = inVal;
+		staticHeaders = null;
 	}
 	
-	//If debug-messages should be written to stdout.
-	public void setDebug(Boolean inVal){
-		doDebug = inVal;
-	}
-	
-	public ArrayList<HttpBrowserCookie> getCookies(){
-		return cookies;
-	}
-	
-	//Closes the connection to the server.
-	public void close() throws Exception{
-		lock.lock();
+	//Registers a decoder for a content-coding like 'br' and offers the coding to the host in the Accept-Encoding-header. Replaces the decoder registered for the same coding, or else the coding is preferred the least.
+	public synchronized void addContentDecoder(HttpBrowserContentDecoderFactory inFactory){
+		if (inFactory == null || inFactory.getEncoding() == null){
+			throw new IllegalArgumentException("A decoder-factory with an encoding is required.");
+		}
 		
-		try{
-			debug("Closing connection.\n");
-			
-			try{
-				if (sockIn != null){
-					sockIn.close();
-				}
-			}finally{
-				sockIn = null;
-				
-				try{
-					if (sockOut != null){
-						sockOut.close();
-					}
-				}finally{
-					sockOut = null;
-					
-					try{
-						if (sock != null){
-							sock.close();
-						}
-					}finally{
-						sock = null;
-					}
-				}
+		ArrayList<HttpBrowserContentDecoderFactory> factories = new ArrayList<HttpBrowserContentDecoderFactory>(Arrays.asList(contentDecoders));
+		boolean replaced = false;
+		
+		for(int i = 0; i < factories.size(); i++){
+			if (factories.get(i).getEncoding().equals(inFactory.getEncoding())){
+				factories.set(i, inFactory);
+				replaced = true;
 			}
-			
-			requestsExecutedOnCurrectConnection = null;
-			keepaliveInvalidAfter = null;
-		}finally{
-			lock.unlock();
 		}
+		
+		if (!replaced){
+			factories.add(inFactory);
+		}
+		
+		setContentDecoders(factories);
 	}
 	
-	//Executes a get-request and returns the result.
-	public HttpBrowserResult get(String addr) throws Exception{
-		lock.lock();
-		
-		try{
-			ensureConnected();
-			
-			String requestLine = "GET /" + addr + " HTTP/1.1\r\n";
-			HashMap<String, String> headers = defaultHeaders();
-			
-			debug("Sending request-line: " + requestLine + "\n");
-			sockWrite(requestLine);
-			writeHeaders(headers);
-			
-			debug("Sending end-of-headers.\n");
-			sockWrite("\r\n");
-			
-			return readResult();
-		}finally{
-			lock.unlock();
+	//Sets the decoders of the content-codings that are offered to the host in the order they are preferred. Results with other codings are given as they were received.
+	public synchronized void setContentDecoders(List<HttpBrowserContentDecoderFactory> inFactories){
+		for(HttpBrowserContentDecoderFactory factory: inFactories){
+			if (factory == null || factory.getEncoding() == null){
+				throw new IllegalArgumentException("A decoder-factory with an encoding is required.");
+			}
 		}
+		
+		contentDecoders = inFactories.toArray(new HttpBrowserContentDecoderFactory[inFactories.size()]);
+		staticHeaders = null;
 	}
 	
-	public HttpBrowserResult post(String addr, HashMap<String, String> postData) throws Exception{
-		lock.lock();
+	public List<HttpBrowserContentDecoderFactory> getContentDecoders(){
+		return Arrays.asList(contentDecoders.clone());
+	}
+	
+	//Returns the value of the Accept-Encoding-header made from the registered decoders, or null if no codings are offered. Each coding gets a lower quality than the one before it, so the host picks the most preferred coding it supports.
+	public String getAcceptEncoding(){
+		StringBuilder str = new StringBuilder();
+		int quality = 10;
 		
-		try{
-			ensureConnected();
-			
-			Boolean first = true;
-			String postDataStr = "";
-			for(String key: postData.keySet()){
-				if (first){
-					first = false;
-				}else{
-					postDataStr += "&";
-				}
-				
-				postDataStr += URLEncoder.encode(key, "UTF-8");
-				postDataStr += "=";
-				postDataStr += URLEncoder.encode(postData.get(key), "UTF-8");
+		for(HttpBrowserContentDecoderFactory factory: contentDecoders){
+			if (!encodingGZIP && factory.getEncoding().equals("gzip")){
+				continue;
 			}
 			
-			String requestLine = "POST /" + addr + " HTTP/1.1\r\n";
-			sockWrite(requestLine);
+			if (str.length() > 0){
+				str.append(", ");
+			}
 			
-			HashMap<String, String> headers = defaultHeaders();
-			headers.put("Content-Length", String.valueOf(postDataStr.getBytes().length));
-			headers.put("Content-Type", "application/x-www-form-urlencoded");
-			writeHeaders(headers);
+			str.append(factory.getEncoding());
 			
-			sockWrite("\r\n");
-			sockWrite(postDataStr);
-			sockWrite("\r\n");
+			if (quality < 10){
+				str.append(";q=0.").append(quality);
+			}
 			
-			return readResult();
-		}finally{
-			lock.unlock();
+			if (quality > 1){
+				quality--;
+			}
+		}
+		
+		if (str.length() == 0){
+			return null;
 		}
+		
+		return str.toString();
 	}
 	
-	public HttpBrowserRequestPostMultipart postMultipart(){
-		HttpBrowserRequestPostMultipart httpReqMp = new HttpBrowserRequestPostMultipart();
-		httpReqMp.setHttpBrowser(this);
-		
-		return httpReqMp;
+	//If debug-messages should be written to stdout.
+	public void setDebug(Boolean inVal){
+		doDebug = inVal;
 	}
 	
-	//Returns default headers based on various options and more.
-	public HashMap<String, String> defaultHeaders() throws UnsupportedEncodingException{
-		HashMap<String, String> headers = new HashMap<String, String>();
-		headers.put("Connection", "Keep-Alive");
-		headers.put("User-Agent", "Mozilla/4.0 (compatible; Java; HttpBrowser)");
-		
-		if (encodingGZIP){
-			headers.put("Accept-Encoding", "gzip");
+	//Sets the maximum number of requests that will be written to a connection before reading their results, when pipelining.
+	public void setPipelineDepth(int inDepth){
+		if (inDepth < 1){
+			throw new IllegalArgumentException("The pipeline-depth must be at least one: " + inDepth);
 		}
 		
-		if (!cookies.isEmpty()){
-			String cstr = "";
-			Boolean first = true;
-			
-			for(HttpBrowserCookie cookie: cookies){
-				if (first){
-					first = false;
-				}else{
-					cstr += "; ";
-				}
-				
-				cstr += URLEncoder.encode(cookie.getName(), "UTF-8");
-				cstr += "=";
-				cstr += URLEncoder.encode(cookie.getValue(), "UTF-8");
-			}
-			
-			headers.put("Cookie", cstr);
+		pipelineDepth = inDepth;
+	}
+	
+	//Sets the size of the chunks that request-bodies of unknown length are sent in by 'postStream'.
+	public void setRequestChunkSize(int inChunkSize){
+		if (inChunkSize < 1){
+			throw new IllegalArgumentException("The chunk-size must be at least one: " + inChunkSize);
 		}
 		
-		headers.put("Host", host);
-		
-		return headers;
+		requestChunkSize = inChunkSize;
 	}
 	
-	//Writes the given headers-HashMap to the socket.
-	public void writeHeaders(HashMap<String, String> headers) throws IOException{
-		for(String key: headers.keySet()){
-			debug("Sending header: " + key + ": " + headers.get(key) + "\n");
-			sockWrite(key + ": " + headers.get(key) + "\r\n");
-		}
+	public int getRequestChunkSize(){
+		return requestChunkSize;
 	}
 	
-	//Reads the result from the server and returns it as a result-object.
-	public HttpBrowserResult readResult() throws Exception{
-		debug("Reading result.\n");
-		
-		HttpBrowserResult res = new HttpBrowserResult();
-		cLength = null;
-		cEnc = null;
-		tEnc = null;
-		keepaliveMax = null;
-		keepaliveTimeout = null;
-		
-		String statusLine = sockReadLine().trim();
-		Matcher matcherStatusLine = patternStatusLine.matcher(statusLine);
-		
-		if (!matcherStatusLine.find()){
-			throw new Exception("Could not understand the status-line: " + statusLine);
+	//If the bodies of post-requests and multipart-uploads should be compressed with GZIP and sent with 'Content-Encoding: gzip'. Only enable this for hosts that accept compressed request-bodies.
+	public void setRequestCompression(boolean inVal){
+		requestCompression = inVal;
+	}
+	
+	public boolean isRequestCompression(){
+		return requestCompression;
+	}
+	
+	//Sets the compression-level from 1 (fastest) to 9 (smallest) used for request-bodies.
+	public void setRequestCompressionLevel(int inLevel){
+		if (inLevel < 1 || inLevel > 9){
+			throw new IllegalArgumentException("The compression-level must be between 1 and 9: " + inLevel);
 		}
 		
-		res.setStatusCode(Integer.parseInt( matcherStatusLine.group(1) ) );
-		
-		HashMap<String, String> headersRec = new HashMap<String, String>();
-		debug("Starting to read headers.\n");
-		readResultHeaders(headersRec);
-		
-		//Set various variables.
-		res.setHeaders(headersRec);
-		res.keepAliveMax = keepaliveMax;
-		res.keepAliveTimeout = keepaliveTimeout;
-		res.contentEncoding = cEnc;
-		res.transferEncoding = tEnc;
-		
-		byte[] bodyByteArray;
-		
-		if (tEnc != null && tEnc.equals("chunked")){
-			debug("Reading chunked body.\n");
-			bodyByteArray = readResultBodyChunked();
-		}else if(cLength != null){
-			debug("Reading body from content-length.\n");
-			bodyByteArray = readResultBodyFromContentLength();
-		}else{
-			debug("Didnt know how to read body.\n");
-			throw new Exception("Dont know how to read result from that encoding: '" + tEnc + "'.");
+		requestCompressionLevel = inLevel;
+	}
+	
+	public int getRequestCompressionLevel(){
+		return requestCompressionLevel;
+	}
+	
+	//Sets the size in bytes a request-body must have before it is compressed. Smaller bodies are sent as they are, since compressing them saves little.
+	public void setRequestCompressionMinSize(int inMinSize){
+		if (inMinSize < 0){
+			throw new IllegalArgumentException("The minimum size cannot be negative: " + inMinSize);
 		}
 		
-		if (cEnc != null && cEnc.equals("gzip")){
-			//Decompress the body if it has been compressed with GZip.
-			debug("Converting body to string from GZip.\n");
-			bodyByteArray = decompressGZIPByteArray(bodyByteArray);
+		requestCompressionMinSize = inMinSize;
+	}
+	
+	public int getRequestCompressionMinSize(){
+		return requestCompressionMinSize;
+	}
+	
+	//Sets the maximum number of requests that are executed at the same time by 'executeAll', 'getAll' and 'postAll'.
+	public void setBulkConcurrency(int inConcurrency){
+		if (inConcurrency < 1){
+			throw new IllegalArgumentException("The bulk-concurrency must be at least one: " + inConcurrency);
 		}
 		
-		res.setBodyByteArray(bodyByteArray);
-		requestsExecutedOnCurrectConnection += 1;
-		
-		return res;
+		bulkConcurrency = inConcurrency;
 	}
 	
-	//Decompresses a GZIP byte-array and returns the orignal uncompress byte-array.
-	private byte[] decompressGZIPByteArray(byte[] gzippedByteArray) throws IOException{
-		ByteArrayInputStream bais = new ByteArrayInputStream(gzippedByteArray);
-		GZIPInputStream gz = new GZIPInputStream(bais);
-		BufferedInputStream gzIn = new BufferedInputStream(gz);
-		ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
-		
-		int len;
-		byte[] buf = new byte[4096];
-		
-		while((len = gzIn.read(buf)) > 0){
-			for(int i = 0; i < len; i++){
-				bytesOut.write(buf[i]);
-			}
+	//Sets the engine used for the asynchronous requests. The shared default engine is used if none is given.
+	public void setAsyncEngine(HttpBrowserAsyncEngine inAsyncEngine){
+		asyncEngine = inAsyncEngine;
+	}
+	
+	public HttpBrowserAsyncEngine getAsyncEngine() throws IOException{
+		if (asyncEngine == null){
+			asyncEngine = HttpBrowserAsyncEngine.getDefault();
 		}
 		
-		bytesOut.close();
-		gzIn.close();
-		gz.close();
-		bais.close();
-		
-		return bytesOut.toByteArray();
+		return asyncEngine;
+	}
+	
+	//Sets the cache that results of get-requests are cached in. Give null to stop caching.
+	public void setCache(HttpBrowserCache inCache){
+		cache = inCache;
 	}
 	
-	//Reads the header-part of the result from the server and adds those headers to the given HashMap.
-	private void readResultHeaders(HashMap<String, String> headersRec) throws Exception{
-		String line;
+	public HttpBrowserCache getCache(){
+		return cache;
+	}
+	
+	//Sets the maximum number of connections that will be opened to the host at the same time.
+	public void setMaxConnectionsPerHost(int inMax){
+		pool.setMaxConnectionsPerHost(inMax);
+	}
+	
+	//Adds a listener that receives the timings and sizes of every request, like a HttpBrowserMetrics.
+	public void addMetricsListener(HttpBrowserMetricsListener listener){
+		metricsListeners.add(listener);
+	}
+	
+	public void removeMetricsListener(HttpBrowserMetricsListener listener){
+		metricsListeners.remove(listener);
+	}
+	
+	//Returns the pool of connections, which also keeps statistics on how many connections has been opened and closed.
+	public HttpBrowserConnectionPool getConnectionPool(){
+		return pool;
+	}
+	
+	//Returns the cookies that has been set and not expired.
+	public ArrayList<HttpBrowserCookie> getCookies(){
+		return cookieStore.getCookies();
+	}
+	
+	//Sets the store that cookies are kept in. Give the same store to several browsers to make them share cookies.
+	public void setCookieStore(HttpBrowserCookieStore inCookieStore){
+		if (inCookieStore == null){
+			throw new IllegalArgumentException("A cookie-store is required.");
+		}
 		
-		while(true){
-			debug("Trying to read header-line.\n");
-			line = sockReadLine().trim();
-			debug("Read header-line: '" + line + "'.\n");
-			
-			if (line.equals("")){
-				break;
-			}else{
-				Matcher matchHeader = patternHeader.matcher(line);
-				
-				if (matchHeader.find()){
-					String key = matchHeader.group(1).toLowerCase().trim();
-					String val = matchHeader.group(2);
-					
-					debug("Matched new header: '" + key + "': '" + val + "'.\n");
-					
-					headersRec.put(key, val);
-					
-					if (key.equals("content-length")){
-						cLength = Integer.parseInt(val);
-					}else if(key.equals("content-encoding")){
-						cEnc = val.toLowerCase().trim();
-					}else if(key.equals("transfer-encoding")){
-						tEnc = val.toLowerCase().trim();
-					}else if(key.equals("keep-alive")){
-						Matcher matchMax = patternKeepAliveMax.matcher(val);
-						if (matchMax.find()){
-							debug("New keepalive max: " + matchMax.group(1) + "\n");
-							keepaliveMax = Integer.parseInt(matchMax.group(1));
-						}else{
-							debug("Could not match max from keepalive header.\n");
-						}
-						
-						Matcher matchTimeout = patternKeepAliveTimeout.matcher(val);
-						if (matchTimeout.find()){
-							debug("New keepalive timeout: " + matchTimeout.group(1) + "\n");
-							keepaliveTimeout = Integer.parseInt(matchTimeout.group(1));
-							
-							debug("Time millis: " + System.currentTimeMillis() + "\n");
-							debug("Invalid millis: " + (System.currentTimeMillis() + (keepaliveTimeout * 1000)) + "\n");
-							keepaliveInvalidAfter = System.currentTimeMillis() + (keepaliveTimeout * 1000);
-						}else{
-							debug("Could not match timeout from keepalive header.\n");
-						}
-					}else if(key.equals("set-cookie")){
-						debug("Found set-cookie!\n");
-						
-						HttpBrowserCookie cookie = HttpBrowserCookie.parseFromStr(val);
-						this.addCookie(cookie);
-						
-						debug("New cookie found. Name: '" + cookie.getName() + "', Value: '" + cookie.getValue() + "'.\n");
-					}
-				}else{
-					throw new Exception("Could not match header from line: '" + line + "'.");
-				}
-			}
+		cookieStore = inCookieStore;
+	}
+	
+	public HttpBrowserCookieStore getCookieStore(){
+		return cookieStore;
+	}
+	
+	//If the connections should be made with TLS (HTTPS). Remember to set the port as well, like 443.
+	public void setTls(Boolean inVal){
+		tls = inVal;
+	}
+	
+	public boolean isTls(){
+		return tls;
+	}
+	
+	//Sets the SSL-context that creates the TLS-connections, like one trusting a self-signed certificate. Give the same context to several browsers to let them share the cached sessions.
+	public void setSslContext(SSLContext inSslContext){
+		sslContext = inSslContext;
+	}
+	
+	public SSLContext getSslContext() throws NoSuchAlgorithmException{
+		if (sslContext == null){
+			sslContext = SSLContext.getDefault();
 		}
+		
+		return sslContext;
 	}
 	
-	//Reads the body based on continuous content given by chunked encoding until the chunked end-content is given.
-	private byte[] readResultBodyChunked() throws Exception{
-		Integer len;
-		String line;
-		ArrayList<byte[]> parts = new ArrayList<byte[]>();
-		int totalCharLength = 0;
+	//Sets the protocols offered to the host through ALPN in the order they are preferred.
+	public void setApplicationProtocols(String... inProtocols){
+		if (inProtocols == null || inProtocols.length == 0){
+			throw new IllegalArgumentException("At least one application-protocol is required.");
+		}
 		
-		while(true){
-			line = sockReadLine();
-			debug("Length-teller: '" + line + "'.\n");
-			
-			len = Integer.parseInt(line.trim(), 16);
-			debug("Got new length to receive for body: " + len + "\n");
-			
-			//This will happen when there is no more content to be received.
-			if (len == 0){
-				line = sockReadLine();
-				if (line.equals("\r\n") || line.equals("\n")){
-					break;
-				}else{
-					throw new Exception("Expected empty read: '" + debugStr(line) + "'.\n");
-				}
+		applicationProtocols = inProtocols.clone();
+	}
+	
+	public String[] getApplicationProtocols(){
+		return applicationProtocols.clone();
+	}
+	
+	//If the requests should be sent on HTTP/2. All requests, also the asynchronous and bulk ones, are then multiplexed as streams on a single connection: in cleartext with prior knowledge (h2c), or through ALPN when TLS is used. The host must support it.
+	public void setHttp2(Boolean inVal){
+		http2 = inVal;
+	}
+	
+	public boolean isHttp2(){
+		return http2;
+	}
+	
+	//Returns the HTTP/2-connection to the host. A new one is opened if there is none or the current one is closing.
+	public HttpBrowserHttp2Connection getHttp2Connection() throws Exception{
+		synchronized(http2Lock){
+			if (http2Connection == null || !http2Connection.isUsable()){
+				HttpBrowserHttp2Connection conn = new HttpBrowserHttp2Connection(this, host, port);
+				conn.connect();
+				http2Connection = conn;
 			}
 			
-			byte[] part = sockReadLengthAsByteArray(len);
-			parts.add(part);
-			totalCharLength += part.length;
-			
-			debug("Received part of " + part.length + ".\n");
-			
-			line = sockReadLine();
-			if (!line.equals("\r\n") && !line.equals( "\n" )){
-				throw new Exception("Expected newline: '" + debugStr(line) + "'.\n");
-			}
+			return http2Connection;
 		}
-		
-		byte[] total = new byte[totalCharLength];
-		int count = 0;
-		for(byte[] item: parts){
-			for(byte char_i: item){
-				total[count] = char_i;
-				count += 1;
-			}
+	}
+	
+	//Sets the resolver that looks up the addresses of the host, like a HttpBrowserCachingResolver of its own or a stub in tests.
+	public void setResolver(HttpBrowserResolver inResolver){
+		if (inResolver == null){
+			throw new IllegalArgumentException("A resolver is required.");
 		}
 		
-		return total;
+		resolver = inResolver;
 	}
 	
-	//Reads the body based on the content-length given by headers.
-	private byte[] readResultBodyFromContentLength() throws Exception{
-		return sockReadLengthAsByteArray(cLength);
+	public HttpBrowserResolver getResolver(){
+		return resolver;
 	}
 	
-	//Used to write out debugging-messages to stdout if the debug-argument is given.
-	private void debug(String str){
-		if (doDebug){
-			System.out.print(str);
+	//Sets how long to wait for a connection to an address of the host in milliseconds, before trying the next address. Zero waits as long as the system does.
+	public void setConnectTimeout(int inConnectTimeout){
+		if (inConnectTimeout < 0){
+			throw new IllegalArgumentException("The connect-timeout cannot be negative: " + inConnectTimeout);
 		}
+		
+		connectTimeout = inConnectTimeout;
 	}
 	
-	//Returns a changed version of the string exposing various special characters.
-	private String debugStr(String str){
-		return str.replaceAll("\\r", "\\\\r").replaceAll("\\n", "\\\\n");
+	public int getConnectTimeout(){
+		return connectTimeout;
 	}
 	
-	//Writes the given string to the socket.
-	public void sockWrite(String str) throws IOException{
-		debug("Writing string to socket: '" + str + "'.\n");
-		sockOut.write(str.getBytes());
+	//Sets how many times a download is resumed with a Range-request when the connection drops. Zero fails the download right away.
+	public void setDownloadResumes(int inResumes){
+		if (inResumes < 0){
+			throw new IllegalArgumentException("The number of resumes cannot be negative: " + inResumes);
+		}
+		
+		downloadResumes = inResumes;
 	}
 	
-	//Writes the given byte-array to the socket.
-	public void sockWrite(byte[] byteArr) throws IOException{
-		debug("Writing string to socket: '" + byteArr.toString() + "'.\n");
-		sockOut.write(byteArr);
+	public int getDownloadResumes(){
+		return downloadResumes;
 	}
 	
-	//Reads a line from the socket and returns it as a string.
-	private String sockReadLine() throws IOException{
-		StringBuffer sb = new StringBuffer();
-		int chInt;
+	//Closes the idle connections to the server. Connections in use are closed when their requests are done.
+	public void close() throws Exception{
+		debug("Closing connections.\n");
 		
-		while(true){
-			chInt = sockIn.read();
-			if (chInt == -1){
-				throw new IOException("Socket seems to have closed on us?");
-			}
-			
-			sb.append((char) chInt);
-			
-			if (chInt == 10){
-				break;
+		lock.lock();
+		try{
+			if (sockConn != null){
+				releaseConnection(sockConn, false);
+				sockConn = null;
+				sockOut = null;
 			}
+		}finally{
+			lock.unlock();
 		}
 		
-		debug("Read line: '" + debugStr(sb.toString()) + "'.\n");
-		return sb.toString();
-	}
-	
-	//Reads a given length from the socket as a byte-array.
-	private byte[] sockReadLengthAsByteArray(int length) throws IOException{
-		byte[] buffer = new byte[length];
-		int readTotal = 0;
+		pool.close();
 		
-		while(readTotal < length){
-			buffer[readTotal] = (byte) sockIn.read();
-			readTotal += 1;
-			
-			if (readTotal > length){
-				break;
+		synchronized(http2Lock){
+			if (http2Connection != null){
+				http2Connection.close();
+				http2Connection = null;
 			}
 		}
-		
-		return buffer;
 	}
 	
-	public void addCookie(HttpBrowserCookie cookie){
-		try{
-			HttpBrowserCookie existingCookie = this.getCookieByName(cookie.getName());
-			cookies.remove(existingCookie);
-		}catch(NoSuchFieldException e){
-			//Ignore - a cookie with the given name does not exist..
+	//Checks out a connection from the pool. It must be given back with 'releaseConnection' afterwards.
+	public HttpBrowserConnection checkoutConnection() throws Exception{
+		return pool.checkout(this, host, port);
+	}
+	
+	//Gives a connection back to the pool. It will only be reused if the request on it went well.
+	public void releaseConnection(HttpBrowserConnection conn, boolean reusable){
+		pool.release(conn, reusable);
+	}
+	
+	//Executes a get-request and returns the result. The result is served from the cache when one is set and it has a fresh result for the address.
+	public HttpBrowserResult get(String addr) throws Exception{
+		if (cache != null){
+			return cache.get(this, host, port, addr);
 		}
 		
-		cookies.add(cookie);
+		return getUncached(addr, null);
 	}
 	
-	public HttpBrowserCookie getCookieByName(String name) throws NoSuchFieldException{
-		ArrayList<String> cookieNames = new ArrayList<String>();
+	//Executes a get-request with the given extra headers without looking in the cache. The request is sent again on another connection if the host closed the reused connection before answering.
+	HttpBrowserResult getUncached(String addr, HashMap<String, String> extraHeaders) throws Exception{
+		if (http2){
+			return executeHttp2(getRequest(addr, extraHeaders));
+		}
 		
-		for(HttpBrowserCookie cookie: cookies){
-			if (cookie.getName().equals(name)){
-				return cookie;
-			}else{
-				cookieNames.add(cookie.getName());
-			}
+		while(true){
+			HttpBrowserConnection conn = checkoutConnection();
+			boolean reused = (conn.getRequestsExecutedOnCurrectConnection() > 0);
+			long bytesBefore = conn.getReader().getBytesConsumed();
+			boolean reusable = false;
+			
+			try{
+				writeGetRequest(conn, addr, extraHeaders);
+				
+				HttpBrowserResult res = readResult(conn);
+				reusable = true;
+				
+				return res;
+			}catch(IOException e){
+				if (!isRetryable(conn, reused, bytesBefore, e)){
+					throw e;
+				}
+			}finally{
+				releaseConnection(conn, reusable);
+			}
+		}
+	}
+	
+	//Executes a get-request and returns the result with the body as a stream, that is read from the connection as the caller reads it. The stream must be read to the end or closed to give the connection back. On HTTP/2 the body has been received when this returns.
+	public HttpBrowserResult getStream(String addr) throws Exception{
+		if (http2){
+			return executeHttp2(getRequest(addr, null));
+		}
+		
+		while(true){
+			HttpBrowserConnection conn = checkoutConnection();
+			boolean reused = (conn.getRequestsExecutedOnCurrectConnection() > 0);
+			long bytesBefore = conn.getReader().getBytesConsumed();
+			
+			try{
+				writeGetRequest(conn, addr);
+				return readResultStream(conn);
+			}catch(Exception e){
+				boolean retry = (e instanceof IOException && isRetryable(conn, reused, bytesBefore, (IOException) e));
+				releaseConnection(conn, false);
+				
+				if (!retry){
+					throw e;
+				}
+			}
+		}
+	}
+	
+	//Downloads the body of the given address straight into the file at the given path, without holding it in memory, and returns the result without a body. A dropped connection is resumed with a Range-request from the bytes already written. A resumed download is returned with the status and headers of the first '200 OK'. Results that are not '200 OK' are returned with their body like from 'get' and the file is left as it was.
+	public HttpBrowserResult download(String addr, String filePath) throws Exception{
+		if (http2){
+			throw new Exception("Downloads are only supported on HTTP/1.1-connections.");
+		}
+		
+		return new HttpBrowserDownload(this, addr, Paths.get(filePath)).execute();
+	}
+	
+	//Returns true if an idempotent request that failed on the connection can be sent again on another connection. That is when the connection had been used before and the host closed it without sending anything back - like when it closes an idle connection at the same time as a request is sent on it. New connections are never retried, so a host that is down fails right away.
+	boolean isRetryable(HttpBrowserConnection conn, boolean reused, long bytesBefore, IOException e){
+		if (!reused || conn.getReader() == null || conn.getReader().getBytesConsumed() != bytesBefore){
+			return false;
+		}
+		
+		countRetry(e);
+		return true;
+	}
+	
+	//Counts and logs a request that is sent again because the host closed the reused connection before answering.
+	void countRetry(Exception e){
+		debug("The host closed the reused connection before answering (" + e.getMessage() + ") - sending the request again on another connection.\n");
+		retriedRequests.incrementAndGet();
+	}
+	
+	//Returns the number of idempotent requests that has been sent again, because the host closed a reused connection before answering.
+	public long getRetriedRequests(){
+		return retriedRequests.get();
+	}
+	
+	//Executes get-requests for all the given addresses by writing them back-to-back on a keep-alive connection and reading the results in order. Requests that were not answered because the host closed the connection are sent again on a new connection.
+	public ArrayList<HttpBrowserResult> getPipelined(List<String> addrs) throws Exception{
+		ArrayList<HttpBrowserResult> results = new ArrayList<HttpBrowserResult>(addrs.size());
+		
+		//Streams are not answered in order, so they are all sent at once.
+		if (http2){
+			ArrayList<CompletableFuture<HttpBrowserResult>> futures = new ArrayList<CompletableFuture<HttpBrowserResult>>(addrs.size());
+			for(String addr: addrs){
+				futures.add(executeHttp2Async(getRequest(addr, null), 0));
+			}
+			
+			for(CompletableFuture<HttpBrowserResult> future: futures){
+				results.add(await(future));
+			}
+			
+			return results;
+		}
+		
+		int next = 0;
+		
+		while(next < addrs.size()){
+			HttpBrowserConnection conn = checkoutConnection();
+			boolean fresh = conn.getRequestsExecutedOnCurrectConnection() == 0;
+			boolean reusable = false;
+			int answered = 0;
+			
+			try{
+				int batchSize = Math.min(addrs.size() - next, pipelineDepth);
+				Integer keepaliveMax = conn.getKeepaliveMax();
+				
+				//Dont write more requests than the host will answer on this connection.
+				if (keepaliveMax != null){
+					batchSize = Math.min(batchSize, keepaliveMax - conn.getRequestsExecutedOnCurrectConnection());
+				}
+				
+				debug("Pipelining " + batchSize + " requests.\n");
+				int written = 0;
+				
+				HttpBrowserRequestBuffer buf = conn.getRequestBuffer();
+				for(int i = 0; i < batchSize; i++){
+					writeRequestHead(buf, "GET", addrs.get(next + i), null);
+					buf.writeCRLF();
+				}
+				
+				try{
+					//The whole batch is sent with one write.
+					conn.sendRequestBuffer();
+					written = batchSize;
+				}catch(IOException e){
+					if (fresh){
+						throw e;
+					}
+					
+					debug("Host stopped accepting requests - sending them again on a new connection.\n");
+				}
+				
+				for(int i = 0; i < written; i++){
+					results.add(readResult(conn));
+					answered += 1;
+					next += 1;
+				}
+				
+				reusable = (written == batchSize);
+			}catch(IOException e){
+				//A new connection that gives no results at all will not do better the next time.
+				if (fresh && answered == 0){
+					throw e;
+				}
+				
+				debug("Connection was closed in the middle of the pipeline - sending the " + (addrs.size() - next) + " unanswered requests again.\n");
+			}finally{
+				releaseConnection(conn, reusable);
+			}
+		}
+		
+		return results;
+	}
+	
+	//Executes all the given requests on virtual threads (or pooled threads on older JVMs) against the pooled connections and returns the results in the same order. If any of the requests failed, the first failure is thrown when all are done.
+	public ArrayList<HttpBrowserResult> executeAll(Collection<HttpBrowserBulkRequest> requests) throws Exception{
+		final HttpBrowserResult[] results = new HttpBrowserResult[requests.size()];
+		final Exception[] exceptions = new Exception[requests.size()];
+		
+		executeAll(requests, new HttpBrowserBulkListener(){
+			public void requestDone(int index, HttpBrowserBulkRequest request, HttpBrowserResult result, Exception exception){
+				results[index] = result;
+				exceptions[index] = exception;
+			}
+		});
+		
+		int index = 0;
+		for(HttpBrowserBulkRequest request: requests){
+			if (exceptions[index] != null){
+				throw new Exception("Bulk-request " + index + " (" + request + ") failed: " + exceptions[index].getMessage(), exceptions[index]);
+			}
+			
+			index += 1;
+		}
+		
+		return new ArrayList<HttpBrowserResult>(Arrays.asList(results));
+	}
+	
+	//Executes all the given requests and tells the listener about each of them as soon as it is done. Returns when all requests are done.
+	public void executeAll(Collection<HttpBrowserBulkRequest> requests, HttpBrowserBulkListener listener) throws InterruptedException{
+		new HttpBrowserBulkExecutor(this, bulkConcurrency).executeAll(requests, listener);
+	}
+	
+	//Executes get-requests for all the given addresses and returns the results in the same order.
+	public ArrayList<HttpBrowserResult> getAll(Collection<String> addrs) throws Exception{
+		ArrayList<HttpBrowserBulkRequest> requests = new ArrayList<HttpBrowserBulkRequest>(addrs.size());
+		for(String addr: addrs){
+			requests.add(HttpBrowserBulkRequest.get(addr));
+		}
+		
+		return executeAll(requests);
+	}
+	
+	//Executes a post-request to the given address for each of the given post-data and returns the results in the same order.
+	public ArrayList<HttpBrowserResult> postAll(String addr, Collection<HashMap<String, String>> postDatas) throws Exception{
+		ArrayList<HttpBrowserBulkRequest> requests = new ArrayList<HttpBrowserBulkRequest>(postDatas.size());
+		for(HashMap<String, String> postData: postDatas){
+			requests.add(HttpBrowserBulkRequest.post(addr, postData));
+		}
+		
+		return executeAll(requests);
+	}
+	
+	//Writes a get-request for the given address to the connection.
+	private void writeGetRequest(HttpBrowserConnection conn, String addr) throws IOException{
+		writeGetRequest(conn, addr, null);
+	}
+	
+	//Writes a get-request for the given address with the given extra headers to the connection.
+	void writeGetRequest(HttpBrowserConnection conn, String addr, HashMap<String, String> extraHeaders) throws IOException{
+		HttpBrowserRequestBuffer buf = conn.getRequestBuffer();
+		writeRequestHead(buf, "GET", addr, extraHeaders);
+		buf.writeCRLF();
+		conn.sendRequestBuffer();
+	}
+	
+	public HttpBrowserResult post(String addr, HashMap<String, String> postData) throws Exception{
+		if (http2){
+			return executeHttp2(postRequest(addr, postData));
+		}
+		
+		HttpBrowserConnection conn = checkoutConnection();
+		boolean reusable = false;
+		
+		try{
+			byte[] body = postDataString(postData).getBytes();
+			
+			HttpBrowserRequestBuffer buf = conn.getRequestBuffer();
+			writeRequestHead(buf, "POST", addr, null);
+			writeRequestBody(buf, "application/x-www-form-urlencoded", body);
+			conn.sendRequestBuffer();
+			
+			HttpBrowserResult res = readResult(conn);
+			reusable = true;
+			
+			return res;
+		}finally{
+			releaseConnection(conn, reusable);
+		}
+	}
+	
+	//Executes a post-request with a body of unknown length produced by the given writer. The body is sent with chunked transfer-encoding while it is written, so memory-usage does not depend on the size of the body.
+	public HttpBrowserResult postStream(String addr, String contentType, HttpBrowserRequestBodyWriter bodyWriter) throws Exception{
+		if (http2){
+			return postStreamHttp2(addr, contentType, bodyWriter);
+		}
+		
+		HttpBrowserConnection conn = checkoutConnection();
+		OutputStream body = null;
+		boolean reusable = false;
+		
+		try{
+			if (requestCompression){
+				body = new HttpBrowserCompressingOutputStream(compressed -> openChunkedBody(conn, addr, contentType, compressed), conn.getDeflater(), requestCompressionLevel, requestCompressionMinSize);
+			}else{
+				body = openChunkedBody(conn, addr, contentType, false);
+			}
+			
+			bodyWriter.writeBody(body);
+			body.close();
+			
+			HttpBrowserResult res = readResult(conn);
+			reusable = true;
+			
+			return res;
+		}finally{
+			//Gives the buffers of the body back if the body-writer failed.
+			if (body instanceof HttpBrowserCompressingOutputStream){
+				((HttpBrowserCompressingOutputStream) body).release();
+			}else if(body instanceof HttpBrowserChunkedOutputStream){
+				((HttpBrowserChunkedOutputStream) body).release();
+			}
+			
+			releaseConnection(conn, reusable);
+		}
+	}
+	
+	//Sends the head of a post-request with a chunked body to the connection and returns the stream the body is written to.
+	private OutputStream openChunkedBody(HttpBrowserConnection conn, String addr, String contentType, boolean compressed) throws IOException{
+		HttpBrowserRequestBuffer buf = conn.getRequestBuffer();
+		writeRequestHead(buf, "POST", addr, null);
+		
+		if (compressed){
+			buf.writeHeader("Content-Encoding", "gzip");
+		}
+		
+		buf.writeHeader("Transfer-Encoding", "chunked");
+		buf.writeHeader("Content-Type", contentType);
+		buf.writeCRLF();
+		conn.sendRequestBuffer();
+		
+		return new HttpBrowserChunkedOutputStream(conn.getOutputStream(), requestChunkSize);
+	}
+	
+	//Returns true if a request-body of the given size should be compressed.
+	boolean shouldCompressRequest(long size){
+		return (requestCompression && size >= requestCompressionMinSize);
+	}
+	
+	//Writes the headers of a body held in memory and the body itself to the buffer, which must hold the head of the request. The body is compressed if it reaches the minimum size and gets smaller from it.
+	private void writeRequestBody(HttpBrowserRequestBuffer buf, String contentType, byte[] body) throws IOException{
+		if (shouldCompressRequest(body.length)){
+			ByteArrayOutputStream bytesOut = new ByteArrayOutputStream(body.length / 2);
+			Deflater deflater = new Deflater(requestCompressionLevel, true);
+			HttpBrowserGZIPOutputStream gzip = null;
+			
+			try{
+				gzip = new HttpBrowserGZIPOutputStream(bytesOut, deflater, requestCompressionLevel);
+				gzip.write(body);
+				gzip.finish();
+			}finally{
+				if (gzip != null){
+					gzip.release();
+				}
+				
+				deflater.end();
+			}
+			
+			if (bytesOut.size() < body.length){
+				buf.writeHeader("Content-Encoding", "gzip");
+				body = bytesOut.toByteArray();
+			}
+		}
+		
+		buf.writeHeader("Content-Length", body.length);
+		buf.writeHeader("Content-Type", contentType);
+		buf.writeCRLF();
+		buf.write(body);
+	}
+	
+	//Returns the given post-data URL-encoded for a form-post.
+	private String postDataString(HashMap<String, String> postData) throws UnsupportedEncodingException{
+		Boolean first = true;
+		String postDataStr = "";
+		for(String key: postData.keySet()){
+			if (first){
+				first = false;
+			}else{
+				postDataStr += "&";
+			}
+			
+			postDataStr += URLEncoder.encode(key, "UTF-8");
+			postDataStr += "=";
+			postDataStr += URLEncoder.encode(postData.get(key), "UTF-8");
+		}
+		
+		return postDataStr;
+	}
+	
+	//Executes a get-request on the asynchronous engine. The returned future is completed with the result.
+	public CompletableFuture<HttpBrowserResult> getAsync(String addr){
+		try{
+			byte[] requestBytes = getRequest(addr, null);
+			
+			if (http2){
+				return executeHttp2Async(requestBytes, 0);
+			}
+			
+			return getAsyncEngine().execute(this, host, port, requestBytes, true);
+		}catch(Exception e){
+			return failedFuture(e);
+		}
+	}
+	
+	//Executes a post-request on the asynchronous engine. The returned future is completed with the result.
+	public CompletableFuture<HttpBrowserResult> postAsync(String addr, HashMap<String, String> postData){
+		try{
+			return executeAsync(postRequest(addr, postData));
+		}catch(Exception e){
+			return failedFuture(e);
+		}
+	}
+	
+	//Sends the given request-bytes through the asynchronous engine, or as a stream on the HTTP/2-connection.
+	CompletableFuture<HttpBrowserResult> executeAsync(byte[] requestBytes) throws IOException{
+		if (http2){
+			return executeHttp2Async(requestBytes, 0);
+		}
+		
+		return getAsyncEngine().execute(this, host, port, requestBytes, false);
+	}
+	
+	//Returns a get-request for the given address with the given extra headers as bytes.
+	private byte[] getRequest(String addr, HashMap<String, String> extraHeaders) throws IOException{
+		HttpBrowserRequestBuffer buf = new HttpBrowserRequestBuffer();
+		writeRequestHead(buf, "GET", addr, extraHeaders);
+		buf.writeCRLF();
+		
+		return buf.toByteArray();
+	}
+	
+	//Returns a form-post of the given post-data to the given address as bytes.
+	private byte[] postRequest(String addr, HashMap<String, String> postData) throws IOException{
+		byte[] body = postDataString(postData).getBytes();
+		
+		HttpBrowserRequestBuffer buf = new HttpBrowserRequestBuffer();
+		writeRequestHead(buf, "POST", addr, null);
+		writeRequestBody(buf, "application/x-www-form-urlencoded", body);
+		
+		return buf.toByteArray();
+	}
+	
+	//Sends the request as a stream on the HTTP/2-connection and waits for the result. Requests refused by the host without processing them are sent again on a new connection.
+	private HttpBrowserResult executeHttp2(byte[] requestBytes) throws Exception{
+		int attempts = 0;
+		
+		while(true){
+			HttpBrowserHttp2Connection conn = getHttp2Connection();
+			HttpBrowserHttp2Stream stream = conn.execute(requestBytes, false);
+			
+			try{
+				stream.await();
+			}catch(Exception e){
+				if (!stream.isRefused() || (stream.isStarted() && ++attempts >= HTTP2_ATTEMPTS)){
+					throw e;
+				}
+				
+				if (stream.isStarted()){
+					countRetry(e);
+				}
+				
+				continue;
+			}
+			
+			return readHttp2Result(conn, stream);
+		}
+	}
+	
+	//Sends the request as a stream on the HTTP/2-connection. The returned future is completed with the result on the thread reading from the connection. The attempts are the number of times the request has been refused after being sent.
+	private CompletableFuture<HttpBrowserResult> executeHttp2Async(byte[] requestBytes, int attempts){
+		try{
+			HttpBrowserHttp2Connection conn = getHttp2Connection();
+			HttpBrowserHttp2Stream stream = conn.execute(requestBytes, false);
+			
+			return stream.getFuture().handle((done, e) -> {
+				if (e == null){
+					try{
+						return CompletableFuture.completedFuture(readHttp2Result(conn, stream));
+					}catch(Exception readException){
+						return failedFuture(readException);
+					}
+				}else if(stream.isRefused() && !stream.isStarted()){
+					return executeHttp2Async(requestBytes, attempts);
+				}else if(stream.isRefused() && attempts + 1 < HTTP2_ATTEMPTS){
+					countRetry((Exception) e);
+					return executeHttp2Async(requestBytes, attempts + 1);
+				}
+				
+				return failedFuture((Exception) e);
+			}).thenCompose(future -> future);
+		}catch(Exception e){
+			return failedFuture(e);
+		}
+	}
+	
+	//Sends a post-request with a body of unknown length as a stream on the HTTP/2-connection. The body is sent in DATA-frames while it is written, as fast as the flow-control of the host allows.
+	private HttpBrowserResult postStreamHttp2(String addr, String contentType, HttpBrowserRequestBodyWriter bodyWriter) throws Exception{
+		HttpBrowserHttp2Connection conn = getHttp2Connection();
+		HttpBrowserHttp2Stream[] stream = new HttpBrowserHttp2Stream[1];
+		
+		HttpBrowserCompressingOutputStream.Target target = compressed -> {
+			HttpBrowserRequestBuffer buf = new HttpBrowserRequestBuffer();
+			writeRequestHead(buf, "POST", addr, null);
+			
+			if (compressed){
+				buf.writeHeader("Content-Encoding", "gzip");
+			}
+			
+			buf.writeHeader("Content-Type", contentType);
+			buf.writeCRLF();
+			
+			stream[0] = conn.execute(buf.toByteArray(), true);
+			return stream[0].getBodyOutputStream();
+		};
+		
+		try{
+			if (requestCompression){
+				Deflater deflater = new Deflater(requestCompressionLevel, true);
+				HttpBrowserCompressingOutputStream body = new HttpBrowserCompressingOutputStream(target, deflater, requestCompressionLevel, requestCompressionMinSize);
+				
+				try{
+					bodyWriter.writeBody(body);
+					body.close();
+				}finally{
+					body.release();
+					deflater.end();
+				}
+			}else{
+				OutputStream body = target.open(false);
+				bodyWriter.writeBody(body);
+				body.close();
+			}
+		}catch(Exception e){
+			//The host would wait for the rest of the body forever.
+			if (stream[0] != null){
+				conn.cancel(stream[0], e);
+			}
+			
+			throw e;
+		}
+		
+		stream[0].await();
+		return readHttp2Result(conn, stream[0]);
+	}
+	
+	//Parses the result of a finished stream with the same code as results on HTTP/1.1-connections.
+	HttpBrowserResult readHttp2Result(HttpBrowserHttp2Connection conn, HttpBrowserHttp2Stream stream) throws Exception{
+		HttpBrowserConnection parser = conn.parserFor(stream);
+		HttpBrowserResult res = readResult(parser);
+		conn.releaseParser(parser);
+		
+		return res;
+	}
+	
+	//Waits for the given future and throws the exception it failed with.
+	HttpBrowserResult await(CompletableFuture<HttpBrowserResult> future) throws Exception{
+		try{
+			return future.get();
+		}catch(ExecutionException e){
+			if (e.getCause() instanceof Exception){
+				throw (Exception) e.getCause();
+			}
+			
+			throw e;
+		}
+	}
+	
+	//Returns a future that has failed with the given exception.
+	static CompletableFuture<HttpBrowserResult> failedFuture(Exception e){
+		CompletableFuture<HttpBrowserResult> future = new CompletableFuture<HttpBrowserResult>();
+		future.completeExceptionally(e);
+		return future;
+	}
+	
+	//Writes the request-line, the static headers, the cookies and the given extra headers to the buffer. The caller adds its own headers and the empty line ending the headers.
+	void writeRequestHead(HttpBrowserRequestBuffer buf, String method, String addr, HashMap<String, String> extraHeaders) throws IOException{
+		buf.writeString(method);
+		buf.writeString(" /");
+		buf.writeString(addr);
+		buf.writeString(" HTTP/1.1\r\n");
+		buf.write(staticHeaders());
+		
+		String cookieHeader = cookieStore.getCookieHeader(host, requestPath(addr), tls);
+		if (cookieHeader != null){
+			buf.writeHeader("Cookie", cookieHeader);
+		}
+		
+		if (extraHeaders != null){
+			for(String key: extraHeaders.keySet()){
+				buf.writeHeader(key, extraHeaders.get(key));
+			}
+		}
+	}
+	
+	//Returns the pre-encoded headers that are the same for every request with the current host and options.
+	private byte[] staticHeaders(){
+		byte[] headers = staticHeaders;
+		
+		if (headers == null){
+			HttpBrowserRequestBuffer buf = new HttpBrowserRequestBuffer();
+			buf.writeHeader("Connection", "Keep-Alive");
+			buf.writeHeader("User-Agent", USER_AGENT);
+			
+			String acceptEncoding = getAcceptEncoding();
+			if (acceptEncoding != null){
+				buf.writeHeader("Accept-Encoding", acceptEncoding);
+			}
+			
+			buf.writeHeader("Host", String.valueOf(host));
+			
+			headers = buf.toByteArray();
+			staticHeaders = headers;
+		}
+		
+		return headers;
+	}
+	
+	public HttpBrowserRequestPostMultipart postMultipart(){
+		HttpBrowserRequestPostMultipart httpReqMp = new HttpBrowserRequestPostMultipart();
+		httpReqMp.setHttpBrowser(this);
+		
+		return httpReqMp;
+	}
+	
+	//Returns default headers based on various options and more.
+	public HashMap<String, String> defaultHeaders() throws UnsupportedEncodingException{
+		HashMap<String, String> headers = new HashMap<String, String>();
+		headers.put("Connection", "Keep-Alive");
+		headers.put("User-Agent", USER_AGENT);
+		
+		String acceptEncoding = getAcceptEncoding();
+		if (acceptEncoding != null){
+			headers.put("Accept-Encoding", acceptEncoding);
+		}
+		
+		String cookieHeader = cookieStore.getCookieHeader(host, "/", tls);
+		if (cookieHeader != null){
+			headers.put("Cookie", cookieHeader);
+		}
+		
+		headers.put("Host", host);
+		
+		return headers;
+	}
+	
+	//Returns the path of the given address without the query-string, for matching the paths of cookies.
+	private String requestPath(String addr){
+		int end = addr.length();
+		
+		for(int i = 0; i < addr.length(); i++){
+			char ch = addr.charAt(i);
+			if (ch == '?' || ch == '#'){
+				end = i;
+				break;
+			}
+		}
+		
+		return "/" + addr.substring(0, end);
+	}
+	
+	//Writes the given headers-HashMap to the connection.
+	public void writeHeaders(HttpBrowserConnection conn, HashMap<String, String> headers) throws IOException{
+		for(String key: headers.keySet()){
+			debug("Sending header: " + key + ": " + headers.get(key) + "\n");
+			conn.write(key + ": " + headers.get(key) + "\r\n");
+		}
+	}
+	
+	//Writes the given headers-HashMap to the connection used by 'sockWrite'.
+	@Deprecated
+	public void writeHeaders(HashMap<String, String> headers) throws IOException{
+		writeHeaders(sockConnection(), headers);
+	}
+	
+	//Reads the result of the request written with 'sockWrite' and gives the connection back to the pool.
+	@Deprecated
+	public HttpBrowserResult readResult() throws Exception{
+		lock.lock();
+		
+		try{
+			if (sockConn == null){
+				throw new IOException("No request has been written with 'sockWrite'.");
+			}
+			
+			boolean reusable = false;
+			
+			try{
+				HttpBrowserResult res = readResult(sockConn);
+				reusable = true;
+				
+				return res;
+			}finally{
+				releaseConnection(sockConn, reusable);
+				sockConn = null;
+				sockOut = null;
+			}
+		}finally{
+			lock.unlock();
+		}
+	}
+	
+	//Reads the result from the connection and returns it as a result-object.
+	public HttpBrowserResult readResult(HttpBrowserConnection conn) throws Exception{
+		HttpBrowserRequestMetrics metrics = startMetrics(conn);
+		
+		try{
+			HttpBrowserResult res = readResultHead(conn, metrics);
+			InputStream decoded = null;
+			byte[] bodyByteArray;
+			
+			if (!hasBody(res)){
+				debug("Result has no body.\n");
+				bodyByteArray = new byte[0];
+			}else if(res.contentLength != null && res.contentLength > Integer.MAX_VALUE - 8){
+				throw new Exception("The body of " + res.contentLength + " bytes is too big for a byte-array - use 'getStream' or 'download' instead.");
+			}else if(res.transferEncoding == null && res.contentLength != null && !isEncoded(res)){
+				debug("Reading body from content-length.\n");
+				bodyByteArray = conn.getReader().readLengthAsByteArray(res.contentLength.intValue());
+			}else{
+				debug("Reading body from stream.\n");
+				decoded = decodeResultBody(conn, res, resultBodyInputStream(conn, res));
+				bodyByteArray = HttpBrowserBufferPool.getDefault().readAll(decoded);
+			}
+			
+			res.setBodyByteArray(bodyByteArray);
+			conn.requestExecuted();
+			
+			if (metrics != null){
+				finishMetrics(conn, res, decoded, bodyByteArray.length);
+			}
+			
+			return res;
+		}catch(Exception e){
+			if (metrics != null){
+				failMetrics(metrics, e);
+			}
+			
+			throw e;
+		}
+	}
+	
+	//Reads the status-line and headers from the connection and returns a result with the body as a stream. The connection is given back to the pool when the body has been read to the end or closed.
+	public HttpBrowserResult readResultStream(HttpBrowserConnection conn) throws Exception{
+		HttpBrowserRequestMetrics metrics = startMetrics(conn);
+		
+		try{
+			HttpBrowserResult res = readResultHead(conn, metrics);
+			InputStream body = new HttpBrowserResultInputStream(this, conn, res, resultBodyInputStream(conn, res));
+			res.setBodyInputStream(decodeResultBody(conn, res, body));
+			return res;
+		}catch(Exception e){
+			if (metrics != null){
+				failMetrics(metrics, e);
+			}
+			
+			throw e;
+		}
+	}
+	
+	//Reads the status-line and the headers from the connection and returns a result-object without a body.
+	HttpBrowserResult readResultHead(HttpBrowserConnection conn, HttpBrowserRequestMetrics metrics) throws Exception{
+		debug("Reading result.\n");
+		
+		HttpBrowserResult res = new HttpBrowserResult();
+		res.setMetrics(metrics);
+		res.setStatusCode(conn.getReader().readStatusLine());
+		
+		if (metrics != null){
+			long now = System.nanoTime();
+			metrics.setStatusCode(res.getStatusCode());
+			metrics.firstByteNanos = now - metrics.startedAt;
+			metrics.markedAt = now;
+		}
+		
+		HttpBrowserHeaders headers = new HttpBrowserHeaders();
+		debug("Starting to read headers.\n");
+		conn.setKeepaliveMax(null);
+		readResultHeaders(conn, res, headers);
+		res.setHeaders(headers);
+		
+		if (metrics != null){
+			long now = System.nanoTime();
+			metrics.headerNanos = now - metrics.markedAt;
+			metrics.markedAt = now;
+		}
+		
+		return res;
+	}
+	
+	//Starts measuring the result that is about to be read from the connection. Returns null if nobody listens for metrics.
+	HttpBrowserRequestMetrics startMetrics(HttpBrowserConnection conn){
+		long now = System.nanoTime();
+		long startedAt = conn.takeRequestStartedAt(now);
+		
+		if (metricsListeners.isEmpty()){
+			return null;
+		}
+		
+		boolean newConnection = (conn.getRequestsExecutedOnCurrectConnection() == 0);
+		HttpBrowserRequestMetrics metrics = new HttpBrowserRequestMetrics(conn.getHost(), conn.getPort(), newConnection);
+		metrics.connectNanos = newConnection ? conn.getConnectNanos() : 0;
+		metrics.handshakeNanos = newConnection ? conn.getHandshakeNanos() : 0;
+		metrics.startedAt = startedAt;
+		metrics.startBytes = conn.getReader().getBytesConsumed();
+		
+		return metrics;
+	}
+	
+	//Completes the metrics of a result when its body has been read and gives them to the listeners. The decoded stream is used to find the decompression-time.
+	void finishMetrics(HttpBrowserConnection conn, HttpBrowserResult res, InputStream decoded, long bodyBytes){
+		HttpBrowserRequestMetrics metrics = res.getMetrics();
+		metrics.bodyNanos = System.nanoTime() - metrics.markedAt;
+		metrics.wireBytes = conn.getReader().getBytesConsumed() - metrics.startBytes;
+		metrics.bodyBytes = bodyBytes;
+		
+		if (decoded instanceof HttpBrowserInflaterInputStream){
+			HttpBrowserInflaterInputStream inflated = (HttpBrowserInflaterInputStream) decoded;
+			metrics.decompressNanos = inflated.getInflateNanos();
+			metrics.bodyBytes = inflated.getBytesInflated();
+		}
+		
+		for(HttpBrowserMetricsListener listener: metricsListeners){
+			listener.requestDone(metrics);
+		}
+	}
+	
+	//Gives the metrics of a result that could not be read to the listeners.
+	void failMetrics(HttpBrowserRequestMetrics metrics, Exception e){
+		for(HttpBrowserMetricsListener listener: metricsListeners){
+			listener.requestFailed(metrics, e);
+		}
+	}
+	
+	//Returns a stream that reads the body of the given result from the connection based on the transfer-encoding or the content-length.
+	InputStream resultBodyInputStream(HttpBrowserConnection conn, HttpBrowserResult res) throws Exception{
+		String tEnc = res.transferEncoding;
+		
+		if (!hasBody(res)){
+			debug("Result has no body.\n");
+			return new HttpBrowserContentLengthInputStream(conn.getReader(), 0);
+		}else if (tEnc != null && tEnc.equals("chunked")){
+			debug("Reading chunked body.\n");
+			return new HttpBrowserChunkedInputStream(conn.getReader());
+		}else if(res.contentLength != null){
+			debug("Reading body from content-length.\n");
+			return new HttpBrowserContentLengthInputStream(conn.getReader(), res.contentLength);
+		}else{
+			debug("Didnt know how to read body.\n");
+			throw new Exception("Dont know how to read result from that encoding: '" + tEnc + "'.");
+		}
+	}
+	
+	//Returns false for results that never have a body, even if they give a Content-Length.
+	private boolean hasBody(HttpBrowserResult res){
+		return (res.getStatusCode() != 204 && res.getStatusCode() != 304);
+	}
+	
+	//Returns true if the body of the result has a content-coding.
+	boolean isEncoded(HttpBrowserResult res){
+		return res.contentEncoding != null && !res.contentEncoding.equals("identity");
+	}
+	
+	//Returns the registered decoder-factory for the given content-coding or null.
+	private HttpBrowserContentDecoderFactory contentDecoder(String encoding){
+		for(HttpBrowserContentDecoderFactory factory: contentDecoders){
+			if (factory.getEncoding().equals(encoding)){
+				return factory;
+			}
+		}
+		
+		return null;
+	}
+	
+	//Wraps the body-stream in streams that decompresses it while it is read, if the result has been compressed. Codings are applied in the order they are listed, so they are decoded from the last. The body is given as it is if a coding has no decoder.
+	InputStream decodeResultBody(HttpBrowserConnection conn, HttpBrowserResult res, InputStream body) throws IOException{
+		if (!isEncoded(res) || !hasBody(res)){
+			return body;
+		}
+		
+		String[] encodings = res.contentEncoding.split(",");
+		HttpBrowserContentDecoderFactory[] factories = new HttpBrowserContentDecoderFactory[encodings.length];
+		
+		for(int i = 0; i < encodings.length; i++){
+			String encoding = encodings[i].trim();
+			
+			if (encoding.length() == 0 || encoding.equals("identity")){
+				continue;
+			}
+			
+			factories[i] = contentDecoder(encoding);
+			
+			if (factories[i] == null){
+				debug("No decoder for content-encoding: '" + encoding + "'.\n");
+				return body;
+			}
+			
+			for(int j = 0; j < i; j++){
+				if (factories[j] == factories[i]){
+					throw new IOException("The content-encoding '" + encoding + "' was applied more than once: '" + res.contentEncoding + "'.");
+				}
+			}
+		}
+		
+		InputStream decoded = body;
+		
+		for(int i = factories.length - 1; i >= 0; i--){
+			if (factories[i] != null){
+				debug("Decoding body from " + factories[i].getEncoding() + ".\n");
+				decoded = conn.getContentDecoder(factories[i]).decode(decoded);
+			}
+		}
+		
+		return decoded;
+	}
+	
+	//Reads the header-part of the result from the connection, adds those headers to the given headers-object and sets the keep-alive information on the connection.
+	private void readResultHeaders(HttpBrowserConnection conn, HttpBrowserResult res, HttpBrowserHeaders headers) throws Exception{
+		HttpBrowserSocketReader sockReader = conn.getReader();
+		boolean connectionClose = false;
+		
+		while(sockReader.readHeader(headers)){
+			//Keep reading until the empty line.
+		}
+		
+		for(int i = 0; i < headers.size(); i++){
+			String key = headers.getName(i);
+			String val = headers.getValue(i);
+			
+			if (doDebug){
+				debug("Read header: '" + key + "': '" + val + "'.\n");
+			}
+			
+			if (key.equals(HttpBrowserHeaders.CONTENT_LENGTH)){
+				res.contentLength = Long.parseLong(val);
+			}else if(key.equals(HttpBrowserHeaders.CONTENT_ENCODING)){
+				res.contentEncoding = lowerCaseToken(val);
+			}else if(key.equals(HttpBrowserHeaders.TRANSFER_ENCODING)){
+				res.transferEncoding = lowerCaseToken(val);
+			}else if(key.equals(HttpBrowserHeaders.KEEP_ALIVE)){
+				Integer max = keepAliveParameter(val, "max=");
+				if (max != null){
+					debug("New keepalive max: " + max + "\n");
+					res.keepAliveMax = max;
+					conn.setKeepaliveMax(res.keepAliveMax);
+				}else{
+					debug("Could not match max from keepalive header.\n");
+				}
+				
+				Integer timeout = keepAliveParameter(val, "timeout=");
+				if (timeout != null){
+					debug("New keepalive timeout: " + timeout + "\n");
+					res.keepAliveTimeout = timeout;
+					conn.setKeepaliveInvalidAfter(System.currentTimeMillis() + (res.keepAliveTimeout * 1000));
+				}else{
+					debug("Could not match timeout from keepalive header.\n");
+				}
+			}else if(key.equals(HttpBrowserHeaders.CONNECTION)){
+				connectionClose = lowerCaseToken(val).equals("close");
+			}else if(key.equals(HttpBrowserHeaders.SET_COOKIE)){
+				HttpBrowserCookie cookie = HttpBrowserCookie.parseFromStr(val);
+				
+				if (!cookieStore.add(cookie, conn.getHost())){
+					debug("Ignored cookie for another domain: '" + val + "'.\n");
+				}else if(doDebug){
+					debug("New cookie found. Name: '" + cookie.getName() + "', Value: '" + cookie.getValue() + "'.\n");
+				}
+			}
+		}
+		
+		//The host closes the connection after this result, so it must not be used for another request.
+		if (connectionClose){
+			debug("The host will close the connection after this result.\n");
+			conn.setKeepaliveMax(conn.getRequestsExecutedOnCurrectConnection() + 1);
+		}
+	}
+	
+	//Returns the given token in lower case without surrounding whitespace. The shared well-known values are returned as they are.
+	private String lowerCaseToken(String val){
+		for(int i = 0; i < val.length(); i++){
+			char ch = val.charAt(i);
+			if ((ch >= 'A' && ch <= 'Z') || ch == ' ' || ch == '\t'){
+				return val.toLowerCase().trim();
+			}
+		}
+		
+		return val;
+	}
+	
+	//Returns the number after the given parameter (like 'max=') in a keep-alive header or null if it is not given.
+	private Integer keepAliveParameter(String val, String param){
+		int index = val.indexOf(param);
+		if (index == -1){
+			return null;
+		}
+		
+		int start = index + param.length();
+		int end = start;
+		int number = 0;
+		
+		while(end < val.length() && end - start < 9 && val.charAt(end) >= '0' && val.charAt(end) <= '9'){
+			number = (number * 10) + (val.charAt(end) - '0');
+			end++;
+		}
+		
+		if (end == start){
+			return null;
+		}
+		
+		return number;
+	}
+	
+	//Returns the connection used by 'sockWrite'. A connection is checked out from the pool if there is none.
+	private HttpBrowserConnection sockConnection() throws IOException{
+		lock.lock();
+		
+		try{
+			if (sockConn == null){
+				try{
+					sockConn = checkoutConnection();
+				}catch(IOException e){
+					throw e;
+				}catch(Exception e){
+					throw new IOException(e.getMessage(), e);
+				}
+				
+				sockOut = sockConn.getOutputStream();
+			}
+			
+			return sockConn;
+		}finally{
+			lock.unlock();
+		}
+	}
+	
+	//Writes the given string to the connection. The result must be read with 'readResult' afterwards, which gives the connection back to the pool.
+	@Deprecated
+	public void sockWrite(String str) throws IOException{
+		sockConnection().write(str);
+	}
+	
+	//Writes the given byte-array to the connection. The result must be read with 'readResult' afterwards.
+	@Deprecated
+	public void sockWrite(byte[] byteArr) throws IOException{
+		sockConnection().write(byteArr);
+	}
+	
+	//Used to write out debugging-messages to stdout if the debug-argument is given.
+	void debug(String str){
+		if (doDebug){
+			System.out.print(str);
+		}
+	}
+	
+	//Adds a cookie that will be sent to the host. Cookies without a domain are sent to the current host, so they can only be added after the host has been set.
+	public void addCookie(HttpBrowserCookie cookie){
+		cookieStore.add(cookie, host);
+	}
+	
+	public HttpBrowserCookie getCookieByName(String name) throws NoSuchFieldException{
+		HttpBrowserCookie cookie = cookieStore.getCookieByName(name);
+		
+		if (cookie == null){
+			throw new NoSuchFieldException("No cookies by that name: '" + name + "'.");
 		}
 		
-		throw new NoSuchFieldException("No cookies by that name: '" + name + "' (" + cookieNames.toString() + ").");
+		return cookie;
 	}
 }
@@ -0,0 +1,79 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+//Executes requests on non-blocking connections driven by a small number of event-loop threads, so thousands of requests can be in flight without a thread per connection. Results are parsed with the same code as the blocking requests.
+//The futures are completed on the event-loop threads - callbacks that block should be run with one of the '...Async' methods of CompletableFuture.
+public class HttpBrowserAsyncEngine {
+	private static HttpBrowserAsyncEngine defaultEngine;
+	
+	private HttpBrowserEventLoop[] loops;
+	
+	//The maximum number of connections that will be opened to a single host and port.
+	private volatile int maxConnectionsPerHost = 64;
+	
+	//Returns the engine shared by all browsers that have not been given one of their own.
+	public static synchronized HttpBrowserAsyncEngine getDefault() throws IOException{
+		if (defaultEngine == null){
+			defaultEngine = new HttpBrowserAsyncEngine();
+		}
+		
+		return defaultEngine;
+	}
+	
+	public HttpBrowserAsyncEngine() throws IOException{
+		this(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())));
+	}
+	
+	public HttpBrowserAsyncEngine(int threads) throws IOException{
+		if (threads < 1){
+			throw new IllegalArgumentException("At least one event-loop thread is required: " + threads);
+		}
+		
+		loops = new HttpBrowserEventLoop[threads];
+		
+		for(int i = 0; i < threads; i++){
+			loops[i] = new HttpBrowserEventLoop(this, "HttpBrowserEventLoop-" + i);
+		}
+	}
+	
+	public void setMaxConnectionsPerHost(int inMax){
+		if (inMax < 1){
+			throw new IllegalArgumentException("At least one connection per host is required: " + inMax);
+		}
+		
+		maxConnectionsPerHost = inMax;
+	}
+	
+	public int getMaxConnectionsPerHost(){
+		return maxConnectionsPerHost;
+	}
+	
+	//Sends the given request-bytes to the host and completes the returned future with the result. All requests to the same host and port are handled by the same event-loop, so they can share its keep-alive connections.
+	public CompletableFuture<HttpBrowserResult> execute(HttpBrowser http, String host, int port, byte[] requestBytes){
+		return execute(http, host, port, requestBytes, false);
+	}
+	
+	//Like 'execute' but an idempotent request is sent again on another connection, if the host closes a reused connection before answering it.
+	public CompletableFuture<HttpBrowserResult> execute(HttpBrowser http, String host, int port, byte[] requestBytes, boolean idempotent){
+		HttpBrowserEventLoop.Request req = new HttpBrowserEventLoop.Request();
+		req.http = http;
+		req.host = host;
+		req.port = port;
+		req.bytes = requestBytes;
+		req.idempotent = idempotent;
+		
+		int index = ((host + ":" + port).hashCode() & 0x7FFFFFFF) % loops.length;
+		loops[index].submit(req);
+		
+		return req.future;
+	}
+	
+	//Stops the event-loops and fails the requests that are still in flight.
+	public void close(){
+		for(HttpBrowserEventLoop loop: loops){
+			loop.close();
+		}
+	}
+}
@@ -0,0 +1,398 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+//Hands out the I/O-buffers used to read, write, chunk and decompress, so they are reused instead of allocated for every request and connection. Buffers come in size-classes from 4 KiB to 64 KiB as byte-arrays or direct byte-buffers. Bigger buffers are allocated without pooling.
+//Every thread keeps a few buffers of each class for itself, so buffers released and acquired by the same thread are handed out without locking. The rest is kept in a shared stack per class up to the maximum pooled size. Virtual threads and the threads of bulk-requests only use the shared stacks, since they come and go with the tasks and the buffers they kept would be lost with them.
+//A buffer must not be used after it has been released, since it will be handed out again. Only buffers handed out by the pool may be released to it, and only once - the pool doesnt keep track of its buffers, so anything of the size of a class is taken in.
+public class HttpBrowserBufferPool {
+	private static HttpBrowserBufferPool defaultPool;
+	
+	//The size-classes are 4 KiB shifted by the class-index.
+	private static final int MIN_SHIFT = 12;
+	private static final int CLASSES = 5;
+	
+	//The number of buffers of each class kept by every thread.
+	private static final int THREAD_CACHE_SIZE = 2;
+	
+	//Buffers that are not in use by class, for heap and direct buffers.
+	private Stack[] heapStacks = new Stack[CLASSES];
+	private Stack[] directStacks = new Stack[CLASSES];
+	
+	//'Thread.isVirtual' which only exists on Java 21+, or null.
+	private static final Method IS_VIRTUAL = isVirtualMethod();
+	
+	//True for threads that dont keep buffers for themselves.
+	private static final ThreadLocal<Boolean> sharedOnly = new ThreadLocal<Boolean>(){
+		@Override protected Boolean initialValue(){
+			return isVirtualThread();
+		}
+	};
+	
+	private ThreadLocal<ThreadCache> threadCaches = new ThreadLocal<ThreadCache>(){
+		@Override protected ThreadCache initialValue(){
+			return new ThreadCache();
+		}
+	};
+	
+	private LongAdder acquired = new LongAdder();
+	private LongAdder released = new LongAdder();
+	private LongAdder allocated = new LongAdder();
+	private LongAdder allocatedBytes = new LongAdder();
+	private LongAdder unpooledBytes = new LongAdder();
+	private LongAdder inUseBytes = new LongAdder();
+	private LongAdder pooledBytes = new LongAdder();
+	
+	//A stack of free buffers of one class shared by all threads. Its capacity is given by the maximum pooled size, so it never grows.
+	private static class Stack {
+		Object[] buffers;
+		int count = 0;
+		
+		Stack(int capacity){
+			buffers = new Object[capacity];
+		}
+		
+		synchronized Object pop(){
+			if (count == 0){
+				return null;
+			}
+			
+			count -= 1;
+			Object buffer = buffers[count];
+			buffers[count] = null;
+			return buffer;
+		}
+		
+		synchronized boolean push(Object buffer){
+			if (count >= buffers.length){
+				return false;
+			}
+			
+			buffers[count] = buffer;
+			count += 1;
+			return true;
+		}
+	}
+	
+	//The buffers a thread keeps for itself.
+	private static class ThreadCache {
+		Object[][] heap = new Object[CLASSES][THREAD_CACHE_SIZE];
+		int[] heapCount = new int[CLASSES];
+		Object[][] direct = new Object[CLASSES][THREAD_CACHE_SIZE];
+		int[] directCount = new int[CLASSES];
+	}
+	
+	//Returns the pool shared by all browsers.
+	public static synchronized HttpBrowserBufferPool getDefault(){
+		if (defaultPool == null){
+			defaultPool = new HttpBrowserBufferPool(32 * 1024 * 1024);
+		}
+		
+		return defaultPool;
+	}
+	
+	//Makes a pool that keeps up to the given number of bytes of free buffers in its shared stacks, divided equally between the classes of heap and direct buffers.
+	public HttpBrowserBufferPool(long maxPooledBytes){
+		if (maxPooledBytes < 0){
+			throw new IllegalArgumentException("The maximum pooled size cannot be negative: " + maxPooledBytes);
+		}
+		
+		for(int i = 0; i < CLASSES; i++){
+			int capacity = (int) Math.min(Integer.MAX_VALUE, maxPooledBytes / (2 * CLASSES) / classSize(i));
+			heapStacks[i] = new Stack(capacity);
+			directStacks[i] = new Stack(capacity);
+		}
+	}
+	
+	private static Method isVirtualMethod(){
+		try{
+			return Thread.class.getMethod("isVirtual");
+		}catch(Exception e){
+			return null;
+		}
+	}
+	
+	private static boolean isVirtualThread(){
+		if (IS_VIRTUAL == null){
+			return false;
+		}
+		
+		try{
+			return (Boolean) IS_VIRTUAL.invoke(Thread.currentThread());
+		}catch(Exception e){
+			return false;
+		}
+	}
+	
+	//Makes the current thread use the shared stacks of all pools instead of keeping buffers for itself. Used by the threads of bulk-requests.
+	static void useSharedStacks(){
+		sharedOnly.set(true);
+	}
+	
+	//Returns the cache of the current thread or null if it only uses the shared stacks.
+	private ThreadCache threadCache(){
+		if (sharedOnly.get()){
+			return null;
+		}
+		
+		return threadCaches.get();
+	}
+	
+	private static int classSize(int sizeClass){
+		return 1 << (MIN_SHIFT + sizeClass);
+	}
+	
+	//Returns the index of the smallest class that holds the given size, or -1 if it is bigger than the biggest class.
+	private static int sizeClass(int size){
+		if (size <= (1 << MIN_SHIFT)){
+			return 0;
+		}
+		
+		int sizeClass = 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+		return (sizeClass < CLASSES) ? sizeClass : -1;
+	}
+	
+	//Returns the index of the class the given buffer was handed out from, or -1 if it was not made by the pool.
+	private static int exactSizeClass(int capacity){
+		int sizeClass = sizeClass(capacity);
+		return (sizeClass != -1 && classSize(sizeClass) == capacity) ? sizeClass : -1;
+	}
+	
+	//Returns the biggest size that is pooled.
+	public int getMaxBufferSize(){
+		return classSize(CLASSES - 1);
+	}
+	
+	//Returns a byte-array of at least the given size. The array may be bigger and holds data from its last use.
+	public byte[] acquire(int size){
+		int sizeClass = sizeClass(size);
+		acquired.increment();
+		
+		if (sizeClass == -1){
+			unpooledBytes.add(size);
+			return new byte[size];
+		}
+		
+		byte[] buffer = (byte[]) take(sizeClass, false);
+		if (buffer == null){
+			buffer = new byte[classSize(sizeClass)];
+			allocated.increment();
+			allocatedBytes.add(buffer.length);
+		}
+		
+		inUseBytes.add(buffer.length);
+		return buffer;
+	}
+	
+	//Gives a byte-array from 'acquire' back to the pool. Arrays bigger than the biggest class are left to the garbage-collector.
+	public void release(byte[] buffer){
+		if (buffer == null){
+			return;
+		}
+		
+		int sizeClass = exactSizeClass(buffer.length);
+		released.increment();
+		
+		if (sizeClass != -1){
+			inUseBytes.add(-buffer.length);
+			put(sizeClass, false, buffer);
+		}
+	}
+	
+	//Returns a cleared direct byte-buffer with a capacity of at least the given size and the limit set to the size.
+	public ByteBuffer acquireDirect(int size){
+		int sizeClass = sizeClass(size);
+		acquired.increment();
+		
+		if (sizeClass == -1){
+			unpooledBytes.add(size);
+			return ByteBuffer.allocateDirect(size);
+		}
+		
+		ByteBuffer buffer = (ByteBuffer) take(sizeClass, true);
+		if (buffer == null){
+			buffer = ByteBuffer.allocateDirect(classSize(sizeClass));
+			allocated.increment();
+			allocatedBytes.add(buffer.capacity());
+		}
+		
+		inUseBytes.add(buffer.capacity());
+		buffer.clear();
+		buffer.limit(size);
+		return buffer;
+	}
+	
+	//Gives a direct byte-buffer from 'acquireDirect' back to the pool. Buffers bigger than the biggest class are left to the garbage-collector.
+	public void releaseDirect(ByteBuffer buffer){
+		if (buffer == null || !buffer.isDirect()){
+			return;
+		}
+		
+		int sizeClass = exactSizeClass(buffer.capacity());
+		released.increment();
+		
+		if (sizeClass != -1){
+			inUseBytes.add(-buffer.capacity());
+			put(sizeClass, true, buffer);
+		}
+	}
+	
+	//Takes a free buffer from the cache of the thread or else from the shared stack.
+	private Object take(int sizeClass, boolean direct){
+		ThreadCache cache = threadCache();
+		
+		if (cache != null){
+			Object[] buffers = direct ? cache.direct[sizeClass] : cache.heap[sizeClass];
+			int[] counts = direct ? cache.directCount : cache.heapCount;
+			
+			if (counts[sizeClass] > 0){
+				counts[sizeClass] -= 1;
+				Object buffer = buffers[counts[sizeClass]];
+				buffers[counts[sizeClass]] = null;
+				return buffer;
+			}
+		}
+		
+		Object buffer = (direct ? directStacks : heapStacks)[sizeClass].pop();
+		if (buffer != null){
+			pooledBytes.add(-classSize(sizeClass));
+		}
+		
+		return buffer;
+	}
+	
+	//Puts a free buffer in the cache of the thread or else in the shared stack. The buffer is dropped if the stack is full.
+	private void put(int sizeClass, boolean direct, Object buffer){
+		ThreadCache cache = threadCache();
+		
+		if (cache != null){
+			Object[] buffers = direct ? cache.direct[sizeClass] : cache.heap[sizeClass];
+			int[] counts = direct ? cache.directCount : cache.heapCount;
+			
+			if (counts[sizeClass] < THREAD_CACHE_SIZE){
+				buffers[counts[sizeClass]] = buffer;
+				counts[sizeClass] += 1;
+				return;
+			}
+		}
+		
+		if ((direct ? directStacks : heapStacks)[sizeClass].push(buffer)){
+			pooledBytes.add(classSize(sizeClass));
+		}
+	}
+	
+	//Reads the given stream to the end and returns the content as a byte-array of the exact size. The data is collected in pooled buffers, which are doubled up to the biggest class and then filled one after another, so the returned array is the only allocation for bodies of any size.
+	public byte[] readAll(InputStream in) throws IOException{
+		ArrayList<byte[]> filled = null;
+		byte[] buffer = acquire(8192);
+		int count = 0;
+		
+		try{
+			while(true){
+				if (count == buffer.length && buffer.length < getMaxBufferSize()){
+					byte[] bigger = acquire(buffer.length * 2);
+					System.arraycopy(buffer, 0, bigger, 0, count);
+					release(buffer);
+					buffer = bigger;
+				}else if(count == buffer.length){
+					if (filled == null){
+						filled = new ArrayList<byte[]>();
+					}else if((long) (filled.size() + 2) * buffer.length > Integer.MAX_VALUE - 8){
+						throw new IOException("The stream is too big for a byte-array.");
+					}
+					
+					//Cleared before acquiring the next, so it is not released twice if that fails.
+					filled.add(buffer);
+					buffer = null;
+					buffer = acquire(getMaxBufferSize());
+					count = 0;
+				}
+				
+				int len = in.read(buffer, count, buffer.length - count);
+				if (len == -1){
+					break;
+				}
+				
+				count += len;
+			}
+			
+			int filledBytes = (filled == null) ? 0 : filled.size() * getMaxBufferSize();
+			byte[] result = new byte[filledBytes + count];
+			int pos = 0;
+			
+			if (filled != null){
+				for(byte[] chunk: filled){
+					System.arraycopy(chunk, 0, result, pos, chunk.length);
+					pos += chunk.length;
+				}
+			}
+			
+			System.arraycopy(buffer, 0, result, pos, count);
+			return result;
+		}finally{
+			release(buffer);
+			
+			if (filled != null){
+				for(byte[] chunk: filled){
+					release(chunk);
+				}
+			}
+		}
+	}
+	
+	//Returns the number of buffers handed out.
+	public long getAcquired(){
+		return acquired.sum();
+	}
+	
+	public long getReleased(){
+		return released.sum();
+	}
+	
+	//Returns the number of pooled buffers that had to be allocated, because no free buffer of the class was there.
+	public long getAllocated(){
+		return allocated.sum();
+	}
+	
+	public long getAllocatedBytes(){
+		return allocatedBytes.sum();
+	}
+	
+	//Returns the number of bytes handed out in buffers too big to be pooled.
+	public long getUnpooledBytes(){
+		return unpooledBytes.sum();
+	}
+	
+	//Returns the number of bytes in pooled buffers that have been handed out and not released.
+	public long getInUseBytes(){
+		return inUseBytes.sum();
+	}
+	
+	//Returns the number of bytes in free buffers in the shared stacks. Buffers kept by the threads are not counted.
+	public long getPooledBytes(){
+		return pooledBytes.sum();
+	}
+	
+	//Returns all the counters by flat names like 'buffers.allocated'.
+	public LinkedHashMap<String, Long> getSnapshot(){
+		LinkedHashMap<String, Long> snapshot = new LinkedHashMap<String, Long>();
+		snapshot.put("buffers.acquired", getAcquired());
+		snapshot.put("buffers.released", getReleased());
+		snapshot.put("buffers.allocated", getAllocated());
+		snapshot.put("buffers.allocated_bytes", getAllocatedBytes());
+		snapshot.put("buffers.unpooled_bytes", getUnpooledBytes());
+		snapshot.put("buffers.in_use_bytes", getInUseBytes());
+		snapshot.put("buffers.pooled_bytes", getPooledBytes());
+		return snapshot;
+	}
+	
+	@Override public String toString(){
+		return "HttpBrowserBufferPool " + getSnapshot();
+	}
+}
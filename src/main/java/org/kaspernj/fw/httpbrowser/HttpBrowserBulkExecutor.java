@@ -0,0 +1,116 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+//Runs bulk-requests with a thread per request and a cap on how many are running at the same time. Virtual threads are used when the JVM has them (Java 21+), otherwise a shared pool of daemon-threads.
+public class HttpBrowserBulkExecutor {
+	private static Executor sharedExecutor;
+	private static boolean virtualThreads = false;
+	
+	//Returns the shared executor that bulk-requests are run on.
+	public static synchronized Executor getSharedExecutor(){
+		if (sharedExecutor == null){
+			sharedExecutor = createVirtualThreadExecutor();
+			virtualThreads = (sharedExecutor != null);
+			
+			if (sharedExecutor == null){
+				sharedExecutor = Executors.newCachedThreadPool(new ThreadFactory(){
+					public Thread newThread(final Runnable runnable){
+						Thread thread = new Thread(new Runnable(){
+							public void run(){
+								HttpBrowserBufferPool.useSharedStacks();
+								runnable.run();
+							}
+						}, "HttpBrowserBulk");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			}
+		}
+		
+		return sharedExecutor;
+	}
+	
+	//Returns true if bulk-requests are run on virtual threads.
+	public static synchronized boolean isUsingVirtualThreads(){
+		getSharedExecutor();
+		return virtualThreads;
+	}
+	
+	//Looks up 'Executors.newVirtualThreadPerTaskExecutor' which only exists on Java 21+.
+	private static Executor createVirtualThreadExecutor(){
+		try{
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (Executor) method.invoke(null);
+		}catch(Exception e){
+			return null;
+		}
+	}
+	
+	private HttpBrowser http;
+	private Executor executor;
+	private int concurrency;
+	
+	public HttpBrowserBulkExecutor(HttpBrowser inHttp, int inConcurrency){
+		this(inHttp, inConcurrency, getSharedExecutor());
+	}
+	
+	public HttpBrowserBulkExecutor(HttpBrowser inHttp, int inConcurrency, Executor inExecutor){
+		if (inConcurrency < 1){
+			throw new IllegalArgumentException("The concurrency must be at least one: " + inConcurrency);
+		}
+		
+		http = inHttp;
+		concurrency = inConcurrency;
+		executor = inExecutor;
+	}
+	
+	//Executes all the requests and tells the listener about each of them as they are done. Returns when all requests are done.
+	public void executeAll(Collection<HttpBrowserBulkRequest> requests, final HttpBrowserBulkListener listener) throws InterruptedException{
+		final Semaphore permits = new Semaphore(concurrency);
+		final CountDownLatch done = new CountDownLatch(requests.size());
+		int index = 0;
+		
+		for(final HttpBrowserBulkRequest request: requests){
+			final int requestIndex = index;
+			index += 1;
+			
+			permits.acquire();
+			
+			try{
+				executor.execute(new Runnable(){
+					public void run(){
+						try{
+							HttpBrowserResult result;
+							
+							try{
+								result = request.execute(http);
+							}catch(Exception e){
+								listener.requestDone(requestIndex, request, null, e);
+								return;
+							}
+							
+							listener.requestDone(requestIndex, request, result, null);
+						}finally{
+							permits.release();
+							done.countDown();
+						}
+					}
+				});
+			}catch(RuntimeException e){
+				permits.release();
+				done.countDown();
+				throw e;
+			}
+		}
+		
+		done.await();
+	}
+}
@@ -0,0 +1,7 @@
+package org.kaspernj.fw.httpbrowser;
+
+//Is told about every request in a bulk-execution as soon as it is done. It is called from many threads at the same time, so it must be thread-safe.
+public interface HttpBrowserBulkListener {
+	//Called with the result or the exception for the request with the given index.
+	void requestDone(int index, HttpBrowserBulkRequest request, HttpBrowserResult result, Exception exception);
+}
@@ -0,0 +1,53 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.util.HashMap;
+
+//Describes a single request in a bulk-execution with HttpBrowser.executeAll.
+public class HttpBrowserBulkRequest {
+	private String method;
+	private String addr;
+	private HashMap<String, String> postData;
+	
+	public HttpBrowserBulkRequest(String inMethod, String inAddr, HashMap<String, String> inPostData){
+		method = inMethod;
+		addr = inAddr;
+		postData = inPostData;
+	}
+	
+	//Returns a get-request for the given address.
+	public static HttpBrowserBulkRequest get(String addr){
+		return new HttpBrowserBulkRequest("GET", addr, null);
+	}
+	
+	//Returns a post-request with the given post-data for the given address.
+	public static HttpBrowserBulkRequest post(String addr, HashMap<String, String> postData){
+		return new HttpBrowserBulkRequest("POST", addr, postData);
+	}
+	
+	public String getMethod(){
+		return method;
+	}
+	
+	public String getAddress(){
+		return addr;
+	}
+	
+	public HashMap<String, String> getPostData(){
+		return postData;
+	}
+	
+	//Executes the request on the given browser.
+	public HttpBrowserResult execute(HttpBrowser http) throws Exception{
+		if (method.equals("GET")){
+			return http.get(addr);
+		}else if(method.equals("POST")){
+			return http.post(addr, postData);
+		}
+		
+		throw new Exception("Unsupported method for bulk-requests: '" + method + "'.");
+	}
+	
+	@Override public String toString(){
+		return method + " /" + addr;
+	}
+}
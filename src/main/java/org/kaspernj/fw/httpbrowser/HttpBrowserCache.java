@@ -0,0 +1,307 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//An in-memory cache for results of get-requests. Fresh results are served from memory according to Cache-Control and Expires. Stale results are revalidated with If-None-Match and If-Modified-Since and served from memory if the host answers 304. The least recently used results are evicted when the bodies take up more than the byte-budget.
+//The cache is thread-safe and can be shared by several browsers.
+public class HttpBrowserCache {
+	//Headers of a 304 that replace the ones of the cached result.
+	private static final String[] REVALIDATED_HEADERS = {"cache-control", "date", "etag", "expires", "last-modified", "vary"};
+	
+	//A cached result.
+	private static class Entry {
+		HttpBrowserResult result;
+		long storedAt;
+		long freshUntil;
+		long lifetime;
+		String etag;
+		String lastModified;
+		int size;
+		
+		boolean isFresh(){
+			return System.currentTimeMillis() < freshUntil;
+		}
+	}
+	
+	private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long maxBytes;
+	private long bytes = 0;
+	
+	private long hits = 0;
+	private long misses = 0;
+	private long revalidations = 0;
+	private long evictions = 0;
+	
+	public HttpBrowserCache(long inMaxBytes){
+		if (inMaxBytes < 1){
+			throw new IllegalArgumentException("The cache must be allowed at least one byte: " + inMaxBytes);
+		}
+		
+		maxBytes = inMaxBytes;
+	}
+	
+	//Executes a get-request through the cache.
+	public HttpBrowserResult get(HttpBrowser http, String host, int port, String addr) throws Exception{
+		String key = host + ":" + port + "/" + addr;
+		Entry entry;
+		
+		synchronized(this){
+			entry = entries.get(key);
+			
+			if (entry != null && entry.isFresh()){
+				hits += 1;
+				return copyResult(entry.result);
+			}
+		}
+		
+		HashMap<String, String> conditionalHeaders = null;
+		
+		if (entry != null){
+			conditionalHeaders = new HashMap<String, String>();
+			
+			if (entry.etag != null){
+				conditionalHeaders.put("If-None-Match", entry.etag);
+			}
+			
+			if (entry.lastModified != null){
+				conditionalHeaders.put("If-Modified-Since", entry.lastModified);
+			}
+		}
+		
+		HttpBrowserResult res = http.getUncached(addr, conditionalHeaders);
+		
+		if (entry != null && res.getStatusCode() == 304){
+			synchronized(this){
+				revalidations += 1;
+				revalidate(entry, res);
+				
+				if (!entries.containsKey(key)){
+					put(key, entry);
+				}
+				
+				return copyResult(entry.result);
+			}
+		}
+		
+		synchronized(this){
+			misses += 1;
+			store(key, res);
+		}
+		
+		return res;
+	}
+	
+	//Stores the result if it is allowed to be cached and can be revalidated or is fresh for a while.
+	private void store(String key, HttpBrowserResult res){
+		String cacheControl = res.getHeader("cache-control");
+		
+		remove(key);
+		
+		if (res.getStatusCode() != 200 || hasDirective(cacheControl, "no-store") || "*".equals(res.getHeader("vary"))){
+			return;
+		}
+		
+		//The caller gets the result itself, so the cache keeps its own copy.
+		Entry entry = new Entry();
+		entry.result = copyResult(res);
+		entry.storedAt = System.currentTimeMillis();
+		entry.etag = res.getHeader("etag");
+		entry.lastModified = res.getHeader("last-modified");
+		entry.size = res.getBodyAsByteArray().length;
+		
+		Long lifetime = lifetime(res);
+		entry.lifetime = (lifetime != null) ? lifetime : 0;
+		entry.freshUntil = entry.storedAt + entry.lifetime;
+		
+		if (entry.lifetime <= 0 && entry.etag == null && entry.lastModified == null){
+			return;
+		}else if(entry.size > maxBytes){
+			return;
+		}
+		
+		put(key, entry);
+	}
+	
+	//Updates the cached result with the validators and freshness given by the 304 that confirmed it.
+	private void revalidate(Entry entry, HttpBrowserResult notModified){
+		HttpBrowserHeaders oldHeaders = entry.result.getHeaderList();
+		HttpBrowserHeaders newHeaders = new HttpBrowserHeaders();
+		
+		for(int i = 0; i < oldHeaders.size(); i++){
+			String name = oldHeaders.getName(i);
+			
+			if (!isRevalidatedHeader(name) || !notModified.getHeaderList().contains(name)){
+				newHeaders.add(name, oldHeaders.getValue(i));
+			}
+		}
+		
+		for(String name: REVALIDATED_HEADERS){
+			for(String value: notModified.getHeaderValues(name)){
+				newHeaders.add(name, value);
+			}
+		}
+		
+		entry.result.setHeaders(newHeaders);
+		entry.etag = newHeaders.get("etag");
+		entry.lastModified = newHeaders.get("last-modified");
+		
+		Long lifetime = lifetime(entry.result);
+		entry.lifetime = (lifetime != null) ? lifetime : entry.lifetime;
+		entry.freshUntil = System.currentTimeMillis() + entry.lifetime;
+	}
+	
+	private boolean isRevalidatedHeader(String name){
+		for(String revalidated: REVALIDATED_HEADERS){
+			if (revalidated.equals(name)){
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	private void put(String key, Entry entry){
+		entries.put(key, entry);
+		bytes += entry.size;
+		
+		//Evict the least recently used results until the bodies fit within the budget.
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while(bytes > maxBytes && it.hasNext()){
+			Entry eldest = it.next().getValue();
+			it.remove();
+			bytes -= eldest.size;
+			evictions += 1;
+		}
+	}
+	
+	private void remove(String key){
+		Entry entry = entries.remove(key);
+		if (entry != null){
+			bytes -= entry.size;
+		}
+	}
+	
+	//Returns how long the given result is fresh in milliseconds, or null if its headers do not say.
+	private Long lifetime(HttpBrowserResult res){
+		String cacheControl = res.getHeader("cache-control");
+		
+		if (cacheControl != null){
+			if (hasDirective(cacheControl, "no-cache")){
+				return 0L;
+			}
+			
+			for(String directive: cacheControl.split(",")){
+				directive = directive.trim().toLowerCase();
+				
+				if (directive.startsWith("max-age=")){
+					try{
+						return Math.max(0, Long.parseLong(directive.substring(8).replace("\"", "").trim()) * 1000);
+					}catch(NumberFormatException e){
+						return 0L;
+					}
+				}
+			}
+		}
+		
+		String expires = res.getHeader("expires");
+		
+		if (expires != null){
+			Long expiresAt = parseDate(expires);
+			if (expiresAt == null){
+				//Invalid dates (like "0") means already expired.
+				return 0L;
+			}
+			
+			Long date = parseDate(res.getHeader("date"));
+			long now = (date != null) ? date : System.currentTimeMillis();
+			
+			return Math.max(0, expiresAt - now);
+		}
+		
+		return null;
+	}
+	
+	private boolean hasDirective(String cacheControl, String name){
+		if (cacheControl == null){
+			return false;
+		}
+		
+		for(String directive: cacheControl.split(",")){
+			if (directive.trim().toLowerCase().equals(name)){
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	private Long parseDate(String str){
+		if (str == null){
+			return null;
+		}
+		
+		try{
+			return ZonedDateTime.parse(str.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+		}catch(Exception e){
+			return null;
+		}
+	}
+	
+	//Returns a copy of a result with its own headers and body, so callers and the cache dont share anything they could change.
+	private HttpBrowserResult copyResult(HttpBrowserResult cached){
+		HttpBrowserResult res = new HttpBrowserResult();
+		res.setStatusCode(cached.getStatusCode());
+		res.setHeaders(new HttpBrowserHeaders(cached.getHeaderList()));
+		res.setBodyByteArray(cached.getBodyAsByteArray().clone());
+		res.contentLength = cached.contentLength;
+		res.contentEncoding = cached.contentEncoding;
+		res.transferEncoding = cached.transferEncoding;
+		res.setFromCache(true);
+		
+		return res;
+	}
+	
+	//Removes all cached results.
+	public synchronized void clear(){
+		entries.clear();
+		bytes = 0;
+	}
+	
+	//Returns the number of requests that were served from the cache without contacting the host.
+	public synchronized long getHits(){
+		return hits;
+	}
+	
+	//Returns the number of requests that had to be fetched from the host.
+	public synchronized long getMisses(){
+		return misses;
+	}
+	
+	//Returns the number of stale results that the host confirmed with 304.
+	public synchronized long getRevalidations(){
+		return revalidations;
+	}
+	
+	//Returns the number of results that have been evicted to stay within the byte-budget.
+	public synchronized long getEvictions(){
+		return evictions;
+	}
+	
+	//Returns the number of bytes taken by the cached bodies.
+	public synchronized long getBytes(){
+		return bytes;
+	}
+	
+	public synchronized int getEntryCount(){
+		return entries.size();
+	}
+	
+	public long getMaxBytes(){
+		return maxBytes;
+	}
+}
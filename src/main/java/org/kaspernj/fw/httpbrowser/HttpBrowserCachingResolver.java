@@ -0,0 +1,175 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+//Resolver that keeps the addresses of every host for a while, so reconnecting does not look up the host again. The addresses are handed out round-robin, so connections are spread over all A- and AAAA-records, and addresses that could not be connected to are tried last until the failure-timeout has passed.
+public class HttpBrowserCachingResolver implements HttpBrowserResolver {
+	private static HttpBrowserCachingResolver defaultResolver;
+	
+	//The addresses of a host, when they should be looked up again and where the next round starts.
+	private static class Entry {
+		InetAddress[] addresses;
+		long expiresAt;
+		AtomicInteger next = new AtomicInteger();
+	}
+	
+	//Looks up the hosts that are not in the cache. Null uses the resolver of the system.
+	private HttpBrowserResolver lookup;
+	
+	//How long addresses are kept and how long a failed address is tried last in milliseconds.
+	private volatile long ttl = 30000;
+	private volatile long failureTimeout = 10000;
+	
+	private ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private ConcurrentHashMap<InetAddress, Long> failedUntil = new ConcurrentHashMap<InetAddress, Long>();
+	
+	private LongAdder lookups = new LongAdder();
+	private LongAdder hits = new LongAdder();
+	
+	//Returns the resolver shared by all browsers that have not been given one of their own.
+	public static synchronized HttpBrowserCachingResolver getDefault(){
+		if (defaultResolver == null){
+			defaultResolver = new HttpBrowserCachingResolver();
+		}
+		
+		return defaultResolver;
+	}
+	
+	//Caches the addresses given by the resolver of the system.
+	public HttpBrowserCachingResolver(){
+		this(null);
+	}
+	
+	//Caches the addresses given by another resolver, like a stub in tests.
+	public HttpBrowserCachingResolver(HttpBrowserResolver inLookup){
+		lookup = inLookup;
+	}
+	
+	//Sets how long the addresses of a host are kept in milliseconds. Zero looks up the host every time.
+	public void setTtl(long inTtl){
+		if (inTtl < 0){
+			throw new IllegalArgumentException("The TTL cannot be negative: " + inTtl);
+		}
+		
+		ttl = inTtl;
+	}
+	
+	public long getTtl(){
+		return ttl;
+	}
+	
+	//Sets how long an address that could not be connected to is tried after the other addresses in milliseconds.
+	public void setFailureTimeout(long inFailureTimeout){
+		if (inFailureTimeout < 0){
+			throw new IllegalArgumentException("The failure-timeout cannot be negative: " + inFailureTimeout);
+		}
+		
+		failureTimeout = inFailureTimeout;
+	}
+	
+	public long getFailureTimeout(){
+		return failureTimeout;
+	}
+	
+	public InetAddress[] resolve(String host) throws UnknownHostException{
+		long now = System.currentTimeMillis();
+		Entry entry = entries.get(host);
+		
+		if (entry == null || entry.expiresAt <= now){
+			try{
+				entry = lookup(host, now);
+			}catch(UnknownHostException e){
+				//Keep using the old addresses while the host cannot be looked up.
+				if (entry == null){
+					throw e;
+				}
+			}
+		}else{
+			hits.increment();
+		}
+		
+		return order(entry, now);
+	}
+	
+	public void connectFailed(String host, InetAddress address){
+		failedUntil.put(address, System.currentTimeMillis() + failureTimeout);
+	}
+	
+	//Looks up the host and caches its addresses. Hosts missed by several threads at the same time may be looked up more than once.
+	private Entry lookup(String host, long now) throws UnknownHostException{
+		InetAddress[] addresses = (lookup == null) ? InetAddress.getAllByName(host) : lookup.resolve(host);
+		lookups.increment();
+		
+		if (addresses == null || addresses.length == 0){
+			throw new UnknownHostException("No addresses was found for the host: " + host);
+		}
+		
+		Entry entry = new Entry();
+		entry.addresses = addresses;
+		entry.expiresAt = now + ttl;
+		entries.put(host, entry);
+		
+		return entry;
+	}
+	
+	//Returns the addresses starting from the next in the round with the failed addresses moved to the end.
+	private InetAddress[] order(Entry entry, long now){
+		InetAddress[] addresses = entry.addresses;
+		InetAddress[] ordered = new InetAddress[addresses.length];
+		int start = Math.floorMod(entry.next.getAndIncrement(), addresses.length);
+		int first = 0;
+		int last = addresses.length - 1;
+		
+		for(int i = 0; i < addresses.length; i++){
+			InetAddress address = addresses[(start + i) % addresses.length];
+			
+			if (hasFailed(address, now)){
+				ordered[last--] = address;
+			}else{
+				ordered[first++] = address;
+			}
+		}
+		
+		//The failed addresses were added from the end - put them back in the order of the round.
+		for(int i = first, j = addresses.length - 1; i < j; i++, j--){
+			InetAddress address = ordered[i];
+			ordered[i] = ordered[j];
+			ordered[j] = address;
+		}
+		
+		return ordered;
+	}
+	
+	private boolean hasFailed(InetAddress address, long now){
+		Long until = failedUntil.get(address);
+		
+		if (until == null){
+			return false;
+		}else if(until <= now){
+			failedUntil.remove(address, until);
+			return false;
+		}
+		
+		return true;
+	}
+	
+	//Returns the number of times a host has been looked up because it was not cached or had expired.
+	public long getLookups(){
+		return lookups.sum();
+	}
+	
+	//Returns the number of times the addresses of a host was found in the cache.
+	public long getHits(){
+		return hits.sum();
+	}
+	
+	//Forgets all cached addresses and failures.
+	public void clear(){
+		entries.clear();
+		failedUntil.clear();
+	}
+}
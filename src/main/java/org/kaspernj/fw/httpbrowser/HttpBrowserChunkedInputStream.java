@@ -0,0 +1,83 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+//Reads a body given with chunked transfer-encoding from the connection. Chunk-sizes are read lazily as the body is consumed.
+public class HttpBrowserChunkedInputStream extends InputStream {
+	private HttpBrowserSocketReader sockReader;
+	
+	//The number of bytes left in the current chunk.
+	private int remainingInChunk = 0;
+	
+	private boolean firstChunk = true;
+	private boolean eof = false;
+	
+	public HttpBrowserChunkedInputStream(HttpBrowserSocketReader inSockReader){
+		sockReader = inSockReader;
+	}
+	
+	//Reads the next chunk-size if the current chunk has been consumed. Returns false when the last chunk has been read.
+	private boolean nextChunk() throws IOException{
+		if (eof){
+			return false;
+		}else if(remainingInChunk > 0){
+			return true;
+		}
+		
+		if (firstChunk){
+			firstChunk = false;
+		}else{
+			sockReader.readEmptyLine();
+		}
+		
+		remainingInChunk = sockReader.readChunkSize();
+		
+		//This will happen when there is no more content to be received.
+		if (remainingInChunk == 0){
+			//Skip trailers until the final empty line.
+			while(!sockReader.readLine().isEmpty()){
+				//ignore.
+			}
+			
+			eof = true;
+			return false;
+		}
+		
+		return true;
+	}
+	
+	@Override public int read() throws IOException{
+		if (!nextChunk()){
+			return -1;
+		}
+		
+		int ch = sockReader.readByte();
+		remainingInChunk -= 1;
+		return ch;
+	}
+	
+	@Override public int read(byte[] buffer, int offset, int length) throws IOException{
+		if (length == 0){
+			return 0;
+		}else if(!nextChunk()){
+			return -1;
+		}
+		
+		int len = sockReader.read(buffer, offset, Math.min(length, remainingInChunk));
+		if (len == -1){
+			throw new IOException("Socket seems to have closed on us?");
+		}
+		
+		remainingInChunk -= len;
+		return len;
+	}
+	
+	@Override public int available(){
+		if (eof){
+			return 0;
+		}
+		
+		return Math.min(sockReader.buffered(), remainingInChunk);
+	}
+}
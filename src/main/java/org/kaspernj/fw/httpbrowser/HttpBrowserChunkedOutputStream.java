@@ -0,0 +1,119 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+//Sends a request-body of unknown length with chunked transfer-encoding. Data is collected in a fixed buffer and sent as a chunk every time it is full, so memory-usage does not grow with the size of the body.
+public class HttpBrowserChunkedOutputStream extends OutputStream {
+	//Room before the data for the chunk-size-line.
+	private static final int HEADER_ROOM = 10;
+	
+	private static final byte[] HEX = "0123456789abcdef".getBytes();
+	private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes();
+	
+	private OutputStream out;
+	
+	//Holds the chunk-size-line, the data and the line-ending, so every chunk is sent with a single write. Taken from the buffer-pool and given back when the stream is closed.
+	private byte[] buffer;
+	private int chunkSize;
+	private int count = 0;
+	private boolean closed = false;
+	
+	public HttpBrowserChunkedOutputStream(OutputStream inOut, int inChunkSize){
+		if (inChunkSize < 1){
+			throw new IllegalArgumentException("The chunk-size must be at least one: " + inChunkSize);
+		}
+		
+		out = inOut;
+		chunkSize = inChunkSize;
+		buffer = HttpBrowserBufferPool.getDefault().acquire(HEADER_ROOM + chunkSize + 2);
+	}
+	
+	@Override public void write(int b) throws IOException{
+		if (closed){
+			throw new IOException("Stream closed.");
+		}else if(count >= chunkSize){
+			writeChunk();
+		}
+		
+		buffer[HEADER_ROOM + count] = (byte) b;
+		count += 1;
+	}
+	
+	@Override public void write(byte[] bytes, int offset, int length) throws IOException{
+		if (closed){
+			throw new IOException("Stream closed.");
+		}
+		
+		while(length > 0){
+			if (count >= chunkSize){
+				writeChunk();
+			}
+			
+			int len = Math.min(length, chunkSize - count);
+			System.arraycopy(bytes, offset, buffer, HEADER_ROOM + count, len);
+			count += len;
+			offset += len;
+			length -= len;
+		}
+	}
+	
+	//Sends the collected data as a chunk.
+	private void writeChunk() throws IOException{
+		if (count == 0){
+			return;
+		}
+		
+		//Write the chunk-size as hex right before the data.
+		int start = HEADER_ROOM - 2;
+		buffer[start] = '\r';
+		buffer[start + 1] = '\n';
+		
+		int size = count;
+		do{
+			start -= 1;
+			buffer[start] = HEX[size & 0xF];
+			size >>>= 4;
+		}while(size > 0);
+		
+		int end = HEADER_ROOM + count;
+		buffer[end] = '\r';
+		buffer[end + 1] = '\n';
+		
+		out.write(buffer, start, end + 2 - start);
+		count = 0;
+	}
+	
+	//Sends the collected data as a chunk without ending the body.
+	@Override public void flush() throws IOException{
+		writeChunk();
+		out.flush();
+	}
+	
+	//Sends the last of the data and ends the body. The underlying stream is not closed, since the connection is kept alive.
+	@Override public void close() throws IOException{
+		if (closed){
+			return;
+		}
+		
+		closed = true;
+		
+		try{
+			writeChunk();
+			out.write(LAST_CHUNK);
+			out.flush();
+		}finally{
+			release();
+		}
+	}
+	
+	//Gives the buffer back to the pool without ending the body. Used when the body could not be written to the end, so the connection will not be reused. Nothing happens if the stream has been closed.
+	public void release(){
+		closed = true;
+		
+		if (buffer != null){
+			HttpBrowserBufferPool.getDefault().release(buffer);
+			buffer = null;
+		}
+	}
+}
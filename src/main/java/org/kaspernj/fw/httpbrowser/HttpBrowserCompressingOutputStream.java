@@ -0,0 +1,119 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+//Sends a request-body of unknown length compressed with GZIP once it has reached the minimum size for compression. The start of the body is held back until then, so the head of the request can tell the host if the body is compressed. Bodies ending before the minimum size are sent as they are.
+class HttpBrowserCompressingOutputStream extends OutputStream {
+	//Sends the head of the request and returns the stream that the body is written to. Closing the stream ends the body.
+	interface Target {
+		OutputStream open(boolean compressed) throws IOException;
+	}
+	
+	private Target target;
+	private Deflater deflater;
+	private int level;
+	
+	//The start of the body held back until the decision is made.
+	private byte[] held;
+	private int count = 0;
+	
+	//The stream the body is written to after the head has been sent. When compressed it writes to the stream given by the target.
+	private OutputStream out;
+	private OutputStream opened;
+	private HttpBrowserGZIPOutputStream gzip;
+	private boolean closed = false;
+	
+	HttpBrowserCompressingOutputStream(Target inTarget, Deflater inDeflater, int inLevel, int inMinSize){
+		target = inTarget;
+		deflater = inDeflater;
+		level = inLevel;
+		held = new byte[inMinSize];
+	}
+	
+	@Override public void write(int b) throws IOException{
+		if (closed){
+			throw new IOException("Stream closed.");
+		}
+		
+		if (out == null){
+			if (count + 1 < held.length){
+				held[count] = (byte) b;
+				count += 1;
+				return;
+			}
+			
+			openCompressed();
+		}
+		
+		out.write(b);
+	}
+	
+	@Override public void write(byte[] bytes, int offset, int length) throws IOException{
+		if (closed){
+			throw new IOException("Stream closed.");
+		}
+		
+		if (out == null){
+			if (count + length < held.length){
+				System.arraycopy(bytes, offset, held, count, length);
+				count += length;
+				return;
+			}
+			
+			openCompressed();
+		}
+		
+		out.write(bytes, offset, length);
+	}
+	
+	//Sends the head of a compressed body and the held back data once the body has reached the minimum size.
+	private void openCompressed() throws IOException{
+		opened = target.open(true);
+		gzip = new HttpBrowserGZIPOutputStream(opened, deflater, level);
+		out = gzip;
+		out.write(held, 0, count);
+	}
+	
+	//Sends what has been written so far without ending the body. Held back data is kept until the minimum size is reached.
+	@Override public void flush() throws IOException{
+		if (out != null){
+			out.flush();
+		}
+	}
+	
+	//Ends the body. If it never reached the minimum size, it is sent uncompressed.
+	@Override public void close() throws IOException{
+		if (closed){
+			return;
+		}
+		
+		closed = true;
+		
+		try{
+			if (out == null){
+				opened = target.open(false);
+				out = opened;
+				out.write(held, 0, count);
+			}
+			
+			out.close();
+		}finally{
+			release();
+		}
+	}
+	
+	//Gives the pooled buffers of the body back without ending it. Used when the body could not be written to the end, so the connection will not be reused. Nothing happens if the stream has been closed.
+	void release(){
+		closed = true;
+		
+		if (gzip != null){
+			gzip.release();
+		}
+		
+		if (opened instanceof HttpBrowserChunkedOutputStream){
+			((HttpBrowserChunkedOutputStream) opened).release();
+		}
+	}
+}
@@ -0,0 +1,486 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.zip.Deflater;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+
+//A single keep-alive connection to a host. Connections are handed out and taken back by HttpBrowserConnectionPool.
+public class HttpBrowserConnection {
+	//The browser that the connection belongs to. Used for debugging.
+	private HttpBrowser http;
+	
+	//The host and port that the connection is made to.
+	private String host;
+	private int port;
+	
+	//Socket-connection to the host. It is opened through a channel so files can be sent with FileChannel.transferTo. When TLS is used the socket is a SSLSocket layered on top of the channel.
+	private SocketChannel channel;
+	private Socket sock;
+	
+	//The TLS-session and the protocol agreed on through ALPN. Null when TLS is not used.
+	private SSLSession tlsSession;
+	private String applicationProtocol;
+	
+	//The protocols offered through ALPN instead of the ones set on the browser. Used by HTTP/2-connections.
+	private String[] applicationProtocols;
+	
+	//Used to send data to the host.
+	private OutputStream sockOut;
+	
+	//Used to get data from the host.
+	private InputStream sockIn;
+	
+	//Reads from 'sockIn' through a reusable buffer.
+	private HttpBrowserSocketReader sockReader;
+	
+	//Keep-alive information given by the host for this connection.
+	private Integer keepaliveMax;
+	private Long keepaliveInvalidAfter;
+	private int requestsExecutedOnCurrectConnection = 0;
+	
+	//The time it took to open the connection and the time the current request was sent. Used for the metrics of the requests.
+	private long connectNanos;
+	private long handshakeNanos;
+	private long requestStartedAt;
+	
+	//Used to look for data or EOF on an idle connection without blocking.
+	private ByteBuffer probeBuffer;
+	
+	//Requests are serialized into this before being sent.
+	private HttpBrowserRequestBuffer requestBuffer;
+	
+	//The decoders used to decompress results by content-coding. Reused for every result on the connection.
+	private HashMap<String, HttpBrowserContentDecoder> contentDecoders;
+	
+	//Used to compress request-bodies. Reused for every request on the connection.
+	private Deflater deflater;
+	
+	public HttpBrowserConnection(HttpBrowser inHttp, String inHost, int inPort){
+		http = inHttp;
+		host = inHost;
+		port = inPort;
+	}
+	
+	//Sets the browser that the connection is used for. The asynchronous engine gives a connection to requests of the browser that opened it, so this only keeps the parser in line with the request.
+	void setHttp(HttpBrowser inHttp){
+		http = inHttp;
+	}
+	
+	//Opens the socket to the host.
+	public void connect() throws Exception{
+		http.debug("Connecting to " + host + ":" + port + ".\n");
+		
+		long startNanos = System.nanoTime();
+		channel = openChannel();
+		connectNanos = System.nanoTime() - startNanos;
+		handshakeNanos = 0;
+		
+		sock = channel.socket();
+		
+		if (http.isTls()){
+			sock = startTls(sock);
+		}
+		
+		sockOut = sock.getOutputStream();
+		sockIn = sock.getInputStream();
+		
+		if (sockReader != null){
+			sockReader.release();
+		}
+		
+		sockReader = new HttpBrowserSocketReader(sockIn);
+		
+		requestsExecutedOnCurrectConnection = 0;
+		requestStartedAt = 0;
+	}
+	
+	//Connects to the addresses given by the resolver of the browser in their order, until one of them answers. Addresses that fail are reported to the resolver, so they are tried last next time.
+	private SocketChannel openChannel() throws IOException{
+		HttpBrowserResolver resolver = http.getResolver();
+		IOException failure = null;
+		
+		for(InetAddress address: resolver.resolve(host)){
+			SocketChannel newChannel = SocketChannel.open();
+			
+			try{
+				newChannel.socket().connect(new InetSocketAddress(address, port), http.getConnectTimeout());
+				return newChannel;
+			}catch(IOException e){
+				http.debug("Could not connect to " + address.getHostAddress() + ":" + port + ": " + e.getMessage() + "\n");
+				resolver.connectFailed(host, address);
+				newChannel.close();
+				failure = e;
+			}
+		}
+		
+		if (failure == null){
+			throw new UnknownHostException("No addresses was found for the host: " + host);
+		}
+		
+		throw failure;
+	}
+	
+	//Starts TLS on the connected socket and does the handshake. The SSL-context of the browser caches the sessions by host and port, so reconnecting resumes the session with an abbreviated handshake.
+	private SSLSocket startTls(Socket plainSock) throws Exception{
+		//Otherwise the request waits for the last handshake-message to be acknowledged by the host (Nagle and delayed ACK).
+		plainSock.setTcpNoDelay(true);
+		
+		SSLSocket sslSock = (SSLSocket) http.getSslContext().getSocketFactory().createSocket(plainSock, host, port, true);
+		
+		try{
+			SSLParameters params = sslSock.getSSLParameters();
+			params.setEndpointIdentificationAlgorithm("HTTPS");
+			params.setApplicationProtocols(applicationProtocols != null ? applicationProtocols : http.getApplicationProtocols());
+			sslSock.setSSLParameters(params);
+			
+			long startNanos = System.nanoTime();
+			sslSock.startHandshake();
+			setHandshake(System.nanoTime() - startNanos, sslSock.getSession(), sslSock.getApplicationProtocol());
+			
+			return sslSock;
+		}catch(IOException e){
+			sslSock.close();
+			throw e;
+		}
+	}
+	
+	//Notes the result of the TLS-handshake. Also used by the asynchronous engine, which does its own handshakes.
+	void setHandshake(long inHandshakeNanos, SSLSession inTlsSession, String inApplicationProtocol){
+		handshakeNanos = inHandshakeNanos;
+		tlsSession = inTlsSession;
+		applicationProtocol = (inApplicationProtocol == null || inApplicationProtocol.isEmpty()) ? null : inApplicationProtocol;
+		
+		http.debug("TLS-handshake done in " + (handshakeNanos / 1000) + "us (" + tlsSession.getProtocol() + ", " + tlsSession.getCipherSuite() + ", ALPN: " + applicationProtocol + ").\n");
+	}
+	
+	//Sets the protocols to offer through ALPN instead of the ones set on the browser.
+	void setApplicationProtocols(String[] inApplicationProtocols){
+		applicationProtocols = inApplicationProtocols;
+	}
+	
+	//Turns Nagle's algorithm on the socket off or on.
+	void setTcpNoDelay(boolean on) throws IOException{
+		sock.setTcpNoDelay(on);
+	}
+	
+	//Returns true if the connection is made with TLS.
+	public boolean isTls(){
+		return (tlsSession != null);
+	}
+	
+	//Returns the TLS-session of the connection or null if TLS is not used.
+	public SSLSession getTlsSession(){
+		return tlsSession;
+	}
+	
+	//Returns the protocol agreed on with the host through ALPN, like 'http/1.1', or null if the host did not choose one.
+	public String getApplicationProtocol(){
+		return applicationProtocol;
+	}
+	
+	//Returns true if the socket is connected and can be used for another request. Otherwise false.
+	public boolean isConnected(){
+		if (sock == null || sock.isClosed() || !sock.isConnected() || sock.isInputShutdown() || sock.isOutputShutdown()){
+			http.debug("The socket-objects has not been created or something is wrong with them.\n");
+			return false;
+		}
+		
+		return isKeepaliveValid();
+	}
+	
+	//Returns true if the host has closed the idle connection or sent something it should not have. The socket is read without blocking, so a connection that is closed early by the host is found before a request is sent on it. With TLS the encrypted data is read directly from the channel, which is fine since anything received on an idle connection, like a close_notify, makes it stale.
+	public boolean isStale(){
+		if (sockReader.buffered() > 0){
+			http.debug("The idle connection has unread data.\n");
+			return true;
+		}
+		
+		if (probeBuffer == null){
+			probeBuffer = ByteBuffer.allocate(1);
+		}
+		
+		try{
+			channel.configureBlocking(false);
+			
+			try{
+				int len = channel.read(probeBuffer);
+				probeBuffer.clear();
+				
+				if (len != 0){
+					http.debug("The idle connection has been closed by the host or has unexpected data (" + len + ").\n");
+					return true;
+				}
+			}finally{
+				channel.configureBlocking(true);
+			}
+		}catch(IOException e){
+			http.debug("The idle connection could not be checked: " + e.getMessage() + "\n");
+			return true;
+		}
+		
+		return false;
+	}
+	
+	//Returns true if the keep-alive information given by the host allows another request on the connection.
+	public boolean isKeepaliveValid(){
+		if (keepaliveInvalidAfter != null && keepaliveInvalidAfter <= System.currentTimeMillis()){
+			SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+			Date date = new Date(keepaliveInvalidAfter);
+			http.debug("Too much time has passed according to the keep-alive-max (" + keepaliveInvalidAfter + ", " + format.format( date ) + ") - the connection has been closed by the host.\n");
+			return false;
+		}else if (keepaliveMax != null && requestsExecutedOnCurrectConnection >= keepaliveMax){
+			http.debug("We have made the maximum number of requests per connection and should reconnect (keep-alive-max: " + keepaliveMax + ", requests-executed: " + requestsExecutedOnCurrectConnection + ".\n");
+			return false;
+		}
+		
+		return true;
+	}
+	
+	//Closes the connection to the host.
+	public void close(){
+		http.debug("Closing connection.\n");
+		
+		try{
+			if (sock != null){
+				sock.close();
+			}
+		}catch(IOException e){
+			//ignore.
+		}finally{
+			channel = null;
+			sock = null;
+			sockIn = null;
+			sockOut = null;
+			
+			if (sockReader != null){
+				sockReader.release();
+				sockReader = null;
+			}
+			
+			tlsSession = null;
+			applicationProtocol = null;
+			
+			if (contentDecoders != null){
+				for(HttpBrowserContentDecoder decoder: contentDecoders.values()){
+					decoder.close();
+				}
+				
+				contentDecoders = null;
+			}
+			
+			if (deflater != null){
+				deflater.end();
+				deflater = null;
+			}
+		}
+	}
+	
+	public String getHost(){
+		return host;
+	}
+	
+	public int getPort(){
+		return port;
+	}
+	
+	//Returns the stream used to send data to the host.
+	public OutputStream getOutputStream(){
+		return sockOut;
+	}
+	
+	//Reads results from the given stream instead of the socket. Used by the asynchronous engine, which receives complete results on its own channels, and by HTTP/2-connections. The reader and its buffer are reused.
+	void setInputStream(InputStream inSockIn){
+		sockIn = inSockIn;
+		
+		if (sockReader == null){
+			sockReader = new HttpBrowserSocketReader(sockIn);
+		}else{
+			sockReader.setInputStream(sockIn);
+		}
+	}
+	
+	//Returns the reader used to get data from the host.
+	public HttpBrowserSocketReader getReader(){
+		return sockReader;
+	}
+	
+	//Returns the decoder of this connection for the content-coding of the given factory. The decoder is made by the factory the first time the coding is used.
+	public HttpBrowserContentDecoder getContentDecoder(HttpBrowserContentDecoderFactory factory){
+		if (contentDecoders == null){
+			contentDecoders = new HashMap<String, HttpBrowserContentDecoder>();
+		}
+		
+		HttpBrowserContentDecoder decoder = contentDecoders.get(factory.getEncoding());
+		if (decoder == null){
+			decoder = factory.newDecoder();
+			contentDecoders.put(factory.getEncoding(), decoder);
+		}
+		
+		return decoder;
+	}
+	
+	//Returns the deflater used to compress request-bodies on this connection. It is made without the zlib-wrapper for HttpBrowserGZIPOutputStream.
+	public Deflater getDeflater(){
+		if (deflater == null){
+			deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		}
+		
+		return deflater;
+	}
+	
+	//Returns the buffer that requests are serialized into before they are sent with 'sendRequestBuffer'.
+	public HttpBrowserRequestBuffer getRequestBuffer(){
+		if (requestBuffer == null){
+			requestBuffer = new HttpBrowserRequestBuffer();
+		}
+		
+		return requestBuffer;
+	}
+	
+	//Sends the content of the request-buffer to the host with a single write and empties the buffer.
+	public void sendRequestBuffer() throws IOException{
+		try{
+			if (http.doDebug){
+				http.debug("Sending request-data: '" + requestBuffer + "'.\n");
+			}
+			
+			requestStarted();
+			requestBuffer.writeTo(sockOut);
+		}finally{
+			requestBuffer.reset();
+		}
+	}
+	
+	//Returns the time it took to open the connection.
+	public long getConnectNanos(){
+		return connectNanos;
+	}
+	
+	void setConnectNanos(long inConnectNanos){
+		connectNanos = inConnectNanos;
+	}
+	
+	public long getHandshakeNanos(){
+		return handshakeNanos;
+	}
+	
+	//Notes the time the request is being sent, unless a request that has not been answered yet already was.
+	void requestStarted(){
+		if (requestStartedAt == 0){
+			requestStartedAt = System.nanoTime();
+		}
+	}
+	
+	//Sets the time the request was sent. Used for results that are read from elsewhere than the socket.
+	void setRequestStartedAt(long inRequestStartedAt){
+		requestStartedAt = inRequestStartedAt;
+	}
+	
+	//Returns the time the request being answered was sent, or the given time if it is unknown, and starts over for the next request.
+	long takeRequestStartedAt(long now){
+		long startedAt = (requestStartedAt == 0) ? now : requestStartedAt;
+		requestStartedAt = 0;
+		return startedAt;
+	}
+	
+	//Sends a part of the given file to the host. The file is copied directly to the socket by the OS when possible (sendfile), instead of through the heap.
+	public void writeFile(FileChannel fileChannel, long position, long count) throws IOException{
+		sockOut.flush();
+		
+		if (isTls()){
+			//The file has to be encrypted, so it cannot be copied directly to the channel.
+			writeFileEncrypted(fileChannel, position, count);
+			return;
+		}
+		
+		while(count > 0){
+			long len = fileChannel.transferTo(position, count, channel);
+			if (len <= 0){
+				throw new IOException("The file is shorter than expected - " + count + " bytes are missing.");
+			}
+			
+			position += len;
+			count -= len;
+		}
+	}
+	
+	//Sends a part of the given file through the TLS-socket.
+	private void writeFileEncrypted(FileChannel fileChannel, long position, long count) throws IOException{
+		HttpBrowserBufferPool pool = HttpBrowserBufferPool.getDefault();
+		byte[] bytes = pool.acquire((int) Math.min(count, pool.getMaxBufferSize()));
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		
+		try{
+			while(count > 0){
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), count));
+				
+				int len = fileChannel.read(buffer, position);
+				if (len <= 0){
+					throw new IOException("The file is shorter than expected - " + count + " bytes are missing.");
+				}
+				
+				sockOut.write(bytes, 0, len);
+				position += len;
+				count -= len;
+			}
+		}finally{
+			pool.release(bytes);
+		}
+	}
+	
+	//Writes the given string to the socket.
+	public void write(String str) throws IOException{
+		http.debug("Writing string to socket: '" + str + "'.\n");
+		sockOut.write(str.getBytes());
+	}
+	
+	//Writes the given byte-array to the socket.
+	public void write(byte[] byteArr) throws IOException{
+		sockOut.write(byteArr);
+	}
+	
+	//Writes a part of the given byte-array to the socket.
+	public void write(byte[] byteArr, int offset, int length) throws IOException{
+		sockOut.write(byteArr, offset, length);
+	}
+	
+	public Integer getKeepaliveMax(){
+		return keepaliveMax;
+	}
+	
+	public void setKeepaliveMax(Integer inKeepaliveMax){
+		keepaliveMax = inKeepaliveMax;
+	}
+	
+	public Long getKeepaliveInvalidAfter(){
+		return keepaliveInvalidAfter;
+	}
+	
+	public void setKeepaliveInvalidAfter(Long inKeepaliveInvalidAfter){
+		keepaliveInvalidAfter = inKeepaliveInvalidAfter;
+	}
+	
+	public int getRequestsExecutedOnCurrectConnection(){
+		return requestsExecutedOnCurrectConnection;
+	}
+	
+	//Should be called every time a full result has been read from the connection.
+	public void requestExecuted(){
+		requestsExecutedOnCurrectConnection += 1;
+	}
+}
@@ -0,0 +1,185 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+//Keeps a bounded number of keep-alive connections per host and port. Requests check out an idle connection or open a new one if the limit has not been reached - otherwise they wait for another request to release one.
+public class HttpBrowserConnectionPool {
+	//The connections for a single host and port.
+	private static class HostPool {
+		ArrayDeque<HttpBrowserConnection> idle = new ArrayDeque<HttpBrowserConnection>();
+		int open = 0;
+	}
+	
+	private HashMap<String, HostPool> hostPools = new HashMap<String, HostPool>();
+	
+	//The maximum number of connections that will be opened to a single host and port.
+	private int maxConnectionsPerHost = 8;
+	
+	//Statistics used to see how often connections are reopened, like when keep-alive runs out.
+	private long connectionsOpened = 0;
+	private long connectionsClosed = 0;
+	private long staleConnections = 0;
+	
+	private HostPool hostPool(String host, int port){
+		String key = host + ":" + port;
+		HostPool hostPool = hostPools.get(key);
+		
+		if (hostPool == null){
+			hostPool = new HostPool();
+			hostPools.put(key, hostPool);
+		}
+		
+		return hostPool;
+	}
+	
+	public synchronized void setMaxConnectionsPerHost(int inMax){
+		if (inMax < 1){
+			throw new IllegalArgumentException("At least one connection per host is required: " + inMax);
+		}
+		
+		maxConnectionsPerHost = inMax;
+		notifyAll();
+	}
+	
+	public synchronized int getMaxConnectionsPerHost(){
+		return maxConnectionsPerHost;
+	}
+	
+	//Returns an idle connection to the given host or opens a new one. Blocks if the maximum number of connections are in use. Idle connections that has been closed by the host are found and replaced before they are used.
+	public HttpBrowserConnection checkout(HttpBrowser http, String host, int port) throws Exception{
+		HostPool hostPool;
+		
+		while(true){
+			HttpBrowserConnection idle;
+			
+			synchronized(this){
+				hostPool = hostPool(host, port);
+				
+				while(true){
+					idle = hostPool.idle.pollFirst();
+					
+					if (idle != null){
+						break;
+					}else if(hostPool.open < maxConnectionsPerHost){
+						hostPool.open += 1;
+						break;
+					}else{
+						wait();
+					}
+				}
+			}
+			
+			if (idle == null){
+				break;
+			}
+			
+			//Checked outside the lock, since the stale-check reads from the socket.
+			boolean connected = idle.isConnected();
+			if (connected && !idle.isStale()){
+				return idle;
+			}
+			
+			idle.close();
+			
+			synchronized(this){
+				hostPool.open -= 1;
+				connectionsClosed += 1;
+				
+				if (connected){
+					staleConnections += 1;
+				}
+				
+				notifyAll();
+			}
+		}
+		
+		//Connect outside the lock so other hosts and idle connections are not held up.
+		HttpBrowserConnection conn = new HttpBrowserConnection(http, host, port);
+		
+		try{
+			conn.connect();
+		}catch(Exception e){
+			synchronized(this){
+				hostPool.open -= 1;
+				notifyAll();
+			}
+			
+			throw e;
+		}
+		
+		synchronized(this){
+			connectionsOpened += 1;
+		}
+		
+		return conn;
+	}
+	
+	//Gives a connection back to the pool. It will be reused if it is reusable and still connected - otherwise it is closed.
+	public synchronized void release(HttpBrowserConnection conn, boolean reusable){
+		HostPool hostPool = hostPool(conn.getHost(), conn.getPort());
+		
+		if (reusable && conn.isConnected()){
+			hostPool.idle.addFirst(conn);
+		}else{
+			conn.close();
+			hostPool.open -= 1;
+			connectionsClosed += 1;
+		}
+		
+		notifyAll();
+	}
+	
+	//Returns the number of connections that has been opened by the pool.
+	public synchronized long getConnectionsOpened(){
+		return connectionsOpened;
+	}
+	
+	//Returns the number of connections that has been closed by the pool, because they could not be reused or the pool was closed.
+	public synchronized long getConnectionsClosed(){
+		return connectionsClosed;
+	}
+	
+	//Returns the number of idle connections that was found closed by the host when they were about to be reused.
+	public synchronized long getStaleConnections(){
+		return staleConnections;
+	}
+	
+	//Returns the number of connections that are open right now, both idle and in use.
+	public synchronized int getConnectionsOpen(){
+		int open = 0;
+		for(HostPool hostPool: hostPools.values()){
+			open += hostPool.open;
+		}
+		
+		return open;
+	}
+	
+	//Returns true if there is an idle connection to the given host that can be reused.
+	public synchronized boolean hasIdleConnection(String host, int port){
+		HostPool hostPool = hostPool(host, port);
+		
+		for(HttpBrowserConnection conn: hostPool.idle){
+			if (conn.isConnected()){
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	//Closes all idle connections. Connections that are in use will be closed when they are released, if they are not reusable.
+	public synchronized void close(){
+		for(HostPool hostPool: hostPools.values()){
+			HttpBrowserConnection conn;
+			
+			while((conn = hostPool.idle.pollFirst()) != null){
+				conn.close();
+				hostPool.open -= 1;
+				connectionsClosed += 1;
+			}
+		}
+		
+		notifyAll();
+	}
+}
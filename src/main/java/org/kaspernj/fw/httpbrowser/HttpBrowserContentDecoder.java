@@ -0,0 +1,13 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+//Decodes result-bodies with one content-coding. A decoder belongs to a single connection and is reused for every result on it, so buffers and native state like inflaters can be kept between results. Made by a HttpBrowserContentDecoderFactory registered on the browser.
+public interface HttpBrowserContentDecoder {
+	//Returns a stream that decodes the given body while it is read. The stream returned for the previous result on the connection is done when this is called.
+	public InputStream decode(InputStream body) throws IOException;
+	
+	//Frees the resources of the decoder. Called when the connection is closed.
+	public void close();
+}
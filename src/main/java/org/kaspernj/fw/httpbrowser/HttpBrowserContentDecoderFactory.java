@@ -0,0 +1,10 @@
+package org.kaspernj.fw.httpbrowser;
+
+//Makes the decoders for a content-coding like 'gzip' or 'br'. Registered on the browser with 'addContentDecoder', which also makes the coding part of the Accept-Encoding-header. Implementations must be thread-safe, since decoders are made by the connections of one or more browsers.
+public interface HttpBrowserContentDecoderFactory {
+	//Returns the name of the content-coding as used in the Content-Encoding- and Accept-Encoding-headers, in lower case.
+	public String getEncoding();
+	
+	//Returns a new decoder for a connection.
+	public HttpBrowserContentDecoder newDecoder();
+}
@@ -0,0 +1,43 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+//Reads a body of a known length from the connection and returns EOF when the length has been read.
+public class HttpBrowserContentLengthInputStream extends InputStream {
+	private HttpBrowserSocketReader sockReader;
+	private long remaining;
+	
+	public HttpBrowserContentLengthInputStream(HttpBrowserSocketReader inSockReader, long length){
+		sockReader = inSockReader;
+		remaining = length;
+	}
+	
+	@Override public int read() throws IOException{
+		if (remaining <= 0){
+			return -1;
+		}
+		
+		int ch = sockReader.readByte();
+		remaining -= 1;
+		return ch;
+	}
+	
+	@Override public int read(byte[] buffer, int offset, int length) throws IOException{
+		if (remaining <= 0){
+			return -1;
+		}
+		
+		int len = sockReader.read(buffer, offset, (int) Math.min(length, remaining));
+		if (len == -1){
+			throw new IOException("Socket seems to have closed on us?");
+		}
+		
+		remaining -= len;
+		return len;
+	}
+	
+	@Override public int available(){
+		return (int) Math.min(sockReader.buffered(), remaining);
+	}
+}
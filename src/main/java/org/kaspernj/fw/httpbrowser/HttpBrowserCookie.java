@@ -1,27 +1,137 @@
 package org.kaspernj.fw.httpbrowser;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
 
 public class HttpBrowserCookie {
 	public String name;
 	public String value;
 	
-	final static private Pattern patternParseFromStr = Pattern.compile("(.+?)=(.*?)(;\\s*|$)");
+	//The domain the cookie is sent to in lower case. Null until the cookie has been added to a jar, which defaults it to the host that set it.
+	public String domain;
 	
+	//True if the cookie should only be sent to the exact domain and not its sub-domains (no Domain-attribute was given).
+	public boolean hostOnly = true;
+	
+	//The path the cookie is sent for.
+	public String path = "/";
+	
+	//The time in milliseconds when the cookie expires or null if it lasts for the session.
+	public Long expiresAt;
+	
+	public boolean secure = false;
+	public boolean httpOnly = false;
+	
+	final static private DateTimeFormatter formatExpires = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+	
+	public HttpBrowserCookie(){
+		//Used by 'parseFromStr'.
+	}
+	
+	public HttpBrowserCookie(String inName, String inValue){
+		name = inName;
+		value = inValue;
+	}
+	
+	//Returns a new cookie with the same values.
+	public HttpBrowserCookie copy(){
+		HttpBrowserCookie cookie = new HttpBrowserCookie(name, value);
+		cookie.domain = domain;
+		cookie.hostOnly = hostOnly;
+		cookie.path = path;
+		cookie.expiresAt = expiresAt;
+		cookie.secure = secure;
+		cookie.httpOnly = httpOnly;
+		
+		return cookie;
+	}
+	
+	//Parses a cookie from the value of a Set-Cookie-header including its attributes.
 	public static HttpBrowserCookie parseFromStr(String str) throws Exception{
-		Matcher matcherStr = patternParseFromStr.matcher(str);
-		if (!matcherStr.find()){
+		int end = str.indexOf(';');
+		if (end == -1){
+			end = str.length();
+		}
+		
+		int equals = str.indexOf('=');
+		if (equals == -1 || equals > end || str.substring(0, equals).trim().isEmpty()){
 			throw new Exception("Could not parse cookie from that string: '" + str + "'.");
 		}
 		
 		HttpBrowserCookie cookie = new HttpBrowserCookie();
-		cookie.name = matcherStr.group(1);
-		cookie.value = matcherStr.group(2);
+		cookie.name = str.substring(0, equals).trim();
+		cookie.value = str.substring(equals + 1, end).trim();
+		
+		Long maxAge = null;
+		
+		while(end < str.length()){
+			int start = end + 1;
+			end = str.indexOf(';', start);
+			if (end == -1){
+				end = str.length();
+			}
+			
+			String attribute = str.substring(start, end);
+			int attrEquals = attribute.indexOf('=');
+			String attrName = (attrEquals == -1) ? attribute.trim() : attribute.substring(0, attrEquals).trim();
+			String attrValue = (attrEquals == -1) ? "" : attribute.substring(attrEquals + 1).trim();
+			
+			if (attrName.equalsIgnoreCase("expires")){
+				Long expiresAt = parseExpires(attrValue);
+				if (expiresAt != null){
+					cookie.expiresAt = expiresAt;
+				}
+			}else if(attrName.equalsIgnoreCase("max-age")){
+				try{
+					maxAge = Long.parseLong(attrValue);
+				}catch(NumberFormatException e){
+					//Ignore invalid max-ages like browsers do.
+				}
+			}else if(attrName.equalsIgnoreCase("domain")){
+				String domain = attrValue.toLowerCase();
+				if (domain.startsWith(".")){
+					domain = domain.substring(1);
+				}
+				
+				if (!domain.isEmpty()){
+					cookie.domain = domain;
+					cookie.hostOnly = false;
+				}
+			}else if(attrName.equalsIgnoreCase("path")){
+				if (attrValue.startsWith("/")){
+					cookie.path = attrValue;
+				}
+			}else if(attrName.equalsIgnoreCase("secure")){
+				cookie.secure = true;
+			}else if(attrName.equalsIgnoreCase("httponly")){
+				cookie.httpOnly = true;
+			}
+		}
+		
+		//Max-Age takes precedence over Expires.
+		if (maxAge != null){
+			cookie.expiresAt = (maxAge <= 0) ? 0 : System.currentTimeMillis() + (maxAge * 1000);
+		}
 		
 		return cookie;
 	}
 	
+	//Parses the date of an Expires-attribute. Both the RFC 1123-format and the older format with dashes are understood. Returns null if the date could not be parsed.
+	private static Long parseExpires(String str){
+		try{
+			return ZonedDateTime.parse(str, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+		}catch(Exception e){
+			//Try the next format.
+		}
+		
+		try{
+			return ZonedDateTime.parse(str.replace('-', ' '), formatExpires).toInstant().toEpochMilli();
+		}catch(Exception e){
+			return null;
+		}
+	}
+	
 	public String getName(){
 		return name;
 	}
@@ -30,12 +140,76 @@ public class HttpBrowserCookie {
 		return value;
 	}
 	
+	public String getDomain(){
+		return domain;
+	}
+	
+	public String getPath(){
+		return path;
+	}
+	
+	public Long getExpiresAt(){
+		return expiresAt;
+	}
+	
+	//Returns true if the cookie has expired at the given time.
+	public boolean isExpired(long now){
+		return expiresAt != null && expiresAt <= now;
+	}
+	
+	//Returns true if the cookie should be sent to the given host.
+	public boolean matchesDomain(String host){
+		if (hostOnly){
+			return host.equals(domain);
+		}
+		
+		return domainMatches(host, domain);
+	}
+	
+	//Returns true if the cookie should be sent for the given request-path.
+	public boolean matchesPath(String requestPath){
+		if (requestPath.equals(path)){
+			return true;
+		}else if(requestPath.startsWith(path)){
+			return path.endsWith("/") || requestPath.charAt(path.length()) == '/';
+		}
+		
+		return false;
+	}
+	
+	//Returns true if the host is the domain or a sub-domain of it. IP-addresses only match themselves.
+	static boolean domainMatches(String host, String domain){
+		if (host.equals(domain)){
+			return true;
+		}
+		
+		return host.endsWith(domain) && host.charAt(host.length() - domain.length() - 1) == '.' && !isIPAddress(host);
+	}
+	
+	private static boolean isIPAddress(String host){
+		if (host.indexOf(':') != -1){
+			return true;
+		}
+		
+		for(int i = 0; i < host.length(); i++){
+			char ch = host.charAt(i);
+			if (ch != '.' && (ch < '0' || ch > '9')){
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
 	@Override public String toString(){
 		String str = "";
 		
 		str = this.getClass().getName() + " Object {\n";
 		str += " Name: " + name + "\n";
 		str += " Value: " + value + "\n";
+		str += " Domain: " + domain + "\n";
+		str += " Path: " + path + "\n";
+		str += " Expires: " + expiresAt + "\n";
 		str += "}";
 		
 		return str;
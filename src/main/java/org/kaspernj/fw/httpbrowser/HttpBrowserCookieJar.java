@@ -0,0 +1,241 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+//The default cookie-store. Holds cookies indexed by domain and then by path and name. The Cookie-header for a host is built once and reused until the jar changes or one of its cookies expires.
+//The cookies are kept in an immutable snapshot that is replaced on every change (copy-on-write), so any number of threads can build Cookie-headers without locking while Set-Cookie-headers are being added. The jar stores copies of the added cookies and hands out copies, so the cookies in a snapshot are never changed.
+public class HttpBrowserCookieJar implements HttpBrowserCookieStore {
+	//Longer paths are sent first. Cookies with the same path are sent in the order they were created.
+	private static final Comparator<HttpBrowserCookie> SEND_ORDER = new Comparator<HttpBrowserCookie>(){
+		public int compare(HttpBrowserCookie a, HttpBrowserCookie b){
+			return b.path.length() - a.path.length();
+		}
+	};
+	
+	//The Cookie-header built for a host and connection-security.
+	private static class HostHeader {
+		//The cookies that can be sent to the host, in the order they are sent.
+		ArrayList<HttpBrowserCookie> cookies = new ArrayList<HttpBrowserCookie>();
+		
+		//The header with all the cookies. Null if some cookies are only sent for certain paths.
+		String header;
+		
+		//The header has to be rebuilt when this time has passed, because a cookie in it expires.
+		long validUntil = Long.MAX_VALUE;
+	}
+	
+	//The cookies at one point in time. Never changed after it has been published - only the headers built from it are added.
+	private static class Snapshot {
+		//Domain -> "path;name" -> cookie.
+		HashMap<String, LinkedHashMap<String, HttpBrowserCookie>> domains;
+		int size;
+		ConcurrentHashMap<String, HostHeader> hostHeaders = new ConcurrentHashMap<String, HostHeader>();
+		
+		Snapshot(HashMap<String, LinkedHashMap<String, HttpBrowserCookie>> inDomains, int inSize){
+			domains = inDomains;
+			size = inSize;
+		}
+	}
+	
+	private volatile Snapshot snapshot = new Snapshot(new HashMap<String, LinkedHashMap<String, HttpBrowserCookie>>(), 0);
+	
+	//Adds a copy of a cookie set by the given host. Cookies without a domain are only sent back to that host. Cookies for domains the host does not belong to are ignored. Without a host the cookie is taken for its own domain. An expired cookie removes the stored cookie with the same domain, path and name. Returns false if the cookie was ignored.
+	public synchronized boolean add(HttpBrowserCookie cookie, String host){
+		cookie = cookie.copy();
+		
+		if (host == null){
+			if (cookie.domain == null){
+				throw new IllegalArgumentException("The cookie '" + cookie.name + "' needs a domain, since no host has been set.");
+			}
+			
+			host = cookie.domain;
+		}
+		
+		host = host.toLowerCase();
+		
+		if (cookie.domain == null){
+			cookie.domain = host;
+			cookie.hostOnly = true;
+		}else if(!cookie.hostOnly && !HttpBrowserCookie.domainMatches(host, cookie.domain)){
+			return false;
+		}
+		
+		Snapshot current = snapshot;
+		LinkedHashMap<String, HttpBrowserCookie> domainCookies = current.domains.get(cookie.domain);
+		String key = cookie.path + ";" + cookie.name;
+		long now = System.currentTimeMillis();
+		boolean expired = cookie.isExpired(now);
+		
+		if (expired && (domainCookies == null || !domainCookies.containsKey(key))){
+			return true;
+		}
+		
+		//Only the map of the changed domain is copied. Expired cookies in it are dropped while at it.
+		LinkedHashMap<String, HttpBrowserCookie> newDomainCookies = new LinkedHashMap<String, HttpBrowserCookie>();
+		int size = current.size;
+		
+		if (domainCookies != null){
+			for(String existingKey: domainCookies.keySet()){
+				HttpBrowserCookie existing = domainCookies.get(existingKey);
+				
+				if (existing.isExpired(now)){
+					size -= 1;
+				}else{
+					newDomainCookies.put(existingKey, existing);
+				}
+			}
+		}
+		
+		if (expired){
+			if (newDomainCookies.remove(key) != null){
+				size -= 1;
+			}
+		}else if(newDomainCookies.put(key, cookie) == null){
+			//Replaced cookies keep their place in the send-order.
+			size += 1;
+		}
+		
+		HashMap<String, LinkedHashMap<String, HttpBrowserCookie>> newDomains = new HashMap<String, LinkedHashMap<String, HttpBrowserCookie>>(current.domains);
+		
+		if (newDomainCookies.isEmpty()){
+			newDomains.remove(cookie.domain);
+		}else{
+			newDomains.put(cookie.domain, newDomainCookies);
+		}
+		
+		snapshot = new Snapshot(newDomains, size);
+		return true;
+	}
+	
+	//Returns the value for the Cookie-header of a request to the given host and path or null if no cookies should be sent. Secure cookies are only sent on secure connections.
+	public String getCookieHeader(String host, String path, boolean secure){
+		host = host.toLowerCase();
+		
+		Snapshot current = snapshot;
+		long now = System.currentTimeMillis();
+		String key = secure ? "https:" + host : host;
+		HostHeader hostHeader = current.hostHeaders.get(key);
+		
+		if (hostHeader == null || now >= hostHeader.validUntil){
+			//Threads that build the same header at the same time get the same result, so it does not matter which one is kept.
+			hostHeader = buildHostHeader(current, host, secure, now);
+			current.hostHeaders.put(key, hostHeader);
+		}
+		
+		if (hostHeader.header != null || hostHeader.cookies.isEmpty()){
+			return hostHeader.header;
+		}
+		
+		StringBuilder header = new StringBuilder();
+		for(HttpBrowserCookie cookie: hostHeader.cookies){
+			if (cookie.matchesPath(path)){
+				appendCookie(header, cookie);
+			}
+		}
+		
+		return (header.length() == 0) ? null : header.toString();
+	}
+	
+	//Collects the cookies for the host and builds the full header if they are all sent for every path.
+	private HostHeader buildHostHeader(Snapshot current, String host, boolean secure, long now){
+		HostHeader hostHeader = new HostHeader();
+		boolean allPaths = true;
+		
+		//The host itself and every parent-domain can have cookies for it.
+		String domain = host;
+		while(true){
+			LinkedHashMap<String, HttpBrowserCookie> domainCookies = current.domains.get(domain);
+			
+			if (domainCookies != null){
+				for(HttpBrowserCookie cookie: domainCookies.values()){
+					if (cookie.matchesDomain(host) && !cookie.isExpired(now) && (secure || !cookie.secure)){
+						hostHeader.cookies.add(cookie);
+						
+						if (!cookie.path.equals("/")){
+							allPaths = false;
+						}
+						
+						if (cookie.expiresAt != null){
+							hostHeader.validUntil = Math.min(hostHeader.validUntil, cookie.expiresAt);
+						}
+					}
+				}
+			}
+			
+			int dot = domain.indexOf('.');
+			if (dot == -1){
+				break;
+			}
+			
+			domain = domain.substring(dot + 1);
+		}
+		
+		Collections.sort(hostHeader.cookies, SEND_ORDER);
+		
+		if (allPaths && !hostHeader.cookies.isEmpty()){
+			StringBuilder header = new StringBuilder();
+			for(HttpBrowserCookie cookie: hostHeader.cookies){
+				appendCookie(header, cookie);
+			}
+			
+			hostHeader.header = header.toString();
+		}
+		
+		return hostHeader;
+	}
+	
+	private void appendCookie(StringBuilder header, HttpBrowserCookie cookie){
+		if (header.length() > 0){
+			header.append("; ");
+		}
+		
+		header.append(cookie.name).append('=').append(cookie.value);
+	}
+	
+	//Returns a copy of the first cookie with the given name that has not expired or null if there is none.
+	public HttpBrowserCookie getCookieByName(String name){
+		long now = System.currentTimeMillis();
+		
+		for(LinkedHashMap<String, HttpBrowserCookie> domainCookies: snapshot.domains.values()){
+			for(HttpBrowserCookie cookie: domainCookies.values()){
+				if (cookie.name.equals(name) && !cookie.isExpired(now)){
+					return cookie.copy();
+				}
+			}
+		}
+		
+		return null;
+	}
+	
+	//Returns copies of the cookies in the jar that has not expired.
+	public ArrayList<HttpBrowserCookie> getCookies(){
+		Snapshot current = snapshot;
+		ArrayList<HttpBrowserCookie> list = new ArrayList<HttpBrowserCookie>(current.size);
+		long now = System.currentTimeMillis();
+		
+		for(LinkedHashMap<String, HttpBrowserCookie> domainCookies: current.domains.values()){
+			for(HttpBrowserCookie cookie: domainCookies.values()){
+				if (!cookie.isExpired(now)){
+					list.add(cookie.copy());
+				}
+			}
+		}
+		
+		return list;
+	}
+	
+	//Returns the number of cookies in the jar, including those that has expired but not been removed yet.
+	public int size(){
+		return snapshot.size;
+	}
+	
+	//Removes all cookies.
+	public synchronized void clear(){
+		snapshot = new Snapshot(new HashMap<String, LinkedHashMap<String, HttpBrowserCookie>>(), 0);
+	}
+}
@@ -0,0 +1,21 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.util.ArrayList;
+
+//Stores the cookies for one or more browsers. A store can be shared by many browsers that should act as one session, so implementations must be thread-safe. The cookies given to and returned from a store can be changed by the caller, so implementations should keep their own copies.
+public interface HttpBrowserCookieStore {
+	//Adds a cookie set by the given host. Returns false if the cookie was ignored, like when it is for a domain that the host does not belong to. The host is null for cookies added before a host has been set, which must have a domain.
+	public boolean add(HttpBrowserCookie cookie, String host);
+	
+	//Returns the value for the Cookie-header of a request to the given host and path or null if no cookies should be sent. Secure cookies are only sent on secure connections.
+	public String getCookieHeader(String host, String path, boolean secure);
+	
+	//Returns the first cookie with the given name that has not expired or null if there is none.
+	public HttpBrowserCookie getCookieByName(String name);
+	
+	//Returns the cookies that has not expired.
+	public ArrayList<HttpBrowserCookie> getCookies();
+	
+	//Removes all cookies.
+	public void clear();
+}
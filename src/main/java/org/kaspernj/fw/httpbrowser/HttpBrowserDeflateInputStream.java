@@ -0,0 +1,62 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Adler32;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+//Inflates a body with the content-coding 'deflate' while it is being read from the connection. The coding is defined as deflate-data in a zlib-wrapper, but some hosts sends the raw deflate-data, so the wrapper is detected from the first two bytes.
+public class HttpBrowserDeflateInputStream extends HttpBrowserInflaterInputStream {
+	//Set if the data has a zlib-wrapper, which ends with an Adler-32 checksum of the inflated data.
+	private boolean zlib;
+	
+	//The inflater must have been made with 'nowrap' since the zlib-wrapper is read by the stream.
+	public HttpBrowserDeflateInputStream(InputStream inIn, Inflater inInflater, byte[] inBuf) throws IOException{
+		super(inIn, inInflater, inBuf, new Adler32());
+		readHeader();
+	}
+	
+	@Override protected String formatName(){
+		return "deflate";
+	}
+	
+	//Reads the zlib-header if there is one. Raw deflate-data is given to the inflater from the start.
+	private void readHeader() throws IOException{
+		int cmf = readUByte();
+		int flg = readUByte();
+		
+		if ((cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0){
+			if ((flg & 0x20) != 0){
+				throw new ZipException("deflate-body needs a dictionary.");
+			}
+			
+			zlib = true;
+		}else if(bufPos >= 2){
+			zlib = false;
+			bufPos -= 2;
+		}else{
+			//The two bytes was read across a refill of the buffer.
+			zlib = false;
+			inflater.setInput(new byte[]{(byte) cmf, (byte) flg});
+		}
+	}
+	
+	//Validates the Adler-32 checksum of the zlib-wrapper. The body only has one stream of deflate-data, so the body-stream is read to the end after it, which lets the connection be reused.
+	@Override protected boolean readTrailer() throws IOException{
+		skipInflated();
+		
+		if (zlib){
+			long adler = ((long) readUByte() << 24) | (readUByte() << 16) | (readUByte() << 8) | readUByte();
+			if (adler != checksum.getValue()){
+				throw new ZipException("Corrupt deflate trailer (Adler-32).");
+			}
+		}
+		
+		while(fill()){
+			//Anything after the deflate-data is ignored.
+		}
+		
+		return false;
+	}
+}
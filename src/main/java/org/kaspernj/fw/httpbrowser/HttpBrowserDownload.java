@@ -0,0 +1,235 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//Downloads a body straight into a file through a file-channel. When the connection drops while the body is received, the rest is requested with 'Range: bytes=N-' from the bytes already written. The resumed part must fit the first result by its Content-Range and ETag, or the download fails. Made by HttpBrowser.download.
+class HttpBrowserDownload {
+	private static final Pattern CONTENT_RANGE = Pattern.compile("^bytes (\\d+)-(\\d+)/(\\d+|\\*)$");
+	
+	private HttpBrowser http;
+	private String addr;
+	private Path path;
+	
+	//Opened when the first '200 OK' arrives, so the file is left as it was if the host answers with something else.
+	private FileChannel channel;
+	
+	//The number of bytes of the body written to the file.
+	private long written = 0;
+	
+	//The '200 OK' that started the download. Resumed downloads are returned with its status and headers.
+	private HttpBrowserResult first;
+	
+	//The length, ETag and modification-time of the body from the first result. The length is -1 when it is not known.
+	private long length = -1;
+	private String etag;
+	private String lastModified;
+	
+	//If the body can be resumed. Bodies with a content-coding are written decoded, so their offsets dont match the ones of the host.
+	private boolean resumable = false;
+	
+	HttpBrowserDownload(HttpBrowser inHttp, String inAddr, Path inPath){
+		http = inHttp;
+		addr = inAddr;
+		path = inPath;
+	}
+	
+	HttpBrowserResult execute() throws Exception{
+		int resumes = 0;
+		
+		try{
+			while(true){
+				HttpBrowserConnection conn = http.checkoutConnection();
+				boolean reused = (conn.getRequestsExecutedOnCurrectConnection() > 0);
+				long bytesBefore = conn.getReader().getBytesConsumed();
+				boolean reusable = false;
+				
+				try{
+					HttpBrowserResult res = executeOnConnection(conn);
+					reusable = true;
+					
+					return res;
+				}catch(IOException e){
+					if (http.isRetryable(conn, reused, bytesBefore, e)){
+						continue;
+					}
+					
+					//Only a body that has started arriving is resumed, so a host that is down fails right away.
+					if (!resumable || resumes >= http.getDownloadResumes()){
+						throw e;
+					}
+					
+					resumes += 1;
+					http.debug("The connection dropped after " + written + " bytes of the download (" + e.getMessage() + ") - resuming.\n");
+				}finally{
+					http.releaseConnection(conn, reusable);
+				}
+			}
+		}finally{
+			if (channel != null){
+				channel.close();
+			}
+		}
+	}
+	
+	//Requests the body or the rest of it and writes it to the file.
+	private HttpBrowserResult executeOnConnection(HttpBrowserConnection conn) throws Exception{
+		HashMap<String, String> headers = null;
+		
+		if (written > 0){
+			headers = new HashMap<String, String>();
+			headers.put("Range", "bytes=" + written + "-");
+			
+			//Makes the host send the whole body again instead of a part, if it has changed. Weak ETags cannot be used for this.
+			if (etag != null && !etag.startsWith("W/")){
+				headers.put("If-Range", etag);
+			}else if(lastModified != null){
+				headers.put("If-Range", lastModified);
+			}
+		}
+		
+		http.writeGetRequest(conn, addr, headers);
+		HttpBrowserRequestMetrics metrics = http.startMetrics(conn);
+		
+		try{
+			HttpBrowserResult res = http.readResultHead(conn, metrics);
+			InputStream body = http.resultBodyInputStream(conn, res);
+			long writtenBefore = written;
+			
+			if (res.getStatusCode() == 206 && written > 0){
+				checkResumed(res);
+			}else if(res.getStatusCode() == 200){
+				if (written > 0){
+					http.debug("The host sent the whole body instead of the rest - starting over.\n");
+				}
+				
+				start(res);
+			}else if(written > 0){
+				throw new Exception("Could not resume the download - the host answered with status " + res.getStatusCode() + ".");
+			}else{
+				//Not a body to download, like an error-page, so it is given like from 'get'.
+				InputStream decoded = http.decodeResultBody(conn, res, body);
+				byte[] bodyByteArray = HttpBrowserBufferPool.getDefault().readAll(decoded);
+				res.setBodyByteArray(bodyByteArray);
+				conn.requestExecuted();
+				
+				if (metrics != null){
+					http.finishMetrics(conn, res, decoded, bodyByteArray.length);
+				}
+				
+				return res;
+			}
+			
+			InputStream decoded = http.decodeResultBody(conn, res, body);
+			writeBody(decoded);
+			
+			if (length != -1 && written != length){
+				throw new Exception("The download ended after " + written + " of " + length + " bytes.");
+			}
+			
+			res.setBodyByteArray(new byte[0]);
+			conn.requestExecuted();
+			
+			if (metrics != null){
+				http.finishMetrics(conn, res, decoded, written - writtenBefore);
+			}
+			
+			if (res != first){
+				takeHead(res);
+			}
+			
+			return res;
+		}catch(Exception e){
+			if (metrics != null){
+				http.failMetrics(metrics, e);
+			}
+			
+			throw e;
+		}
+	}
+	
+	//Starts writing the file from the beginning with the body of the given result.
+	private void start(HttpBrowserResult res) throws IOException{
+		if (channel == null){
+			channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		}else{
+			channel.truncate(0);
+		}
+		
+		first = res;
+		written = 0;
+		etag = res.getHeader("etag");
+		lastModified = res.getHeader("last-modified");
+		
+		boolean encoded = http.isEncoded(res);
+		length = (res.contentLength != null && !encoded) ? res.contentLength : -1;
+		resumable = (!encoded && !"none".equalsIgnoreCase(res.getHeader("accept-ranges")));
+	}
+	
+	//Checks that the part sent by the host starts where the file ends and belongs to the same body as the first result.
+	private void checkResumed(HttpBrowserResult res) throws Exception{
+		String contentRange = res.getHeader("content-range");
+		Matcher match = (contentRange != null) ? CONTENT_RANGE.matcher(contentRange.trim()) : null;
+		
+		if (match == null || !match.matches() || Long.parseLong(match.group(1)) != written){
+			throw new Exception("The host did not resume the download at byte " + written + ": '" + contentRange + "'.");
+		}
+		
+		if (!match.group(3).equals("*")){
+			long total = Long.parseLong(match.group(3));
+			
+			if (length == -1){
+				length = total;
+			}else if(total != length){
+				throw new Exception("The length of the download changed from " + length + " to " + total + " bytes while resuming.");
+			}
+		}
+		
+		String newEtag = res.getHeader("etag");
+		if (etag != null && !etag.equals(newEtag)){
+			throw new Exception("The download changed on the host while resuming - the ETag changed from " + etag + " to " + newEtag + ".");
+		}
+		
+		if (http.isEncoded(res)){
+			throw new Exception("The host resumed the download with the content-encoding: '" + res.contentEncoding + "'.");
+		}
+	}
+	
+	//Gives the result of the last part the status and headers of the first result, so a resumed download looks like the whole body came with the first request. The metrics are still the ones of the last part.
+	private void takeHead(HttpBrowserResult res){
+		res.setStatusCode(first.getStatusCode());
+		res.setHeaders(new HttpBrowserHeaders(first.getHeaderList()));
+		res.contentLength = first.contentLength;
+		res.contentEncoding = first.contentEncoding;
+		res.transferEncoding = first.transferEncoding;
+	}
+	
+	//Writes the body to the file after the bytes already written. The body passes through a pooled buffer, since it is read through the buffered socket-reader and maybe decoded, so it cannot be transferred from the socket directly.
+	private void writeBody(InputStream body) throws IOException{
+		HttpBrowserBufferPool pool = HttpBrowserBufferPool.getDefault();
+		byte[] bytes = pool.acquire(pool.getMaxBufferSize());
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		
+		try{
+			int len;
+			
+			while((len = body.read(bytes, 0, bytes.length)) != -1){
+				buffer.clear();
+				buffer.limit(len);
+				
+				while(buffer.hasRemaining()){
+					written += channel.write(buffer, written);
+				}
+			}
+		}finally{
+			pool.release(bytes);
+		}
+	}
+}
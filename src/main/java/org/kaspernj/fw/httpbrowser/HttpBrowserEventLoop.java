@@ -0,0 +1,730 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLParameters;
+
+//A thread driving many non-blocking connections through a selector. Used by HttpBrowserAsyncEngine.
+class HttpBrowserEventLoop implements Runnable {
+	//The size of the receive-buffer of a new connection.
+	private static final int RECEIVE_BUFFER_SIZE = 16384;
+	
+	//Bigger receive-buffers than this are dropped after a result, so idle connections dont keep them.
+	private static final int RECEIVE_BUFFER_KEEP = 65536;
+	
+	//A request waiting for or being executed on a connection.
+	static class Request {
+		HttpBrowser http;
+		String host;
+		int port;
+		byte[] bytes;
+		
+		//True if the request can be sent again when the host closes a reused connection before answering.
+		boolean idempotent;
+		
+		CompletableFuture<HttpBrowserResult> future = new CompletableFuture<HttpBrowserResult>();
+	}
+	
+	//The state of a single non-blocking connection.
+	static class Connection {
+		SocketChannel channel;
+		SelectionKey key;
+		HostState hostState;
+		Request request;
+		ByteBuffer out;
+		
+		//The receive-buffer is taken from the buffer-pool when connecting and given back when the channel is closed.
+		ByteBuffer in;
+		HttpBrowserResponseFramer framer = new HttpBrowserResponseFramer();
+		
+		//Holds keep-alive information and the inflater for the connection and is used to parse the results.
+		HttpBrowserConnection parser;
+		
+		//When connecting started. Used for the metrics of the first request.
+		long connectStartedAt;
+		
+		//The addresses of the host in the order given by the resolver and the one being connected to. The next is tried if connecting fails.
+		InetAddress[] addresses;
+		int addressIndex;
+		boolean connected;
+		
+		//Encrypts and decrypts the data when TLS is used. 'netIn' holds encrypted data read from the channel and 'netOut' encrypted data waiting to be written to it.
+		SSLEngine sslEngine;
+		ByteBuffer netIn;
+		ByteBuffer netOut;
+		boolean handshaking;
+		boolean tlsClosed;
+		long handshakeStartedAt;
+	}
+	
+	//Connections are only shared by requests of the same browser to the same host and port with the same TLS-setup, so sessions and trust-stores dont mix on the shared loop.
+	static class HostKey {
+		HttpBrowser http;
+		String host;
+		int port;
+		boolean tls;
+		SSLContext sslContext;
+		
+		HostKey(Request req) throws Exception{
+			http = req.http;
+			host = req.host;
+			port = req.port;
+			tls = req.http.isTls();
+			sslContext = tls ? req.http.getSslContext() : null;
+		}
+		
+		@Override public boolean equals(Object other){
+			if (!(other instanceof HostKey)){
+				return false;
+			}
+			
+			HostKey key = (HostKey) other;
+			return (http == key.http && port == key.port && tls == key.tls && sslContext == key.sslContext && host.equals(key.host));
+		}
+		
+		@Override public int hashCode(){
+			return (System.identityHashCode(http) * 31 + host.hashCode()) * 31 + port;
+		}
+	}
+	
+	//The connections of a browser to a single host and port.
+	static class HostState {
+		HostKey key;
+		String host;
+		int port;
+		ArrayDeque<Connection> idle = new ArrayDeque<Connection>();
+		ArrayDeque<Request> waiting = new ArrayDeque<Request>();
+		int open = 0;
+		
+		//The number of new connections whose host is being resolved.
+		int resolving = 0;
+	}
+	
+	//The addresses of a host resolved off the loop for a new connection, or the error if it could not be resolved.
+	static class Resolved {
+		HostState hostState;
+		Request request;
+		InetAddress[] addresses;
+		Throwable error;
+	}
+	
+	private HttpBrowserAsyncEngine engine;
+	private Selector selector;
+	private Thread thread;
+	private volatile boolean running = true;
+	private ConcurrentLinkedQueue<Request> submitted = new ConcurrentLinkedQueue<Request>();
+	private ConcurrentLinkedQueue<Resolved> resolved = new ConcurrentLinkedQueue<Resolved>();
+	private HashMap<HostKey, HostState> hostStates = new HashMap<HostKey, HostState>();
+	
+	HttpBrowserEventLoop(HttpBrowserAsyncEngine inEngine, String name) throws IOException{
+		engine = inEngine;
+		selector = Selector.open();
+		
+		thread = new Thread(this, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	//Queues a request to be executed by the loop.
+	void submit(Request req){
+		submitted.add(req);
+		selector.wakeup();
+	}
+	
+	//Stops the loop and closes all its connections.
+	void close(){
+		running = false;
+		selector.wakeup();
+	}
+	
+	public void run(){
+		try{
+			while(running){
+				selector.select();
+				
+				Resolved resolution;
+				while((resolution = resolved.poll()) != null){
+					connectResolved(resolution);
+				}
+				
+				Request req;
+				while((req = submitted.poll()) != null){
+					dispatch(req);
+				}
+				
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while(it.hasNext()){
+					SelectionKey key = it.next();
+					it.remove();
+					
+					Connection conn = (Connection) key.attachment();
+					if (!key.isValid()){
+						continue;
+					}
+					
+					try{
+						if (key.isConnectable()){
+							conn.channel.finishConnect();
+							connected(conn);
+						}else if(key.isWritable()){
+							write(conn);
+						}else if(key.isReadable()){
+							read(conn);
+						}
+					}catch(Exception e){
+						fail(conn, e);
+					}
+				}
+			}
+		}catch(IOException e){
+			//The selector broke - fail everything below.
+		}catch(ClosedSelectorException e){
+			//ignore.
+		}finally{
+			shutdown();
+		}
+	}
+	
+	//Fails all requests and closes all connections when the loop stops.
+	private void shutdown(){
+		IOException closed = new IOException("The asynchronous engine has been closed.");
+		
+		for(SelectionKey key: selector.keys()){
+			Connection conn = (Connection) key.attachment();
+			closeChannel(conn);
+			
+			if (conn.request != null){
+				conn.request.future.completeExceptionally(closed);
+			}
+		}
+		
+		for(HostState hostState: hostStates.values()){
+			for(Request req: hostState.waiting){
+				req.future.completeExceptionally(closed);
+			}
+		}
+		
+		Request req;
+		while((req = submitted.poll()) != null){
+			req.future.completeExceptionally(closed);
+		}
+		
+		Resolved resolution;
+		while((resolution = resolved.poll()) != null){
+			resolution.request.future.completeExceptionally(closed);
+		}
+		
+		try{
+			selector.close();
+		}catch(IOException e){
+			//ignore.
+		}
+	}
+	
+	private HostState hostState(Request req) throws Exception{
+		HostKey key = new HostKey(req);
+		HostState hostState = hostStates.get(key);
+		
+		if (hostState == null){
+			hostState = new HostState();
+			hostState.key = key;
+			hostState.host = req.host;
+			hostState.port = req.port;
+			hostStates.put(key, hostState);
+		}
+		
+		return hostState;
+	}
+	
+	//Forgets the host when it has no connections or requests left, so closed browsers are not kept by the loop.
+	private void forgetIfUnused(HostState hostState){
+		if (hostState.open == 0 && hostState.resolving == 0 && hostState.idle.isEmpty() && hostState.waiting.isEmpty() && hostStates.get(hostState.key) == hostState){
+			hostStates.remove(hostState.key);
+		}
+	}
+	
+	//Starts the request on an idle connection, a new connection or queues it until a connection is free. Idle connections whose keep-alive has run out are closed instead of used.
+	private void dispatch(Request req){
+		HostState hostState;
+		
+		try{
+			hostState = hostState(req);
+		}catch(Exception e){
+			req.future.completeExceptionally(e);
+			return;
+		}
+		
+		Connection conn;
+		while((conn = hostState.idle.pollFirst()) != null){
+			if (conn.parser.isKeepaliveValid()){
+				start(conn, req);
+				return;
+			}
+			
+			closeChannel(conn);
+		}
+		
+		if (hostState.open + hostState.resolving < engine.getMaxConnectionsPerHost()){
+			open(hostState, req);
+		}else{
+			hostState.waiting.add(req);
+		}
+	}
+	
+	//Opens a new connection for the given request. The host is resolved off the loop, since a slow lookup would stall every other request on it, and the connection is made when the addresses are back.
+	private void open(final HostState hostState, final Request req){
+		hostState.resolving += 1;
+		req.http.debug("Connecting asynchronously to " + hostState.host + ":" + hostState.port + ".\n");
+		
+		final HttpBrowserResolver resolver = req.http.getResolver();
+		
+		CompletableFuture.supplyAsync(() -> {
+			try{
+				return resolver.resolve(hostState.host);
+			}catch(Exception e){
+				throw new CompletionException(e);
+			}
+		}, HttpBrowserBulkExecutor.getSharedExecutor()).whenComplete((addresses, error) -> {
+			Resolved resolution = new Resolved();
+			resolution.hostState = hostState;
+			resolution.request = req;
+			resolution.addresses = addresses;
+			resolution.error = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+			
+			if (!running){
+				req.future.completeExceptionally(new IOException("The asynchronous engine has been closed."));
+				return;
+			}
+			
+			resolved.add(resolution);
+			selector.wakeup();
+			
+			//The loop may have stopped after the check above and will then never see the resolution.
+			if (!running && resolved.remove(resolution)){
+				req.future.completeExceptionally(new IOException("The asynchronous engine has been closed."));
+			}
+		});
+	}
+	
+	//Starts connecting to the addresses resolved for a new connection.
+	private void connectResolved(Resolved resolution){
+		HostState hostState = resolution.hostState;
+		Request req = resolution.request;
+		hostState.resolving -= 1;
+		
+		if (resolution.error != null){
+			req.future.completeExceptionally(resolution.error);
+			dispatchWaiting(hostState);
+			return;
+		}
+		
+		Connection conn = new Connection();
+		conn.hostState = hostState;
+		conn.parser = new HttpBrowserConnection(req.http, hostState.host, hostState.port);
+		conn.request = req;
+		conn.addresses = resolution.addresses;
+		
+		try{
+			connect(conn);
+		}catch(Exception e){
+			if (!conn.connected && connectNextAddress(conn)){
+				return;
+			}
+			
+			closeChannel(conn);
+			req.future.completeExceptionally(e);
+			dispatchWaiting(hostState);
+		}
+	}
+	
+	//Starts connecting to the current address of the connection.
+	private void connect(Connection conn) throws Exception{
+		conn.channel = SocketChannel.open();
+		conn.hostState.open += 1;
+		
+		conn.channel.configureBlocking(false);
+		conn.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		
+		conn.out = ByteBuffer.wrap(conn.request.bytes);
+		conn.in = ByteBuffer.wrap(HttpBrowserBufferPool.getDefault().acquire(RECEIVE_BUFFER_SIZE));
+		
+		conn.connectStartedAt = System.nanoTime();
+		
+		if (conn.channel.connect(new InetSocketAddress(conn.addresses[conn.addressIndex], conn.hostState.port))){
+			conn.key = conn.channel.register(selector, 0, conn);
+			connected(conn);
+		}else{
+			conn.key = conn.channel.register(selector, SelectionKey.OP_CONNECT, conn);
+		}
+	}
+	
+	//Called when the channel has been connected. Starts the TLS-handshake or writing the request.
+	private void connected(Connection conn) throws Exception{
+		conn.connected = true;
+		conn.parser.setConnectNanos(System.nanoTime() - conn.connectStartedAt);
+		
+		if (conn.request.http.isTls()){
+			startTls(conn);
+		}else{
+			conn.key.interestOps(SelectionKey.OP_WRITE);
+		}
+	}
+	
+	//Creates the SSL-engine of the connection and starts the handshake. The engine is created from the SSL-context of the browser with the host and port, so sessions cached by the context are resumed.
+	private void startTls(Connection conn) throws Exception{
+		HttpBrowser http = conn.request.http;
+		
+		SSLEngine sslEngine = http.getSslContext().createSSLEngine(conn.hostState.host, conn.hostState.port);
+		sslEngine.setUseClientMode(true);
+		
+		SSLParameters params = sslEngine.getSSLParameters();
+		params.setEndpointIdentificationAlgorithm("HTTPS");
+		params.setApplicationProtocols(http.getApplicationProtocols());
+		sslEngine.setSSLParameters(params);
+		
+		int packetSize = sslEngine.getSession().getPacketBufferSize();
+		conn.sslEngine = sslEngine;
+		conn.netIn = HttpBrowserBufferPool.getDefault().acquireDirect(packetSize);
+		conn.netOut = HttpBrowserBufferPool.getDefault().acquireDirect(packetSize);
+		conn.netOut.flip();
+		
+		conn.handshaking = true;
+		conn.handshakeStartedAt = System.nanoTime();
+		sslEngine.beginHandshake();
+		
+		handshake(conn);
+	}
+	
+	//Drives the TLS-handshake as far as it can go without blocking. Starts writing the request when it is done.
+	private void handshake(Connection conn) throws Exception{
+		while(true){
+			if (!flushTls(conn)){
+				conn.key.interestOps(SelectionKey.OP_WRITE);
+				return;
+			}
+			
+			switch(conn.sslEngine.getHandshakeStatus()){
+				case NEED_WRAP:
+					wrap(conn, ByteBuffer.allocate(0));
+					break;
+				case NEED_UNWRAP:
+					int len = conn.channel.read(conn.netIn);
+					
+					if (!unwrap(conn)){
+						if (len == -1 || conn.tlsClosed){
+							throw new IOException("The host closed the connection during the TLS-handshake.");
+						}
+						
+						conn.key.interestOps(SelectionKey.OP_READ);
+						return;
+					}
+					
+					break;
+				case NEED_TASK:
+					runTasks(conn);
+					break;
+				default:
+					conn.handshaking = false;
+					conn.parser.setHandshake(System.nanoTime() - conn.handshakeStartedAt, conn.sslEngine.getSession(), conn.sslEngine.getApplicationProtocol());
+					conn.key.interestOps(SelectionKey.OP_WRITE);
+					return;
+			}
+		}
+	}
+	
+	//Encrypts data from the given buffer into 'netOut'. 'netOut' must have been flushed first.
+	private void wrap(Connection conn, ByteBuffer src) throws IOException{
+		conn.netOut.compact();
+		
+		try{
+			SSLEngineResult result = conn.sslEngine.wrap(src, conn.netOut);
+			
+			if (result.getStatus() == SSLEngineResult.Status.CLOSED){
+				throw new IOException("The TLS-connection has been closed.");
+			}else if(result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK){
+				runTasks(conn);
+			}
+		}finally{
+			conn.netOut.flip();
+		}
+	}
+	
+	//Decrypts the TLS-records received so far into the receive-buffer. Returns false if nothing could be decrypted, because more data is needed from the host.
+	private boolean unwrap(Connection conn) throws IOException{
+		boolean progress = false;
+		conn.netIn.flip();
+		
+		try{
+			while(true){
+				SSLEngineResult result = conn.sslEngine.unwrap(conn.netIn, conn.in);
+				boolean moved = (result.bytesConsumed() > 0 || result.bytesProduced() > 0);
+				progress |= moved;
+				
+				if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW){
+					conn.in = grow(conn.in, conn.sslEngine.getSession().getApplicationBufferSize());
+					continue;
+				}else if(result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW){
+					return progress;
+				}else if(result.getStatus() == SSLEngineResult.Status.CLOSED){
+					conn.tlsClosed = true;
+					return progress;
+				}
+				
+				SSLEngineResult.HandshakeStatus handshakeStatus = result.getHandshakeStatus();
+				if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_TASK){
+					runTasks(conn);
+				}else if(handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_WRAP || !moved || !conn.netIn.hasRemaining()){
+					return progress;
+				}
+			}
+		}finally{
+			conn.netIn.compact();
+		}
+	}
+	
+	//Writes the encrypted data waiting in 'netOut'. Returns false if the channel could not take all of it.
+	private boolean flushTls(Connection conn) throws IOException{
+		if (conn.netOut.hasRemaining()){
+			conn.channel.write(conn.netOut);
+		}
+		
+		return !conn.netOut.hasRemaining();
+	}
+	
+	//Runs the slow tasks of the SSL-engine, like checking certificates, on the loop-thread.
+	private void runTasks(Connection conn){
+		Runnable task;
+		while((task = conn.sslEngine.getDelegatedTask()) != null){
+			task.run();
+		}
+	}
+	
+	//Returns a buffer with room for at least the given number of bytes more, holding the data of the given buffer. The given buffer is given back to the pool when a bigger one is returned.
+	private ByteBuffer grow(ByteBuffer buffer, int room){
+		if (buffer.remaining() >= room){
+			return buffer;
+		}
+		
+		HttpBrowserBufferPool pool = HttpBrowserBufferPool.getDefault();
+		ByteBuffer bigger = ByteBuffer.wrap(pool.acquire(Math.max(buffer.capacity() * 2, buffer.position() + room)));
+		buffer.flip();
+		bigger.put(buffer);
+		pool.release(buffer.array());
+		
+		return bigger;
+	}
+	
+	//Reports the address that could not be connected to and starts connecting to the next address of the host. Returns false if there are no more addresses.
+	private boolean connectNextAddress(Connection conn){
+		HttpBrowserResolver resolver = conn.request.http.getResolver();
+		
+		while(true){
+			InetAddress address = conn.addresses[conn.addressIndex];
+			conn.request.http.debug("Could not connect to " + address.getHostAddress() + ":" + conn.hostState.port + " - trying the next address.\n");
+			
+			resolver.connectFailed(conn.hostState.host, address);
+			closeChannel(conn);
+			
+			conn.addressIndex += 1;
+			if (conn.addressIndex >= conn.addresses.length){
+				return false;
+			}
+			
+			try{
+				connect(conn);
+				return true;
+			}catch(Exception e){
+				if (conn.connected){
+					//Connected but TLS could not be started.
+					return false;
+				}
+			}
+		}
+	}
+	
+	//Starts writing the request on the given connection.
+	private void start(Connection conn, Request req){
+		conn.request = req;
+		conn.parser.setHttp(req.http);
+		conn.out = ByteBuffer.wrap(req.bytes);
+		conn.key.interestOps(SelectionKey.OP_WRITE);
+	}
+	
+	private void write(Connection conn) throws Exception{
+		if (conn.handshaking){
+			handshake(conn);
+			return;
+		}
+		
+		conn.parser.requestStarted();
+		
+		if (conn.sslEngine == null){
+			conn.channel.write(conn.out);
+		}else{
+			while(flushTls(conn) && conn.out.hasRemaining()){
+				wrap(conn, conn.out);
+			}
+			
+			if (conn.netOut.hasRemaining()){
+				return;
+			}
+		}
+		
+		if (!conn.out.hasRemaining()){
+			conn.out = null;
+			conn.framer.reset();
+			conn.key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+	
+	private void read(Connection conn) throws Exception{
+		if (conn.handshaking){
+			handshake(conn);
+			return;
+		}
+		
+		conn.in = grow(conn.in, 1);
+		int len;
+		
+		if (conn.sslEngine == null){
+			len = conn.channel.read(conn.in);
+		}else{
+			len = conn.channel.read(conn.netIn);
+			unwrap(conn);
+			
+			if (conn.tlsClosed){
+				len = -1;
+			}
+		}
+		
+		if (conn.request == null){
+			//An idle connection was closed by the host or got data it should not have.
+			conn.hostState.idle.remove(conn);
+			closeChannel(conn);
+			forgetIfUnused(conn.hostState);
+			return;
+		}
+		
+		//A host closing TLS sends the close_notify right after the result, so they may arrive together.
+		int end = conn.framer.scan(conn.in.array(), conn.in.position());
+		if (end >= 0){
+			complete(conn, end);
+		}else if(len == -1){
+			throw new IOException("Socket seems to have closed on us?");
+		}
+	}
+	
+	//Parses a completely received result and gives the connection to the next request.
+	private void complete(Connection conn, int end) throws Exception{
+		Request req = conn.request;
+		boolean reusable = (end == conn.in.position() && !conn.tlsClosed);
+		
+		conn.parser.setInputStream(new ByteArrayInputStream(conn.in.array(), 0, end));
+		HttpBrowserResult res = req.http.readResult(conn.parser);
+		
+		conn.request = null;
+		
+		if (conn.in.capacity() > RECEIVE_BUFFER_KEEP){
+			HttpBrowserBufferPool.getDefault().release(conn.in.array());
+			conn.in = ByteBuffer.wrap(HttpBrowserBufferPool.getDefault().acquire(RECEIVE_BUFFER_SIZE));
+		}else{
+			conn.in.clear();
+		}
+		
+		if (reusable && conn.parser.isKeepaliveValid()){
+			Request next = conn.hostState.waiting.poll();
+			
+			if (next != null){
+				start(conn, next);
+			}else{
+				conn.hostState.idle.addFirst(conn);
+				conn.key.interestOps(SelectionKey.OP_READ);
+			}
+		}else{
+			closeChannel(conn);
+			dispatchWaiting(conn.hostState);
+		}
+		
+		req.future.complete(res);
+	}
+	
+	//Fails the request on the connection and closes it. A connection that could not be opened tries the next address of the host first. An idempotent request is sent again instead, if the connection had been used before and the host closed it without answering.
+	private void fail(Connection conn, Exception e){
+		if (!conn.connected && conn.request != null && connectNextAddress(conn)){
+			return;
+		}
+		
+		Request req = conn.request;
+		boolean retry = (req != null && req.idempotent && e instanceof IOException && conn.parser.getRequestsExecutedOnCurrectConnection() > 0 && conn.in != null && conn.in.position() == 0);
+		
+		conn.request = null;
+		closeChannel(conn);
+		
+		if (retry){
+			req.http.countRetry(e);
+			dispatch(req);
+		}else if(req != null){
+			req.future.completeExceptionally(e);
+		}
+		
+		dispatchWaiting(conn.hostState);
+	}
+	
+	//Opens connections for the waiting requests while there is room for them.
+	private void dispatchWaiting(HostState hostState){
+		while(!hostState.waiting.isEmpty() && hostState.open + hostState.resolving < engine.getMaxConnectionsPerHost()){
+			open(hostState, hostState.waiting.poll());
+		}
+		
+		forgetIfUnused(hostState);
+	}
+	
+	//Closes the channel of the connection and gives its buffers back to the pool. The connection may be connected again afterwards, which takes new buffers.
+	private void closeChannel(Connection conn){
+		if (conn.channel == null){
+			return;
+		}
+		
+		try{
+			conn.channel.close();
+		}catch(IOException e){
+			//ignore.
+		}finally{
+			conn.channel = null;
+			conn.hostState.open -= 1;
+			conn.parser.close();
+			releaseBuffers(conn);
+		}
+	}
+	
+	private void releaseBuffers(Connection conn){
+		HttpBrowserBufferPool pool = HttpBrowserBufferPool.getDefault();
+		
+		if (conn.in != null){
+			pool.release(conn.in.array());
+			conn.in = null;
+		}
+		
+		pool.releaseDirect(conn.netIn);
+		pool.releaseDirect(conn.netOut);
+		conn.netIn = null;
+		conn.netOut = null;
+	}
+}
@@ -0,0 +1,103 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+//Inflates a GZIP-body while it is being read from the connection. Unlike GZIPInputStream the inflater and the input-buffer are given by the caller, so they can be reused for every result on a connection.
+public class HttpBrowserGZIPInputStream extends HttpBrowserInflaterInputStream {
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+	
+	//The inflater must have been made with 'nowrap' since the GZIP-header is read by the stream.
+	public HttpBrowserGZIPInputStream(InputStream inIn, Inflater inInflater, byte[] inBuf) throws IOException{
+		super(inIn, inInflater, inBuf, new CRC32());
+		readHeader();
+	}
+	
+	@Override protected String formatName(){
+		return "GZIP";
+	}
+	
+	private int readUShort() throws IOException{
+		return readUByte() | (readUByte() << 8);
+	}
+	
+	private long readUInt() throws IOException{
+		return ((long) readUShort()) | (((long) readUShort()) << 16);
+	}
+	
+	//Reads and validates the GZIP-header of a member.
+	private void readHeader() throws IOException{
+		if (readUShort() != 0x8b1f){
+			throw new ZipException("Not in GZIP format.");
+		}else if(readUByte() != 8){
+			throw new ZipException("Unsupported compression method.");
+		}
+		
+		int flags = readUByte();
+		
+		//Skip modification-time, extra-flags and operating-system.
+		for(int i = 0; i < 6; i++){
+			readUByte();
+		}
+		
+		if ((flags & FEXTRA) == FEXTRA){
+			int extraLength = readUShort();
+			for(int i = 0; i < extraLength; i++){
+				readUByte();
+			}
+		}
+		
+		if ((flags & FNAME) == FNAME){
+			while(readUByte() != 0){
+				//ignore.
+			}
+		}
+		
+		if ((flags & FCOMMENT) == FCOMMENT){
+			while(readUByte() != 0){
+				//ignore.
+			}
+		}
+		
+		if ((flags & FHCRC) == FHCRC){
+			readUShort();
+		}
+		
+		checksum.reset();
+	}
+	
+	//Reads and validates the trailer of a member. Returns true if another member follows. Data after the last member that is not another member is ignored like GZIPInputStream does.
+	@Override protected boolean readTrailer() throws IOException{
+		skipInflated();
+		
+		if (readUInt() != checksum.getValue()){
+			throw new ZipException("Corrupt GZIP trailer (CRC).");
+		}else if(readUInt() != (inflater.getBytesWritten() & 0xFFFFFFFFL)){
+			throw new ZipException("Corrupt GZIP trailer (size).");
+		}
+		
+		if (bufPos >= bufLen && !fill()){
+			return false;
+		}
+		
+		inflater.reset();
+		
+		try{
+			readHeader();
+		}catch(ZipException e){
+			while(fill()){
+				//Read the rest of the body, so the connection can be reused.
+			}
+			
+			return false;
+		}
+		
+		return true;
+	}
+}
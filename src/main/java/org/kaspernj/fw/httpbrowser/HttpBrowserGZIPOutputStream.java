@@ -0,0 +1,133 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+//Compresses a request-body with GZIP while it is being sent. Unlike GZIPOutputStream the deflater is given by the caller, so it can be reused for every request on a connection, and the output-buffer is taken from the buffer-pool and given back when the body is finished. Compression can be turned off for parts of the body that are already compressed, which are then sent as stored blocks.
+public class HttpBrowserGZIPOutputStream extends OutputStream {
+	//Header of a member without name, comment or modification-time.
+	private static final byte[] HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+	
+	private OutputStream out;
+	private Deflater deflater;
+	private CRC32 crc = new CRC32();
+	private byte[] buf;
+	private int level;
+	private boolean compressing = true;
+	private boolean finished = false;
+	private byte[] singleByte = new byte[1];
+	
+	//The deflater must have been made with 'nowrap' since the GZIP-header is written by the stream.
+	public HttpBrowserGZIPOutputStream(OutputStream inOut, Deflater inDeflater, int inLevel) throws IOException{
+		out = inOut;
+		deflater = inDeflater;
+		level = inLevel;
+		
+		deflater.reset();
+		deflater.setLevel(level);
+		out.write(HEADER);
+		
+		//Taken after the header has been written, so it isnt lost if that fails.
+		buf = HttpBrowserBufferPool.getDefault().acquire(8192);
+	}
+	
+	//Turns compression on or off for the data written after this. The data written so far is flushed to the underlying stream first, so the new level only applies to the new data.
+	public void setCompressing(boolean inCompressing) throws IOException{
+		if (inCompressing == compressing){
+			return;
+		}
+		
+		deflate(Deflater.SYNC_FLUSH);
+		deflater.setLevel(inCompressing ? level : Deflater.NO_COMPRESSION);
+		compressing = inCompressing;
+	}
+	
+	@Override public void write(int b) throws IOException{
+		singleByte[0] = (byte) b;
+		write(singleByte, 0, 1);
+	}
+	
+	@Override public void write(byte[] bytes, int offset, int length) throws IOException{
+		if (finished){
+			throw new IOException("Stream finished.");
+		}else if(length == 0){
+			return;
+		}
+		
+		crc.update(bytes, offset, length);
+		deflater.setInput(bytes, offset, length);
+		
+		while(!deflater.needsInput()){
+			deflate(Deflater.NO_FLUSH);
+		}
+	}
+	
+	//Gives the output of the deflater to the underlying stream. Flushing runs until the deflater has nothing more to give.
+	private void deflate(int flush) throws IOException{
+		int len;
+		
+		do{
+			len = deflater.deflate(buf, 0, buf.length, flush);
+			if (len > 0){
+				out.write(buf, 0, len);
+			}
+		}while(flush != Deflater.NO_FLUSH && len == buf.length);
+	}
+	
+	//Sends the data written so far to the underlying stream without ending the body.
+	@Override public void flush() throws IOException{
+		if (!finished){
+			deflate(Deflater.SYNC_FLUSH);
+		}
+		
+		out.flush();
+	}
+	
+	//Writes the rest of the compressed data and the trailer without closing the underlying stream. The output-buffer is given back to the pool afterwards.
+	public void finish() throws IOException{
+		if (finished){
+			return;
+		}
+		
+		finished = true;
+		deflater.finish();
+		
+		try{
+			while(!deflater.finished()){
+				int len = deflater.deflate(buf, 0, buf.length);
+				out.write(buf, 0, len);
+			}
+		}finally{
+			release();
+		}
+		
+		long crcValue = crc.getValue();
+		long size = deflater.getBytesRead();
+		byte[] trailer = new byte[8];
+		
+		for(int i = 0; i < 4; i++){
+			trailer[i] = (byte) (crcValue >>> (i * 8));
+			trailer[i + 4] = (byte) (size >>> (i * 8));
+		}
+		
+		out.write(trailer);
+	}
+	
+	//Gives the output-buffer back to the pool without finishing the body. Used when the body could not be written to the end. Nothing happens if the body has been finished.
+	public void release(){
+		finished = true;
+		
+		if (buf != null){
+			HttpBrowserBufferPool.getDefault().release(buf);
+			buf = null;
+		}
+	}
+	
+	//Finishes the body and closes the underlying stream, which ends the request-body. The deflater is not ended since it belongs to the connection.
+	@Override public void close() throws IOException{
+		finish();
+		out.close();
+	}
+}
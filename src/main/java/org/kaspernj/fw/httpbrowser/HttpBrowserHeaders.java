@@ -0,0 +1,274 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+//The headers of a result in the order they were received. Names are case-insensitive and a name can have several values (like Set-Cookie). Names are stored in lower case and well-known names and values are shared instead of allocated for every result.
+public class HttpBrowserHeaders {
+	public static final String CONTENT_LENGTH = "content-length";
+	public static final String CONTENT_ENCODING = "content-encoding";
+	public static final String TRANSFER_ENCODING = "transfer-encoding";
+	public static final String KEEP_ALIVE = "keep-alive";
+	public static final String CONNECTION = "connection";
+	public static final String SET_COOKIE = "set-cookie";
+	
+	//Names that are shared instead of being allocated when parsed.
+	private static final String[] KNOWN_NAMES = {
+		"accept-ranges", "age", "cache-control", CONNECTION, CONTENT_ENCODING, "content-language", CONTENT_LENGTH, "content-location",
+		"content-range", "content-type", "date", "etag", "expires", KEEP_ALIVE, "last-modified", "location", "pragma", "server",
+		SET_COOKIE, TRANSFER_ENCODING, "vary", "via", "x-powered-by"
+	};
+	
+	//Values that are shared instead of being allocated when parsed.
+	private static final String[] KNOWN_VALUES = {
+		"bytes", "chunked", "close", "deflate", "gzip", "Keep-Alive", "keep-alive", "no-cache", "private", "Accept-Encoding", "identity"
+	};
+	
+	private static final byte[][] KNOWN_NAME_BYTES = toBytes(KNOWN_NAMES);
+	private static final byte[][] KNOWN_VALUE_BYTES = toBytes(KNOWN_VALUES);
+	
+	private String[] names;
+	private String[] values;
+	private int size = 0;
+	
+	public HttpBrowserHeaders(){
+		names = new String[16];
+		values = new String[16];
+	}
+	
+	//Creates a copy of the given headers.
+	public HttpBrowserHeaders(HttpBrowserHeaders other){
+		names = Arrays.copyOf(other.names, Math.max(other.size, 1));
+		values = Arrays.copyOf(other.values, Math.max(other.size, 1));
+		size = other.size;
+	}
+	
+	//Creates headers from a HashMap with a single value per name.
+	public HttpBrowserHeaders(HashMap<String, String> map){
+		this();
+		
+		for(String key: map.keySet()){
+			add(key, map.get(key));
+		}
+	}
+	
+	//Adds a header. Existing headers with the same name are kept.
+	public void add(String name, String value){
+		String lowerName = knownName(name);
+		if (lowerName == null){
+			lowerName = name.toLowerCase();
+		}
+		
+		addLowerCase(lowerName, value);
+	}
+	
+	//Adds a header, whose name is already in lower case.
+	void addLowerCase(String lowerName, String value){
+		if (size == names.length){
+			names = Arrays.copyOf(names, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+		}
+		
+		names[size] = lowerName;
+		values[size] = value;
+		size++;
+	}
+	
+	//Appends a continuation-line to the value of the last header.
+	void appendToLast(String value){
+		if (size == 0){
+			return;
+		}
+		
+		values[size - 1] = values[size - 1] + " " + value;
+	}
+	
+	//Returns the first value of the header with the given name or null if it was not given.
+	public String get(String name){
+		for(int i = 0; i < size; i++){
+			if (nameMatches(i, name)){
+				return values[i];
+			}
+		}
+		
+		return null;
+	}
+	
+	//Returns the last value of the header with the given name or null if it was not given.
+	public String getLast(String name){
+		for(int i = size - 1; i >= 0; i--){
+			if (nameMatches(i, name)){
+				return values[i];
+			}
+		}
+		
+		return null;
+	}
+	
+	//Returns all values of the header with the given name in the order they were received.
+	public List<String> getAll(String name){
+		ArrayList<String> list = new ArrayList<String>(2);
+		
+		for(int i = 0; i < size; i++){
+			if (nameMatches(i, name)){
+				list.add(values[i]);
+			}
+		}
+		
+		return list;
+	}
+	
+	public boolean contains(String name){
+		return get(name) != null;
+	}
+	
+	//Returns the number of headers including repeated ones.
+	public int size(){
+		return size;
+	}
+	
+	//Returns the lower case name of the header at the given index.
+	public String getName(int index){
+		if (index >= size){
+			throw new IndexOutOfBoundsException("No header at index " + index + " (" + size + " headers).");
+		}
+		
+		return names[index];
+	}
+	
+	//Returns the value of the header at the given index.
+	public String getValue(int index){
+		if (index >= size){
+			throw new IndexOutOfBoundsException("No header at index " + index + " (" + size + " headers).");
+		}
+		
+		return values[index];
+	}
+	
+	//Returns the headers as a HashMap with lower case names. For repeated headers the last value is used.
+	public HashMap<String, String> toHashMap(){
+		HashMap<String, String> map = new HashMap<String, String>();
+		
+		for(int i = 0; i < size; i++){
+			map.put(names[i], values[i]);
+		}
+		
+		return map;
+	}
+	
+	public String toString(){
+		StringBuilder str = new StringBuilder();
+		
+		for(int i = 0; i < size; i++){
+			str.append(names[i]).append(": ").append(values[i]).append("\n");
+		}
+		
+		return str.toString();
+	}
+	
+	private boolean nameMatches(int index, String name){
+		String stored = names[index];
+		return stored == name || stored.equalsIgnoreCase(name);
+	}
+	
+	//Returns the lower case name for the given bytes. Well-known names are returned without allocating.
+	static String parseName(byte[] bytes, int offset, int length){
+		int index = knownIndex(KNOWN_NAME_BYTES, bytes, offset, length, true);
+		if (index != -1){
+			return KNOWN_NAMES[index];
+		}
+		
+		char[] chars = new char[length];
+		for(int i = 0; i < length; i++){
+			int ch = bytes[offset + i] & 0xFF;
+			if (ch >= 'A' && ch <= 'Z'){
+				ch += 32;
+			}
+			
+			chars[i] = (char) ch;
+		}
+		
+		return new String(chars);
+	}
+	
+	//Returns the value for the given bytes. Well-known values are returned without allocating.
+	static String parseValue(byte[] bytes, int offset, int length){
+		int index = knownIndex(KNOWN_VALUE_BYTES, bytes, offset, length, false);
+		if (index != -1){
+			return KNOWN_VALUES[index];
+		}
+		
+		return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+	}
+	
+	//Returns true if the given bytes are the given lower case name in any case.
+	static boolean nameEquals(byte[] bytes, int offset, int length, String lowerName){
+		if (length != lowerName.length()){
+			return false;
+		}
+		
+		for(int i = 0; i < length; i++){
+			int ch = bytes[offset + i];
+			if (ch >= 'A' && ch <= 'Z'){
+				ch += 32;
+			}
+			
+			if (ch != lowerName.charAt(i)){
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	private static String knownName(String name){
+		for(String known: KNOWN_NAMES){
+			if (known.equalsIgnoreCase(name)){
+				return known;
+			}
+		}
+		
+		return null;
+	}
+	
+	private static int knownIndex(byte[][] known, byte[] bytes, int offset, int length, boolean ignoreCase){
+		for(int i = 0; i < known.length; i++){
+			byte[] candidate = known[i];
+			if (candidate.length != length){
+				continue;
+			}
+			
+			int j = 0;
+			while(j < length){
+				int ch = bytes[offset + j];
+				if (ignoreCase && ch >= 'A' && ch <= 'Z'){
+					ch += 32;
+				}
+				
+				if (ch != candidate[j]){
+					break;
+				}
+				
+				j++;
+			}
+			
+			if (j == length){
+				return i;
+			}
+		}
+		
+		return -1;
+	}
+	
+	private static byte[][] toBytes(String[] strs){
+		byte[][] bytes = new byte[strs.length][];
+		for(int i = 0; i < strs.length; i++){
+			bytes[i] = strs[i].getBytes(StandardCharsets.ISO_8859_1);
+		}
+		
+		return bytes;
+	}
+}
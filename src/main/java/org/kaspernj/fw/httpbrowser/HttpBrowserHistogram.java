@@ -0,0 +1,139 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//Counts values like latencies in buckets that grow with the value, so percentiles can be read with a precision of about 3% without keeping every value. Values can be recorded by many threads at the same time.
+public class HttpBrowserHistogram {
+	//Every power of two is divided into this many buckets.
+	private static final int SUB_BUCKETS = 32;
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+	
+	private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private AtomicLong count = new AtomicLong();
+	private AtomicLong sum = new AtomicLong();
+	private AtomicLong max = new AtomicLong();
+	
+	//Records a value. Negative values are counted as zero.
+	public void record(long value){
+		if (value < 0){
+			value = 0;
+		}
+		
+		counts.incrementAndGet(bucket(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		
+		long currentMax;
+		while(value > (currentMax = max.get())){
+			if (max.compareAndSet(currentMax, value)){
+				break;
+			}
+		}
+	}
+	
+	//Returns the bucket of the given value. Values below SUB_BUCKETS have a bucket of their own.
+	private static int bucket(long value){
+		if (value < SUB_BUCKETS){
+			return (int) value;
+		}
+		
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+	
+	//Returns the highest value that is counted in the given bucket.
+	private static long bucketMax(int bucket){
+		if (bucket < SUB_BUCKETS){
+			return bucket;
+		}
+		
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+		int shift = exponent - SUB_BUCKET_BITS;
+		return (subBucket << shift) + (1L << shift) - 1;
+	}
+	
+	public long getCount(){
+		return count.get();
+	}
+	
+	public long getSum(){
+		return sum.get();
+	}
+	
+	public long getMax(){
+		return max.get();
+	}
+	
+	public double getMean(){
+		long currentCount = count.get();
+		return (currentCount == 0) ? 0 : (double) sum.get() / currentCount;
+	}
+	
+	//Returns the value that the given percentage (like 99.9) of the recorded values are below or equal to. Zero if nothing has been recorded.
+	public long getPercentile(double percentile){
+		long currentCount = count.get();
+		if (currentCount == 0){
+			return 0;
+		}
+		
+		long wanted = Math.max(1, (long) Math.ceil(currentCount * percentile / 100.0));
+		long seen = 0;
+		
+		for(int i = 0; i < BUCKETS; i++){
+			seen += counts.get(i);
+			if (seen >= wanted){
+				return Math.min(bucketMax(i), max.get());
+			}
+		}
+		
+		return max.get();
+	}
+	
+	//Adds the values recorded in another histogram to this one.
+	public void add(HttpBrowserHistogram other){
+		for(int i = 0; i < BUCKETS; i++){
+			long bucketCount = other.counts.get(i);
+			if (bucketCount > 0){
+				counts.addAndGet(i, bucketCount);
+			}
+		}
+		
+		count.addAndGet(other.count.get());
+		sum.addAndGet(other.sum.get());
+		
+		long otherMax = other.max.get();
+		long currentMax;
+		while(otherMax > (currentMax = max.get())){
+			if (max.compareAndSet(currentMax, otherMax)){
+				break;
+			}
+		}
+	}
+	
+	//Moves the recorded values to a new histogram and empties this one. Used to report intervals while values are still being recorded.
+	public HttpBrowserHistogram getAndReset(){
+		HttpBrowserHistogram copy = new HttpBrowserHistogram();
+		
+		for(int i = 0; i < BUCKETS; i++){
+			long bucketCount = counts.getAndSet(i, 0);
+			if (bucketCount > 0){
+				copy.counts.set(i, bucketCount);
+			}
+		}
+		
+		copy.count.set(count.getAndSet(0));
+		copy.sum.set(sum.getAndSet(0));
+		copy.max.set(max.getAndSet(0));
+		
+		return copy;
+	}
+	
+	//Removes all recorded values.
+	public void reset(){
+		getAndReset();
+	}
+}
@@ -0,0 +1,329 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+//The parts of HPACK, the header-compression of HTTP/2 (RFC 7541), that are shared by the encoder and the decoder: the static table, the Huffman-code and the integer- and string-representations.
+class HttpBrowserHpack {
+	//Every entry in a table counts as this much more than the length of its name and value.
+	static final int ENTRY_OVERHEAD = 32;
+	
+	//The size of the dynamic table until the peer says otherwise.
+	static final int DEFAULT_TABLE_SIZE = 4096;
+	
+	//The static table. Index 0 is not used.
+	static final String[][] STATIC_TABLE = {
+		null,
+		{":authority", ""},
+		{":method", "GET"},
+		{":method", "POST"},
+		{":path", "/"},
+		{":path", "/index.html"},
+		{":scheme", "http"},
+		{":scheme", "https"},
+		{":status", "200"},
+		{":status", "204"},
+		{":status", "206"},
+		{":status", "304"},
+		{":status", "400"},
+		{":status", "404"},
+		{":status", "500"},
+		{"accept-charset", ""},
+		{"accept-encoding", "gzip, deflate"},
+		{"accept-language", ""},
+		{"accept-ranges", ""},
+		{"accept", ""},
+		{"access-control-allow-origin", ""},
+		{"age", ""},
+		{"allow", ""},
+		{"authorization", ""},
+		{"cache-control", ""},
+		{"content-disposition", ""},
+		{"content-encoding", ""},
+		{"content-language", ""},
+		{"content-length", ""},
+		{"content-location", ""},
+		{"content-range", ""},
+		{"content-type", ""},
+		{"cookie", ""},
+		{"date", ""},
+		{"etag", ""},
+		{"expect", ""},
+		{"expires", ""},
+		{"from", ""},
+		{"host", ""},
+		{"if-match", ""},
+		{"if-modified-since", ""},
+		{"if-none-match", ""},
+		{"if-range", ""},
+		{"if-unmodified-since", ""},
+		{"last-modified", ""},
+		{"link", ""},
+		{"location", ""},
+		{"max-forwards", ""},
+		{"proxy-authenticate", ""},
+		{"proxy-authorization", ""},
+		{"range", ""},
+		{"referer", ""},
+		{"refresh", ""},
+		{"retry-after", ""},
+		{"server", ""},
+		{"set-cookie", ""},
+		{"strict-transport-security", ""},
+		{"transfer-encoding", ""},
+		{"user-agent", ""},
+		{"vary", ""},
+		{"via", ""},
+		{"www-authenticate", ""}
+	};
+	
+	//The Huffman-code of every octet and of EOS (256), and the length of each code in bits.
+	static final int[] HUFFMAN_CODES = {
+		0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+		0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+		0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+		0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+		0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+		0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+		0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+		0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+		0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+		0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+		0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+		0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+		0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+		0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+		0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+		0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+		0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+		0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+		0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+		0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+		0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+		0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+		0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+		0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+		0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+		0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+		0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+		0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+		0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+		0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+		0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+		0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+		0x3fffffff
+	};
+	
+	static final byte[] HUFFMAN_LENGTHS = {
+		13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+		28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+		6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+		5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+		13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+		7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+		15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+		6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+		20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+		24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+		22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+		21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+		26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+		19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+		20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+		26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+		30
+	};
+	
+	//The Huffman-code as a binary tree for decoding. Node N has its children at 2N and 2N+1. A negative child is a leaf with the symbol -(child+1) and zero means that no code goes that way.
+	private static final int[] HUFFMAN_TREE = buildHuffmanTree();
+	
+	private static int[] buildHuffmanTree(){
+		//A complete prefix-code with 257 symbols has 256 inner nodes.
+		int[] tree = new int[2 * 256];
+		int nodes = 1;
+		
+		for(int symbol = 0; symbol < HUFFMAN_CODES.length; symbol++){
+			int code = HUFFMAN_CODES[symbol];
+			int node = 0;
+			
+			for(int bit = HUFFMAN_LENGTHS[symbol] - 1; bit >= 0; bit--){
+				int child = 2 * node + ((code >>> bit) & 1);
+				
+				if (bit == 0){
+					tree[child] = -(symbol + 1);
+				}else{
+					if (tree[child] == 0){
+						tree[child] = nodes++;
+					}
+					
+					node = tree[child];
+				}
+			}
+		}
+		
+		return tree;
+	}
+	
+	//Writes an integer with the given prefix-size. The bits of the first byte above the prefix are given in 'firstByte'.
+	static void writeInt(HttpBrowserRequestBuffer out, int firstByte, int prefixBits, int value){
+		int max = (1 << prefixBits) - 1;
+		
+		if (value < max){
+			out.write(firstByte | value);
+			return;
+		}
+		
+		out.write(firstByte | max);
+		value -= max;
+		
+		while(value >= 128){
+			out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		
+		out.write(value);
+	}
+	
+	//Writes a string-literal with a char per octet. It is Huffman-encoded if that makes it shorter.
+	static void writeString(HttpBrowserRequestBuffer out, String str){
+		int length = str.length();
+		int huffmanBits = 0;
+		
+		for(int i = 0; i < length; i++){
+			huffmanBits += HUFFMAN_LENGTHS[str.charAt(i) & 0xff];
+		}
+		
+		int huffmanLength = (huffmanBits + 7) / 8;
+		
+		if (huffmanLength >= length){
+			writeInt(out, 0x00, 7, length);
+			
+			for(int i = 0; i < length; i++){
+				out.write(str.charAt(i));
+			}
+			
+			return;
+		}
+		
+		writeInt(out, 0x80, 7, huffmanLength);
+		
+		long bits = 0;
+		int bitCount = 0;
+		
+		for(int i = 0; i < length; i++){
+			int symbol = str.charAt(i) & 0xff;
+			bits = (bits << HUFFMAN_LENGTHS[symbol]) | HUFFMAN_CODES[symbol];
+			bitCount += HUFFMAN_LENGTHS[symbol];
+			
+			while(bitCount >= 8){
+				bitCount -= 8;
+				out.write((int) (bits >>> bitCount));
+			}
+		}
+		
+		//The last byte is padded with the most significant bits of EOS, which are all ones.
+		if (bitCount > 0){
+			out.write((int) ((bits << (8 - bitCount)) | (0xff >>> bitCount)));
+		}
+	}
+	
+	//Decodes a Huffman-encoded string-literal.
+	static String huffmanDecode(byte[] src, int offset, int length) throws IOException{
+		StringBuilder str = new StringBuilder(length * 8 / 5);
+		int node = 0;
+		int depth = 0;
+		boolean onlyOnes = true;
+		
+		for(int i = offset; i < offset + length; i++){
+			int b = src[i] & 0xff;
+			
+			for(int bit = 7; bit >= 0; bit--){
+				int direction = (b >>> bit) & 1;
+				int child = HUFFMAN_TREE[2 * node + direction];
+				
+				depth++;
+				onlyOnes = onlyOnes && (direction == 1);
+				
+				if (child < 0){
+					int symbol = -(child + 1);
+					if (symbol == 256){
+						throw new IOException("A Huffman-encoded string contained EOS.");
+					}
+					
+					str.append((char) symbol);
+					node = 0;
+					depth = 0;
+					onlyOnes = true;
+				}else if(child == 0){
+					throw new IOException("Invalid Huffman-code.");
+				}else{
+					node = child;
+				}
+			}
+		}
+		
+		//Padding must be a prefix of EOS shorter than a byte.
+		if (depth > 7 || !onlyOnes){
+			throw new IOException("Invalid padding of a Huffman-encoded string.");
+		}
+		
+		return str.toString();
+	}
+	
+	//Returns the size that an entry counts as in a table.
+	static int entrySize(String name, String value){
+		return name.length() + value.length() + ENTRY_OVERHEAD;
+	}
+	
+	//Returns the octets of a name or value as a string with a char per octet.
+	static String latin1(byte[] src, int offset, int length){
+		return new String(src, offset, length, StandardCharsets.ISO_8859_1);
+	}
+	
+	//The dynamic table of an encoder or a decoder. New entries get the lowest index and the oldest entries are evicted when the size is exceeded.
+	static class DynamicTable {
+		//The entries with the oldest first.
+		private ArrayList<String[]> entries = new ArrayList<String[]>();
+		private int size = 0;
+		private int maxSize = DEFAULT_TABLE_SIZE;
+		
+		//Returns the number of entries.
+		int length(){
+			return entries.size();
+		}
+		
+		//Returns the entry with the given index, where 1 is the newest.
+		String[] get(int index){
+			return entries.get(entries.size() - index);
+		}
+		
+		//Adds an entry. An entry bigger than the table empties it.
+		void add(String name, String value){
+			int entrySize = entrySize(name, value);
+			evict(maxSize - entrySize);
+			
+			if (entrySize <= maxSize){
+				entries.add(new String[]{name, value});
+				size += entrySize;
+			}
+		}
+		
+		int getMaxSize(){
+			return maxSize;
+		}
+		
+		void setMaxSize(int inMaxSize){
+			maxSize = inMaxSize;
+			evict(maxSize);
+		}
+		
+		//Evicts the oldest entries until the size is within the given limit.
+		private void evict(int limit){
+			while(size > limit && !entries.isEmpty()){
+				String[] oldest = entries.remove(0);
+				size -= entrySize(oldest[0], oldest[1]);
+			}
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.IOException;
+import java.util.List;
+
+//Decodes the header-blocks received on a HTTP/2-connection. The decoder holds the dynamic table of the connection, so the blocks must be decoded in the order they are received.
+class HttpBrowserHpackDecoder {
+	private HttpBrowserHpack.DynamicTable table = new HttpBrowserHpack.DynamicTable();
+	
+	//The biggest size the peer may give the table, which is what we have said in our settings.
+	private int maxTableSize = HttpBrowserHpack.DEFAULT_TABLE_SIZE;
+	
+	//The block being decoded and the position in it.
+	private byte[] block;
+	private int pos;
+	private int end;
+	
+	//Decodes the given header-block and adds the headers to the list as name-value-pairs.
+	void decode(byte[] inBlock, int offset, int length, List<String[]> headers) throws IOException{
+		block = inBlock;
+		pos = offset;
+		end = offset + length;
+		
+		try{
+			while(pos < end){
+				int b = block[pos] & 0xff;
+				
+				if ((b & 0x80) != 0){
+					//Indexed header-field.
+					String[] entry = entry(readInt(7));
+					headers.add(new String[]{entry[0], entry[1]});
+				}else if((b & 0x40) != 0){
+					//Literal header-field that is added to the table.
+					String[] header = readLiteral(6);
+					table.add(header[0], header[1]);
+					headers.add(header);
+				}else if((b & 0x20) != 0){
+					//Dynamic table size update.
+					int size = readInt(5);
+					if (size > maxTableSize){
+						throw new IOException("The host set the size of the header-table to " + size + ", which is more than the allowed " + maxTableSize + ".");
+					}
+					
+					table.setMaxSize(size);
+				}else{
+					//Literal header-field without indexing or never indexed.
+					headers.add(readLiteral(4));
+				}
+			}
+		}finally{
+			block = null;
+		}
+	}
+	
+	//Returns the entry of the given index in the static or the dynamic table.
+	private String[] entry(int index) throws IOException{
+		int staticLength = HttpBrowserHpack.STATIC_TABLE.length - 1;
+		
+		if (index >= 1 && index <= staticLength){
+			return HttpBrowserHpack.STATIC_TABLE[index];
+		}else if(index > staticLength && index <= staticLength + table.length()){
+			return table.get(index - staticLength);
+		}
+		
+		throw new IOException("Invalid index in header-block: " + index);
+	}
+	
+	//Reads a literal header-field where the name is given by an index with the given prefix or as a string when the index is zero.
+	private String[] readLiteral(int prefixBits) throws IOException{
+		int index = readInt(prefixBits);
+		String name = (index == 0) ? readString() : entry(index)[0];
+		String value = readString();
+		
+		return new String[]{name, value};
+	}
+	
+	//Reads an integer with the given prefix-size.
+	private int readInt(int prefixBits) throws IOException{
+		int max = (1 << prefixBits) - 1;
+		int value = block[pos++] & max;
+		
+		if (value < max){
+			return value;
+		}
+		
+		int shift = 0;
+		int b;
+		
+		do{
+			if (pos >= end || shift > 21){
+				throw new IOException("Invalid integer in header-block.");
+			}
+			
+			b = block[pos++] & 0xff;
+			value += (b & 0x7f) << shift;
+			shift += 7;
+		}while((b & 0x80) != 0);
+		
+		return value;
+	}
+	
+	//Reads a string-literal, which may be Huffman-encoded.
+	private String readString() throws IOException{
+		if (pos >= end){
+			throw new IOException("Header-block ended in the middle of a header.");
+		}
+		
+		boolean huffman = (block[pos] & 0x80) != 0;
+		int length = readInt(7);
+		
+		if (length > end - pos){
+			throw new IOException("String in header-block is longer than the block.");
+		}
+		
+		String str = huffman ? HttpBrowserHpack.huffmanDecode(block, pos, length) : HttpBrowserHpack.latin1(block, pos, length);
+		pos += length;
+		
+		return str;
+	}
+}
@@ -0,0 +1,105 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.util.HashMap;
+import java.util.List;
+
+//Encodes the header-lists of requests into header-blocks for a HTTP/2-connection. Headers are added to the dynamic table, so headers that are the same on every request, like the cookies and the user-agent, are sent as a single byte after the first request.
+class HttpBrowserHpackEncoder {
+	//Maps the names and the name-value-pairs (separated by a NUL) of the static table to their first index.
+	private static final HashMap<String, Integer> STATIC_INDEX = new HashMap<String, Integer>();
+	
+	static{
+		for(int i = HttpBrowserHpack.STATIC_TABLE.length - 1; i >= 1; i--){
+			String[] entry = HttpBrowserHpack.STATIC_TABLE[i];
+			STATIC_INDEX.put(entry[0], i);
+			STATIC_INDEX.put(entry[0] + "\0" + entry[1], i);
+		}
+	}
+	
+	private HttpBrowserHpack.DynamicTable table = new HttpBrowserHpack.DynamicTable();
+	
+	//True if the size of the table has changed and the peer has not been told yet.
+	private boolean sizeUpdatePending = false;
+	
+	//Sets the size of the dynamic table allowed by the peer. The table is never made bigger than the default, but it is made smaller if the peer asks for it.
+	void setMaxTableSize(int peerMaxSize){
+		int size = Math.min(peerMaxSize, HttpBrowserHpack.DEFAULT_TABLE_SIZE);
+		
+		if (size != table.getMaxSize()){
+			table.setMaxSize(size);
+			sizeUpdatePending = true;
+		}
+	}
+	
+	//Encodes the given name-value-pairs, which must have lower-case names, into a header-block.
+	void encode(List<String[]> headers, HttpBrowserRequestBuffer out){
+		if (sizeUpdatePending){
+			HttpBrowserHpack.writeInt(out, 0x20, 5, table.getMaxSize());
+			sizeUpdatePending = false;
+		}
+		
+		for(String[] header: headers){
+			String name = header[0];
+			String value = header[1];
+			int index = find(name, value);
+			
+			if (index > 0){
+				HttpBrowserHpack.writeInt(out, 0x80, 7, index);
+				continue;
+			}
+			
+			int nameIndex = -index;
+			
+			if (isSensitive(name)){
+				HttpBrowserHpack.writeInt(out, 0x10, 4, nameIndex);
+			}else if(isIndexed(name)){
+				HttpBrowserHpack.writeInt(out, 0x40, 6, nameIndex);
+				table.add(name, value);
+			}else{
+				HttpBrowserHpack.writeInt(out, 0x00, 4, nameIndex);
+			}
+			
+			if (nameIndex == 0){
+				HttpBrowserHpack.writeString(out, name);
+			}
+			
+			HttpBrowserHpack.writeString(out, value);
+		}
+	}
+	
+	//Returns the index of an entry with the given name and value, or the negated index of an entry with the given name, or zero if there is neither.
+	private int find(String name, String value){
+		Integer index = STATIC_INDEX.get(name + "\0" + value);
+		if (index != null){
+			return index;
+		}
+		
+		Integer staticNameIndex = STATIC_INDEX.get(name);
+		int nameIndex = (staticNameIndex == null) ? 0 : staticNameIndex;
+		int staticLength = HttpBrowserHpack.STATIC_TABLE.length - 1;
+		
+		for(int i = 1; i <= table.length(); i++){
+			String[] entry = table.get(i);
+			
+			if (entry[0].equals(name)){
+				if (entry[1].equals(value)){
+					return staticLength + i;
+				}else if(nameIndex == 0){
+					nameIndex = staticLength + i;
+				}
+			}
+		}
+		
+		return -nameIndex;
+	}
+	
+	//Returns false for headers whose value changes from request to request, since adding them to the table would only evict the headers that repeat.
+	private boolean isIndexed(String name){
+		return !(name.equals(":path") || name.equals("content-length") || name.equals("if-none-match") || name.equals("if-modified-since") || name.equals("range"));
+	}
+	
+	//Returns true if the header holds credentials, which intermediaries must never add to a table either.
+	private boolean isSensitive(String name){
+		return (name.equals("authorization") || name.equals("proxy-authorization"));
+	}
+}
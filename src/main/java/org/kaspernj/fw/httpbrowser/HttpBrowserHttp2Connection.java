@@ -0,0 +1,911 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import javax.net.ssl.SSLSession;
+
+//A HTTP/2-connection (RFC 7540) that multiplexes many requests as streams over a single socket. It is opened with prior knowledge in cleartext (h2c), or through ALPN when TLS is used. The headers are compressed with HPACK and both sides keep within the flow-control windows of the other.
+//A thread reads the frames from the host. The state of the connection and its streams is guarded by the connection, and frames are only written while holding it.
+public class HttpBrowserHttp2Connection implements Runnable {
+	private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] EMPTY = new byte[0];
+	
+	//Frame-types.
+	static final int DATA = 0x0;
+	static final int HEADERS = 0x1;
+	static final int PRIORITY = 0x2;
+	static final int RST_STREAM = 0x3;
+	static final int SETTINGS = 0x4;
+	static final int PUSH_PROMISE = 0x5;
+	static final int PING = 0x6;
+	static final int GOAWAY = 0x7;
+	static final int WINDOW_UPDATE = 0x8;
+	static final int CONTINUATION = 0x9;
+	
+	//Frame-flags.
+	static final int FLAG_END_STREAM = 0x1;
+	static final int FLAG_ACK = 0x1;
+	static final int FLAG_END_HEADERS = 0x4;
+	static final int FLAG_PADDED = 0x8;
+	static final int FLAG_PRIORITY = 0x20;
+	
+	//Settings.
+	static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+	static final int SETTINGS_ENABLE_PUSH = 0x2;
+	static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+	static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+	static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+	
+	//Error-codes.
+	static final int NO_ERROR = 0x0;
+	static final int PROTOCOL_ERROR = 0x1;
+	static final int FLOW_CONTROL_ERROR = 0x3;
+	static final int REFUSED_STREAM = 0x7;
+	static final int CANCEL = 0x8;
+	
+	//The frame-size and window-size that apply until the settings say otherwise. We never allow the host to send bigger frames.
+	static final int DEFAULT_FRAME_SIZE = 16384;
+	static final int DEFAULT_WINDOW = 65535;
+	
+	//How much the host may send on each stream and on the whole connection before we say that we have taken it. The results are kept in memory anyway, so big windows let the host send as fast as it can.
+	private static final int STREAM_WINDOW = 1 << 20;
+	private static final int CONNECTION_WINDOW = 1 << 24;
+	
+	//How many bytes of a streaming body a writer may get ahead of what the windows of the host allow.
+	private static final int BODY_BUFFER = 65536;
+	
+	//The ids of streams started by us are odd and can not be reused, so a new connection is needed when they run out.
+	private static final int MAX_STREAM_ID = Integer.MAX_VALUE - 2;
+	
+	private HttpBrowser http;
+	private String host;
+	private int port;
+	
+	//Opens the socket with the resolver and TLS-settings of the browser.
+	private HttpBrowserConnection transport;
+	private OutputStream out;
+	private HttpBrowserSocketReader reader;
+	private Thread thread;
+	
+	//Noted when connecting, so the first result can be given the connect- and handshake-times.
+	private String scheme;
+	private long connectNanos;
+	private long handshakeNanos;
+	private SSLSession tlsSession;
+	private String applicationProtocol;
+	
+	private HttpBrowserHpackEncoder encoder = new HttpBrowserHpackEncoder();
+	private HttpBrowserHpackDecoder decoder = new HttpBrowserHpackDecoder();
+	private HttpBrowserRequestBuffer headerBuffer = new HttpBrowserRequestBuffer();
+	private byte[] frameHead = new byte[9];
+	
+	//The started streams by id, the streams waiting for the host to allow more concurrent streams and the started streams with body-data to send.
+	private HashMap<Integer, HttpBrowserHttp2Stream> streams = new HashMap<Integer, HttpBrowserHttp2Stream>();
+	private ArrayDeque<HttpBrowserHttp2Stream> queued = new ArrayDeque<HttpBrowserHttp2Stream>();
+	private LinkedHashSet<HttpBrowserHttp2Stream> sending = new LinkedHashSet<HttpBrowserHttp2Stream>();
+	private int nextStreamId = 1;
+	private long streamsStarted = 0;
+	
+	//Streams that was completed or failed while holding the lock. Their futures are completed after it is released, so callbacks does not run while holding it.
+	private ArrayList<HttpBrowserHttp2Stream> finished = new ArrayList<HttpBrowserHttp2Stream>();
+	
+	//The settings of the host. Concurrent streams are limited to 100 until the host says otherwise, as recommended by the RFC.
+	private int maxConcurrentStreams = 100;
+	private int initialWindow = DEFAULT_WINDOW;
+	private int maxFrameSize = DEFAULT_FRAME_SIZE;
+	
+	//What the host allows us to send on the connection and what we have received without telling the host.
+	private long sendWindow = DEFAULT_WINDOW;
+	private int receiveUnacked = 0;
+	
+	//A header-block that is received in more than one frame.
+	private int continuationStreamId = 0;
+	private int continuationFlags;
+	private ByteArrayOutputStream continuation;
+	
+	//No streams are started when going away. The connection is closed when the last stream is done.
+	private boolean goingAway = false;
+	private volatile boolean closed = false;
+	private IOException failure;
+	
+	//Parses the results of the streams. Each is a connection-object that reads from the result of a stream.
+	private ArrayDeque<HttpBrowserConnection> parsers = new ArrayDeque<HttpBrowserConnection>();
+	
+	public HttpBrowserHttp2Connection(HttpBrowser inHttp, String inHost, int inPort){
+		http = inHttp;
+		host = inHost;
+		port = inPort;
+	}
+	
+	//Opens the socket, sends the connection-preface and our settings and starts the thread that reads from the host.
+	public void connect() throws Exception{
+		transport = new HttpBrowserConnection(http, host, port);
+		transport.setApplicationProtocols(new String[]{"h2"});
+		transport.connect();
+		
+		if (transport.isTls() && !"h2".equals(transport.getApplicationProtocol())){
+			String protocol = transport.getApplicationProtocol();
+			transport.close();
+			throw new Exception("The host did not agree to HTTP/2 through ALPN (it chose: " + protocol + ").");
+		}
+		
+		//Frames are small and written when they are ready, so they should not wait for the previous ones to be acknowledged.
+		transport.setTcpNoDelay(true);
+		
+		scheme = transport.isTls() ? "https" : "http";
+		connectNanos = transport.getConnectNanos();
+		handshakeNanos = transport.getHandshakeNanos();
+		tlsSession = transport.getTlsSession();
+		applicationProtocol = transport.getApplicationProtocol();
+		
+		out = new BufferedOutputStream(transport.getOutputStream(), DEFAULT_FRAME_SIZE * 2);
+		reader = transport.getReader();
+		
+		synchronized(this){
+			out.write(PREFACE);
+			
+			byte[] settings = new byte[12];
+			putSetting(settings, 0, SETTINGS_ENABLE_PUSH, 0);
+			putSetting(settings, 6, SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW);
+			writeFrame(SETTINGS, 0, 0, settings, 0, settings.length);
+			writeWindowUpdate(0, CONNECTION_WINDOW - DEFAULT_WINDOW);
+			
+			out.flush();
+		}
+		
+		http.debug("Opened HTTP/2-connection to " + host + ":" + port + ".\n");
+		
+		thread = new Thread(this, "HttpBrowserHttp2 " + host + ":" + port);
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	//Returns true if new requests can be sent on the connection.
+	public synchronized boolean isUsable(){
+		return (!closed && !goingAway);
+	}
+	
+	//Returns the number of streams started on the connection.
+	public synchronized long getStreamsStarted(){
+		return streamsStarted;
+	}
+	
+	//Returns the number of streams that are waiting for their results.
+	public synchronized int getActiveStreams(){
+		return streams.size();
+	}
+	
+	//Returns the number of concurrent streams allowed by the host.
+	public synchronized int getMaxConcurrentStreams(){
+		return maxConcurrentStreams;
+	}
+	
+	//Returns the protocol agreed on through ALPN or null if TLS is not used.
+	public String getApplicationProtocol(){
+		return applicationProtocol;
+	}
+	
+	//Sends the given HTTP/1.1-request as a new stream, or queues it if the host does not allow more concurrent streams. The body of a streaming request is written to the body-stream of the returned stream afterwards.
+	HttpBrowserHttp2Stream execute(byte[] request, boolean streamingBody) throws IOException{
+		HttpBrowserHttp2Stream stream = new HttpBrowserHttp2Stream(this, request, scheme, streamingBody);
+		
+		synchronized(this){
+			if (closed || goingAway){
+				failStream(stream, new IOException("The HTTP/2-connection is closing."), true);
+			}else if(streams.size() >= maxConcurrentStreams){
+				queued.add(stream);
+			}else{
+				try{
+					start(stream);
+					out.flush();
+				}catch(IOException e){
+					abort(e);
+				}
+			}
+		}
+		
+		finishStreams();
+		return stream;
+	}
+	
+	//Sends the headers of the stream and as much of the body as the windows allow.
+	private void start(HttpBrowserHttp2Stream stream) throws IOException{
+		stream.id = nextStreamId;
+		stream.sendWindow = initialWindow;
+		stream.startedAt = System.nanoTime();
+		streams.put(stream.id, stream);
+		streamsStarted += 1;
+		nextStreamId += 2;
+		
+		if (nextStreamId > MAX_STREAM_ID){
+			goingAway = true;
+		}
+		
+		headerBuffer.reset();
+		encoder.encode(stream.requestHeaders, headerBuffer);
+		byte[] block = headerBuffer.toByteArray();
+		
+		boolean endStream = (stream.bodyDone && stream.pendingBytes == 0);
+		writeHeaders(stream.id, block, endStream);
+		stream.endSent = endStream;
+		
+		if (stream.hasDataToSend()){
+			sending.add(stream);
+			flushData();
+		}
+	}
+	
+	//Starts queued streams as long as the host allows more concurrent streams. When going away they are refused instead, so they are sent again on another connection.
+	private void startQueued() throws IOException{
+		while(!queued.isEmpty()){
+			if (goingAway){
+				failStream(queued.peek(), new IOException("The HTTP/2-connection is closing."), true);
+			}else if(streams.size() < maxConcurrentStreams){
+				start(queued.poll());
+			}else{
+				break;
+			}
+		}
+	}
+	
+	//Queues body-data of a streaming request and sends what the windows of the host allow. Blocks while more data is waiting than the buffer allows, so a slow host holds the writer back.
+	synchronized void writeBody(HttpBrowserHttp2Stream stream, byte[] bytes, int offset, int length) throws IOException{
+		if (stream.closed){
+			if (stream.failure != null){
+				throw stream.failure;
+			}
+			
+			//The host answered before getting the whole body.
+			return;
+		}
+		
+		stream.pending.add(ByteBuffer.wrap(Arrays.copyOfRange(bytes, offset, offset + length)));
+		stream.pendingBytes += length;
+		sendBody(stream);
+		
+		while(stream.pendingBytes > BODY_BUFFER && !stream.closed){
+			try{
+				wait();
+			}catch(InterruptedException e){
+				throw new InterruptedIOException("Interrupted while waiting for the host to take the body.");
+			}
+		}
+		
+		if (stream.failure != null){
+			throw stream.failure;
+		}
+	}
+	
+	//Cancels a streaming request whose body could not be written. The host is told to drop the stream, so it stops waiting for the rest of the body and the stream gives its slot to the next queued request.
+	void cancel(HttpBrowserHttp2Stream stream, Exception cause){
+		synchronized(this){
+			if (!stream.closed){
+				IOException e = new IOException("The body of the request could not be written: " + cause.getMessage(), cause);
+				
+				try{
+					if (stream.id == 0){
+						failStream(stream, e, false);
+					}else{
+						resetStream(stream, CANCEL, e);
+						startQueued();
+						out.flush();
+					}
+				}catch(IOException writeFailure){
+					abort(writeFailure);
+				}
+			}
+		}
+		
+		finishStreams();
+	}
+	
+	//Ends the body of a streaming request.
+	synchronized void endBody(HttpBrowserHttp2Stream stream) throws IOException{
+		stream.bodyDone = true;
+		sendBody(stream);
+	}
+	
+	//Sends the body-data of the stream if it has been started.
+	private void sendBody(HttpBrowserHttp2Stream stream) throws IOException{
+		if (stream.closed){
+			stream.pending.clear();
+			stream.pendingBytes = 0;
+		}else if(stream.id != 0){
+			try{
+				sending.add(stream);
+				flushData();
+				out.flush();
+			}catch(IOException e){
+				abort(e);
+				throw e;
+			}
+		}
+	}
+	
+	//Sends DATA-frames for the streams with data to send, one frame per stream in turn, until the windows of the host are used up.
+	private void flushData() throws IOException{
+		boolean progress = true;
+		
+		while(progress && !sending.isEmpty()){
+			progress = false;
+			Iterator<HttpBrowserHttp2Stream> iterator = sending.iterator();
+			
+			while(iterator.hasNext()){
+				HttpBrowserHttp2Stream stream = iterator.next();
+				
+				if (stream.pendingBytes == 0){
+					//An empty frame ends the stream and counts against no window.
+					if (stream.bodyDone && !stream.endSent){
+						writeFrame(DATA, FLAG_END_STREAM, stream.id, EMPTY, 0, 0);
+						stream.endSent = true;
+					}
+					
+					iterator.remove();
+					continue;
+				}
+				
+				ByteBuffer chunk = stream.pending.peek();
+				int length = (int) Math.min(Math.min(stream.sendWindow, sendWindow), Math.min(chunk.remaining(), maxFrameSize));
+				if (length <= 0){
+					continue;
+				}
+				
+				stream.pendingBytes -= length;
+				stream.sendWindow -= length;
+				sendWindow -= length;
+				
+				boolean end = (stream.bodyDone && stream.pendingBytes == 0);
+				writeFrame(DATA, end ? FLAG_END_STREAM : 0, stream.id, chunk.array(), chunk.arrayOffset() + chunk.position(), length);
+				chunk.position(chunk.position() + length);
+				
+				if (!chunk.hasRemaining()){
+					stream.pending.poll();
+				}
+				
+				if (end){
+					stream.endSent = true;
+					iterator.remove();
+				}
+				
+				progress = true;
+			}
+		}
+		
+		//Writers of streaming bodies may be waiting for room.
+		notifyAll();
+	}
+	
+	//Reads frames from the host until the connection is closed.
+	public void run(){
+		byte[] head = new byte[9];
+		byte[] payload = new byte[DEFAULT_FRAME_SIZE];
+		IOException error = null;
+		
+		try{
+			while(true){
+				reader.readFully(head, 0, head.length);
+				
+				int length = ((head[0] & 0xff) << 16) | ((head[1] & 0xff) << 8) | (head[2] & 0xff);
+				if (length > payload.length){
+					throw new IOException("The host sent a frame of " + length + " bytes, which is bigger than allowed.");
+				}
+				
+				reader.readFully(payload, 0, length);
+				
+				synchronized(this){
+					handleFrame(head[3] & 0xff, head[4] & 0xff, readInt(head, 5) & 0x7fffffff, payload, length);
+					startQueued();
+					out.flush();
+					
+					if (goingAway && streams.isEmpty() && queued.isEmpty()){
+						http.debug("The HTTP/2-connection to " + host + ":" + port + " has no more streams - closing it.\n");
+						closed = true;
+						writeGoAway(NO_ERROR);
+						out.flush();
+						break;
+					}
+				}
+				
+				finishStreams();
+			}
+		}catch(IOException e){
+			error = e;
+		}
+		
+		synchronized(this){
+			if (failure == null){
+				failure = (error == null) ? new IOException("The HTTP/2-connection was closed.") : error;
+			}
+			
+			if (!closed){
+				http.debug("The HTTP/2-connection to " + host + ":" + port + " failed: " + failure.getMessage() + "\n");
+				closed = true;
+			}
+			
+			//Streams that was not sent can be sent again on another connection, but the host may have processed the started ones.
+			for(HttpBrowserHttp2Stream stream: new ArrayList<HttpBrowserHttp2Stream>(streams.values())){
+				failStream(stream, failure, false);
+			}
+			
+			while(!queued.isEmpty()){
+				failStream(queued.peek(), failure, true);
+			}
+		}
+		
+		transport.close();
+		closeParsers();
+		finishStreams();
+	}
+	
+	//Handles a frame received from the host.
+	private void handleFrame(int type, int flags, int streamId, byte[] payload, int length) throws IOException{
+		if (continuationStreamId != 0 && (type != CONTINUATION || streamId != continuationStreamId)){
+			throw new IOException("Expected a CONTINUATION-frame on stream " + continuationStreamId + " but got a frame of type " + type + " on stream " + streamId + ".");
+		}
+		
+		if (type == DATA){
+			readData(flags, streamId, payload, length);
+		}else if(type == HEADERS){
+			readHeaders(flags, streamId, payload, length);
+		}else if(type == CONTINUATION){
+			readContinuation(flags, streamId, payload, length);
+		}else if(type == RST_STREAM){
+			readRstStream(streamId, payload, length);
+		}else if(type == SETTINGS){
+			readSettings(flags, payload, length);
+		}else if(type == PING){
+			if ((flags & FLAG_ACK) == 0){
+				writeFrame(PING, FLAG_ACK, 0, payload, 0, length);
+			}
+		}else if(type == GOAWAY){
+			readGoAway(payload, length);
+		}else if(type == WINDOW_UPDATE){
+			readWindowUpdate(streamId, payload, length);
+		}else if(type == PUSH_PROMISE){
+			throw new IOException("The host sent PUSH_PROMISE though push is disabled.");
+		}
+		
+		//PRIORITY and unknown frame-types are ignored.
+	}
+	
+	private void readData(int flags, int streamId, byte[] payload, int length) throws IOException{
+		int offset = 0;
+		int dataLength = length;
+		
+		if ((flags & FLAG_PADDED) != 0){
+			offset = 1;
+			dataLength = (length == 0) ? -1 : length - 1 - (payload[0] & 0xff);
+			
+			if (dataLength < 0){
+				throw new IOException("Invalid padding of DATA-frame.");
+			}
+		}
+		
+		//The whole frame counts against the windows, also for streams that are done.
+		receiveUnacked += length;
+		if (receiveUnacked >= CONNECTION_WINDOW / 2){
+			writeWindowUpdate(0, receiveUnacked);
+			receiveUnacked = 0;
+		}
+		
+		HttpBrowserHttp2Stream stream = streams.get(streamId);
+		if (stream == null){
+			return;
+		}else if(stream.statusCode == 0){
+			resetStream(stream, PROTOCOL_ERROR, "The host sent data before the headers of the result.");
+			return;
+		}
+		
+		stream.body.write(payload, offset, dataLength);
+		
+		if ((flags & FLAG_END_STREAM) != 0){
+			completeStream(stream);
+			return;
+		}
+		
+		stream.receiveUnacked += length;
+		if (stream.receiveUnacked >= STREAM_WINDOW / 2){
+			writeWindowUpdate(streamId, stream.receiveUnacked);
+			stream.receiveUnacked = 0;
+		}
+	}
+	
+	private void readHeaders(int flags, int streamId, byte[] payload, int length) throws IOException{
+		int offset = 0;
+		int end = length;
+		
+		if ((flags & FLAG_PADDED) != 0){
+			offset = 1;
+			end -= (length == 0) ? 1 : 1 + (payload[0] & 0xff);
+		}
+		
+		if ((flags & FLAG_PRIORITY) != 0){
+			offset += 5;
+		}
+		
+		if (streamId == 0 || end < offset){
+			throw new IOException("Invalid HEADERS-frame.");
+		}
+		
+		if ((flags & FLAG_END_HEADERS) != 0){
+			readHeaderBlock(flags, streamId, payload, offset, end - offset);
+		}else{
+			continuationStreamId = streamId;
+			continuationFlags = flags;
+			continuation = new ByteArrayOutputStream();
+			continuation.write(payload, offset, end - offset);
+		}
+	}
+	
+	private void readContinuation(int flags, int streamId, byte[] payload, int length) throws IOException{
+		if (continuationStreamId == 0){
+			throw new IOException("The host sent a CONTINUATION-frame without a header-block.");
+		}
+		
+		continuation.write(payload, 0, length);
+		
+		if ((flags & FLAG_END_HEADERS) != 0){
+			byte[] block = continuation.toByteArray();
+			continuationStreamId = 0;
+			continuation = null;
+			readHeaderBlock(continuationFlags, streamId, block, 0, block.length);
+		}
+	}
+	
+	//Decodes a complete header-block. It is decoded even if the stream is done, so the dynamic table stays the same as the host's.
+	private void readHeaderBlock(int flags, int streamId, byte[] block, int offset, int length) throws IOException{
+		ArrayList<String[]> headers = new ArrayList<String[]>();
+		decoder.decode(block, offset, length, headers);
+		
+		HttpBrowserHttp2Stream stream = streams.get(streamId);
+		if (stream == null){
+			return;
+		}
+		
+		boolean endStream = (flags & FLAG_END_STREAM) != 0;
+		
+		//Headers after the result-headers are trailers, which are not part of the result.
+		if (stream.statusCode == 0){
+			int statusCode = statusCode(headers);
+			
+			if (statusCode == 0){
+				resetStream(stream, PROTOCOL_ERROR, "The host sent a result without a valid status.");
+				return;
+			}else if(statusCode < 200){
+				//Informational results like '100 Continue' comes before the real result.
+				return;
+			}
+			
+			stream.statusCode = statusCode;
+			stream.resultHeaders = headers;
+		}
+		
+		if (endStream){
+			completeStream(stream);
+		}
+	}
+	
+	//Returns the status-code given in the ':status'-header or zero if it is missing or invalid.
+	private int statusCode(ArrayList<String[]> headers){
+		for(String[] header: headers){
+			if (header[0].equals(":status")){
+				try{
+					int statusCode = Integer.parseInt(header[1]);
+					return (statusCode >= 100 && statusCode <= 999) ? statusCode : 0;
+				}catch(NumberFormatException e){
+					return 0;
+				}
+			}
+		}
+		
+		return 0;
+	}
+	
+	private void readRstStream(int streamId, byte[] payload, int length) throws IOException{
+		if (length != 4){
+			throw new IOException("Invalid RST_STREAM-frame.");
+		}
+		
+		int errorCode = readInt(payload, 0);
+		HttpBrowserHttp2Stream stream = streams.get(streamId);
+		
+		if (stream != null){
+			failStream(stream, new IOException("The host reset the stream (error-code " + errorCode + ")."), errorCode == REFUSED_STREAM);
+		}
+	}
+	
+	//Applies the settings of the host and acknowledges them.
+	private void readSettings(int flags, byte[] payload, int length) throws IOException{
+		if ((flags & FLAG_ACK) != 0){
+			return;
+		}else if(length % 6 != 0){
+			throw new IOException("Invalid SETTINGS-frame.");
+		}
+		
+		for(int i = 0; i < length; i += 6){
+			int id = ((payload[i] & 0xff) << 8) | (payload[i + 1] & 0xff);
+			long value = readInt(payload, i + 2) & 0xffffffffL;
+			
+			if (id == SETTINGS_HEADER_TABLE_SIZE){
+				encoder.setMaxTableSize((int) Math.min(value, Integer.MAX_VALUE));
+			}else if(id == SETTINGS_MAX_CONCURRENT_STREAMS){
+				maxConcurrentStreams = (int) Math.min(value, Integer.MAX_VALUE);
+			}else if(id == SETTINGS_INITIAL_WINDOW_SIZE){
+				if (value > Integer.MAX_VALUE){
+					throw new IOException("The host set an initial window-size that is too big: " + value);
+				}
+				
+				//The change applies to the windows of all open streams.
+				int delta = (int) value - initialWindow;
+				for(HttpBrowserHttp2Stream stream: streams.values()){
+					stream.sendWindow += delta;
+				}
+				
+				initialWindow = (int) value;
+			}else if(id == SETTINGS_MAX_FRAME_SIZE){
+				if (value < DEFAULT_FRAME_SIZE || value > 16777215){
+					throw new IOException("The host set an invalid maximum frame-size: " + value);
+				}
+				
+				maxFrameSize = (int) value;
+			}
+		}
+		
+		writeFrame(SETTINGS, FLAG_ACK, 0, EMPTY, 0, 0);
+		flushData();
+	}
+	
+	//The host will not process streams after the given last stream. They are refused, so they can be sent again on another connection.
+	private void readGoAway(byte[] payload, int length) throws IOException{
+		if (length < 8){
+			throw new IOException("Invalid GOAWAY-frame.");
+		}
+		
+		int lastStreamId = readInt(payload, 0) & 0x7fffffff;
+		int errorCode = readInt(payload, 4);
+		http.debug("The host is closing the HTTP/2-connection (last stream: " + lastStreamId + ", error-code: " + errorCode + ").\n");
+		
+		goingAway = true;
+		
+		for(HttpBrowserHttp2Stream stream: new ArrayList<HttpBrowserHttp2Stream>(streams.values())){
+			if (stream.id > lastStreamId){
+				failStream(stream, new IOException("The host closed the connection without processing the request."), true);
+			}
+		}
+	}
+	
+	private void readWindowUpdate(int streamId, byte[] payload, int length) throws IOException{
+		if (length != 4){
+			throw new IOException("Invalid WINDOW_UPDATE-frame.");
+		}
+		
+		int increment = readInt(payload, 0) & 0x7fffffff;
+		
+		if (streamId == 0){
+			sendWindow += increment;
+			
+			if (increment == 0 || sendWindow > Integer.MAX_VALUE){
+				throw new IOException("Invalid window-update of the connection: " + increment);
+			}
+		}else{
+			HttpBrowserHttp2Stream stream = streams.get(streamId);
+			
+			if (stream != null){
+				stream.sendWindow += increment;
+			}
+		}
+		
+		flushData();
+	}
+	
+	//Marks the stream as done with its result.
+	private void completeStream(HttpBrowserHttp2Stream stream){
+		streams.remove(stream.id);
+		sending.remove(stream);
+		stream.closed = true;
+		finished.add(stream);
+	}
+	
+	//Marks the stream as failed. A refused stream was not processed by the host and can be sent again.
+	private void failStream(HttpBrowserHttp2Stream stream, IOException e, boolean refused){
+		if (stream.id == 0){
+			queued.remove(stream);
+		}else{
+			streams.remove(stream.id);
+			sending.remove(stream);
+		}
+		
+		stream.closed = true;
+		stream.failure = e;
+		stream.refused = refused;
+		stream.pending.clear();
+		stream.pendingBytes = 0;
+		finished.add(stream);
+	}
+	
+	//Tells the host to stop sending on the stream and fails it.
+	private void resetStream(HttpBrowserHttp2Stream stream, int errorCode, String message) throws IOException{
+		resetStream(stream, errorCode, new IOException(message));
+	}
+	
+	private void resetStream(HttpBrowserHttp2Stream stream, int errorCode, IOException e) throws IOException{
+		byte[] payload = new byte[4];
+		putInt(payload, 0, errorCode);
+		writeFrame(RST_STREAM, 0, stream.id, payload, 0, payload.length);
+		failStream(stream, e, false);
+	}
+	
+	//Completes the futures of the streams that are done. Must be called without holding the lock.
+	private void finishStreams(){
+		ArrayList<HttpBrowserHttp2Stream> done;
+		
+		synchronized(this){
+			if (finished.isEmpty()){
+				return;
+			}
+			
+			done = finished;
+			finished = new ArrayList<HttpBrowserHttp2Stream>();
+			notifyAll();
+		}
+		
+		for(HttpBrowserHttp2Stream stream: done){
+			stream.finish();
+		}
+	}
+	
+	//Closes the socket after a failed write. The reading thread then fails the streams.
+	private void abort(IOException e){
+		if (failure == null){
+			failure = e;
+		}
+		
+		closed = true;
+		transport.close();
+	}
+	
+	//Stops new requests on the connection. It is closed right away if no streams are active, otherwise when the last one is done.
+	public void close(){
+		synchronized(this){
+			goingAway = true;
+			
+			if (closed || !streams.isEmpty() || !queued.isEmpty()){
+				return;
+			}
+			
+			closed = true;
+			
+			try{
+				writeGoAway(NO_ERROR);
+				out.flush();
+			}catch(IOException e){
+				//ignore.
+			}
+		}
+		
+		http.debug("Closing HTTP/2-connection to " + host + ":" + port + ".\n");
+		transport.close();
+	}
+	
+	//Returns a connection-object that parses the result of the given stream as HTTP/1.1. The first stream on the connection is given the connect- and handshake-times for the metrics, and the other streams count as reusing the connection.
+	HttpBrowserConnection parserFor(HttpBrowserHttp2Stream stream){
+		HttpBrowserConnection parser = null;
+		
+		if (stream.id == 1){
+			//The results may complete in any order, so the first stream always gets a new parser.
+			parser = new HttpBrowserConnection(http, host, port);
+			parser.setConnectNanos(connectNanos);
+			
+			if (tlsSession != null){
+				parser.setHandshake(handshakeNanos, tlsSession, applicationProtocol);
+			}
+		}else{
+			synchronized(parsers){
+				parser = parsers.poll();
+			}
+			
+			if (parser == null){
+				parser = new HttpBrowserConnection(http, host, port);
+				parser.requestExecuted();
+			}
+		}
+		
+		parser.setRequestStartedAt(stream.startedAt);
+		parser.setInputStream(stream.getResultInputStream());
+		
+		return parser;
+	}
+	
+	//Gives back a parser after the result has been read, so it can be used for the next stream.
+	void releaseParser(HttpBrowserConnection parser){
+		synchronized(parsers){
+			if (!closed){
+				parsers.add(parser);
+				return;
+			}
+		}
+		
+		parser.close();
+	}
+	
+	private void closeParsers(){
+		synchronized(parsers){
+			for(HttpBrowserConnection parser: parsers){
+				parser.close();
+			}
+			
+			parsers.clear();
+		}
+	}
+	
+	//Writes a header-block as a HEADERS-frame followed by CONTINUATION-frames if it is bigger than a frame.
+	private void writeHeaders(int streamId, byte[] block, boolean endStream) throws IOException{
+		int offset = 0;
+		
+		do{
+			int length = Math.min(block.length - offset, maxFrameSize);
+			int flags = (offset + length == block.length) ? FLAG_END_HEADERS : 0;
+			
+			if (offset == 0){
+				writeFrame(HEADERS, flags | (endStream ? FLAG_END_STREAM : 0), streamId, block, offset, length);
+			}else{
+				writeFrame(CONTINUATION, flags, streamId, block, offset, length);
+			}
+			
+			offset += length;
+		}while(offset < block.length);
+	}
+	
+	private void writeWindowUpdate(int streamId, int increment) throws IOException{
+		byte[] payload = new byte[4];
+		putInt(payload, 0, increment);
+		writeFrame(WINDOW_UPDATE, 0, streamId, payload, 0, payload.length);
+	}
+	
+	private void writeGoAway(int errorCode) throws IOException{
+		byte[] payload = new byte[8];
+		putInt(payload, 4, errorCode);
+		writeFrame(GOAWAY, 0, 0, payload, 0, payload.length);
+	}
+	
+	//Writes a frame to the buffered stream. The caller flushes it.
+	private void writeFrame(int type, int flags, int streamId, byte[] payload, int offset, int length) throws IOException{
+		frameHead[0] = (byte) (length >>> 16);
+		frameHead[1] = (byte) (length >>> 8);
+		frameHead[2] = (byte) length;
+		frameHead[3] = (byte) type;
+		frameHead[4] = (byte) flags;
+		putInt(frameHead, 5, streamId);
+		
+		out.write(frameHead, 0, frameHead.length);
+		out.write(payload, offset, length);
+	}
+	
+	private static void putSetting(byte[] bytes, int offset, int id, int value){
+		bytes[offset] = (byte) (id >>> 8);
+		bytes[offset + 1] = (byte) id;
+		putInt(bytes, offset + 2, value);
+	}
+	
+	static void putInt(byte[] bytes, int offset, int value){
+		bytes[offset] = (byte) (value >>> 24);
+		bytes[offset + 1] = (byte) (value >>> 16);
+		bytes[offset + 2] = (byte) (value >>> 8);
+		bytes[offset + 3] = (byte) value;
+	}
+	
+	static int readInt(byte[] bytes, int offset){
+		return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16) | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+	}
+}
@@ -0,0 +1,204 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+//A request and its result on a HTTP/2-connection. The request is given as HTTP/1.1-bytes and the result is handed back as HTTP/1.1-bytes, so both are made and parsed by the same code as on HTTP/1.1-connections. The fields are guarded by the connection.
+class HttpBrowserHttp2Stream {
+	private HttpBrowserHttp2Connection conn;
+	
+	//The id of the stream. Zero until the stream has been started.
+	int id = 0;
+	
+	//The headers of the request with the pseudo-headers first.
+	ArrayList<String[]> requestHeaders = new ArrayList<String[]>();
+	
+	//Body-data waiting to be sent. The end of the stream is sent with the last data when the body is done.
+	ArrayDeque<ByteBuffer> pending = new ArrayDeque<ByteBuffer>();
+	long pendingBytes = 0;
+	boolean bodyDone;
+	boolean endSent = false;
+	
+	//What the host allows us to send on the stream and what we have received without telling the host.
+	long sendWindow;
+	int receiveUnacked = 0;
+	
+	//The time the headers of the request was sent.
+	long startedAt;
+	
+	//The status-code and headers of the result and the body received so far.
+	int statusCode = 0;
+	ArrayList<String[]> resultHeaders;
+	Body body = new Body();
+	
+	//Set when the stream is done. The failure is null if the result was received, and 'refused' is true if the host did not process the request, so it can be sent again.
+	boolean closed = false;
+	IOException failure;
+	boolean refused = false;
+	
+	private CompletableFuture<HttpBrowserHttp2Stream> future = new CompletableFuture<HttpBrowserHttp2Stream>();
+	
+	//Converts the given HTTP/1.1-request into the headers and body of the stream. Headers that only apply to a HTTP/1.1-connection are left out and the Host-header becomes ':authority'. The body of a streaming request is written afterwards.
+	HttpBrowserHttp2Stream(HttpBrowserHttp2Connection inConn, byte[] request, String scheme, boolean streamingBody) throws IOException{
+		conn = inConn;
+		
+		int headEnd = headEnd(request);
+		String[] lines = new String(request, 0, headEnd, StandardCharsets.ISO_8859_1).split("\r\n");
+		String[] requestLine = lines[0].split(" ");
+		if (requestLine.length != 3){
+			throw new IOException("Invalid request-line: '" + lines[0] + "'.");
+		}
+		
+		String authority = null;
+		ArrayList<String[]> headers = new ArrayList<String[]>(lines.length);
+		
+		for(int i = 1; i < lines.length; i++){
+			int colon = lines[i].indexOf(':');
+			if (colon <= 0){
+				throw new IOException("Invalid header: '" + lines[i] + "'.");
+			}
+			
+			String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+			String value = lines[i].substring(colon + 1).trim();
+			
+			if (name.equals("host")){
+				authority = value;
+			}else if(!isConnectionHeader(name)){
+				headers.add(new String[]{name, value});
+			}
+		}
+		
+		requestHeaders.add(new String[]{":method", requestLine[0]});
+		requestHeaders.add(new String[]{":scheme", scheme});
+		
+		if (authority != null){
+			requestHeaders.add(new String[]{":authority", authority});
+		}
+		
+		requestHeaders.add(new String[]{":path", requestLine[1]});
+		requestHeaders.addAll(headers);
+		
+		int bodyStart = headEnd + 4;
+		if (bodyStart < request.length){
+			pending.add(ByteBuffer.wrap(request, bodyStart, request.length - bodyStart));
+			pendingBytes = request.length - bodyStart;
+		}
+		
+		bodyDone = !streamingBody;
+	}
+	
+	//Returns the position of the empty line that ends the head of the given request.
+	private static int headEnd(byte[] request) throws IOException{
+		for(int i = 0; i + 3 < request.length; i++){
+			if (request[i] == '\r' && request[i + 1] == '\n' && request[i + 2] == '\r' && request[i + 3] == '\n'){
+				return i;
+			}
+		}
+		
+		throw new IOException("The request has no end of headers.");
+	}
+	
+	//Returns true for headers that only apply to a HTTP/1.1-connection and must not be sent on HTTP/2.
+	private static boolean isConnectionHeader(String name){
+		return (name.equals("connection") || name.equals("keep-alive") || name.equals("proxy-connection") || name.equals("transfer-encoding") || name.equals("upgrade"));
+	}
+	
+	//Returns true if there is body-data or the end of the stream to send.
+	boolean hasDataToSend(){
+		return (pendingBytes > 0 || (bodyDone && !endSent));
+	}
+	
+	//Returns a stream that the body of a streaming request is written to. Writes block while the host is not ready for more data. Closing it ends the request.
+	OutputStream getBodyOutputStream(){
+		return new OutputStream(){
+			public void write(int b) throws IOException{
+				write(new byte[]{(byte) b}, 0, 1);
+			}
+			
+			public void write(byte[] bytes, int offset, int length) throws IOException{
+				if (length > 0){
+					conn.writeBody(HttpBrowserHttp2Stream.this, bytes, offset, length);
+				}
+			}
+			
+			public void close() throws IOException{
+				conn.endBody(HttpBrowserHttp2Stream.this);
+			}
+		};
+	}
+	
+	//Returns the future that is completed when the stream is done.
+	CompletableFuture<HttpBrowserHttp2Stream> getFuture(){
+		return future;
+	}
+	
+	//Completes the future. Called by the connection without holding its lock, so callbacks on the future does not block the connection.
+	void finish(){
+		if (failure == null){
+			future.complete(this);
+		}else{
+			future.completeExceptionally(failure);
+		}
+	}
+	
+	//Waits for the result and throws the exception the stream failed with.
+	void await() throws Exception{
+		try{
+			future.get();
+		}catch(ExecutionException e){
+			if (e.getCause() instanceof Exception){
+				throw (Exception) e.getCause();
+			}
+			
+			throw e;
+		}
+	}
+	
+	//Returns true if the host did not process the request, so it can safely be sent again on another connection.
+	boolean isRefused(){
+		return refused;
+	}
+	
+	//Returns true if the stream was sent. Streams that was queued on a connection that went away were never sent.
+	boolean isStarted(){
+		return (id != 0);
+	}
+	
+	//Returns the result as HTTP/1.1-bytes, so it can be parsed like any other result. The body is always given by a Content-Length, since it has been received completely.
+	InputStream getResultInputStream(){
+		StringBuilder head = new StringBuilder(256);
+		head.append("HTTP/1.1 ").append(statusCode).append("\r\n");
+		
+		for(String[] header: resultHeaders){
+			String name = header[0];
+			
+			if (name.startsWith(":") || name.equals("content-length") || isConnectionHeader(name)){
+				continue;
+			}
+			
+			head.append(name).append(": ").append(header[1]).append("\r\n");
+		}
+		
+		head.append("content-length: ").append(body.size()).append("\r\n\r\n");
+		
+		return new SequenceInputStream(new ByteArrayInputStream(head.toString().getBytes(StandardCharsets.ISO_8859_1)), body.toInputStream());
+	}
+	
+	//Collects the body of the result and reads it back without copying it.
+	static class Body extends ByteArrayOutputStream {
+		InputStream toInputStream(){
+			return new ByteArrayInputStream(buf, 0, count);
+		}
+	}
+}
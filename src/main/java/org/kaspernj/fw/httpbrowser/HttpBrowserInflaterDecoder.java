@@ -0,0 +1,58 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Inflater;
+
+//Decodes the content-codings 'gzip' and 'deflate' with the inflater of the JDK. The inflater and its input-buffer are reused for every result on the connection. The inflater is ended and the buffer given back to the pool when the connection is closed.
+public class HttpBrowserInflaterDecoder implements HttpBrowserContentDecoder {
+	//The factories of the built-in content-codings, which are registered on every browser by default.
+	public static final HttpBrowserContentDecoderFactory GZIP = new Factory("gzip");
+	public static final HttpBrowserContentDecoderFactory DEFLATE = new Factory("deflate");
+	
+	private boolean gzip;
+	private Inflater inflater;
+	private byte[] buf;
+	
+	public HttpBrowserInflaterDecoder(boolean inGzip){
+		gzip = inGzip;
+	}
+	
+	public InputStream decode(InputStream body) throws IOException{
+		if (inflater == null){
+			inflater = new Inflater(true);
+			buf = HttpBrowserBufferPool.getDefault().acquire(8192);
+		}
+		
+		if (gzip){
+			return new HttpBrowserGZIPInputStream(body, inflater, buf);
+		}else{
+			return new HttpBrowserDeflateInputStream(body, inflater, buf);
+		}
+	}
+	
+	public void close(){
+		if (inflater != null){
+			inflater.end();
+			inflater = null;
+			HttpBrowserBufferPool.getDefault().release(buf);
+			buf = null;
+		}
+	}
+	
+	private static class Factory implements HttpBrowserContentDecoderFactory {
+		private String encoding;
+		
+		Factory(String inEncoding){
+			encoding = inEncoding;
+		}
+		
+		public String getEncoding(){
+			return encoding;
+		}
+		
+		public HttpBrowserContentDecoder newDecoder(){
+			return new HttpBrowserInflaterDecoder(encoding.equals("gzip"));
+		}
+	}
+}
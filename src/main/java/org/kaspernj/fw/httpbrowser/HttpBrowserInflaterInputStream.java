@@ -0,0 +1,149 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Checksum;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+//Inflates a body while it is being read from the connection. The inflater and the input-buffer are given by the caller, so they can be reused for every result on a connection. Subclasses reads the header and trailer of the format around the deflate-data.
+public abstract class HttpBrowserInflaterInputStream extends InputStream {
+	private InputStream in;
+	protected Inflater inflater;
+	
+	//Checksum of the inflated data, which is validated by the trailer.
+	protected Checksum checksum;
+	
+	//Input-buffer with compressed data and the current position and limit inside it.
+	protected byte[] buf;
+	protected int bufPos = 0;
+	protected int bufLen = 0;
+	
+	//Statistics for the metrics of the request.
+	private long inflateNanos = 0;
+	private long bytesInflated = 0;
+	
+	private boolean eof = false;
+	private boolean closed = false;
+	private byte[] singleByte = new byte[1];
+	
+	protected HttpBrowserInflaterInputStream(InputStream inIn, Inflater inInflater, byte[] inBuf, Checksum inChecksum){
+		in = inIn;
+		inflater = inInflater;
+		buf = inBuf;
+		checksum = inChecksum;
+		
+		inflater.reset();
+	}
+	
+	//Returns the name of the format used in error-messages.
+	protected abstract String formatName();
+	
+	//Reads and validates the trailer after the deflate-data. Returns true if more deflate-data follows, in which case the inflater must have been reset.
+	protected abstract boolean readTrailer() throws IOException;
+	
+	//Refills the input-buffer. Returns false on EOF.
+	protected boolean fill() throws IOException{
+		bufPos = 0;
+		bufLen = in.read(buf, 0, buf.length);
+		
+		if (bufLen == -1){
+			bufLen = 0;
+			return false;
+		}
+		
+		return true;
+	}
+	
+	protected int readUByte() throws IOException{
+		if (bufPos >= bufLen && !fill()){
+			throw new EOFException("Unexpected end of " + formatName() + "-body.");
+		}
+		
+		return buf[bufPos++] & 0xFF;
+	}
+	
+	//Moves the position of the input-buffer to the first byte the inflater did not use. Called when the deflate-data has finished and the trailer follows.
+	protected void skipInflated(){
+		bufPos = bufLen - inflater.getRemaining();
+	}
+	
+	@Override public int read() throws IOException{
+		int len = read(singleByte, 0, 1);
+		if (len == -1){
+			return -1;
+		}
+		
+		return singleByte[0] & 0xFF;
+	}
+	
+	@Override public int read(byte[] buffer, int offset, int length) throws IOException{
+		if (closed){
+			throw new IOException("Stream closed.");
+		}else if(eof){
+			return -1;
+		}else if(length == 0){
+			return 0;
+		}
+		
+		try{
+			while(true){
+				long startNanos = System.nanoTime();
+				int len = inflater.inflate(buffer, offset, length);
+				inflateNanos += System.nanoTime() - startNanos;
+				
+				if (len > 0){
+					checksum.update(buffer, offset, len);
+					bytesInflated += len;
+					return len;
+				}
+				
+				if (inflater.finished()){
+					if (!readTrailer()){
+						eof = true;
+						return -1;
+					}
+				}else if(inflater.needsDictionary()){
+					throw new ZipException(formatName() + "-body needs a dictionary.");
+				}else if(inflater.needsInput()){
+					if (bufPos >= bufLen && !fill()){
+						throw new EOFException("Unexpected end of " + formatName() + "-body.");
+					}
+					
+					inflater.setInput(buf, bufPos, bufLen - bufPos);
+					bufPos = bufLen;
+				}
+			}
+		}catch(DataFormatException e){
+			throw new ZipException(e.getMessage() != null ? e.getMessage() : "Invalid " + formatName() + "-data.");
+		}
+	}
+	
+	//Returns the time spent inflating the body so far.
+	public long getInflateNanos(){
+		return inflateNanos;
+	}
+	
+	//Returns the number of decompressed bytes that has been read so far.
+	public long getBytesInflated(){
+		return bytesInflated;
+	}
+	
+	@Override public int available() throws IOException{
+		if (closed || eof){
+			return 0;
+		}
+		
+		return 1;
+	}
+	
+	//Closes the underlying stream. The inflater is not ended since it belongs to the connection.
+	@Override public void close() throws IOException{
+		if (!closed){
+			closed = true;
+			in.close();
+		}
+	}
+}
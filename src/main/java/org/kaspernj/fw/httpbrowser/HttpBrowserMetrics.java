@@ -0,0 +1,164 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+//Built-in metrics-listener that counts requests, connections and bytes and keeps histograms of the timings in microseconds. Recording only updates counters, so it is cheap enough to leave on.
+//The values can be exported to a monitoring-system through 'getSnapshot', which returns them by flat names like 'first_byte.p99'.
+public class HttpBrowserMetrics implements HttpBrowserMetricsListener {
+	private LongAdder requests = new LongAdder();
+	private LongAdder failures = new LongAdder();
+	private LongAdder newConnections = new LongAdder();
+	private LongAdder reusedConnections = new LongAdder();
+	private LongAdder wireBytes = new LongAdder();
+	private LongAdder bodyBytes = new LongAdder();
+	
+	private HttpBrowserHistogram connectTimes = new HttpBrowserHistogram();
+	private HttpBrowserHistogram handshakeTimes = new HttpBrowserHistogram();
+	private HttpBrowserHistogram firstByteTimes = new HttpBrowserHistogram();
+	private HttpBrowserHistogram headerTimes = new HttpBrowserHistogram();
+	private HttpBrowserHistogram bodyTimes = new HttpBrowserHistogram();
+	private HttpBrowserHistogram decompressTimes = new HttpBrowserHistogram();
+	private HttpBrowserHistogram totalTimes = new HttpBrowserHistogram();
+	
+	public void requestDone(HttpBrowserRequestMetrics metrics){
+		requests.increment();
+		countConnection(metrics);
+		
+		wireBytes.add(metrics.getWireBytes());
+		bodyBytes.add(metrics.getBodyBytes());
+		
+		firstByteTimes.record(metrics.getFirstByteNanos() / 1000);
+		headerTimes.record(metrics.getHeaderNanos() / 1000);
+		bodyTimes.record(metrics.getBodyNanos() / 1000);
+		totalTimes.record(metrics.getTotalNanos() / 1000);
+		
+		if (metrics.getDecompressNanos() > 0){
+			decompressTimes.record(metrics.getDecompressNanos() / 1000);
+		}
+	}
+	
+	public void requestFailed(HttpBrowserRequestMetrics metrics, Exception exception){
+		failures.increment();
+		countConnection(metrics);
+	}
+	
+	private void countConnection(HttpBrowserRequestMetrics metrics){
+		if (metrics.isNewConnection()){
+			newConnections.increment();
+			connectTimes.record(metrics.getConnectNanos() / 1000);
+			
+			if (metrics.getHandshakeNanos() > 0){
+				handshakeTimes.record(metrics.getHandshakeNanos() / 1000);
+			}
+		}else{
+			reusedConnections.increment();
+		}
+	}
+	
+	public long getRequests(){
+		return requests.sum();
+	}
+	
+	public long getFailures(){
+		return failures.sum();
+	}
+	
+	//Returns the number of requests that opened a new connection.
+	public long getNewConnections(){
+		return newConnections.sum();
+	}
+	
+	//Returns the number of requests that reused an open connection.
+	public long getReusedConnections(){
+		return reusedConnections.sum();
+	}
+	
+	public long getWireBytes(){
+		return wireBytes.sum();
+	}
+	
+	public long getBodyBytes(){
+		return bodyBytes.sum();
+	}
+	
+	public HttpBrowserHistogram getConnectTimes(){
+		return connectTimes;
+	}
+	
+	public HttpBrowserHistogram getHandshakeTimes(){
+		return handshakeTimes;
+	}
+	
+	public HttpBrowserHistogram getFirstByteTimes(){
+		return firstByteTimes;
+	}
+	
+	public HttpBrowserHistogram getHeaderTimes(){
+		return headerTimes;
+	}
+	
+	public HttpBrowserHistogram getBodyTimes(){
+		return bodyTimes;
+	}
+	
+	public HttpBrowserHistogram getDecompressTimes(){
+		return decompressTimes;
+	}
+	
+	public HttpBrowserHistogram getTotalTimes(){
+		return totalTimes;
+	}
+	
+	//Returns all the counters and the count, mean, percentiles and max of every histogram by flat names.
+	public LinkedHashMap<String, Long> getSnapshot(){
+		LinkedHashMap<String, Long> snapshot = new LinkedHashMap<String, Long>();
+		snapshot.put("requests", getRequests());
+		snapshot.put("failures", getFailures());
+		snapshot.put("connections.new", getNewConnections());
+		snapshot.put("connections.reused", getReusedConnections());
+		snapshot.put("bytes.wire", getWireBytes());
+		snapshot.put("bytes.body", getBodyBytes());
+		
+		addHistogram(snapshot, "connect", connectTimes);
+		addHistogram(snapshot, "handshake", handshakeTimes);
+		addHistogram(snapshot, "first_byte", firstByteTimes);
+		addHistogram(snapshot, "headers", headerTimes);
+		addHistogram(snapshot, "body", bodyTimes);
+		addHistogram(snapshot, "decompress", decompressTimes);
+		addHistogram(snapshot, "total", totalTimes);
+		
+		return snapshot;
+	}
+	
+	private void addHistogram(LinkedHashMap<String, Long> snapshot, String name, HttpBrowserHistogram histogram){
+		snapshot.put(name + ".count", histogram.getCount());
+		snapshot.put(name + ".mean", Math.round(histogram.getMean()));
+		snapshot.put(name + ".p50", histogram.getPercentile(50));
+		snapshot.put(name + ".p90", histogram.getPercentile(90));
+		snapshot.put(name + ".p99", histogram.getPercentile(99));
+		snapshot.put(name + ".max", histogram.getMax());
+	}
+	
+	//Sets all counters and histograms to zero.
+	public void reset(){
+		requests.reset();
+		failures.reset();
+		newConnections.reset();
+		reusedConnections.reset();
+		wireBytes.reset();
+		bodyBytes.reset();
+		
+		connectTimes.reset();
+		handshakeTimes.reset();
+		firstByteTimes.reset();
+		headerTimes.reset();
+		bodyTimes.reset();
+		decompressTimes.reset();
+		totalTimes.reset();
+	}
+	
+	@Override public String toString(){
+		return "HttpBrowserMetrics " + getSnapshot();
+	}
+}
@@ -0,0 +1,10 @@
+package org.kaspernj.fw.httpbrowser;
+
+//Receives the timings and sizes of the requests executed by a browser. Called on the thread that read the result, so implementations must be thread-safe and should return quickly.
+public interface HttpBrowserMetricsListener {
+	//Called when a result has been read completely. For streamed results this is when the body has been read to the end or closed.
+	public void requestDone(HttpBrowserRequestMetrics metrics);
+	
+	//Called when a result could not be read. The metrics contains what was measured before the failure.
+	public void requestFailed(HttpBrowserRequestMetrics metrics, Exception exception);
+}
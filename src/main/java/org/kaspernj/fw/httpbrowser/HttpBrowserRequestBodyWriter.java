@@ -0,0 +1,9 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.OutputStream;
+
+//Produces a request-body of unknown length for HttpBrowser.postStream. The body is sent in chunks while it is being written.
+public interface HttpBrowserRequestBodyWriter {
+	//Writes the body to the given stream. The stream should not be closed by the writer.
+	void writeBody(OutputStream out) throws Exception;
+}
@@ -0,0 +1,132 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+//A reusable buffer that requests are serialized into, so the request-line, the headers and small bodies are sent to the host with a single write instead of one write per line.
+public class HttpBrowserRequestBuffer extends OutputStream {
+	private static final int INITIAL_SIZE = 1024;
+	
+	//Buffers that has grown bigger than this are dropped when reset, so connections dont keep them.
+	private static final int KEEP_SIZE = 65536;
+	
+	private static final byte[] CRLF = {'\r', '\n'};
+	private static final byte[] COLON_SPACE = {':', ' '};
+	
+	private byte[] buf = new byte[INITIAL_SIZE];
+	private int count = 0;
+	
+	//Empties the buffer so it can be used for the next request.
+	public void reset(){
+		if (buf.length > KEEP_SIZE){
+			buf = new byte[INITIAL_SIZE];
+		}
+		
+		count = 0;
+	}
+	
+	//Returns the number of bytes in the buffer.
+	public int size(){
+		return count;
+	}
+	
+	private void ensureCapacity(int extra){
+		if (count + extra > buf.length){
+			buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + extra));
+		}
+	}
+	
+	public void write(int b){
+		ensureCapacity(1);
+		buf[count++] = (byte) b;
+	}
+	
+	public void write(byte[] bytes){
+		write(bytes, 0, bytes.length);
+	}
+	
+	public void write(byte[] bytes, int offset, int length){
+		ensureCapacity(length);
+		System.arraycopy(bytes, offset, buf, count, length);
+		count += length;
+	}
+	
+	//Writes the given string. ASCII is copied directly without encoding it first.
+	public void writeString(String str){
+		int length = str.length();
+		ensureCapacity(length);
+		
+		for(int i = 0; i < length; i++){
+			char ch = str.charAt(i);
+			if (ch > 127){
+				//Encode the whole string instead. Nothing has been counted yet, so the copied characters are just overwritten.
+				write(str.getBytes());
+				return;
+			}
+			
+			buf[count + i] = (byte) ch;
+		}
+		
+		count += length;
+	}
+	
+	//Writes the given number in decimal without creating a string for it.
+	public void writeNumber(long number){
+		if (number < 0){
+			writeString(String.valueOf(number));
+			return;
+		}
+		
+		int digits = 1;
+		for(long rest = number / 10; rest > 0; rest /= 10){
+			digits++;
+		}
+		
+		ensureCapacity(digits);
+		
+		for(int i = count + digits - 1; i >= count; i--){
+			buf[i] = (byte) ('0' + (number % 10));
+			number /= 10;
+		}
+		
+		count += digits;
+	}
+	
+	//Writes a header-line.
+	public void writeHeader(String name, String value){
+		writeString(name);
+		write(COLON_SPACE);
+		writeString(value);
+		write(CRLF);
+	}
+	
+	//Writes a header-line with a numeric value.
+	public void writeHeader(String name, long value){
+		writeString(name);
+		write(COLON_SPACE);
+		writeNumber(value);
+		write(CRLF);
+	}
+	
+	//Writes the line-ending.
+	public void writeCRLF(){
+		write(CRLF);
+	}
+	
+	//Writes the content of the buffer to the given stream with a single write.
+	public void writeTo(OutputStream out) throws IOException{
+		out.write(buf, 0, count);
+	}
+	
+	//Returns a copy of the content of the buffer.
+	public byte[] toByteArray(){
+		return Arrays.copyOf(buf, count);
+	}
+	
+	//Returns the content of the buffer as a string. Used for debugging.
+	public String toString(){
+		return new String(buf, 0, count, StandardCharsets.ISO_8859_1);
+	}
+}
@@ -0,0 +1,104 @@
+package org.kaspernj.fw.httpbrowser;
+
+//Timings and sizes measured for a single request. Given to the metrics-listeners of the browser and available from the result.
+public class HttpBrowserRequestMetrics {
+	private String host;
+	private int port;
+	private int statusCode;
+	
+	//True if the request was the first on a new connection.
+	private boolean newConnection;
+	
+	//The times in nanoseconds. The connect- and handshake-times are only given for the first request on a new connection.
+	long connectNanos;
+	long handshakeNanos;
+	long firstByteNanos;
+	long headerNanos;
+	long bodyNanos;
+	long decompressNanos;
+	
+	//The size of the result on the wire with head, chunk-framing and compression, and the size of the decoded body.
+	long wireBytes;
+	long bodyBytes;
+	
+	//Used while measuring: the time the request was sent, the time of the last step and the bytes consumed from the connection when the result started.
+	long startedAt;
+	long markedAt;
+	long startBytes;
+	
+	HttpBrowserRequestMetrics(String inHost, int inPort, boolean inNewConnection){
+		host = inHost;
+		port = inPort;
+		newConnection = inNewConnection;
+	}
+	
+	void setStatusCode(int inStatusCode){
+		statusCode = inStatusCode;
+	}
+	
+	public String getHost(){
+		return host;
+	}
+	
+	public int getPort(){
+		return port;
+	}
+	
+	//Returns the status-code of the result or zero if it was not read.
+	public int getStatusCode(){
+		return statusCode;
+	}
+	
+	public boolean isNewConnection(){
+		return newConnection;
+	}
+	
+	//Returns the time it took to open the connection or zero if an open connection was reused.
+	public long getConnectNanos(){
+		return connectNanos;
+	}
+	
+	//Returns the time the TLS-handshake took or zero if an open connection was reused or TLS is not used. Abbreviated handshakes of resumed sessions are faster than full ones.
+	public long getHandshakeNanos(){
+		return handshakeNanos;
+	}
+	
+	//Returns the time from the request was sent until the status-line was received. Pipelined requests after the first are measured from when the previous result was read.
+	public long getFirstByteNanos(){
+		return firstByteNanos;
+	}
+	
+	//Returns the time spent reading and parsing the headers.
+	public long getHeaderNanos(){
+		return headerNanos;
+	}
+	
+	//Returns the time spent reading the body including decompressing it. For streamed results this includes the time the caller spent between reads.
+	public long getBodyNanos(){
+		return bodyNanos;
+	}
+	
+	//Returns the part of the body-time that was spent decompressing.
+	public long getDecompressNanos(){
+		return decompressNanos;
+	}
+	
+	//Returns the time from the connection was opened or the request was sent until the whole body was read.
+	public long getTotalNanos(){
+		return connectNanos + handshakeNanos + firstByteNanos + headerNanos + bodyNanos;
+	}
+	
+	//Returns the number of bytes read from the connection for the result.
+	public long getWireBytes(){
+		return wireBytes;
+	}
+	
+	//Returns the size of the decoded body.
+	public long getBodyBytes(){
+		return bodyBytes;
+	}
+	
+	@Override public String toString(){
+		return "HttpBrowserRequestMetrics {host: " + host + ":" + port + ", status: " + statusCode + ", new connection: " + newConnection + ", connect: " + (connectNanos / 1000) + "us, handshake: " + (handshakeNanos / 1000) + "us, first byte: " + (firstByteNanos / 1000) + "us, headers: " + (headerNanos / 1000) + "us, body: " + (bodyNanos / 1000) + "us, decompress: " + (decompressNanos / 1000) + "us, wire: " + wireBytes + " bytes, body: " + bodyBytes + " bytes}";
+	}
+}
@@ -1,18 +1,23 @@
 package org.kaspernj.fw.httpbrowser;
 
-import java.io.File;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.Deflater;
 
 //This class handles file-uploads to a HTTP-host.
 public class HttpBrowserRequestPostMultipart {
+	private static final byte[] CRLF = "\r\n".getBytes();
+	
 	private String boundaryStr = UUID.randomUUID().toString();
-	private File tempFile;
 	private String addr;
 	private HttpBrowser http;
 	private ArrayList<HttpBrowserRequestPostMultipartFileUpload> fileUploads = new ArrayList<HttpBrowserRequestPostMultipartFileUpload>();
@@ -42,91 +47,314 @@ public class HttpBrowserRequestPostMultipart {
 	}
 	
 	public HttpBrowserResult execute() throws Exception{
-		http.lock.lock();
-		File tempFile = createTempData();
+		if (executed){
+			throw new Exception("This request has already been executed.");
+		}
+		
+		if (addr == null){
+			throw new Exception("Please set an address before calling 'execute'.");
+		}
+		
+		executed = true;
+		
+		//Take the file-sizes once, so the content-length and the sent files agree.
+		long[] fileSizes = new long[fileUploads.size()];
+		for(int i = 0; i < fileSizes.length; i++){
+			fileSizes[i] = fileUploads.get(i).getFileSize();
+		}
+		
+		if (http.isHttp2()){
+			return executeHttp2(fileSizes);
+		}
+		
+		HttpBrowserConnection conn = http.checkoutConnection();
+		boolean reusable = false;
+		
+		try{
+			HttpBrowserRequestBuffer buf = conn.getRequestBuffer();
+			http.writeRequestHead(buf, "POST", addr, null);
+			
+			//A compressed body has an unknown length, so it is sent chunked, and the files are read through the compressor instead of being sent with transferTo.
+			if (http.shouldCompressRequest(compressibleLength(fileSizes))){
+				buf.writeHeader("Content-Encoding", "gzip");
+				buf.writeHeader("Transfer-Encoding", "chunked");
+				buf.writeHeader("Content-Type", "multipart/form-data; boundary=" + boundaryStr);
+				buf.writeCRLF();
+				conn.sendRequestBuffer();
+				
+				HttpBrowserChunkedOutputStream chunked = new HttpBrowserChunkedOutputStream(conn.getOutputStream(), http.getRequestChunkSize());
+				HttpBrowserGZIPOutputStream gzip = null;
+				
+				try{
+					gzip = new HttpBrowserGZIPOutputStream(chunked, conn.getDeflater(), http.getRequestCompressionLevel());
+					writeData(gzip, gzip, fileSizes);
+					gzip.close();
+				}finally{
+					//Gives the buffers back if the body could not be sent to the end.
+					if (gzip != null){
+						gzip.release();
+					}
+					
+					chunked.release();
+				}
+			}else{
+				buf.writeHeader("Content-Length", contentLength(fileSizes));
+				buf.writeHeader("Content-Type", "multipart/form-data; boundary=" + boundaryStr);
+				buf.writeCRLF();
+				
+				writeData(conn, fileSizes);
+			}
+			
+			HttpBrowserResult res = http.readResult(conn);
+			reusable = true;
+			
+			return res;
+		}finally{
+			http.releaseConnection(conn, reusable);
+		}
+	}
+	
+	//Sends the request as a stream on the HTTP/2-connection. The post-data is written to the stream while it is sent like with 'postStream', so files are not held in memory.
+	private HttpBrowserResult executeHttp2(long[] fileSizes) throws Exception{
+		boolean compressed = http.shouldCompressRequest(compressibleLength(fileSizes));
+		HttpBrowserRequestBuffer buf = new HttpBrowserRequestBuffer();
+		http.writeRequestHead(buf, "POST", addr, null);
+		
+		if (compressed){
+			buf.writeHeader("Content-Encoding", "gzip");
+		}else{
+			buf.writeHeader("Content-Length", contentLength(fileSizes));
+		}
+		
+		buf.writeHeader("Content-Type", "multipart/form-data; boundary=" + boundaryStr);
+		buf.writeCRLF();
+		
+		HttpBrowserHttp2Connection conn = http.getHttp2Connection();
+		HttpBrowserHttp2Stream stream = conn.execute(buf.toByteArray(), true);
 		
+		try{
+			OutputStream body = stream.getBodyOutputStream();
+			
+			if (compressed){
+				Deflater deflater = new Deflater(http.getRequestCompressionLevel(), true);
+				HttpBrowserGZIPOutputStream gzip = null;
+				
+				try{
+					gzip = new HttpBrowserGZIPOutputStream(body, deflater, http.getRequestCompressionLevel());
+					writeData(gzip, gzip, fileSizes);
+					gzip.close();
+				}finally{
+					if (gzip != null){
+						gzip.release();
+					}
+					
+					deflater.end();
+				}
+			}else{
+				writeData(body, null, fileSizes);
+				body.close();
+			}
+		}catch(Exception e){
+			//The host would wait for the rest of the body forever.
+			conn.cancel(stream, e);
+			throw e;
+		}
+		
+		stream.await();
+		return http.readHttp2Result(conn, stream);
+	}
+	
+	//Executes the request on the asynchronous engine. The post-data is held in memory while the request is sent.
+	public CompletableFuture<HttpBrowserResult> executeAsync(){
 		try{
 			if (executed){
 				throw new Exception("This request has already been executed.");
 			}
 			
-			executed = true;
-			http.ensureConnected();
-			
 			if (addr == null){
-				throw new Exception("Please set an address before calling 'execute'.");
+				throw new Exception("Please set an address before calling 'executeAsync'.");
 			}
 			
-			String requestLine = "POST /" + addr + " HTTP/1.1\r\n";
-			http.sockWrite(requestLine);
+			executed = true;
 			
-			HashMap<String, String> headers = http.defaultHeaders();
-			headers.put("Content-Length", String.valueOf(tempFile.length()));
-			headers.put("Content-Type", "multipart/form-data; boundary=" + boundaryStr);
-			http.writeHeaders(headers);
-			http.sockWrite("\r\n");
+			long[] fileSizes = new long[fileUploads.size()];
+			for(int i = 0; i < fileSizes.length; i++){
+				fileSizes[i] = fileUploads.get(i).getFileSize();
+			}
 			
-			byte[] buffer = new byte[4096];
-			FileInputStream input = new FileInputStream(tempFile);
-			int actualReadSize;
+			HttpBrowserRequestBuffer buf = new HttpBrowserRequestBuffer();
+			http.writeRequestHead(buf, "POST", addr, null);
+			ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
 			
-			while((actualReadSize = input.read(buffer)) != -1){
-				http.sockOut.write(buffer, 0, actualReadSize);
+			if (http.shouldCompressRequest(compressibleLength(fileSizes))){
+				Deflater deflater = new Deflater(http.getRequestCompressionLevel(), true);
+				HttpBrowserGZIPOutputStream gzip = null;
+				
+				try{
+					gzip = new HttpBrowserGZIPOutputStream(bytesOut, deflater, http.getRequestCompressionLevel());
+					writeData(gzip, gzip, fileSizes);
+					gzip.finish();
+				}finally{
+					if (gzip != null){
+						gzip.release();
+					}
+					
+					deflater.end();
+				}
+				
+				buf.writeHeader("Content-Encoding", "gzip");
+			}else{
+				writeData(bytesOut, null, fileSizes);
 			}
 			
-			System.out.println("");
-			http.sockWrite("\r\n");
+			byte[] body = bytesOut.toByteArray();
+			buf.writeHeader("Content-Length", body.length);
+			buf.writeHeader("Content-Type", "multipart/form-data; boundary=" + boundaryStr);
+			buf.writeCRLF();
+			buf.write(body);
 			
-			return http.readResult();
-		}finally{
-			tempFile.delete();
-			http.lock.unlock();
+			return http.executeAsync(buf.toByteArray());
+		}catch(Exception e){
+			return HttpBrowser.failedFuture(e);
+		}
+	}
+	
+	//Returns the part-header that is written before the content of the given post-value.
+	private byte[] postValueHeader(String key, byte[] value) throws UnsupportedEncodingException{
+		return ("--" + boundaryStr + "\r\n" +
+			"Content-Disposition: form-data; name=\"" + URLEncoder.encode(key, "UTF-8") + "\";\r\n" +
+			"Content-Length: " + value.length + "\r\n" +
+			"Content-Type: text/plain\r\n" +
+			"\r\n").getBytes();
+	}
+	
+	//Returns the part-header that is written before the content of the given file-upload.
+	private byte[] fileUploadHeader(HttpBrowserRequestPostMultipartFileUpload fileUpload, long fileSize) throws UnsupportedEncodingException{
+		return ("--" + boundaryStr + "\r\n" +
+			"Content-Disposition: form-data; name=\"" + URLEncoder.encode(fileUpload.getPostName(), "UTF-8") + "\"; filename=\"" + fileUpload.getFileName() + "\";\r\n" +
+			"Content-Length: " + fileSize + "\r\n" +
+			"\r\n").getBytes();
+	}
+	
+	//Returns the boundary that ends the post-data.
+	private byte[] endBoundary(){
+		return ("--" + boundaryStr + "--").getBytes();
+	}
+	
+	//Returns the length of the entire post-data. It is calculated from the part-headers and the file-sizes, so no files are read to find it.
+	private long contentLength(long[] fileSizes) throws UnsupportedEncodingException{
+		long length = 0;
+		
+		for(String key: postValues.keySet()){
+			byte[] value = postValues.get(key).getBytes();
+			length += postValueHeader(key, value).length + value.length + CRLF.length;
 		}
+		
+		for(int i = 0; i < fileSizes.length; i++){
+			length += fileUploadHeader(fileUploads.get(i), fileSizes[i]).length + fileSizes[i] + CRLF.length;
+		}
+		
+		return length + endBoundary().length;
 	}
 	
-	//Writes a temporary file with the entire post-data (this does not include headers). It is done this way to spare memory and to calculate the size for the "Content-Length"-header.
-	private File createTempData() throws IOException{
-		tempFile = File.createTempFile("java_httpbrowser_request_post_multipart", ".temp");
-		tempFile.deleteOnExit();
+	//Returns the number of bytes in the post-values and the files that are not already compressed. Used to decide if the body is worth compressing.
+	private long compressibleLength(long[] fileSizes){
+		long length = 0;
+		
+		for(String value: postValues.values()){
+			length += value.length();
+		}
+		
+		for(int i = 0; i < fileSizes.length; i++){
+			if (!fileUploads.get(i).isCompressed()){
+				length += fileSizes[i];
+			}
+		}
+		
+		return length;
+	}
+	
+	//Streams the entire post-data to the connection after what is already in its request-buffer. The content of the files are sent with FileChannel.transferTo, so the OS can copy them directly to the socket. Everything in between is collected in the request-buffer and sent with one write per file.
+	private void writeData(HttpBrowserConnection conn, long[] fileSizes) throws IOException{
+		HttpBrowserRequestBuffer buf = conn.getRequestBuffer();
 		
-		FileOutputStream fw = new FileOutputStream(tempFile);
-		String value;
 		for(String key: postValues.keySet()){
-			value = postValues.get(key);
-			
-			fw.write(("--" + boundaryStr + "\r\n").getBytes());
-			fw.write(("Content-Disposition: form-data; name=\"" + URLEncoder.encode(key, "UTF-8") + "\";\r\n").getBytes());
-			fw.write(("Content-Length: " + value.getBytes().length + "\r\n").getBytes());
-			fw.write(("Content-Type: text/plain\r\n").getBytes());
-			fw.write(("\r\n").getBytes());
-			fw.write((value.getBytes()));
-			fw.write(("\r\n").getBytes());
+			byte[] value = postValues.get(key).getBytes();
+			buf.write(postValueHeader(key, value));
+			buf.write(value);
+			buf.write(CRLF);
 		}
 		
-		for(HttpBrowserRequestPostMultipartFileUpload fileUpload: fileUploads){
-			fw.write(("--" + boundaryStr + "\r\n").getBytes());
-			fw.write(("Content-Disposition: form-data; name=\"" + URLEncoder.encode(fileUpload.getPostName(), "UTF-8") + "\"; filename=\"" + fileUpload.getFileName() + "\";\r\n").getBytes());
-			fw.write(("Content-Length: " + fileUpload.getFileSize() + "\r\n").getBytes());
-			fw.write(("\r\n").getBytes());
+		for(int i = 0; i < fileSizes.length; i++){
+			HttpBrowserRequestPostMultipartFileUpload fileUpload = fileUploads.get(i);
+			buf.write(fileUploadHeader(fileUpload, fileSizes[i]));
+			conn.sendRequestBuffer();
 			
-			int actualReadSize;
 			FileInputStream input = new FileInputStream(fileUpload.getFilePath());
-			byte[] buffer = new byte[4096];
 			
 			try{
-				while((actualReadSize = input.read(buffer)) != -1){
-					fw.write(buffer, 0, actualReadSize);
-				}
+				conn.writeFile(input.getChannel(), 0, fileSizes[i]);
 			}finally{
 				input.close();
 			}
 			
-			fw.write(("\r\n").getBytes());
+			buf.write(CRLF);
 		}
 		
-		fw.write(("--" + boundaryStr + "--").getBytes());
-		fw.close();
+		buf.write(endBoundary());
+		conn.sendRequestBuffer();
+	}
+	
+	//Writes the entire post-data to the given stream. If the stream is compressing, files that are already compressed are written without compressing them again. The given file-sizes are written like on the connection, so the part-headers and Content-Length agree with the sent files.
+	private void writeData(OutputStream out, HttpBrowserGZIPOutputStream gzip, long[] fileSizes) throws IOException{
+		for(String key: postValues.keySet()){
+			byte[] value = postValues.get(key).getBytes();
+			out.write(postValueHeader(key, value));
+			out.write(value);
+			out.write(CRLF);
+		}
 		
-		return tempFile;
+		for(int i = 0; i < fileSizes.length; i++){
+			HttpBrowserRequestPostMultipartFileUpload fileUpload = fileUploads.get(i);
+			out.write(fileUploadHeader(fileUpload, fileSizes[i]));
+			
+			if (gzip != null){
+				gzip.setCompressing(!fileUpload.isCompressed());
+			}
+			
+			writeFile(fileUpload, fileSizes[i], out);
+			
+			if (gzip != null){
+				gzip.setCompressing(true);
+			}
+			
+			out.write(CRLF);
+		}
+		
+		out.write(endBoundary());
+	}
+	
+	//Writes the given number of bytes from the start of the file to the stream.
+	private void writeFile(HttpBrowserRequestPostMultipartFileUpload fileUpload, long fileSize, OutputStream out) throws IOException{
+		HttpBrowserBufferPool pool = HttpBrowserBufferPool.getDefault();
+		byte[] buffer = pool.acquire(pool.getMaxBufferSize());
+		InputStream input = new FileInputStream(fileUpload.getFilePath());
+		
+		try{
+			long left = fileSize;
+			
+			while(left > 0){
+				int len = input.read(buffer, 0, (int) Math.min(buffer.length, left));
+				if (len == -1){
+					throw new IOException("The file is shorter than expected - " + left + " bytes are missing.");
+				}
+				
+				out.write(buffer, 0, len);
+				left -= len;
+			}
+		}finally{
+			input.close();
+			pool.release(buffer);
+		}
 	}
 }
@@ -1,12 +1,23 @@
 package org.kaspernj.fw.httpbrowser;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
 
 public class HttpBrowserRequestPostMultipartFileUpload {
+	//Extensions of file-formats that are already compressed, so compressing them again only costs time.
+	private static final HashSet<String> COMPRESSED_EXTENSIONS = new HashSet<String>(Arrays.asList(
+		"jpg", "jpeg", "png", "gif", "webp", "avif", "heic",
+		"mp3", "m4a", "ogg", "mp4", "m4v", "mov", "avi", "mkv", "webm",
+		"zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "zst", "br", "jar", "docx", "xlsx", "pptx", "woff", "woff2"
+	));
+	
 	private String postName;
 	private String fileName;
 	private String filePath;
 	private String contextType;
+	private Boolean compressed;
 	
 	public HttpBrowserRequestPostMultipartFileUpload(){
 		contextType = "text/plain";
@@ -58,4 +69,23 @@ public class HttpBrowserRequestPostMultipartFileUpload {
 	public String getContextType(){
 		return contextType;
 	}
+	
+	//Sets if the content of the file is already compressed, so it is not compressed again when the request-body is. Found from the extension of the file-name if not set.
+	public void setCompressed(Boolean inCompressed){
+		compressed = inCompressed;
+	}
+	
+	public boolean isCompressed(){
+		if (compressed != null){
+			return compressed;
+		}
+		
+		String name = (fileName != null) ? fileName : filePath;
+		if (name == null){
+			return false;
+		}
+		
+		int dot = name.lastIndexOf('.');
+		return (dot != -1 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT)));
+	}
 }
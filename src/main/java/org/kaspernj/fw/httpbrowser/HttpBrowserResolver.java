@@ -0,0 +1,13 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+//Looks up the addresses that new connections to a host are opened to. Can be replaced with a stub that gives local addresses in tests. Implementations must be thread-safe, since they are shared by the connections of one or more browsers.
+public interface HttpBrowserResolver {
+	//Returns the addresses of the host in the order they should be tried. Throws an UnknownHostException if the host has no addresses.
+	public InetAddress[] resolve(String host) throws UnknownHostException;
+	
+	//Called when a connection to one of the addresses of the host could not be opened, so it can be tried last for a while.
+	public void connectFailed(String host, InetAddress address);
+}
@@ -0,0 +1,242 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+//Finds the end of a result in bytes that are received a bit at a time, so the asynchronous engine knows when a complete result can be parsed by HttpBrowser.readResult.
+public class HttpBrowserResponseFramer {
+	private static final int HEAD = 0;
+	private static final int BODY = 1;
+	private static final int CHUNK_SIZE = 2;
+	private static final int CHUNK_DATA = 3;
+	private static final int TRAILERS = 4;
+	private static final int DONE = 5;
+	
+	private int state = HEAD;
+	
+	//The position that scanning continues from.
+	private int pos = 0;
+	
+	//The end of a body given by content-length.
+	private long bodyEnd;
+	
+	//The size of the chunk being received.
+	private int chunkSize;
+	
+	//Makes the framer ready for the next result.
+	public void reset(){
+		state = HEAD;
+		pos = 0;
+	}
+	
+	//Scans the received bytes and returns the length of the result if it has been completely received. Otherwise -1.
+	public int scan(byte[] data, int length) throws IOException{
+		while(true){
+			if (state == HEAD){
+				int lineStart = pos;
+				
+				while(true){
+					int lf = indexOfLF(data, lineStart, length);
+					if (lf == -1){
+						pos = lineStart;
+						return -1;
+					}
+					
+					//An empty line ends the headers.
+					if (lf == lineStart || (lf == lineStart + 1 && data[lineStart] == '\r')){
+						pos = lf + 1;
+						parseHead(data, pos);
+						break;
+					}
+					
+					lineStart = lf + 1;
+				}
+			}else if(state == BODY){
+				if (length < bodyEnd){
+					return -1;
+				}
+				
+				state = DONE;
+				return (int) bodyEnd;
+			}else if(state == CHUNK_SIZE){
+				int lf = indexOfLF(data, pos, length);
+				if (lf == -1){
+					return -1;
+				}
+				
+				chunkSize = parseChunkSize(data, pos, lf);
+				pos = lf + 1;
+				state = (chunkSize == 0) ? TRAILERS : CHUNK_DATA;
+			}else if(state == CHUNK_DATA){
+				if (length < pos + chunkSize){
+					return -1;
+				}
+				
+				int lf = indexOfLF(data, pos + chunkSize, length);
+				if (lf == -1){
+					return -1;
+				}
+				
+				pos = lf + 1;
+				state = CHUNK_SIZE;
+			}else if(state == TRAILERS){
+				int lf = indexOfLF(data, pos, length);
+				if (lf == -1){
+					return -1;
+				}
+				
+				boolean empty = (lf == pos || (lf == pos + 1 && data[pos] == '\r'));
+				pos = lf + 1;
+				
+				if (empty){
+					state = DONE;
+					return pos;
+				}
+			}else{
+				return pos;
+			}
+		}
+	}
+	
+	private int indexOfLF(byte[] data, int from, int length){
+		for(int i = from; i < length; i++){
+			if (data[i] == '\n'){
+				return i;
+			}
+		}
+		
+		return -1;
+	}
+	
+	private int parseChunkSize(byte[] data, int from, int to) throws IOException{
+		int size = 0;
+		int digits = 0;
+		
+		for(int i = from; i < to; i++){
+			int ch = data[i];
+			int digit;
+			
+			if (ch >= '0' && ch <= '9'){
+				digit = ch - '0';
+			}else if(ch >= 'a' && ch <= 'f'){
+				digit = ch - 'a' + 10;
+			}else if(ch >= 'A' && ch <= 'F'){
+				digit = ch - 'A' + 10;
+			}else{
+				break;
+			}
+			
+			if (digits >= 7){
+				throw new IOException("Chunk-size is too big.");
+			}
+			
+			size = (size << 4) + digit;
+			digits++;
+		}
+		
+		if (digits == 0){
+			throw new IOException("Expected a chunk-size but got: '" + new String(data, from, to - from, StandardCharsets.ISO_8859_1) + "'.");
+		}
+		
+		return size;
+	}
+	
+	//Reads the status-code and the headers that decides how the body is framed.
+	private void parseHead(byte[] data, int headEnd){
+		long contentLength = -1;
+		boolean chunked = false;
+		
+		int lineStart = indexOfLF(data, 0, headEnd) + 1;
+		int statusCode = statusCode(data, lineStart);
+		
+		while(lineStart < headEnd){
+			int lf = indexOfLF(data, lineStart, headEnd);
+			int lineEnd = (lf == -1) ? headEnd : lf;
+			int colon = lineStart;
+			
+			while(colon < lineEnd && data[colon] != ':'){
+				colon++;
+			}
+			
+			if (colon < lineEnd){
+				int nameEnd = trimEnd(data, lineStart, colon);
+				int valueStart = colon + 1;
+				int valueEnd = trimEnd(data, valueStart, lineEnd);
+				
+				while(valueStart < valueEnd && (data[valueStart] == ' ' || data[valueStart] == '\t')){
+					valueStart++;
+				}
+				
+				if (HttpBrowserHeaders.nameEquals(data, lineStart, nameEnd - lineStart, HttpBrowserHeaders.CONTENT_LENGTH)){
+					contentLength = parseLong(data, valueStart, valueEnd);
+				}else if(HttpBrowserHeaders.nameEquals(data, lineStart, nameEnd - lineStart, HttpBrowserHeaders.TRANSFER_ENCODING)){
+					chunked = HttpBrowserHeaders.nameEquals(data, valueStart, valueEnd - valueStart, "chunked");
+				}
+			}
+			
+			lineStart = lineEnd + 1;
+		}
+		
+		if (statusCode == 204 || statusCode == 304){
+			state = DONE;
+		}else if(chunked){
+			state = CHUNK_SIZE;
+		}else if(contentLength >= 0){
+			bodyEnd = headEnd + contentLength;
+			state = BODY;
+		}else{
+			//The parser will fail on results it does not know how to read.
+			state = DONE;
+		}
+	}
+	
+	//Returns the status-code from the status-line ending at the given position or -1 if it could not be read.
+	private int statusCode(byte[] data, int statusLineEnd){
+		int i = 0;
+		while(i < statusLineEnd && data[i] != ' '){
+			i++;
+		}
+		
+		while(i < statusLineEnd && data[i] == ' '){
+			i++;
+		}
+		
+		int statusCode = 0;
+		for(int end = i + 3; i < end; i++){
+			if (i >= statusLineEnd || data[i] < '0' || data[i] > '9'){
+				return -1;
+			}
+			
+			statusCode = (statusCode * 10) + (data[i] - '0');
+		}
+		
+		return statusCode;
+	}
+	
+	//Returns the end of the given range without trailing whitespace and carriage return.
+	private int trimEnd(byte[] data, int start, int end){
+		while(end > start && (data[end - 1] == ' ' || data[end - 1] == '\t' || data[end - 1] == '\r')){
+			end--;
+		}
+		
+		return end;
+	}
+	
+	//Parses a content-length. Returns -1 if it is not a number, so the parser can fail on it.
+	private long parseLong(byte[] data, int start, int end){
+		if (start == end || end - start > 18){
+			return -1;
+		}
+		
+		long number = 0;
+		for(int i = start; i < end; i++){
+			if (data[i] < '0' || data[i] > '9'){
+				return -1;
+			}
+			
+			number = (number * 10) + (data[i] - '0');
+		}
+		
+		return number;
+	}
+}
@@ -1,42 +1,124 @@
 package org.kaspernj.fw.httpbrowser;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
+import java.util.List;
 
 //This class contains various data for a HTTP-result.
 public class HttpBrowserResult {
 	private byte[] bodyByteArray;
+	private InputStream bodyInputStream;
+	private HttpBrowserHeaders headerList;
 	private HashMap<String, String> headers;
 	private Integer statusCode;
+	public Long contentLength;
 	public Integer keepAliveTimeout;
 	public Integer keepAliveMax;
 	public String contentEncoding;
 	public String transferEncoding;
+	private boolean fromCache = false;
+	private HttpBrowserRequestMetrics metrics;
 	
 	//Sets the body-byte-array.
 	public void setBodyByteArray(byte[] inBody){
 		bodyByteArray = inBody;
 	}
 	
+	//Sets the stream that the body should be read from, when the result has been read as a stream.
+	public void setBodyInputStream(InputStream inBodyInputStream){
+		bodyInputStream = inBodyInputStream;
+	}
+	
 	//Returns the body of the result as a string.
 	public String getBody(){
-		return new String(bodyByteArray);
+		return new String(getBodyAsByteArray());
 	}
 	
-	//Returns the body of the result as a byte-array.
+	//Returns the body of the result as a byte-array. A streamed body will be read to the end by this.
 	public byte[] getBodyAsByteArray(){
+		if (bodyByteArray == null && bodyInputStream != null){
+			try{
+				try{
+					bodyByteArray = HttpBrowserBufferPool.getDefault().readAll(bodyInputStream);
+				}finally{
+					bodyInputStream.close();
+				}
+				
+				bodyInputStream = null;
+			}catch(IOException e){
+				throw new RuntimeException("Could not read the body: " + e.getMessage(), e);
+			}
+		}
+		
 		return bodyByteArray;
 	}
 	
+	//Returns the body of the result as a stream. For streamed results this is read directly from the connection and can only be read once.
+	public InputStream getBodyInputStream(){
+		if (bodyInputStream != null){
+			return bodyInputStream;
+		}
+		
+		return new ByteArrayInputStream(bodyByteArray);
+	}
+	
 	//Sets the headers for the result.
 	public void setHeaders(HashMap<String, String> inHeaders){
 		headers = inHeaders;
+		headerList = new HttpBrowserHeaders(inHeaders);
+	}
+	
+	//Sets the headers for the result as they were received.
+	public void setHeaders(HttpBrowserHeaders inHeaders){
+		headerList = inHeaders;
+		headers = null;
 	}
 	
-	//Returns the HashMap containing the headers of the result.
+	//Returns the HashMap containing the headers of the result with lower case names. Only the last value is given for repeated headers - use 'getHeaderValues' for those.
 	public HashMap<String, String> getHeaders(){
+		if (headers == null && headerList != null){
+			headers = headerList.toHashMap();
+		}
+		
 		return headers;
 	}
+	
+	//Returns all the headers of the result in the order they were received.
+	public HttpBrowserHeaders getHeaderList(){
+		return headerList;
+	}
+	
+	//Returns the first value of the header with the given name (in any case) or null if it was not given.
+	public String getHeader(String name){
+		return headerList.get(name);
+	}
+	
+	//Returns all values of the header with the given name (in any case), like when several cookies are set.
+	public List<String> getHeaderValues(String name){
+		return headerList.getAll(name);
+	}
 
+	//Sets if the result was served from a HttpBrowserCache.
+	public void setFromCache(boolean inFromCache){
+		fromCache = inFromCache;
+	}
+	
+	//Returns true if the result was served from a HttpBrowserCache instead of being sent by the host.
+	public boolean isFromCache(){
+		return fromCache;
+	}
+	
+	void setMetrics(HttpBrowserRequestMetrics inMetrics){
+		metrics = inMetrics;
+	}
+	
+	//Returns the timings and sizes measured for the request or null if the browser has no metrics-listeners. For streamed results they are complete when the body has been read.
+	public HttpBrowserRequestMetrics getMetrics(){
+		return metrics;
+	}
+	
 	public void setStatusCode( int statusCode )
 	{
 		this.statusCode = statusCode;
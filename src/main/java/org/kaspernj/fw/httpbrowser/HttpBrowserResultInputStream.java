@@ -0,0 +1,133 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+//Wraps the body of a streamed result. The connection is given back to the pool for keep-alive reuse when the body has been read to the end or the stream is closed.
+public class HttpBrowserResultInputStream extends InputStream {
+	//Bodies with less than this many unread bytes are drained on close so the connection can be reused.
+	private static final int DRAIN_MAX = 65536;
+	
+	private HttpBrowser http;
+	private HttpBrowserConnection conn;
+	private HttpBrowserResult res;
+	private InputStream body;
+	private boolean released = false;
+	private boolean closed = false;
+	
+	//The number of body-bytes read through the stream. Used for the metrics of the request.
+	private long bytesRead = 0;
+	
+	public HttpBrowserResultInputStream(HttpBrowser inHttp, HttpBrowserConnection inConn, HttpBrowserResult inRes, InputStream inBody){
+		http = inHttp;
+		conn = inConn;
+		res = inRes;
+		body = inBody;
+	}
+	
+	//Gives the connection back to the pool. The metrics are completed first, since the connection can be used by another request as soon as it has been released.
+	private void release(boolean reusable, Exception failure){
+		if (!released){
+			released = true;
+			
+			if (res.getMetrics() != null){
+				if (failure == null){
+					http.finishMetrics(conn, res, res.getBodyInputStream(), bytesRead);
+				}else{
+					http.failMetrics(res.getMetrics(), failure);
+				}
+			}
+			
+			if (reusable){
+				conn.requestExecuted();
+			}
+			
+			http.releaseConnection(conn, reusable);
+		}
+	}
+	
+	@Override public int read() throws IOException{
+		if (closed){
+			throw new IOException("Stream closed.");
+		}else if(released){
+			return -1;
+		}
+		
+		try{
+			int ch = body.read();
+			if (ch == -1){
+				release(true, null);
+			}else{
+				bytesRead += 1;
+			}
+			
+			return ch;
+		}catch(IOException e){
+			release(false, e);
+			throw e;
+		}
+	}
+	
+	@Override public int read(byte[] buffer, int offset, int length) throws IOException{
+		if (closed){
+			throw new IOException("Stream closed.");
+		}else if(released){
+			return -1;
+		}
+		
+		try{
+			int len = body.read(buffer, offset, length);
+			if (len == -1){
+				release(true, null);
+			}else{
+				bytesRead += len;
+			}
+			
+			return len;
+		}catch(IOException e){
+			release(false, e);
+			throw e;
+		}
+	}
+	
+	@Override public int available() throws IOException{
+		if (closed || released){
+			return 0;
+		}
+		
+		return body.available();
+	}
+	
+	//Drains a small rest of the body so the connection can be reused. Bigger rests closes the connection instead. Reading fails after this, so a closed body is not taken for a complete one.
+	@Override public void close() throws IOException{
+		closed = true;
+		
+		if (released){
+			return;
+		}
+		
+		byte[] buffer = HttpBrowserBufferPool.getDefault().acquire(4096);
+		
+		try{
+			int drained = 0;
+			int len;
+			
+			while(drained < DRAIN_MAX){
+				len = body.read(buffer, 0, buffer.length);
+				if (len == -1){
+					release(true, null);
+					return;
+				}
+				
+				drained += len;
+				bytesRead += len;
+			}
+			
+			release(false, null);
+		}catch(IOException e){
+			release(false, e);
+		}finally{
+			HttpBrowserBufferPool.getDefault().release(buffer);
+		}
+	}
+}
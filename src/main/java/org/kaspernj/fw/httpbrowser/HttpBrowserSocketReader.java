@@ -0,0 +1,379 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+//Reads status-lines, header-lines, chunk-sizes and bodies from the socket through a reusable buffer, so the socket is read in bulk instead of byte by byte. The buffer is taken from the buffer-pool and given back by 'release'.
+public class HttpBrowserSocketReader {
+	private static final byte[] RELEASED = new byte[0];
+	
+	//The stream that is being read from.
+	private InputStream in;
+	
+	//The reusable buffer and the current position and limit inside it.
+	private byte[] buffer;
+	private int pos = 0;
+	private int limit = 0;
+	
+	//The number of bytes that has been read from the stream, including those still in the buffer.
+	private long bytesRead = 0;
+	
+	//Used to collect lines that are split over more than one read from the socket.
+	private byte[] lineBuffer = new byte[256];
+	
+	//The last line read by 'nextLine'.
+	private byte[] lineBytes;
+	private int lineStart;
+	private int lineLength;
+	
+	public HttpBrowserSocketReader(InputStream inIn){
+		this(inIn, 8192);
+	}
+	
+	public HttpBrowserSocketReader(InputStream inIn, int bufferSize){
+		in = inIn;
+		buffer = HttpBrowserBufferPool.getDefault().acquire(bufferSize);
+	}
+	
+	//Gives the buffer back to the pool. Reads fail with an IOException after this.
+	public void release(){
+		if (buffer != RELEASED){
+			HttpBrowserBufferPool.getDefault().release(buffer);
+			buffer = RELEASED;
+			in = null;
+			pos = 0;
+			limit = 0;
+		}
+	}
+	
+	//Continues reading from another stream with the same buffers. Anything not consumed from the current stream is dropped.
+	void setInputStream(InputStream inIn){
+		in = inIn;
+		bytesRead -= (limit - pos);
+		pos = 0;
+		limit = 0;
+	}
+	
+	//Fails if the buffer has been given back, since the connection has been closed then.
+	private void ensureOpen() throws IOException{
+		if (buffer == RELEASED){
+			throw new IOException("The connection has been closed.");
+		}
+	}
+	
+	//Refills the buffer from the socket. Returns false if the socket has reached EOF.
+	private boolean fill() throws IOException{
+		ensureOpen();
+		
+		pos = 0;
+		limit = 0;
+		
+		int len = in.read(buffer, 0, buffer.length);
+		if (len == -1){
+			return false;
+		}
+		
+		limit = len;
+		bytesRead += len;
+		return true;
+	}
+	
+	//Refills the buffer and fails if the socket has been closed.
+	private void fillOrFail() throws IOException{
+		if (!fill()){
+			throw new IOException("Socket seems to have closed on us?");
+		}
+	}
+	
+	//Returns the number of bytes that has been read from the socket but not consumed yet.
+	public int buffered(){
+		return limit - pos;
+	}
+	
+	//Returns the number of bytes that has been consumed from the stream so far. Used to measure the size of results on the wire.
+	public long getBytesConsumed(){
+		return bytesRead - (limit - pos);
+	}
+	
+	//Reads a single byte. Fails on EOF instead of returning -1.
+	public int readByte() throws IOException{
+		if (pos >= limit){
+			fillOrFail();
+		}
+		
+		return buffer[pos++] & 0xFF;
+	}
+	
+	//Reads a line from the socket and returns it without the line-ending.
+	public String readLine() throws IOException{
+		nextLine();
+		return new String(lineBytes, lineStart, lineLength, StandardCharsets.ISO_8859_1);
+	}
+	
+	//Reads a header-line and adds it to the given headers. Returns false when the empty line ending the headers has been read.
+	public boolean readHeader(HttpBrowserHeaders headers) throws IOException{
+		nextLine();
+		
+		byte[] bytes = lineBytes;
+		int start = lineStart;
+		int end = lineStart + lineLength;
+		
+		while(end > start && isWhitespace(bytes[end - 1])){
+			end--;
+		}
+		
+		if (end == start){
+			return false;
+		}
+		
+		//Lines starting with whitespace continues the value of the previous header.
+		if (isWhitespace(bytes[start])){
+			while(isWhitespace(bytes[start])){
+				start++;
+			}
+			
+			headers.appendToLast(new String(bytes, start, end - start, StandardCharsets.ISO_8859_1));
+			return true;
+		}
+		
+		int colon = start;
+		while(colon < end && bytes[colon] != ':'){
+			colon++;
+		}
+		
+		int nameEnd = colon;
+		while(nameEnd > start && isWhitespace(bytes[nameEnd - 1])){
+			nameEnd--;
+		}
+		
+		if (colon == end || nameEnd == start){
+			throw new IOException("Could not match header from line: '" + new String(bytes, lineStart, lineLength, StandardCharsets.ISO_8859_1) + "'.");
+		}
+		
+		int valueStart = colon + 1;
+		while(valueStart < end && isWhitespace(bytes[valueStart])){
+			valueStart++;
+		}
+		
+		headers.addLowerCase(HttpBrowserHeaders.parseName(bytes, start, nameEnd - start), HttpBrowserHeaders.parseValue(bytes, valueStart, end - valueStart));
+		return true;
+	}
+	
+	private static boolean isWhitespace(byte ch){
+		return ch == ' ' || ch == '\t';
+	}
+	
+	//Reads the next line and points 'lineBytes', 'lineStart' and 'lineLength' at it without the line-ending. The line is only valid until the next read.
+	private void nextLine() throws IOException{
+		if (pos >= limit){
+			fillOrFail();
+		}
+		
+		//Fast path - the whole line is already in the buffer.
+		for(int i = pos; i < limit; i++){
+			if (buffer[i] == '\n'){
+				setLine(buffer, pos, i - pos);
+				pos = i + 1;
+				return;
+			}
+		}
+		
+		//Slow path - collect the line over several reads.
+		int length = 0;
+		
+		while(true){
+			if (pos >= limit){
+				fillOrFail();
+			}
+			
+			int start = pos;
+			while(pos < limit && buffer[pos] != '\n'){
+				pos++;
+			}
+			
+			int len = pos - start;
+			if (length + len > lineBuffer.length){
+				byte[] newLineBuffer = new byte[Math.max(lineBuffer.length * 2, length + len)];
+				System.arraycopy(lineBuffer, 0, newLineBuffer, 0, length);
+				lineBuffer = newLineBuffer;
+			}
+			
+			System.arraycopy(buffer, start, lineBuffer, length, len);
+			length += len;
+			
+			if (pos < limit){
+				pos++;
+				setLine(lineBuffer, 0, length);
+				return;
+			}
+		}
+	}
+	
+	//Points at the given line while stripping the carriage return.
+	private void setLine(byte[] bytes, int offset, int length){
+		if (length > 0 && bytes[offset + length - 1] == '\r'){
+			length -= 1;
+		}
+		
+		lineBytes = bytes;
+		lineStart = offset;
+		lineLength = length;
+	}
+	
+	//Reads the status-line and returns the status-code from it.
+	public int readStatusLine() throws Exception{
+		nextLine();
+		
+		byte[] bytes = lineBytes;
+		int i = lineStart;
+		int end = lineStart + lineLength;
+		
+		if (lineLength < 7 || bytes[i] != 'H' || bytes[i + 1] != 'T' || bytes[i + 2] != 'T' || bytes[i + 3] != 'P' || bytes[i + 4] != '/' || bytes[i + 5] != '1' || bytes[i + 6] != '.'){
+			throw statusLineException();
+		}
+		
+		i += 7;
+		while(i < end && bytes[i] != ' '){
+			i++;
+		}
+		
+		while(i < end && bytes[i] == ' '){
+			i++;
+		}
+		
+		if (i + 3 > end){
+			throw statusLineException();
+		}
+		
+		int statusCode = 0;
+		for(int codeEnd = i + 3; i < codeEnd; i++){
+			int ch = bytes[i];
+			if (ch < '0' || ch > '9'){
+				throw statusLineException();
+			}
+			
+			statusCode = (statusCode * 10) + (ch - '0');
+		}
+		
+		return statusCode;
+	}
+	
+	private Exception statusLineException(){
+		return new Exception("Could not understand the status-line: " + new String(lineBytes, lineStart, lineLength, StandardCharsets.ISO_8859_1));
+	}
+	
+	//Reads a chunk-size-line and returns the size. Chunk-extensions are ignored.
+	public int readChunkSize() throws IOException{
+		int size = 0;
+		int digits = 0;
+		int ch;
+		
+		while(true){
+			ch = readByte();
+			
+			int digit;
+			if (ch >= '0' && ch <= '9'){
+				digit = ch - '0';
+			}else if(ch >= 'a' && ch <= 'f'){
+				digit = ch - 'a' + 10;
+			}else if(ch >= 'A' && ch <= 'F'){
+				digit = ch - 'A' + 10;
+			}else{
+				break;
+			}
+			
+			if (digits >= 7){
+				throw new IOException("Chunk-size is too big.");
+			}
+			
+			size = (size << 4) + digit;
+			digits++;
+		}
+		
+		if (digits == 0){
+			throw new IOException("Expected a chunk-size but got: '" + (char) ch + "'.");
+		}
+		
+		//Skip chunk-extensions and whitespace until the end of the line.
+		while(ch != '\n'){
+			ch = readByte();
+		}
+		
+		return size;
+	}
+	
+	//Reads an empty line and fails if anything else was given.
+	public void readEmptyLine() throws IOException{
+		String line = readLine();
+		if (!line.isEmpty()){
+			throw new IOException("Expected newline: '" + line + "'.");
+		}
+	}
+	
+	//Reads up to the given length into the given byte-array. Returns -1 on EOF.
+	public int read(byte[] dst, int offset, int length) throws IOException{
+		if (length == 0){
+			return 0;
+		}
+		
+		if (pos >= limit){
+			ensureOpen();
+			
+			//Big reads go directly into the destination to avoid copying them through the buffer.
+			if (length >= buffer.length){
+				int len = in.read(dst, offset, length);
+				if (len > 0){
+					bytesRead += len;
+				}
+				
+				return len;
+			}
+			
+			if (!fill()){
+				return -1;
+			}
+		}
+		
+		int len = Math.min(length, limit - pos);
+		System.arraycopy(buffer, pos, dst, offset, len);
+		pos += len;
+		
+		return len;
+	}
+	
+	//Reads exactly the given length into the given byte-array.
+	public void readFully(byte[] dst, int offset, int length) throws IOException{
+		while(length > 0){
+			int len = read(dst, offset, length);
+			if (len == -1){
+				throw new IOException("Socket seems to have closed on us?");
+			}
+			
+			offset += len;
+			length -= len;
+		}
+	}
+	
+	//Reads the given length as a new byte-array.
+	public byte[] readLengthAsByteArray(int length) throws IOException{
+		byte[] bytes = new byte[length];
+		readFully(bytes, 0, length);
+		return bytes;
+	}
+	
+	//Copies exactly the given length from the socket to the given output-stream.
+	public void transferTo(OutputStream out, int length) throws IOException{
+		while(length > 0){
+			if (pos >= limit){
+				fillOrFail();
+			}
+			
+			int len = Math.min(length, limit - pos);
+			out.write(buffer, pos, len);
+			pos += len;
+			length -= len;
+		}
+	}
+}
@@ -4,12 +4,25 @@ import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -68,6 +81,96 @@ public class AppTest extends TestCase
 		}
 	}
 	
+	public void testGetStream() throws Exception{
+		HttpBrowserTestServer server = new HttpBrowserTestServer();
+		HttpBrowser http = new HttpBrowser();
+		http.setHost(server.getHost());
+		http.setPort(server.getPort());
+		http.setEncodingGZIP(true);
+		http.setMaxConnectionsPerHost(1);
+		
+		HttpBrowserResult res = http.getStream("body?size=100000&gzip=1");
+		byte[] body = readAll(res.getBodyInputStream());
+		if (body.length != 100000 || !new String(body).equals(http.get("body?size=100000").getBody())){
+			throw new Exception("Unexpected streamed body of " + body.length + " bytes.");
+		}
+		
+		//Closing a stream before the end drains a small rest, so the connection is reused.
+		HttpBrowserResult res2 = http.getStream("body?size=10000");
+		res2.getBodyInputStream().read(new byte[100]);
+		res2.getBodyInputStream().close();
+		
+		if (!http.get("body?size=10").getBody().equals("The quick ") || server.getConnectionsAccepted() != 1){
+			throw new Exception("Expected the connection to be reused after closing the stream: " + server.getConnectionsAccepted() + " connections.");
+		}
+		
+		//A big rest closes the connection instead, which still gives it back to the pool.
+		HttpBrowserResult res3 = http.getStream("body?size=1000000");
+		res3.getBodyInputStream().read(new byte[100]);
+		res3.getBodyInputStream().close();
+		
+		//Reading a closed body fails instead of looking like the end of it, and so does the reader of a closed connection.
+		try{
+			res3.getBodyInputStream().read(new byte[100]);
+			throw new Exception("Expected reading the closed body to fail.");
+		}catch(IOException e){
+			//Expected.
+		}
+		
+		HttpBrowserSocketReader closedReader = new HttpBrowserSocketReader(new ByteArrayInputStream(new byte[100]));
+		closedReader.release();
+		
+		for(int i = 0; i < 3; i++){
+			try{
+				if (i == 0){
+					closedReader.readByte();
+				}else{
+					closedReader.read(new byte[(i == 1) ? 10 : 100000], 0, (i == 1) ? 10 : 100000);
+				}
+				
+				throw new Exception("Expected read " + i + " of the closed reader to fail.");
+			}catch(IOException e){
+				if (!e.getMessage().equals("The connection has been closed.")){
+					throw e;
+				}
+			}
+		}
+		
+		if (!http.get("body?size=10").getBody().equals("The quick ") || server.getConnectionsAccepted() != 2){
+			throw new Exception("Expected a new connection after closing a big stream: " + server.getConnectionsAccepted() + " connections.");
+		}
+		
+		//A body cut by the host fails the read and the connection is dropped.
+		HttpBrowserResult res4 = http.getStream("body?size=100000&cut=5000");
+		
+		try{
+			readAll(res4.getBodyInputStream());
+			throw new Exception("Expected the cut body to fail.");
+		}catch(IOException e){
+			//Expected.
+		}
+		
+		if (!http.get("body?size=10").getBody().equals("The quick ") || server.getConnectionsAccepted() != 3){
+			throw new Exception("Expected a new connection after the cut body: " + server.getConnectionsAccepted() + " connections.");
+		}
+		
+		http.close();
+		server.close();
+	}
+	
+	private static byte[] readAll(InputStream in) throws Exception{
+		ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int len;
+		
+		while((len = in.read(buf)) != -1){
+			bytesOut.write(buf, 0, len);
+		}
+		
+		in.close();
+		return bytesOut.toByteArray();
+	}
+	
 	public void testPostRequest() throws Exception{
 		System.out.println("Spawning object.");
 		HttpBrowser http = new HttpBrowser();
@@ -108,6 +211,55 @@ public class AppTest extends TestCase
 		}
 	}
 	
+	public void testGetPipelined() throws Exception{
+		HttpBrowserTestServer server = new HttpBrowserTestServer();
+		HttpBrowser http = new HttpBrowser();
+		http.setHost(server.getHost());
+		http.setPort(server.getPort());
+		
+		ArrayList<String> addrs = new ArrayList<String>();
+		for(int i = 1; i <= 12; i++){
+			addrs.add("body?size=" + (i * 10));
+		}
+		
+		//The host closes the connection after answering the first request, so the rest are sent again on a new connection.
+		server.dropRequests(1);
+		checkPipelined(http.getPipelined(addrs.subList(0, 6)), 6);
+		
+		if (server.getConnectionsAccepted() != 2){
+			throw new Exception("Expected the cut pipeline to continue on a second connection: " + server.getConnectionsAccepted() + " connections.");
+		}
+		
+		//The host only answers five requests on each connection, which the first pipeline on a new connection doesnt know about.
+		server.setKeepAliveMax(5);
+		http.close();
+		
+		http = new HttpBrowser();
+		http.setHost(server.getHost());
+		http.setPort(server.getPort());
+		checkPipelined(http.getPipelined(addrs), 12);
+		
+		if (server.getConnectionsAccepted() != 5){
+			throw new Exception("Expected three connections for twelve requests: " + server.getConnectionsAccepted() + " connections.");
+		}
+		
+		http.close();
+		server.close();
+	}
+	
+	//Checks that the results are the bodies of 'body?size=N' with N going up by ten, in order.
+	private void checkPipelined(ArrayList<HttpBrowserResult> results, int count) throws Exception{
+		if (results.size() != count){
+			throw new Exception("Expected " + count + " results but got " + results.size() + ".");
+		}
+		
+		for(int i = 0; i < count; i++){
+			if (results.get(i).getBodyAsByteArray().length != (i + 1) * 10){
+				throw new Exception("Unexpected pipelined result " + i + ": " + results.get(i).getBody());
+			}
+		}
+	}
+	
 	public void testKeepAliveTimeout() throws Exception{
 		HttpBrowser http = new HttpBrowser();
 		http.setHost("partyworm.dk");
@@ -162,73 +314,1677 @@ public class AppTest extends TestCase
 		}
 	}
 	
-	public void testCookies() throws Exception{
+	public void testAsyncRequests() throws Exception{
+		HttpBrowserTestServer server = new HttpBrowserTestServer();
 		HttpBrowser http = new HttpBrowser();
-		http.setHost("www.google.com");
-		http.setDebug(true);
+		http.setHost(server.getHost());
+		http.setPort(server.getPort());
+		http.setEncodingGZIP(true);
 		
-		HttpBrowserResult res = http.get("");
-		HttpBrowserCookie cookie = http.getCookieByName("NID");
-		String cookieValue = cookie.getValue();
+		ArrayList<CompletableFuture<HttpBrowserResult>> futures = new ArrayList<CompletableFuture<HttpBrowserResult>>();
+		for(int i = 1; i <= 10; i++){
+			futures.add(http.getAsync("body?size=" + (i * 1000) + "&gzip=1"));
+		}
+		
+		for(int i = 0; i < futures.size(); i++){
+			HttpBrowserResult res = futures.get(i).get();
+			if (res.getStatusCode() != 200 || res.getBodyAsByteArray().length != (i + 1) * 1000){
+				throw new Exception("Unexpected asynchronous result " + i + ": " + res.getStatusCode());
+			}
+		}
+		
+		HashMap<String, String> postData = new HashMap<String, String>();
+		postData.put("test argument 1", "test wee 1");
+		
+		HttpBrowserResult resPost = http.postAsync("post", postData).get();
+		if (!resPost.getBody().equals(String.valueOf("test+argument+1=test+wee+1".length()))){
+			throw new Exception("Unexpected content when doing an asynchronous post-request: " + resPost.getBody());
+		}
+		
+		//A body cut by the host fails the future instead of giving a short body.
+		try{
+			http.getAsync("body?size=100000&cut=5000").get();
+			throw new Exception("Expected the cut body to fail the future.");
+		}catch(ExecutionException e){
+			if (!(e.getCause() instanceof IOException)){
+				throw e;
+			}
+		}
+		
+		if (http.getAsync("body?size=10").get().getBody().length() != 10){
+			throw new Exception("Expected requests to work after a failed one.");
+		}
+		
+		//Another browser gets its own connections on the shared engine, even with one of the first browser idle.
+		long connections = server.getConnectionsAccepted();
+		HttpBrowser other = new HttpBrowser();
+		other.setHost(server.getHost());
+		other.setPort(server.getPort());
+		
+		if (other.getAsync("body?size=10").get().getBody().length() != 10 || server.getConnectionsAccepted() != connections + 1){
+			throw new Exception("Expected the other browser to open its own connection: " + server.getConnectionsAccepted() + " connections.");
+		}
+		
+		//An idle connection whose keep-alive has run out is not used again, even though the host still has it open.
+		server.setKeepAliveTimeout(1);
+		other.getAsync("body?size=10").get();
+		Thread.sleep(1100);
+		
+		long retried = other.getRetriedRequests();
+		if (other.getAsync("body?size=10").get().getBody().length() != 10 || server.getConnectionsAccepted() != connections + 2 || other.getRetriedRequests() != retried){
+			throw new Exception("Expected a new connection after the keep-alive ran out: " + server.getConnectionsAccepted() + " connections.");
+		}
+		
+		other.close();
+		http.close();
+		server.close();
+		
+		//A host that cannot be reached fails the future too.
+		HttpBrowserTestServer closedServer = new HttpBrowserTestServer();
+		closedServer.close();
+		
+		HttpBrowser closed = new HttpBrowser();
+		closed.setHost(closedServer.getHost());
+		closed.setPort(closedServer.getPort());
+		
+		try{
+			closed.getAsync("body?size=10").get();
+			throw new Exception("Expected the request to the closed server to fail.");
+		}catch(ExecutionException e){
+			if (!(e.getCause() instanceof IOException)){
+				throw e;
+			}
+		}
+		
+		closed.close();
 	}
 	
-	public void testPostMultipart() throws Exception{
-		System.out.println("Spawning object.");
+	public void testGetAll() throws Exception{
+		HttpBrowserTestServer server = new HttpBrowserTestServer();
 		HttpBrowser http = new HttpBrowser();
-		http.setHost("partyworm.dk");
-		http.setPort(80);
-		http.setDebug(false);
+		http.setHost(server.getHost());
+		http.setPort(server.getPort());
 		http.setEncodingGZIP(true);
+		http.setBulkConcurrency(5);
 		
-		System.out.println("Connecting.");
-		http.connect();
+		ArrayList<String> addrs = new ArrayList<String>();
+		for(int i = 1; i <= 20; i++){
+			addrs.add("body?size=" + (i * 1000) + ((i % 2 == 0) ? "&gzip=1" : ""));
+		}
 		
-		System.out.println("Generating request.");
-		File curFile = new File(".");
+		ArrayList<HttpBrowserResult> results = http.getAll(addrs);
+		if (results.size() != addrs.size()){
+			throw new Exception("Expected " + addrs.size() + " results but got " + results.size() + ".");
+		}
 		
+		for(int i = 0; i < results.size(); i++){
+			if (results.get(i).getBodyAsByteArray().length != (i + 1) * 1000){
+				throw new Exception("Unexpected result " + i + ": " + results.get(i).getBodyAsByteArray().length + " bytes.");
+			}
+		}
 		
+		ArrayList<HashMap<String, String>> postDatas = new ArrayList<HashMap<String, String>>();
+		for(int i = 0; i < 5; i++){
+			HashMap<String, String> postData = new HashMap<String, String>();
+			postData.put("value", String.valueOf(i * 1000));
+			postDatas.add(postData);
+		}
 		
+		ArrayList<HttpBrowserResult> postResults = http.postAll("post", postDatas);
+		for(int i = 0; i < postResults.size(); i++){
+			String expected = String.valueOf(("value=" + (i * 1000)).length());
+			if (!postResults.get(i).getBody().equals(expected)){
+				throw new Exception("Unexpected post-result " + i + ": " + postResults.get(i).getBody());
+			}
+		}
 		
-		HttpBrowserRequestPostMultipart req = http.postMultipart();
-		req.setAddress("multipart_test.php");
-		req.addPost("TestArgument1", "This is a test");
+		//Requests whose bodies are cut by the host fail, while the rest are still done.
+		addrs.set(3, "body?size=100000&cut=5000");
+		addrs.set(7, "body?size=100000&cut=5000");
 		
-		System.out.println("Cur path: " + curFile.getCanonicalPath());
+		try{
+			http.getAll(addrs);
+			throw new Exception("Expected the bulk-requests to fail.");
+		}catch(Exception e){
+			if (!e.getMessage().startsWith("Bulk-request 3 (") || !(e.getCause() instanceof IOException)){
+				throw e;
+			}
+		}
 		
-		HttpBrowserRequestPostMultipartFileUpload fu = req.addFileUpload();
-		fu.setPostName("some_file");
-		fu.setFilePath(curFile.getCanonicalPath() + "/src/test/java/org/kaspernj/fw/httpbrowser/TestMultipartPostExampleUploadFile.txt");
-		fu.setContextType("text/plain");
+		ArrayList<HttpBrowserBulkRequest> requests = new ArrayList<HttpBrowserBulkRequest>();
+		for(String addr: addrs){
+			requests.add(HttpBrowserBulkRequest.get(addr));
+		}
 		
-		HttpBrowserResult res = req.execute();
-		if (!res.getBody().contains("{\"TestArgument1\":\"This is a test\"}")){
-			throw new Exception("Unexpected body: " + res.getBody());
-		}else if(!res.getBody().contains(",\"files\":{\"some_file\":{\"name\":\"TestMultipartPostExampleUploadFile.txt\"")){
-			throw new Exception("Unexpected body: " + res.getBody());
+		final AtomicInteger failed = new AtomicInteger();
+		final AtomicInteger succeeded = new AtomicInteger();
+		
+		http.executeAll(requests, new HttpBrowserBulkListener(){
+			public void requestDone(int index, HttpBrowserBulkRequest request, HttpBrowserResult result, Exception exception){
+				if (exception != null && (index == 3 || index == 7)){
+					failed.incrementAndGet();
+				}else if(exception == null && result.getBodyAsByteArray().length == (index + 1) * 1000){
+					succeeded.incrementAndGet();
+				}
+			}
+		});
+		
+		if (failed.get() != 2 || succeeded.get() != 18){
+			throw new Exception("Expected 2 failed and 18 done requests but got " + failed.get() + " and " + succeeded.get() + ".");
 		}
 		
-		System.out.println("Body: " + res.getBody());
+		//The failed connections are replaced.
+		if (http.getAll(addrs.subList(0, 3)).size() != 3){
+			throw new Exception("Expected requests to work after the failed ones.");
+		}
 		
+		http.close();
+		server.close();
+	}
+	
+	public void testCache() throws Exception{
+		HttpBrowserTestServer server = new HttpBrowserTestServer();
+		HttpBrowser http = new HttpBrowser();
+		http.setHost(server.getHost());
+		http.setPort(server.getPort());
 		
-		http.setDebug(false);
+		HttpBrowserCache cache = new HttpBrowserCache(1024 * 1024);
+		http.setCache(cache);
 		
-		HttpBrowserRequestPostMultipart reqJPEG = http.postMultipart();
-		reqJPEG.setAddress("multipart_test.php?choice=file-test");
-		reqJPEG.addPost("TestArgument1", "This is a test");
+		//A fresh result is served from memory.
+		HttpBrowserResult res1 = http.get("body?size=100&maxage=60");
+		HttpBrowserResult res2 = http.get("body?size=100&maxage=60");
 		
-		HttpBrowserRequestPostMultipartFileUpload fuJPEG = reqJPEG.addFileUpload();
-		fuJPEG.setPostName("file");
-		fuJPEG.setFilePath(curFile.getCanonicalPath() + "/src/test/java/org/kaspernj/fw/httpbrowser/TestMultipartPostExampleUploadFile.jpeg");
-		fuJPEG.setContextType("text/plain");
+		if (res1.isFromCache() || !res2.isFromCache() || !res1.getBody().equals(res2.getBody())){
+			throw new Exception("Expected the second result to come from the cache.");
+		}else if(cache.getHits() != 1 || cache.getMisses() != 1 || server.getRequestsHandled() != 1){
+			throw new Exception("Expected one hit and one miss but got " + cache.getHits() + " hits, " + cache.getMisses() + " misses and " + server.getRequestsHandled() + " requests.");
+		}
 		
-		HttpBrowserResult resJPEG = reqJPEG.execute();
-		byte[] bodyBytes = resJPEG.getBodyAsByteArray();
-		byte[] fileBytes = Files.readAllBytes(Paths.get(curFile.getCanonicalPath() + "/src/test/java/org/kaspernj/fw/httpbrowser/TestMultipartPostExampleUploadFile.jpeg"));
+		//Changing a result does not change the cached one.
+		res1.getBodyAsByteArray()[0] = 'X';
+		res2.getBodyAsByteArray()[0] = 'Y';
 		
-		if (bodyBytes.length != fileBytes.length){
-			throw new Exception("The two byte-arrays did not have the same length: " + bodyBytes.length + ", " + fileBytes.length + "\n\n'" + (new String(bodyBytes)) + "'\n\n'" + (new String(fileBytes)) + "'.");
-		}else if(!Arrays.equals(bodyBytes, fileBytes)){
-			throw new Exception("Expected body byte array to be exactly the same as the original file byte array but it wasnt.");
+		if (!http.get("body?size=100&maxage=60").getBody().startsWith("The quick ")){
+			throw new Exception("The cached body was changed through a result.");
+		}
+		
+		//A stale result is revalidated with its ETag and takes the Cache-Control of the 304.
+		HttpBrowserResult stale = http.get("body?size=1000&maxage=0&revalidated=60");
+		HttpBrowserResult revalidated = http.get("body?size=1000&maxage=0&revalidated=60");
+		
+		if (stale.isFromCache() || !revalidated.isFromCache() || cache.getRevalidations() != 1){
+			throw new Exception("Expected the stale result to be revalidated: " + cache.getRevalidations() + " revalidations.");
+		}else if(!revalidated.getBody().equals(stale.getBody()) || revalidated.getStatusCode() != 200){
+			throw new Exception("Expected the cached body with status 200: " + revalidated.getStatusCode());
+		}else if(!"max-age=60".equals(revalidated.getHeader("cache-control")) || !"\"body-1000\"".equals(revalidated.getHeader("etag"))){
+			throw new Exception("Expected the headers of the 304: " + revalidated.getHeaderList());
+		}
+		
+		//The refreshed result is fresh now.
+		long requests = server.getRequestsHandled();
+		HttpBrowserResult hit = http.get("body?size=1000&maxage=0&revalidated=60");
+		
+		if (!hit.isFromCache() || server.getRequestsHandled() != requests || !"max-age=60".equals(hit.getHeader("cache-control"))){
+			throw new Exception("Expected the revalidated result to be fresh.");
+		}
+		
+		http.close();
+		server.close();
+	}
+	
+	@SuppressWarnings("deprecation")
+	public void testSockWrite() throws Exception{
+		HttpBrowserTestServer server = new HttpBrowserTestServer();
+		HttpBrowser http = new HttpBrowser();
+		http.setHost(server.getHost());
+		http.setPort(server.getPort());
+		
+		//Requests written by hand go to one connection until the result is read, which gives it back to the pool.
+		for(int i = 0; i < 3; i++){
+			http.lock.lock();
+			
+			try{
+				http.sockWrite("GET /body?size=" + (10 + i) + " HTTP/1.1\r\n");
+				http.writeHeaders(http.defaultHeaders());
+				http.sockOut.write("\r\n".getBytes());
+				
+				HttpBrowserResult res = http.readResult();
+				if (res.getStatusCode() != 200 || res.getBody().length() != 10 + i){
+					throw new Exception("Unexpected result " + i + ": " + res.getStatusCode() + ", " + res.getBody());
+				}else if(http.sockOut != null){
+					throw new Exception("Expected the connection to be given back after reading the result.");
+				}
+			}finally{
+				http.lock.unlock();
+			}
+		}
+		
+		if (http.get("body?size=5").getBody().length() != 5 || server.getConnectionsAccepted() != 1){
+			throw new Exception("Expected the connection to be reused: " + server.getConnectionsAccepted() + " connections.");
+		}
+		
+		try{
+			http.readResult();
+			throw new Exception("Expected reading without a request to fail.");
+		}catch(IOException e){
+			if (!e.getMessage().contains("sockWrite")){
+				throw e;
+			}
+		}
+		
+		http.close();
+		server.close();
+	}
+	
+	public void testChunkedOutputStream() throws Exception{
+		final AtomicInteger writes = new AtomicInteger();
+		ByteArrayOutputStream bytesOut = new ByteArrayOutputStream(){
+			@Override public synchronized void write(byte[] bytes, int offset, int length){
+				writes.incrementAndGet();
+				super.write(bytes, offset, length);
+			}
+		};
+		
+		byte[] data = new byte[48];
+		for(int i = 0; i < data.length; i++){
+			data[i] = (byte) ('a' + (i % 26));
+		}
+		
+		//A full chunk is only sent when more data comes, and every chunk is sent with one write.
+		HttpBrowserChunkedOutputStream chunked = new HttpBrowserChunkedOutputStream(bytesOut, 16);
+		chunked.write(data, 0, 16);
+		
+		if (bytesOut.size() != 0){
+			throw new Exception("Expected the full chunk to be held until more data comes: " + bytesOut.size() + " bytes.");
+		}
+		
+		chunked.write(data[16]);
+		chunked.write(data, 17, 31);
+		chunked.close();
+		chunked.close();
+		
+		String expected = "10\r\n" + new String(data, 0, 16) + "\r\n" + "10\r\n" + new String(data, 16, 16) + "\r\n" + "10\r\n" + new String(data, 32, 16) + "\r\n" + "0\r\n\r\n";
+		if (!bytesOut.toString().equals(expected)){
+			throw new Exception("Unexpected chunks: '" + bytesOut + "'.");
+		}else if(writes.get() != 4){
+			throw new Exception("Expected a write per chunk but got " + writes.get() + ".");
+		}
+		
+		try{
+			chunked.write(1);
+			throw new Exception("Expected writing to a closed stream to fail.");
+		}catch(IOException e){
+			//Expected.
+		}
+		
+		//Flushing sends the data so far as a chunk, but never an empty chunk, which would end the body. Sizes are written in hex.
+		bytesOut.reset();
+		chunked = new HttpBrowserChunkedOutputStream(bytesOut, 300);
+		chunked.flush();
+		chunked.write(data, 0, 5);
+		chunked.flush();
+		chunked.flush();
+		chunked.write(new byte[300]);
+		chunked.write(new byte[1]);
+		chunked.close();
+		
+		expected = "5\r\n" + new String(data, 0, 5) + "\r\n" + "12c\r\n" + new String(new byte[300]) + "\r\n" + "1\r\n" + new String(new byte[1]) + "\r\n" + "0\r\n\r\n";
+		if (!bytesOut.toString().equals(expected)){
+			throw new Exception("Unexpected flushed chunks: '" + bytesOut + "'.");
+		}
+	}
+	
+	public void testRequestBuffer() throws Exception{
+		HttpBrowserRequestBuffer buf = new HttpBrowserRequestBuffer();
+		buf.writeString("GET /");
+		
+		//A string with a character outside ASCII in the middle is encoded as a whole, after what was written before it.
+		String nonAscii = "\u00c6bler og gr\u00f8d p\u00e5 " + new String(new char[2000]).replace('\0', '\u00f8');
+		buf.writeString(nonAscii);
+		buf.writeHeader("X-Name", "S\u00f8ren");
+		buf.writeCRLF();
+		
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expected.write("GET /".getBytes());
+		expected.write(nonAscii.getBytes());
+		expected.write("X-Name: S\u00f8ren\r\n\r\n".getBytes());
+		
+		if (!Arrays.equals(buf.toByteArray(), expected.toByteArray())){
+			throw new Exception("Unexpected encoding of a string outside ASCII: " + buf);
+		}
+		
+		//Numbers are written in decimal, and negative numbers through a string.
+		buf.reset();
+		long[] numbers = {0, 7, 10, 99, 100, 123456789, Long.MAX_VALUE, -1, -1234, Long.MIN_VALUE};
+		StringBuilder expectedNumbers = new StringBuilder();
+		
+		for(long number: numbers){
+			buf.writeNumber(number);
+			buf.write(',');
+			expectedNumbers.append(number).append(',');
+		}
+		
+		buf.writeHeader("Content-Length", 4096);
+		expectedNumbers.append("Content-Length: 4096\r\n");
+		
+		if (!buf.toString().equals(expectedNumbers.toString()) || buf.size() != expectedNumbers.length()){
+			throw new Exception("Unexpected numbers: '" + buf + "'.");
+		}
+	}
+	
+	public void testHeaders() throws Exception{
+		String head = "Set-Cookie: a=1\r\nSET-COOKIE: b=2\r\nContent-Length:  3 \r\nX-Folded: one\r\n two\r\n\r\n";
+		HttpBrowserSocketReader reader = new HttpBrowserSocketReader(new ByteArrayInputStream(head.getBytes("ISO-8859-1")));
+		HttpBrowserHeaders headers = new HttpBrowserHeaders();
+		
+		while(reader.readHeader(headers)){
+			//Keep reading until the empty line.
+		}
+		
+		if (!headers.getAll("set-cookie").equals(Arrays.asList("a=1", "b=2"))){
+			throw new Exception("Expected both cookies but got: " + headers.getAll("set-cookie"));
+		}else if(!"3".equals(headers.get("Content-Length"))){
+			throw new Exception("Unexpected content-length: '" + headers.get("Content-Length") + "'.");
+		}else if(!"one two".equals(headers.get("x-folded"))){
+			throw new Exception("Unexpected folded header: '" + headers.get("x-folded") + "'.");
+		}
+	}
+	
+	public void testCookieJar() throws Exception{
+		HttpBrowserCookieJar jar = new HttpBrowserCookieJar();
+		jar.add(HttpBrowserCookie.parseFromStr("session=abc; Path=/; HttpOnly"), "www.example.com");
+		jar.add(HttpBrowserCookie.parseFromStr("admin=1; Path=/admin"), "www.example.com");
+		jar.add(HttpBrowserCookie.parseFromStr("shared=2; Domain=.example.com"), "www.example.com");
+		jar.add(HttpBrowserCookie.parseFromStr("other=3; Domain=other.com"), "www.example.com");
+		jar.add(HttpBrowserCookie.parseFromStr("old=4; Expires=Thu, 01-Jan-1970 00:00:01 GMT"), "www.example.com");
+		
+		if (!"session=abc; shared=2".equals(jar.getCookieHeader("www.example.com", "/index.php", false))){
+			throw new Exception("Unexpected cookie-header: " + jar.getCookieHeader("www.example.com", "/index.php", false));
+		}else if(!"admin=1; session=abc; shared=2".equals(jar.getCookieHeader("www.example.com", "/admin/users", false))){
+			throw new Exception("Unexpected cookie-header for admin: " + jar.getCookieHeader("www.example.com", "/admin/users", false));
+		}else if(!"shared=2".equals(jar.getCookieHeader("static.example.com", "/", false))){
+			throw new Exception("Unexpected cookie-header for sub-domain: " + jar.getCookieHeader("static.example.com", "/", false));
+		}
+		
+		jar.add(HttpBrowserCookie.parseFromStr("session=; Max-Age=0"), "www.example.com");
+		if (!"shared=2".equals(jar.getCookieHeader("www.example.com", "/", false))){
+			throw new Exception("The session-cookie should have been removed: " + jar.getCookieHeader("www.example.com", "/", false));
+		}
+		
+		//The jar keeps its own copies, so changing a cookie after adding it or one that was handed out does not change the jar.
+		HttpBrowserCookie added = new HttpBrowserCookie("copied", "1");
+		jar.add(added, "www.copy.com");
+		added.value = "2";
+		jar.getCookieByName("copied").value = "3";
+		jar.getCookies().get(0).path = "/other";
+		
+		if (added.domain != null || !"copied=1".equals(jar.getCookieHeader("www.copy.com", "/", false))){
+			throw new Exception("The stored cookie was changed from the outside: " + jar.getCookieHeader("www.copy.com", "/", false));
+		}
+		
+		//Secure cookies are only sent on secure connections.
+		jar.add(HttpBrowserCookie.parseFromStr("token=5; Secure"), "www.example.com");
+		if (!"shared=2".equals(jar.getCookieHeader("www.example.com", "/", false)) || !"token=5; shared=2".equals(jar.getCookieHeader("www.example.com", "/", true))){
+			throw new Exception("Expected the secure cookie only on secure connections: " + jar.getCookieHeader("www.example.com", "/", true));
+		}
+	}
+	
+	public void testSharedCookieStore() throws Exception{
+		HttpBrowserCookieStore store = new HttpBrowserCookieJar();
+		
+		HttpBrowser http1 = new HttpBrowser();
+		http1.setHost("www.example.com");
+		http1.setCookieStore(store);
+		
+		HttpBrowser http2 = new HttpBrowser();
+		http2.setHost("www.example.com");
+		http2.setCookieStore(store);
+		
+		http1.addCookie(new HttpBrowserCookie("session", "abc"));
+		
+		if (!http2.getCookieByName("session").getValue().equals("abc")){
+			throw new Exception("The second browser should see the cookie added by the first.");
+		}
+		
+		//Cookies can be added before the host is set, if they have a domain.
+		HttpBrowser http3 = new HttpBrowser();
+		HttpBrowserCookie cookie = new HttpBrowserCookie("early", "1");
+		cookie.domain = "www.example.com";
+		http3.setCookieStore(store);
+		http3.addCookie(cookie);
+		
+		if (!"session=abc; early=1".equals(store.getCookieHeader("www.example.com", "/", false))){
+			throw new Exception("Expected the cookie added without a host: " + store.getCookieHeader("www.example.com", "/", false));
+		}
+		
+		try{
+			new HttpBrowser().addCookie(new HttpBrowserCookie("nodomain", "1"));
+			throw new Exception("Expected a cookie without domain and host to be refused.");
+		}catch(IllegalArgumentException e){
+			//Expected.
+		}
+	}
+	
+	public void testKeepAliveMaxReconnects() throws Exception{
+		HttpBrowserTestServer server = new HttpBrowserTestServer();
+		server.setKeepAliveMax(3);
+		
+		HttpBrowser http = new HttpBrowser();
+		http.setHost(server.getHost());
+		http.setPort(server.getPort());
+		
+		//The host closes the connection after every third request, so a new one has to be opened without failing any requests.
+		for(int i = 0; i < 10; i++){
+			if (!http.get("body?size=10").getBody().equals("The quick ")){
+				throw new Exception("Unexpected body for request " + i + ".");
+			}
+		}
+		
+		if (http.getConnectionPool().getConnectionsOpened() != 4){
+			throw new Exception("Expected 4 connections but got " + http.getConnectionPool().getConnectionsOpened() + ".");
+		}
+		
+		http.close();
+		server.close();
+	}
+	
+	public void testConnectionPoolLimit() throws Exception{
+		HttpBrowserTestServer server = new HttpBrowserTestServer();
+		final HttpBrowser http = new HttpBrowser();
+		http.setHost(server.getHost());
+		http.setPort(server.getPort());
+		http.setMaxConnectionsPerHost(1);
+		
+		//A thread waits for the only connection while a streamed result holds it, and gets it when the stream is closed.
+		HttpBrowserResult streamed = http.getStream("body?size=100");
+		final ArrayList<HttpBrowserResult> waited = new ArrayList<HttpBrowserResult>();
+		
+		Thread waiter = new Thread(){
+			public void run(){
+				try{
+					HttpBrowserResult res = http.get("body?size=10");
+					
+					synchronized(waited){
+						waited.add(res);
+					}
+				}catch(Exception e){
+					e.printStackTrace();
+				}
+			}
+		};
+		waiter.start();
+		waiter.join(300);
+		
+		if (!waiter.isAlive()){
+			throw new Exception("Expected the thread to wait for the connection.");
+		}
+		
+		readAll(streamed.getBodyInputStream());
+		waiter.join(10000);
+		
+		if (waiter.isAlive() || waited.size() != 1 || !waited.get(0).getBody().equals("The quick ")){
+			throw new Exception("Expected the waiting thread to get the connection when the stream was read.");
+		}
+		
+		//Many threads share the one connection one request at a time.
+		final AtomicInteger failures = new AtomicInteger();
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		
+		for(int i = 0; i < 8; i++){
+			final int size = 100 + i;
+			
+			Thread thread = new Thread(){
+				public void run(){
+					try{
+						for(int j = 0; j < 5; j++){
+							if (http.get("body?size=" + size).getBody().length() != size){
+								failures.incrementAndGet();
+							}
+						}
+					}catch(Exception e){
+						e.printStackTrace();
+						failures.incrementAndGet();
+					}
+				}
+			};
+			
+			threads.add(thread);
+			thread.start();
+		}
+		
+		for(Thread thread: threads){
+			thread.join(30000);
+			
+			if (thread.isAlive()){
+				throw new Exception("A thread never got the connection.");
+			}
+		}
+		
+		if (failures.get() != 0){
+			throw new Exception(failures.get() + " threads got a wrong result or failed.");
+		}else if(http.getConnectionPool().getConnectionsOpened() != 1 || server.getConnectionsAccepted() != 1){
+			throw new Exception("Expected one connection but got " + http.getConnectionPool().getConnectionsOpened() + ".");
+		}else if(server.getRequestsHandled() != 42){
+			throw new Exception("Expected 42 requests but got " + server.getRequestsHandled() + ".");
 		}
+		
+		http.close();
+		server.close();
+	}
+	
+	public void testTruncatedResults() throws Exception{
+		HttpBrowserTestServer server = new HttpBrowserTestServer();
+		HttpBrowser http = new HttpBrowser();
+		http.setHost(server.getHost());
+		http.setPort(server.getPort());
+		http.setMaxConnectionsPerHost(1);
+		
+		//Bodies cut by the host fail the request and give the only connection back, so the next request doesnt wait for it.
+		String[] addrs = {"body?size=100000&cut=5000", "body?size=100000&cut=5000&chunked=1", "body?size=1000000&cut=2000&gzip=1", "body?size=1000000&cut=2000&gzip=1&chunked=1"};
+		
+		for(String addr: addrs){
+			try{
+				http.get(addr);
+				throw new Exception("Expected the cut body to fail: " + addr);
+			}catch(IOException e){
+				//Expected.
+			}
+			
+			if (http.getConnectionPool().getConnectionsOpen() != 0){
+				throw new Exception("Expected the connection to be given back after: " + addr);
+			}else if(!http.get("body?size=10").getBody().equals("The quick ")){
+				throw new Exception("Unexpected body after: " + addr);
+			}
+		}
+		
+		//The same for streamed bodies read to the end of the connection.
+		HttpBrowserResult streamed = http.getStream("body?size=100000&cut=5000&chunked=1");
+		
+		try{
+			readAll(streamed.getBodyInputStream());
+			throw new Exception("Expected the cut stream to fail.");
+		}catch(IOException e){
+			//Expected.
+		}
+		
+		if (http.getConnectionPool().getConnectionsOpen() != 0){
+			throw new Exception("Expected the connection to be given back after the cut stream.");
+		}
+		
+		http.close();
+		server.close();
+		
+		//A host closing the connection in the middle of the headers fails the request as well.
+		final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		
+		Thread host = new Thread(){
+			public void run(){
+				try{
+					Socket sock = serverSocket.accept();
+					sock.getOutputStream().write("HTTP/1.1 200 OK\r\nContent-Le".getBytes("ISO-8859-1"));
+					sock.close();
+				}catch(IOException e){
+					//ignore.
+				}
+			}
+		};
+		host.start();
+		
+		HttpBrowser httpCut = new HttpBrowser();
+		httpCut.setHost("127.0.0.1");
+		httpCut.setPort(serverSocket.getLocalPort());
+		
+		try{
+			httpCut.get("");
+			throw new Exception("Expected the cut headers to fail.");
+		}catch(IOException e){
+			//Expected.
+		}
+		
+		if (httpCut.getConnectionPool().getConnectionsOpen() != 0){
+			throw new Exception("Expected the connection to be given back after the cut headers.");
+		}
+		
+		host.join();
+		serverSocket.close();
+		httpCut.close();
+	}
+	
+	public void testStaleConnectionRetry() throws Exception{
+		HttpBrowserTestServer server = new HttpBrowserTestServer();
+		
+		HttpBrowser http = new HttpBrowser();
+		http.setHost(server.getHost());
+		http.setPort(server.getPort());
+		http.get("body?size=10");
+		
+		//The host closes the idle connection before its keep-alive timeout, which should be found before the connection is reused.
+		server.closeIdleConnections();
+		Thread.sleep(100);
+		http.get("body?size=10");
+		
+		if (http.getConnectionPool().getStaleConnections() != 1 || http.getRetriedRequests() != 0){
+			throw new Exception("Expected the stale connection to be found before use: " + http.getConnectionPool().getStaleConnections() + ", " + http.getRetriedRequests());
+		}
+		
+		//The host closes the connection while the request is on its way, so the get-request should be sent again on a new connection.
+		server.dropRequests(1);
+		if (!http.get("body?size=10").getBody().equals("The quick ") || http.getRetriedRequests() != 1){
+			throw new Exception("Expected the get-request to be retried: " + http.getRetriedRequests());
+		}
+		
+		//Post-requests are not idempotent and must fail instead.
+		server.dropRequests(1);
+		HashMap<String, String> postData = new HashMap<String, String>();
+		postData.put("test", "1");
+		
+		boolean failed = false;
+		
+		try{
+			http.post("post", postData);
+		}catch(Exception e){
+			failed = true;
+		}
+		
+		if (!failed || http.getRetriedRequests() != 1){
+			throw new Exception("The post-request should have failed without being retried.");
+		}
+		
+		//The asynchronous engine should retry the same way.
+		http.getAsync("body?size=10").get();
+		server.dropRequests(1);
+		if (!http.getAsync("body?size=10").get().getBody().equals("The quick ") || http.getRetriedRequests() != 2){
+			throw new Exception("Expected the asynchronous get-request to be retried: " + http.getRetriedRequests());
+		}
+		
+		http.close();
+		server.close();
+	}
+	
+	public void testCachingResolver() throws Exception{
+		HttpBrowserTestServer server = new HttpBrowserTestServer();
+		server.setKeepAliveMax(1);
+		
+		//The stub gives an address that nothing listens on before the address of the server.
+		final InetAddress[] addresses = new InetAddress[]{InetAddress.getByName("127.0.0.2"), InetAddress.getByName(server.getHost())};
+		final int[] lookups = new int[]{0};
+		
+		HttpBrowserResolver stub = new HttpBrowserResolver(){
+			public InetAddress[] resolve(String host) throws UnknownHostException{
+				if (!host.equals("stub.test")){
+					throw new UnknownHostException(host);
+				}
+				
+				lookups[0] += 1;
+				return addresses;
+			}
+			
+			public void connectFailed(String host, InetAddress address){
+				//ignore.
+			}
+		};
+		
+		HttpBrowserCachingResolver resolver = new HttpBrowserCachingResolver(stub);
+		
+		HttpBrowser http = new HttpBrowser();
+		http.setHost("stub.test");
+		http.setPort(server.getPort());
+		http.setResolver(resolver);
+		
+		//The host closes the connection after every request, but it should only be looked up once and the failed address should be skipped.
+		for(int i = 0; i < 3; i++){
+			if (!http.get("body?size=10").getBody().equals("The quick ")){
+				throw new Exception("Unexpected body for request " + i + ".");
+			}
+		}
+		
+		if (lookups[0] != 1 || resolver.getHits() != 2 || !resolver.resolve("stub.test")[0].equals(addresses[1])){
+			throw new Exception("Expected one lookup and the failed address last: " + lookups[0] + ", " + resolver.getHits());
+		}
+		
+		//A new resolver has not seen the failed address, so the asynchronous engine has to try the next address itself.
+		http.setResolver(new HttpBrowserCachingResolver(stub));
+		if (!http.getAsync("body?size=10").get().getBody().equals("The quick ")){
+			throw new Exception("Unexpected asynchronous body.");
+		}
+		
+		//Looked up every time when the TTL is zero.
+		HttpBrowserCachingResolver uncached = new HttpBrowserCachingResolver(stub);
+		uncached.setTtl(0);
+		uncached.resolve("stub.test");
+		uncached.resolve("stub.test");
+		
+		if (lookups[0] != 4){
+			throw new Exception("Expected the host to be looked up again: " + lookups[0]);
+		}
+		
+		http.close();
+		server.close();
+	}
+	
+	public void testTls() throws Exception{
+		HttpBrowserTestServer server = new HttpBrowserTestServer(0, HttpBrowserTestServer.createSslContext());
+		server.setKeepAliveMax(2);
+		
+		//TLSv1.2 keeps the id of a resumed session, so it can be seen that reconnecting resumes the session.
+		HttpBrowserMetrics metrics = new HttpBrowserMetrics();
+		
+		HttpBrowser http = new HttpBrowser();
+		http.setHost(server.getHost());
+		http.setPort(server.getPort());
+		http.setTls(true);
+		http.setSslContext(HttpBrowserTestServer.createSslContext("TLSv1.2"));
+		http.addMetricsListener(metrics);
+		
+		for(int i = 0; i < 4; i++){
+			HttpBrowserResult res = http.get("body?size=20000&gzip=1");
+			if (res.getBody().length() != 20000){
+				throw new Exception("Unexpected body-length for request " + i + ": " + res.getBody().length());
+			}
+		}
+		
+		if (metrics.getNewConnections() != 2 || metrics.getHandshakeTimes().getCount() != 2){
+			throw new Exception("Expected two handshakes: " + metrics);
+		}
+		
+		HttpBrowserConnection conn = http.checkoutConnection();
+		byte[] sessionId = conn.getTlsSession().getId();
+		
+		if (!conn.isTls() || !"http/1.1".equals(conn.getApplicationProtocol())){
+			throw new Exception("Expected TLS with HTTP/1.1 agreed through ALPN: " + conn.getApplicationProtocol());
+		}
+		
+		http.releaseConnection(conn, false);
+		conn = http.checkoutConnection();
+		
+		if (!Arrays.equals(sessionId, conn.getTlsSession().getId())){
+			throw new Exception("Expected the session to be resumed on the new connection.");
+		}
+		
+		http.releaseConnection(conn, false);
+		
+		//Files are sent through the TLS-socket instead of directly to the channel.
+		HttpBrowserRequestPostMultipart req = http.postMultipart();
+		req.setAddress("upload");
+		
+		HttpBrowserRequestPostMultipartFileUpload fu = req.addFileUpload();
+		fu.setPostName("some_file");
+		fu.setFilePath(new File(".").getCanonicalPath() + "/src/test/java/org/kaspernj/fw/httpbrowser/TestMultipartPostExampleUploadFile.txt");
+		fu.setContextType("text/plain");
+		
+		long fileSize = fu.getFileSize();
+		if (Long.parseLong(req.execute().getBody()) <= fileSize){
+			throw new Exception("Expected the file to be uploaded.");
+		}
+		
+		HttpBrowserResult res = http.getAsync("body?size=70000&chunked=1").get();
+		if (res.getBody().length() != 70000 || res.getMetrics().getHandshakeNanos() <= 0){
+			throw new Exception("Unexpected asynchronous result: " + res.getMetrics());
+		}
+		
+		http.close();
+		server.close();
+	}
+	
+	public void testMetrics() throws Exception{
+		HttpBrowserTestServer server = new HttpBrowserTestServer();
+		HttpBrowserMetrics metrics = new HttpBrowserMetrics();
+		
+		HttpBrowser http = new HttpBrowser();
+		http.setHost(server.getHost());
+		http.setPort(server.getPort());
+		http.addMetricsListener(metrics);
+		
+		HttpBrowserResult res = http.get("body?size=1000");
+		if (!res.getMetrics().isNewConnection() || res.getMetrics().getBodyBytes() != 1000 || res.getMetrics().getWireBytes() <= 1000){
+			throw new Exception("Unexpected metrics for plain result: " + res.getMetrics());
+		}
+		
+		res = http.get("body?size=16384&gzip=1");
+		if (res.getMetrics().isNewConnection() || res.getMetrics().getBodyBytes() != 16384 || res.getMetrics().getWireBytes() >= 16384 || res.getMetrics().getDecompressNanos() <= 0){
+			throw new Exception("Unexpected metrics for compressed result: " + res.getMetrics());
+		}
+		
+		res = http.getStream("body?size=20000&chunked=1");
+		readAll(res.getBodyInputStream());
+		if (res.getMetrics().getBodyBytes() != 20000 || res.getMetrics().getWireBytes() <= 20000){
+			throw new Exception("Unexpected metrics for streamed result: " + res.getMetrics());
+		}
+		
+		http.getAsync("body?size=10").get();
+		
+		if (metrics.getRequests() != 4 || metrics.getNewConnections() != 2 || metrics.getReusedConnections() != 2 || metrics.getFirstByteTimes().getCount() != 4){
+			throw new Exception("Unexpected metrics: " + metrics);
+		}
+		
+		http.close();
+		server.close();
+	}
+	
+	public void testHistogram() throws Exception{
+		HttpBrowserHistogram histogram = new HttpBrowserHistogram();
+		for(int i = 1; i <= 10000; i++){
+			histogram.record(i);
+		}
+		
+		if (Math.abs(histogram.getPercentile(50) - 5000) > 5000 * 0.04){
+			throw new Exception("Unexpected median: " + histogram.getPercentile(50));
+		}else if(Math.abs(histogram.getPercentile(99) - 9900) > 9900 * 0.04){
+			throw new Exception("Unexpected 99th percentile: " + histogram.getPercentile(99));
+		}else if(histogram.getMax() != 10000 || histogram.getPercentile(100) != 10000){
+			throw new Exception("Unexpected max: " + histogram.getMax());
+		}
+		
+		HttpBrowserHistogram moved = histogram.getAndReset();
+		if (moved.getCount() != 10000 || histogram.getCount() != 0){
+			throw new Exception("The values should have been moved to the new histogram.");
+		}
+	}
+	
+	public void testHpack() throws Exception{
+		//The requests of RFC 7541, appendix C.4. Each request uses the dynamic table filled by the ones before it.
+		String[][][] requests = {
+			{{":method", "GET"}, {":scheme", "http"}, {":path", "/"}, {":authority", "www.example.com"}},
+			{{":method", "GET"}, {":scheme", "http"}, {":path", "/"}, {":authority", "www.example.com"}, {"cache-control", "no-cache"}},
+			{{":method", "GET"}, {":scheme", "https"}, {":path", "/index.html"}, {":authority", "www.example.com"}, {"custom-key", "custom-value"}}
+		};
+		String[] expected = {
+			"828684418cf1e3c2e5f23a6ba0ab90f4ff",
+			"828684be5886a8eb10649cbf",
+			"828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf"
+		};
+		
+		HttpBrowserHpackEncoder encoder = new HttpBrowserHpackEncoder();
+		HttpBrowserHpackDecoder decoder = new HttpBrowserHpackDecoder();
+		
+		for(int i = 0; i < requests.length; i++){
+			HttpBrowserRequestBuffer block = new HttpBrowserRequestBuffer();
+			encoder.encode(Arrays.asList(requests[i]), block);
+			
+			StringBuilder hex = new StringBuilder();
+			for(byte b: block.toByteArray()){
+				hex.append(String.format("%02x", b));
+			}
+			
+			if (!hex.toString().equals(expected[i])){
+				throw new Exception("Unexpected header-block for request " + i + ": " + hex);
+			}
+			
+			ArrayList<String[]> headers = new ArrayList<String[]>();
+			decoder.decode(block.toByteArray(), 0, block.size(), headers);
+			
+			if (!Arrays.deepEquals(requests[i], headers.toArray())){
+				throw new Exception("Unexpected decoded headers for request " + i + ": " + Arrays.deepToString(headers.toArray()));
+			}
+		}
+		
+		//A value with all octets survives Huffman-coding.
+		char[] chars = new char[256];
+		for(int i = 0; i < chars.length; i++){
+			chars[i] = (char) i;
+		}
+		
+		String value = new String(chars) + "aaaaaaaaaaaaaaaaaaaaaaaa";
+		HttpBrowserRequestBuffer block = new HttpBrowserRequestBuffer();
+		encoder.encode(Arrays.asList(new String[][]{{"x-all", value}}), block);
+		
+		ArrayList<String[]> headers = new ArrayList<String[]>();
+		decoder.decode(block.toByteArray(), 0, block.size(), headers);
+		
+		if (!headers.get(0)[1].equals(value)){
+			throw new Exception("The value was not decoded as it was encoded.");
+		}
+	}
+	
+	public void testHttp2() throws Exception{
+		HttpBrowserTestServer server = new HttpBrowserTestServer();
+		server.setKeepAliveMax(50);
+		HttpBrowserMetrics metrics = new HttpBrowserMetrics();
+		
+		HttpBrowser http = new HttpBrowser();
+		http.setHost(server.getHost());
+		http.setPort(server.getPort());
+		http.setHttp2(true);
+		http.addMetricsListener(metrics);
+		
+		//The host sends GOAWAY after 50 streams, so the streams after those are refused and sent again on new connections. At least the 50 streams that was sent after those on the first connection are retried - how many more depends on how many streams the next connection had started when its GOAWAY arrived.
+		ArrayList<String> addrs = new ArrayList<String>();
+		for(int i = 0; i < 120; i++){
+			addrs.add("body?size=" + (i * 1000) + ((i % 3 == 0) ? "&gzip=1" : ""));
+		}
+		
+		ArrayList<HttpBrowserResult> results = http.getPipelined(addrs);
+		for(int i = 0; i < results.size(); i++){
+			if (results.get(i).getBody().length() != i * 1000){
+				throw new Exception("Unexpected body-length for stream " + i + ": " + results.get(i).getBody().length());
+			}
+		}
+		
+		if (server.getConnectionsAccepted() != 3 || http.getRetriedRequests() < 50 || metrics.getNewConnections() != 3 || metrics.getRequests() != 120){
+			throw new Exception("Expected 120 streams on 3 connections: " + server.getConnectionsAccepted() + " connections, " + http.getRetriedRequests() + " retried, " + metrics);
+		}
+		
+		server.setKeepAliveMax(1000);
+		http.connect();
+		
+		//Bodies bigger than the windows depend on window-updates in both directions.
+		HttpBrowserResult res = http.get("body?size=3000000");
+		if (res.getBody().length() != 3000000){
+			throw new Exception("Unexpected body-length: " + res.getBody().length());
+		}
+		
+		res = http.postStream("upload", "application/octet-stream", new HttpBrowserRequestBodyWriter(){
+			public void writeBody(OutputStream out) throws IOException{
+				byte[] data = new byte[10000];
+				for(int i = 0; i < 100; i++){
+					out.write(data);
+				}
+			}
+		});
+		
+		if (!res.getBody().equals("1000000")){
+			throw new Exception("Expected the host to get the whole body: " + res.getBody());
+		}
+		
+		HashMap<String, String> postData = new HashMap<String, String>();
+		postData.put("name", "value");
+		
+		if (!http.post("upload", postData).getBody().equals("10")){
+			throw new Exception("Unexpected result of the post.");
+		}
+		
+		ArrayList<CompletableFuture<HttpBrowserResult>> futures = new ArrayList<CompletableFuture<HttpBrowserResult>>();
+		for(int i = 0; i < 50; i++){
+			futures.add(http.getAsync("body?size=" + (i * 100)));
+		}
+		
+		for(int i = 0; i < futures.size(); i++){
+			if (futures.get(i).get().getBody().length() != i * 100){
+				throw new Exception("Unexpected asynchronous result " + i + ".");
+			}
+		}
+		
+		HttpBrowserRequestPostMultipart req = http.postMultipart();
+		req.setAddress("upload");
+		req.addPost("name", "value");
+		
+		if (Long.parseLong(req.execute().getBody()) <= 5){
+			throw new Exception("Expected the multipart-post to be sent.");
+		}
+		
+		if (server.getConnectionsAccepted() != 4 || http.getHttp2Connection().getStreamsStarted() != 54){
+			throw new Exception("Expected the requests to be streams on one connection: " + server.getConnectionsAccepted() + " connections, " + http.getHttp2Connection().getStreamsStarted() + " streams.");
+		}
+		
+		//Files are streamed to the host instead of being collected in memory first.
+		File file = File.createTempFile("httpbrowser-upload", ".bin");
+		file.deleteOnExit();
+		Files.write(file.toPath(), new byte[300000]);
+		
+		req = http.postMultipart();
+		req.setAddress("upload");
+		HttpBrowserRequestPostMultipartFileUpload upload = req.addFileUpload();
+		upload.setPostName("file");
+		upload.setFileName("upload.bin");
+		upload.setFilePath(file.getPath());
+		
+		long received = Long.parseLong(req.execute().getBody());
+		if (received < 300000 || received > 301000){
+			throw new Exception("Expected the file to be sent: " + received + " bytes.");
+		}
+		
+		//Streams with a body that could not be written are cancelled, so they dont hold on to the slots of the connection.
+		HttpBrowserRequestBodyWriter failingWriter = new HttpBrowserRequestBodyWriter(){
+			public void writeBody(OutputStream out) throws IOException{
+				out.write(new byte[1000]);
+				throw new IOException("The writer failed.");
+			}
+		};
+		
+		for(int i = 0; i < 110; i++){
+			try{
+				http.postStream("upload", "application/octet-stream", failingWriter);
+				throw new Exception("Expected the post to fail.");
+			}catch(IOException e){
+				if (!e.getMessage().equals("The writer failed.")){
+					throw e;
+				}
+			}
+		}
+		
+		if (http.getHttp2Connection().getActiveStreams() != 0 || http.get("body?size=10").getBody().length() != 10){
+			throw new Exception("Expected the failed streams to be cancelled: " + http.getHttp2Connection().getActiveStreams() + " active streams.");
+		}
+		
+		http.close();
+		server.close();
+	}
+	
+	public void testGzipSplitReads() throws Exception{
+		HttpBrowserTestServer server = new HttpBrowserTestServer();
+		HttpBrowser http = new HttpBrowser();
+		http.setHost(server.getHost());
+		http.setPort(server.getPort());
+		
+		String plain = http.get("body?size=20000").getBody();
+		
+		//The GZIP-header, the deflate-blocks and the trailer arrive a few bytes at a time and are inflated as they come.
+		String[] addrs = {"body?size=20000&gzip=1&split=5", "body?size=20000&gzip=1&chunked=1&split=3"};
+		for(String addr: addrs){
+			if (!http.get(addr).getBody().equals(plain)){
+				throw new Exception("Unexpected body for: " + addr);
+			}
+		}
+		
+		HttpBrowserResult streamed = http.getStream("body?size=20000&gzip=1&split=7");
+		InputStream in = streamed.getBodyInputStream();
+		ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+		byte[] buf = new byte[13];
+		int len;
+		
+		while((len = in.read(buf)) != -1){
+			bytesOut.write(buf, 0, len);
+		}
+		
+		if (!bytesOut.toString("ISO-8859-1").equals(plain)){
+			throw new Exception("Unexpected streamed body.");
+		}
+		
+		//The trailers are read to the end, so the connection is reused.
+		http.get("body?size=10");
+		
+		if (server.getConnectionsAccepted() != 1 || http.getRetriedRequests() != 0){
+			throw new Exception("Expected the connection to be reused: " + server.getConnectionsAccepted() + " connections.");
+		}
+		
+		http.close();
+		server.close();
+	}
+	
+	public void testContentDecoders() throws Exception{
+		HttpBrowserTestServer server = new HttpBrowserTestServer();
+		
+		HttpBrowser http = new HttpBrowser();
+		http.setHost(server.getHost());
+		http.setPort(server.getPort());
+		
+		if (!http.getAcceptEncoding().equals("gzip, deflate;q=0.9")){
+			throw new Exception("Unexpected Accept-Encoding: " + http.getAcceptEncoding());
+		}
+		
+		HttpBrowserMetrics metrics = new HttpBrowserMetrics();
+		http.addMetricsListener(metrics);
+		
+		//Deflate-bodies are decoded both with and without the zlib-wrapper.
+		String[] addrs = {"body?size=100000&deflate=1", "body?size=100000&deflate=1&chunked=1", "body?size=100000&deflate=raw&chunked=1", "body?size=100000&gzip=1&chunked=1", "body?size=100000&encoding=identity"};
+		for(String addr: addrs){
+			if (http.get(addr).getBody().length() != 100000){
+				throw new Exception("Unexpected body-length for: " + addr);
+			}
+		}
+		
+		HttpBrowserResult streamed = http.getStream("body?size=50000&deflate=1");
+		if (readAll(streamed.getBodyInputStream()).length != 50000){
+			throw new Exception("Unexpected length of streamed deflate-body.");
+		}
+		
+		//Decoded bodies are read to the end, so the connection is reused without being closed or retried. The streamed body gives back its connection at the end without being closed.
+		http.get("body?size=1000&deflate=1&chunked=1");
+		
+		if (metrics.getNewConnections() != 1 || metrics.getReusedConnections() != addrs.length + 1 || http.getRetriedRequests() != 0){
+			throw new Exception("Expected decoded results to keep the connection: " + metrics.getNewConnections() + " new, " + metrics.getReusedConnections() + " reused, " + http.getRetriedRequests() + " retried.");
+		}
+		
+		//Decoders are made once per connection and reused for the following results.
+		final AtomicInteger decodersMade = new AtomicInteger();
+		http.addContentDecoder(new HttpBrowserContentDecoderFactory(){
+			public String getEncoding(){
+				return "x-test";
+			}
+			
+			public HttpBrowserContentDecoder newDecoder(){
+				decodersMade.incrementAndGet();
+				
+				return new HttpBrowserContentDecoder(){
+					public InputStream decode(InputStream body){
+						return body;
+					}
+					
+					public void close(){
+						//nothing to free.
+					}
+				};
+			}
+		});
+		
+		if (!http.getAcceptEncoding().equals("gzip, deflate;q=0.9, x-test;q=0.8")){
+			throw new Exception("Unexpected Accept-Encoding with custom decoder: " + http.getAcceptEncoding());
+		}
+		
+		for(int i = 0; i < 5; i++){
+			if (http.get("body?size=1000&encoding=x-test").getBody().length() != 1000){
+				throw new Exception("Unexpected body from custom decoder.");
+			}
+		}
+		
+		if (decodersMade.get() != 1){
+			throw new Exception("Expected one decoder for the connection but got: " + decodersMade.get());
+		}
+		
+		//Codings without a decoder are given as they were received.
+		HttpBrowserResult unknown = http.get("body?size=1000&encoding=x-unknown");
+		if (unknown.getBody().length() != 1000 || !unknown.contentEncoding.equals("x-unknown")){
+			throw new Exception("Expected the body to be given as received.");
+		}
+		
+		http.setEncodingGZIP(false);
+		if (!http.getAcceptEncoding().equals("deflate, x-test;q=0.9")){
+			throw new Exception("Unexpected Accept-Encoding without GZIP: " + http.getAcceptEncoding());
+		}
+		
+		http.close();
+		server.close();
+		
+		//Members following each other are inflated as one body, and data after the last member that isnt another member ends the body like in GZIPInputStream.
+		ByteArrayOutputStream member = new ByteArrayOutputStream();
+		java.util.zip.GZIPOutputStream gzip = new java.util.zip.GZIPOutputStream(member);
+		gzip.write("The quick brown fox".getBytes("ISO-8859-1"));
+		gzip.close();
+		
+		ByteArrayOutputStream members = new ByteArrayOutputStream();
+		members.write(member.toByteArray());
+		members.write(member.toByteArray());
+		
+		ByteArrayOutputStream padded = new ByteArrayOutputStream();
+		padded.write(member.toByteArray());
+		padded.write(new byte[3000]);
+		
+		byte[][] inputs = {members.toByteArray(), padded.toByteArray()};
+		String[] expected = {"The quick brown foxThe quick brown fox", "The quick brown fox"};
+		
+		for(int i = 0; i < inputs.length; i++){
+			ByteArrayInputStream bytesIn = new ByteArrayInputStream(inputs[i]);
+			HttpBrowserGZIPInputStream in = new HttpBrowserGZIPInputStream(bytesIn, new java.util.zip.Inflater(true), new byte[1024]);
+			String inflated = new String(readAll(in), "ISO-8859-1");
+			
+			if (!inflated.equals(expected[i])){
+				throw new Exception("Unexpected GZIP-body " + i + ": '" + inflated + "'.");
+			}else if(bytesIn.available() != 0){
+				throw new Exception("Expected the rest of GZIP-body " + i + " to be read.");
+			}
+		}
+	}
+	
+	public void testRequestCompression() throws Exception{
+		HttpBrowserTestServer server = new HttpBrowserTestServer();
+		
+		HttpBrowser http = new HttpBrowser();
+		http.setHost(server.getHost());
+		http.setPort(server.getPort());
+		http.setRequestCompression(true);
+		http.setRequestCompressionMinSize(1000);
+		
+		//The host answers with the size of the inflated body, while the bytes on the wire are counted by the host.
+		StringBuilder text = new StringBuilder();
+		while(text.length() < 50000){
+			text.append("thequickbrownfoxjumpsoverthelazydog");
+		}
+		
+		HashMap<String, String> postData = new HashMap<String, String>();
+		postData.put("text", text.toString());
+		
+		if (!http.post("upload", postData).getBody().equals(String.valueOf(5 + text.length())) || server.getRequestBodyBytes() > text.length() / 10){
+			throw new Exception("Expected a compressed post: " + server.getRequestBodyBytes() + " bytes on the wire.");
+		}
+		
+		//Bodies smaller than the minimum size are sent as they are, also when streamed.
+		long wireBytes = server.getRequestBodyBytes();
+		postData.put("text", "small");
+		
+		if (!http.post("upload", postData).getBody().equals("10") || server.getRequestBodyBytes() != wireBytes + 10){
+			throw new Exception("Expected the small post to be sent uncompressed.");
+		}
+		
+		HttpBrowserRequestBodyWriter smallWriter = new HttpBrowserRequestBodyWriter(){
+			public void writeBody(OutputStream out) throws IOException{
+				out.write(new byte[500]);
+			}
+		};
+		
+		HttpBrowserRequestBodyWriter bigWriter = new HttpBrowserRequestBodyWriter(){
+			public void writeBody(OutputStream out) throws IOException{
+				byte[] data = new byte[10000];
+				for(int i = 0; i < 100; i++){
+					out.write(data);
+				}
+			}
+		};
+		
+		wireBytes = server.getRequestBodyBytes();
+		if (!http.postStream("upload", "application/octet-stream", smallWriter).getBody().equals("500") || server.getRequestBodyBytes() != wireBytes + 500){
+			throw new Exception("Expected the small streamed body to be sent uncompressed.");
+		}
+		
+		wireBytes = server.getRequestBodyBytes();
+		if (!http.postStream("upload", "application/octet-stream", bigWriter).getBody().equals("1000000") || server.getRequestBodyBytes() - wireBytes > 10000){
+			throw new Exception("Expected a compressed streamed body: " + (server.getRequestBodyBytes() - wireBytes) + " bytes on the wire.");
+		}
+		
+		//Bodies written a byte at a time are held back and compressed the same way.
+		HttpBrowserRequestBodyWriter byteWriter = new HttpBrowserRequestBodyWriter(){
+			public void writeBody(OutputStream out) throws IOException{
+				for(int i = 0; i < 30000; i++){
+					out.write('a' + (i % 26));
+				}
+			}
+		};
+		
+		wireBytes = server.getRequestBodyBytes();
+		if (!http.postStream("upload", "application/octet-stream", byteWriter).getBody().equals("30000") || server.getRequestBodyBytes() - wireBytes > 3000){
+			throw new Exception("Expected a compressed body written by bytes: " + (server.getRequestBodyBytes() - wireBytes) + " bytes on the wire.");
+		}
+		
+		//A failing body-writer gives the buffers of the body back, whether the body was compressed yet or not.
+		HttpBrowserRequestBodyWriter failingWriter = new HttpBrowserRequestBodyWriter(){
+			public void writeBody(OutputStream out) throws IOException{
+				out.write(new byte[20000]);
+				throw new IOException("The writer failed.");
+			}
+		};
+		
+		long inUseBytes = HttpBrowserBufferPool.getDefault().getInUseBytes();
+		
+		for(int i = 0; i < 2; i++){
+			http.setRequestCompression(i == 1);
+			
+			try{
+				http.postStream("upload", "application/octet-stream", failingWriter);
+				throw new Exception("Expected the failing body-writer to fail the request.");
+			}catch(IOException e){
+				if (!e.getMessage().equals("The writer failed.")){
+					throw e;
+				}
+			}
+			
+			//The connection was dropped, so a new one with its own buffers takes its place.
+			http.postStream("upload", "application/octet-stream", smallWriter);
+		}
+		
+		if (HttpBrowserBufferPool.getDefault().getInUseBytes() != inUseBytes){
+			throw new Exception("Expected the buffers of the failed bodies to be given back: " + (HttpBrowserBufferPool.getDefault().getInUseBytes() - inUseBytes) + " bytes still in use.");
+		}
+		
+		//Files that are already compressed are sent as stored blocks inside the compressed body, which must give the host the same body as an uncompressed upload.
+		File textFile = File.createTempFile("httpbrowser", ".txt");
+		File imageFile = File.createTempFile("httpbrowser", ".jpg");
+		textFile.deleteOnExit();
+		imageFile.deleteOnExit();
+		
+		Files.write(textFile.toPath(), text.toString().getBytes());
+		byte[] image = new byte[100000];
+		new java.util.Random(1).nextBytes(image);
+		Files.write(imageFile.toPath(), image);
+		
+		String[] multipartResults = new String[3];
+		for(int i = 0; i < 3; i++){
+			http.setRequestCompression(i > 0);
+			http.setHttp2(i == 2);
+			
+			HttpBrowserRequestPostMultipart req = http.postMultipart();
+			req.setAddress("upload");
+			req.addPost("name", "value");
+			
+			HttpBrowserRequestPostMultipartFileUpload textUpload = req.addFileUpload();
+			textUpload.setPostName("text");
+			textUpload.setFilePath(textFile.getPath());
+			
+			HttpBrowserRequestPostMultipartFileUpload imageUpload = req.addFileUpload();
+			imageUpload.setPostName("image");
+			imageUpload.setFilePath(imageFile.getPath());
+			
+			wireBytes = server.getRequestBodyBytes();
+			multipartResults[i] = req.execute().getBody();
+			
+			if (i > 0 && server.getRequestBodyBytes() - wireBytes > image.length + 5000){
+				throw new Exception("Expected the text-file to be compressed: " + (server.getRequestBodyBytes() - wireBytes) + " bytes on the wire.");
+			}
+		}
+		
+		if (!multipartResults[0].equals(multipartResults[1]) || !multipartResults[0].equals(multipartResults[2])){
+			throw new Exception("Expected the same body from compressed uploads: " + Arrays.toString(multipartResults));
+		}
+		
+		if (!http.postStream("upload", "application/octet-stream", bigWriter).getBody().equals("1000000")){
+			throw new Exception("Expected a compressed streamed body on HTTP/2.");
+		}
+		
+		http.close();
+		server.close();
+	}
+	
+	public void testBufferPool() throws Exception{
+		HttpBrowserBufferPool pool = new HttpBrowserBufferPool(1024 * 1024);
+		
+		//Sizes are rounded up to the next class and released buffers are handed out again.
+		byte[] buffer = pool.acquire(5000);
+		if (buffer.length != 8192 || pool.acquire(1).length != 4096){
+			throw new Exception("Expected buffers of the size-classes: " + buffer.length);
+		}
+		
+		pool.release(buffer);
+		if (pool.acquire(8000) != buffer || pool.getAllocated() != 2){
+			throw new Exception("Expected the released buffer to be handed out again: " + pool);
+		}
+		
+		//Buffers bigger than the biggest class and arrays not made by the pool are not pooled.
+		byte[] big = pool.acquire(pool.getMaxBufferSize() + 1);
+		pool.release(big);
+		pool.release(new byte[5000]);
+		
+		if (big.length != pool.getMaxBufferSize() + 1 || pool.acquire(5000).length != 8192 || pool.getUnpooledBytes() != big.length){
+			throw new Exception("Expected big and foreign arrays to be left out of the pool: " + pool);
+		}
+		
+		ByteBuffer direct = pool.acquireDirect(17000);
+		if (!direct.isDirect() || direct.capacity() != 32768 || direct.limit() != 17000){
+			throw new Exception("Unexpected direct buffer: " + direct);
+		}
+		
+		pool.releaseDirect(direct);
+		if (pool.acquireDirect(20000) != direct){
+			throw new Exception("Expected the direct buffer to be handed out again.");
+		}
+		
+		//Streams bigger than the biggest class are collected in pooled buffers of that class.
+		byte[] data = new byte[200000];
+		new java.util.Random(1).nextBytes(data);
+		long unpooledBytes = pool.getUnpooledBytes();
+		long inUseBytes = pool.getInUseBytes();
+		
+		if (!Arrays.equals(pool.readAll(new ByteArrayInputStream(data)), data)){
+			throw new Exception("Expected 'readAll' to read the whole stream.");
+		}else if(pool.getUnpooledBytes() != unpooledBytes || pool.getInUseBytes() != inUseBytes){
+			throw new Exception("Expected 'readAll' to only use pooled buffers and release them: " + pool);
+		}
+		
+		byte[] exact = Arrays.copyOf(data, pool.getMaxBufferSize() * 2);
+		if (!Arrays.equals(pool.readAll(new ByteArrayInputStream(exact)), exact)){
+			throw new Exception("Expected 'readAll' to read a stream filling its buffers exactly.");
+		}
+		
+		//Once warmed up, requests on a kept-alive connection take all their buffers from the pool.
+		HttpBrowserTestServer server = new HttpBrowserTestServer();
+		HttpBrowser http = new HttpBrowser();
+		http.setHost(server.getHost());
+		http.setPort(server.getPort());
+		
+		for(int i = 0; i < 3; i++){
+			http.get("body?size=20000&gzip=1").getBody();
+			http.get("body?size=30000").getBody();
+		}
+		
+		HttpBrowserBufferPool defaultPool = HttpBrowserBufferPool.getDefault();
+		long allocated = defaultPool.getAllocated();
+		
+		for(int i = 0; i < 50; i++){
+			if (http.get("body?size=20000&gzip=1").getBody().length() != 20000 || http.get("body?size=30000").getBody().length() != 30000){
+				throw new Exception("Unexpected body.");
+			}
+		}
+		
+		if (defaultPool.getAllocated() != allocated){
+			throw new Exception("Expected no buffers to be allocated in steady state: " + defaultPool);
+		}
+		
+		//Bulk-requests run on threads made for the task when virtual threads are there, which must give their buffers back to the shared stacks.
+		ArrayList<String> addrs = new ArrayList<String>();
+		for(int i = 0; i < 20; i++){
+			addrs.add("body?size=20000&gzip=1");
+		}
+		
+		//One request at a time on a kept connection, so the same buffers are needed in every round, while the tasks still run on new or changing threads.
+		server.setKeepAliveMax(1000);
+		http.setBulkConcurrency(1);
+		
+		for(int i = 0; i < 3; i++){
+			http.getAll(addrs);
+		}
+		
+		allocated = defaultPool.getAllocated();
+		
+		for(int i = 0; i < 10; i++){
+			for(HttpBrowserResult res: http.getAll(addrs)){
+				if (res.getBody().length() != 20000){
+					throw new Exception("Unexpected body.");
+				}
+			}
+		}
+		
+		if (defaultPool.getAllocated() != allocated){
+			throw new Exception("Expected no buffers to be allocated by bulk-requests in steady state: " + defaultPool);
+		}
+		
+		http.close();
+		server.close();
+	}
+	
+	public void testDownload() throws Exception{
+		HttpBrowserTestServer server = new HttpBrowserTestServer();
+		HttpBrowser http = new HttpBrowser();
+		http.setHost(server.getHost());
+		http.setPort(server.getPort());
+		
+		File file = File.createTempFile("httpbrowser-download", ".txt");
+		file.deleteOnExit();
+		byte[] expected = http.get("body?size=300000").getBodyAsByteArray();
+		
+		HttpBrowserResult res = http.download("body?size=300000", file.getPath());
+		if (res.getStatusCode() != 200 || !Arrays.equals(Files.readAllBytes(file.toPath()), expected)){
+			throw new Exception("Expected the body in the file.");
+		}
+		
+		//A dropped connection is resumed from the bytes in the file. The result is the one of the whole body and not of the last part.
+		res = http.download("body?size=300000&cut=100000", file.getPath());
+		if (!Arrays.equals(Files.readAllBytes(file.toPath()), expected) || server.getRangeRequests() != 1){
+			throw new Exception("Expected the download to be resumed: " + server.getRangeRequests() + " range-requests.");
+		}else if(res.getStatusCode() != 200 || res.contentLength != 300000 || res.getHeader("content-range") != null){
+			throw new Exception("Expected the status and headers of the first result: " + res.getStatusCode() + " " + res.getHeaderList());
+		}
+		
+		res = http.download("body?size=300000&cut=100000&chunked=1", file.getPath());
+		if (!Arrays.equals(Files.readAllBytes(file.toPath()), expected) || server.getRangeRequests() != 2){
+			throw new Exception("Expected the chunked download to be resumed.");
+		}else if(res.getStatusCode() != 200 || !"chunked".equals(res.getHeader("transfer-encoding"))){
+			throw new Exception("Expected the status and headers of the first chunked result: " + res.getStatusCode() + " " + res.getHeaderList());
+		}
+		
+		//Compressed bodies are written decoded.
+		http.download("body?size=300000&gzip=1", file.getPath());
+		if (!Arrays.equals(Files.readAllBytes(file.toPath()), expected)){
+			throw new Exception("Expected the decoded body in the file.");
+		}
+		
+		//A body that changed on the host while resuming fails the download.
+		try{
+			http.download("body?size=300000&cut=100000&changed=1", file.getPath());
+			throw new Exception("Expected the changed download to fail.");
+		}catch(Exception e){
+			if (!e.getMessage().contains("ETag changed")){
+				throw e;
+			}
+		}
+		
+		http.setDownloadResumes(0);
+		
+		try{
+			http.download("body?size=300000&cut=100000", file.getPath());
+			throw new Exception("Expected the download to fail without resumes.");
+		}catch(IOException e){
+			//Expected.
+		}
+		
+		http.close();
+		server.close();
+	}
+	
+	public void testResultsWithoutBody() throws Exception{
+		HttpBrowserTestServer server = new HttpBrowserTestServer();
+		HttpBrowser http = new HttpBrowser();
+		http.setHost(server.getHost());
+		http.setPort(server.getPort());
+		
+		//The host gives the Content-Length of the body on results that never have one, which must not be waited for.
+		HashMap<String, String> headers = new HashMap<String, String>();
+		headers.put("If-None-Match", "\"body-1000\"");
+		
+		HttpBrowserResult res = http.getUncached("body?size=1000", headers);
+		if (res.getStatusCode() != 304 || res.getBody().length() != 0 || res.contentLength != 1000){
+			throw new Exception("Expected an empty 304-result: " + res.getStatusCode());
+		}
+		
+		res = http.get("body?size=1000&status=204&gzip=1");
+		if (res.getStatusCode() != 204 || res.getBody().length() != 0){
+			throw new Exception("Expected an empty 204-result: " + res.getStatusCode());
+		}
+		
+		res = http.getStream("body?size=1000&status=304&gzip=1");
+		if (res.getStatusCode() != 304 || readAll(res.getBodyInputStream()).length != 0){
+			throw new Exception("Expected an empty streamed 304-result.");
+		}
+		
+		res = http.getAsync("body?size=1000&status=304").get();
+		if (res.getStatusCode() != 304 || res.getBody().length() != 0){
+			throw new Exception("Expected an empty asynchronous 304-result.");
+		}
+		
+		//The connection is still in sync afterwards.
+		if (!http.get("body?size=10").getBody().equals("The quick ") || server.getConnectionsAccepted() != 2){
+			throw new Exception("Expected the connection to be reused: " + server.getConnectionsAccepted() + " connections.");
+		}
+		
+		http.close();
+		server.close();
+	}
+	
+	public void testCookies() throws Exception{
+		HttpBrowser http = new HttpBrowser();
+		http.setHost("www.google.com");
+		http.setDebug(true);
+		
+		HttpBrowserResult res = http.get("");
+		HttpBrowserCookie cookie = http.getCookieByName("NID");
+		String cookieValue = cookie.getValue();
+	}
+	
+	public void testPostMultipart() throws Exception{
+		System.out.println("Spawning object.");
+		HttpBrowser http = new HttpBrowser();
+		http.setHost("partyworm.dk");
+		http.setPort(80);
+		http.setDebug(false);
+		http.setEncodingGZIP(true);
+		
+		System.out.println("Connecting.");
+		http.connect();
+		
+		System.out.println("Generating request.");
+		File curFile = new File(".");
+		
+		
+		
+		
+		HttpBrowserRequestPostMultipart req = http.postMultipart();
+		req.setAddress("multipart_test.php");
+		req.addPost("TestArgument1", "This is a test");
+		
+		System.out.println("Cur path: " + curFile.getCanonicalPath());
+		
+		HttpBrowserRequestPostMultipartFileUpload fu = req.addFileUpload();
+		fu.setPostName("some_file");
+		fu.setFilePath(curFile.getCanonicalPath() + "/src/test/java/org/kaspernj/fw/httpbrowser/TestMultipartPostExampleUploadFile.txt");
+		fu.setContextType("text/plain");
+		
+		HttpBrowserResult res = req.execute();
+		if (!res.getBody().contains("{\"TestArgument1\":\"This is a test\"}")){
+			throw new Exception("Unexpected body: " + res.getBody());
+		}else if(!res.getBody().contains(",\"files\":{\"some_file\":{\"name\":\"TestMultipartPostExampleUploadFile.txt\"")){
+			throw new Exception("Unexpected body: " + res.getBody());
+		}
+		
+		System.out.println("Body: " + res.getBody());
+		
+		
+		http.setDebug(false);
+		
+		HttpBrowserRequestPostMultipart reqJPEG = http.postMultipart();
+		reqJPEG.setAddress("multipart_test.php?choice=file-test");
+		reqJPEG.addPost("TestArgument1", "This is a test");
+		
+		HttpBrowserRequestPostMultipartFileUpload fuJPEG = reqJPEG.addFileUpload();
+		fuJPEG.setPostName("file");
+		fuJPEG.setFilePath(curFile.getCanonicalPath() + "/src/test/java/org/kaspernj/fw/httpbrowser/TestMultipartPostExampleUploadFile.jpeg");
+		fuJPEG.setContextType("text/plain");
+		
+		HttpBrowserResult resJPEG = reqJPEG.execute();
+		byte[] bodyBytes = resJPEG.getBodyAsByteArray();
+		byte[] fileBytes = Files.readAllBytes(Paths.get(curFile.getCanonicalPath() + "/src/test/java/org/kaspernj/fw/httpbrowser/TestMultipartPostExampleUploadFile.jpeg"));
+		
+		if (bodyBytes.length != fileBytes.length){
+			throw new Exception("The two byte-arrays did not have the same length: " + bodyBytes.length + ", " + fileBytes.length + "\n\n'" + (new String(bodyBytes)) + "'\n\n'" + (new String(fileBytes)) + "'.");
+		}else if(!Arrays.equals(bodyBytes, fileBytes)){
+			throw new Exception("Expected body byte array to be exactly the same as the original file byte array but it wasnt.");
+		}
+	}
+	
+	public void testPostMultipartLoopback() throws Exception{
+		HttpBrowserTestServer server = new HttpBrowserTestServer();
+		HttpBrowser http = new HttpBrowser();
+		http.setHost(server.getHost());
+		http.setPort(server.getPort());
+		http.setRequestCompressionMinSize(0);
+		
+		String dir = new File(".").getCanonicalPath() + "/src/test/java/org/kaspernj/fw/httpbrowser/";
+		byte[] text = Files.readAllBytes(Paths.get(dir + "TestMultipartPostExampleUploadFile.txt"));
+		byte[] image = Files.readAllBytes(Paths.get(dir + "TestMultipartPostExampleUploadFile.jpeg"));
+		
+		//The files are sent with 'transferTo', through the compressor and collected in memory for the asynchronous engine, which must all give the host the same body.
+		for(int i = 0; i < 4; i++){
+			http.setRequestCompression(i % 2 == 1);
+			
+			HttpBrowserRequestPostMultipart req = http.postMultipart();
+			req.setAddress("upload");
+			req.addPost("TestArgument1", "This is a test");
+			
+			HttpBrowserRequestPostMultipartFileUpload textUpload = req.addFileUpload();
+			textUpload.setPostName("some_file");
+			textUpload.setFilePath(dir + "TestMultipartPostExampleUploadFile.txt");
+			
+			HttpBrowserRequestPostMultipartFileUpload imageUpload = req.addFileUpload();
+			imageUpload.setPostName("file");
+			imageUpload.setFilePath(dir + "TestMultipartPostExampleUploadFile.jpeg");
+			
+			HttpBrowserResult res = (i < 2) ? req.execute() : req.executeAsync().get();
+			byte[] received = server.getLastRequestBody();
+			String receivedStr = new String(received, "ISO-8859-1");
+			String boundary = receivedStr.substring(0, Math.max(0, receivedStr.indexOf("\r\n")));
+			
+			ByteArrayOutputStream expected = new ByteArrayOutputStream();
+			expected.write((boundary + "\r\nContent-Disposition: form-data; name=\"TestArgument1\";\r\nContent-Length: 14\r\nContent-Type: text/plain\r\n\r\nThis is a test\r\n").getBytes("ISO-8859-1"));
+			expected.write((boundary + "\r\nContent-Disposition: form-data; name=\"some_file\"; filename=\"TestMultipartPostExampleUploadFile.txt\";\r\nContent-Length: " + text.length + "\r\n\r\n").getBytes("ISO-8859-1"));
+			expected.write(text);
+			expected.write(("\r\n" + boundary + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"TestMultipartPostExampleUploadFile.jpeg\";\r\nContent-Length: " + image.length + "\r\n\r\n").getBytes("ISO-8859-1"));
+			expected.write(image);
+			expected.write(("\r\n" + boundary + "--").getBytes("ISO-8859-1"));
+			
+			if (!boundary.startsWith("--") || !Arrays.equals(received, expected.toByteArray())){
+				throw new Exception("Unexpected multipart-body " + i + " of " + received.length + " bytes: " + receivedStr.substring(0, Math.min(300, receivedStr.length())));
+			}else if(!res.getBody().equals(String.valueOf(received.length))){
+				throw new Exception("Unexpected result " + i + ": " + res.getBody());
+			}
+		}
+		
+		http.close();
+		server.close();
 	}
 }
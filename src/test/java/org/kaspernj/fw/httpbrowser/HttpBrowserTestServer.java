@@ -0,0 +1,622 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+//A small HTTP/1.1-server on the loopback-interface used by benchmarks and load-tests, so they dont depend on hosts on the internet. Connections starting with the HTTP/2-preface are handled by HttpBrowserTestServerHttp2 (h2c with prior knowledge, or h2 through ALPN with TLS).
+//GET /body?size=N gives a body of N bytes. Add 'gzip=1' or 'deflate=1' to compress it ('deflate=raw' leaves out the zlib-wrapper), 'encoding=NAME' to label the plain body with another content-coding and 'chunked=1' to send it chunked. Bodies have an ETag and 'Range: bytes=N-' is answered with the rest of the body. 'cut=N' closes the connection once the body has been sent up to byte N, and 'changed=1' answers ranges with another ETag like a host that replaced the file. 'split=N' sends the body in pieces of N bytes with a short pause between them, so the client gets it over many reads. 'If-None-Match' with the ETag is answered with '304 Not Modified', 'status=N' answers with another status and 'maxage=N' adds a Cache-Control-header. 'revalidated=N' gives the 304 'Cache-Control: max-age=N' instead. Results without a body still give the Content-Length of the body like some hosts do. Any other request is answered with the number of body-bytes received, after inflating bodies sent with 'Content-Encoding: gzip'.
+public class HttpBrowserTestServer {
+	//Self-signed certificate for 'localhost' and '127.0.0.1' used for TLS. Made with:
+	//keytool -genkeypair -alias httpbrowser-test -keyalg EC -groupname secp256r1 -validity 36500 -dname CN=localhost -ext SAN=dns:localhost,ip:127.0.0.1 -keystore httpbrowser-test.p12 -storetype PKCS12 -storepass httpbrowser
+	private static final String KEYSTORE = "/httpbrowser-test.p12";
+	private static final char[] KEYSTORE_PASSWORD = "httpbrowser".toCharArray();
+	
+	
+	private ServerSocket serverSocket;
+	private Thread acceptThread;
+	private volatile boolean running = true;
+	
+	//The keep-alive information sent to the clients. Connections are closed after 'keepAliveMax' requests or when idle for 'keepAliveTimeout' seconds.
+	private volatile int keepAliveMax = 100;
+	private volatile int keepAliveTimeout = 15;
+	
+	private AtomicLong connectionsAccepted = new AtomicLong();
+	private AtomicLong requestsHandled = new AtomicLong();
+	private AtomicLong requestBodyBytes = new AtomicLong();
+	private AtomicLong rangeRequests = new AtomicLong();
+	
+	//The body of the last request on the HTTP/1.1-side, inflated if it was compressed.
+	private volatile byte[] lastRequestBody = new byte[0];
+	
+	//Connections waiting for their next request. Used to close idle connections early like a host would.
+	private Set<Socket> idleSockets = ConcurrentHashMap.newKeySet();
+	
+	//The number of requests on reused connections that will be dropped by closing the connection without answering.
+	private AtomicInteger dropRequests = new AtomicInteger();
+	
+	//Bodies are only built once for each size and encoding.
+	private ConcurrentHashMap<String, byte[]> bodies = new ConcurrentHashMap<String, byte[]>();
+	
+	public HttpBrowserTestServer() throws IOException{
+		this(0);
+	}
+	
+	//Starts the server on the given port. Zero picks a free port.
+	public HttpBrowserTestServer(int port) throws IOException{
+		this(port, null);
+	}
+	
+	//Starts the server on the given port with TLS, if a SSL-context is given. HTTP/2 and HTTP/1.1 are offered through ALPN.
+	public HttpBrowserTestServer(int port, SSLContext sslContext) throws IOException{
+		if (sslContext == null){
+			serverSocket = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+		}else{
+			SSLServerSocket sslServerSocket = (SSLServerSocket) sslContext.getServerSocketFactory().createServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+			SSLParameters params = sslServerSocket.getSSLParameters();
+			params.setApplicationProtocols(new String[]{"h2", "http/1.1"});
+			sslServerSocket.setSSLParameters(params);
+			serverSocket = sslServerSocket;
+		}
+		
+		acceptThread = new Thread(new Runnable(){
+			public void run(){
+				acceptLoop();
+			}
+		}, "HttpBrowserTestServer-accept");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+	
+	//Returns a SSL-context with the self-signed test-certificate as both key and trusted certificate. Give it to the server to enable TLS and to the browsers so they trust the server.
+	public static SSLContext createSslContext() throws Exception{
+		return createSslContext("TLS");
+	}
+	
+	//Like 'createSslContext' but for the given protocol, like 'TLSv1.2' where a resumed session keeps its id, so resumption is easy to see.
+	public static SSLContext createSslContext(String protocol) throws Exception{
+		KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		InputStream in = HttpBrowserTestServer.class.getResourceAsStream(KEYSTORE);
+		
+		try{
+			keyStore.load(in, KEYSTORE_PASSWORD);
+		}finally{
+			in.close();
+		}
+		
+		KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagers.init(keyStore, KEYSTORE_PASSWORD);
+		
+		TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trustManagers.init(keyStore);
+		
+		SSLContext sslContext = SSLContext.getInstance(protocol);
+		sslContext.init(keyManagers.getKeyManagers(), trustManagers.getTrustManagers(), null);
+		
+		return sslContext;
+	}
+	
+	public String getHost(){
+		return serverSocket.getInetAddress().getHostAddress();
+	}
+	
+	public int getPort(){
+		return serverSocket.getLocalPort();
+	}
+	
+	public void setKeepAliveMax(int inKeepAliveMax){
+		keepAliveMax = inKeepAliveMax;
+	}
+	
+	public void setKeepAliveTimeout(int inKeepAliveTimeout){
+		keepAliveTimeout = inKeepAliveTimeout;
+	}
+	
+	//Returns the number of connections that has been accepted.
+	public long getConnectionsAccepted(){
+		return connectionsAccepted.get();
+	}
+	
+	public long getRequestsHandled(){
+		return requestsHandled.get();
+	}
+	
+	//Returns the number of requests answered with a part of the body.
+	public long getRangeRequests(){
+		return rangeRequests.get();
+	}
+	
+	//Returns the number of request-body-bytes received as they were sent, before inflating them.
+	public long getRequestBodyBytes(){
+		return requestBodyBytes.get();
+	}
+	
+	public byte[] getLastRequestBody(){
+		return lastRequestBody;
+	}
+	
+	void addRequestBodyBytes(long bytes){
+		requestBodyBytes.addAndGet(bytes);
+	}
+	
+	int getKeepAliveMax(){
+		return keepAliveMax;
+	}
+	
+	void requestHandled(){
+		requestsHandled.incrementAndGet();
+	}
+	
+	//Closes all connections that are waiting for their next request, like a host closing idle connections before its keep-alive timeout.
+	public void closeIdleConnections(){
+		for(Socket sock: idleSockets){
+			try{
+				sock.close();
+			}catch(IOException e){
+				//ignore.
+			}
+		}
+	}
+	
+	//Closes the connection without answering for the given number of requests sent on reused connections, like when a host closes an idle connection while a request is on its way.
+	public void dropRequests(int count){
+		dropRequests.set(count);
+	}
+	
+	//Stops accepting connections. Open connections are closed when their current request is done.
+	public void close() throws IOException{
+		running = false;
+		serverSocket.close();
+	}
+	
+	private void acceptLoop(){
+		while(running){
+			try{
+				final Socket sock = serverSocket.accept();
+				connectionsAccepted.incrementAndGet();
+				
+				Thread thread = new Thread(new Runnable(){
+					public void run(){
+						handleConnection(sock);
+					}
+				}, "HttpBrowserTestServer-connection");
+				thread.setDaemon(true);
+				thread.start();
+			}catch(IOException e){
+				//The server-socket has been closed.
+			}
+		}
+	}
+	
+	private void handleConnection(Socket sock){
+		try{
+			sock.setTcpNoDelay(true);
+			sock.setSoTimeout(keepAliveTimeout * 1000);
+			
+			InputStream in = new BufferedInputStream(sock.getInputStream(), 16384);
+			OutputStream out = new BufferedOutputStream(sock.getOutputStream(), 16384);
+			int requests = 0;
+			
+			while(running){
+				String requestLine;
+				
+				try{
+					requestLine = readLine(in);
+				}finally{
+					idleSockets.remove(sock);
+				}
+				
+				if (requestLine == null){
+					break;
+				}else if(requestLine.isEmpty()){
+					//Clients may send an empty line between requests.
+					continue;
+				}else if(requestLine.equals("PRI * HTTP/2.0") && requests == 0){
+					//The rest of the preface is an empty line, 'SM' and another empty line.
+					readLine(in);
+					readLine(in);
+					readLine(in);
+					
+					new HttpBrowserTestServerHttp2(this, sock, in, out).run();
+					break;
+				}
+				
+				HashMap<String, String> headers = new HashMap<String, String>();
+				String line;
+				
+				while((line = readLine(in)) != null && !line.isEmpty()){
+					int colon = line.indexOf(':');
+					if (colon != -1){
+						headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+					}
+				}
+				
+				long received = readRequestBody(in, headers);
+				
+				if (requests > 0 && dropRequests.getAndUpdate(count -> Math.max(0, count - 1)) > 0){
+					break;
+				}
+				
+				requests += 1;
+				requestsHandled.incrementAndGet();
+				
+				boolean close = (requests >= keepAliveMax || "close".equalsIgnoreCase(headers.get("connection")));
+				if (respond(out, requestLine, headers, received, close)){
+					out.flush();
+					break;
+				}
+				
+				//Marked as idle before the result is sent, so the client can close it right after it has the result.
+				if (!close){
+					idleSockets.add(sock);
+				}
+				
+				out.flush();
+				
+				if (close){
+					break;
+				}
+			}
+		}catch(SocketTimeoutException e){
+			//The connection has been idle for longer than the keep-alive timeout.
+		}catch(SocketException e){
+			//The client closed the connection.
+		}catch(IOException e){
+			//ignore.
+		}finally{
+			try{
+				sock.close();
+			}catch(IOException e){
+				//ignore.
+			}
+		}
+	}
+	
+	//Reads, keeps and counts the body of the request. Compressed bodies are kept and counted inflated.
+	private long readRequestBody(InputStream in, HashMap<String, String> headers) throws IOException{
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		long received = 0;
+		
+		if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))){
+			while(true){
+				String sizeLine = readLine(in);
+				int semicolon = sizeLine.indexOf(';');
+				int size = Integer.parseInt((semicolon == -1) ? sizeLine.trim() : sizeLine.substring(0, semicolon).trim(), 16);
+				
+				if (size == 0){
+					//Skip trailers.
+					while(!readLine(in).isEmpty()){
+						//Keep reading until the empty line.
+					}
+					
+					break;
+				}
+				
+				skip(in, size, body);
+				readLine(in);
+				received += size;
+			}
+		}else if(headers.containsKey("content-length")){
+			received = Long.parseLong(headers.get("content-length"));
+			skip(in, received, body);
+		}
+		
+		requestBodyBytes.addAndGet(received);
+		
+		if ("gzip".equalsIgnoreCase(headers.get("content-encoding"))){
+			lastRequestBody = inflate(body.toByteArray());
+		}else{
+			lastRequestBody = body.toByteArray();
+		}
+		
+		return lastRequestBody.length;
+	}
+	
+	//Returns the size of the given GZIP-data when inflated.
+	static long inflatedSize(byte[] compressed) throws IOException{
+		return inflate(compressed).length;
+	}
+	
+	static byte[] inflate(byte[] compressed) throws IOException{
+		GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int len;
+		
+		while((len = in.read(buf)) != -1){
+			out.write(buf, 0, len);
+		}
+		
+		return out.toByteArray();
+	}
+	
+	//The body of the answer to a request and how it is sent.
+	static class Response {
+		byte[] body;
+		String encoding;
+		boolean chunked = false;
+		int status = 200;
+		String etag;
+		String cacheControl;
+		String revalidatedCacheControl;
+		int cut = -1;
+		int split = 0;
+		boolean changed = false;
+	}
+	
+	//Returns the answer to the request with the given method and target, which had a body of the given size. Used by both the HTTP/1.1- and the HTTP/2-side.
+	Response response(String method, String target, long received) throws IOException{
+		HashMap<String, String> params = params(target);
+		Response response = new Response();
+		
+		if (method.equals("GET") && target.startsWith("/body")){
+			int size = params.containsKey("size") ? Integer.parseInt(params.get("size")) : 100;
+			String compression = null;
+			
+			if (params.containsKey("gzip")){
+				compression = "gzip";
+				response.encoding = "gzip";
+			}else if(params.containsKey("deflate")){
+				compression = params.get("deflate").equals("raw") ? "deflate-raw" : "deflate";
+				response.encoding = "deflate";
+			}else if(params.containsKey("encoding")){
+				response.encoding = params.get("encoding");
+			}
+			
+			response.chunked = params.containsKey("chunked");
+			response.body = body(size, compression);
+			response.etag = "\"body-" + size + ((compression != null) ? "-" + compression : "") + "\"";
+			response.cut = params.containsKey("cut") ? Integer.parseInt(params.get("cut")) : -1;
+			response.split = params.containsKey("split") ? Integer.parseInt(params.get("split")) : 0;
+			response.changed = params.containsKey("changed");
+			response.status = params.containsKey("status") ? Integer.parseInt(params.get("status")) : 200;
+			response.cacheControl = params.containsKey("maxage") ? "max-age=" + params.get("maxage") : null;
+			response.revalidatedCacheControl = params.containsKey("revalidated") ? "max-age=" + params.get("revalidated") : response.cacheControl;
+		}else{
+			response.body = String.valueOf(received).getBytes(StandardCharsets.ISO_8859_1);
+		}
+		
+		return response;
+	}
+	
+	//Sends the answer to the request. Returns true if the connection was cut in the middle of the body and must be closed.
+	private boolean respond(OutputStream out, String requestLine, HashMap<String, String> headers, long received, boolean close) throws IOException{
+		String[] parts = requestLine.split(" ");
+		Response response = response(parts[0], (parts.length > 1) ? parts[1] : "/", received);
+		byte[] body = response.body;
+		boolean chunked = response.chunked;
+		String range = headers.get("range");
+		String etag = response.etag;
+		int status = response.status;
+		int start = 0;
+		
+		if (etag != null && etag.equals(headers.get("if-none-match"))){
+			status = 304;
+		}else if(range != null && etag != null && range.startsWith("bytes=") && range.endsWith("-")){
+			if (response.changed){
+				etag = "\"changed\"";
+			}
+			
+			if (response.changed || !headers.containsKey("if-range") || headers.get("if-range").equals(etag)){
+				start = Integer.parseInt(range.substring(6, range.length() - 1));
+				status = 206;
+				chunked = false;
+				rangeRequests.incrementAndGet();
+			}
+		}
+		
+		StringBuilder head = new StringBuilder();
+		head.append("HTTP/1.1 ").append(status).append(" ").append(reason(status)).append("\r\n");
+		head.append("Content-Type: text/plain\r\n");
+		
+		if (etag != null){
+			head.append("ETag: ").append(etag).append("\r\n");
+			head.append("Accept-Ranges: bytes\r\n");
+		}
+		
+		String cacheControl = (status == 304) ? response.revalidatedCacheControl : response.cacheControl;
+		if (cacheControl != null){
+			head.append("Cache-Control: ").append(cacheControl).append("\r\n");
+		}
+		
+		if (start > 0){
+			head.append("Content-Range: bytes ").append(start).append("-").append(body.length - 1).append("/").append(body.length).append("\r\n");
+		}
+		
+		if (close){
+			head.append("Connection: close\r\n");
+		}else{
+			head.append("Keep-Alive: timeout=").append(keepAliveTimeout).append(", max=").append(keepAliveMax).append("\r\n");
+		}
+		
+		if (response.encoding != null){
+			head.append("Content-Encoding: ").append(response.encoding).append("\r\n");
+		}
+		
+		if (chunked && status != 204 && status != 304){
+			head.append("Transfer-Encoding: chunked\r\n");
+		}else{
+			head.append("Content-Length: ").append(body.length - start).append("\r\n");
+		}
+		
+		head.append("\r\n");
+		out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+		
+		if (status == 204 || status == 304){
+			return false;
+		}else if(response.cut > start && response.cut < body.length){
+			if (chunked){
+				out.write((Integer.toHexString(body.length) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+			}
+			
+			out.write(body, start, response.cut - start);
+			return true;
+		}else if(chunked){
+			for(int i = 0; i < body.length; i += 8192){
+				int len = Math.min(8192, body.length - i);
+				out.write((Integer.toHexString(len) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+				writeBody(out, body, i, len, response.split);
+				out.write('\r');
+				out.write('\n');
+			}
+			
+			out.write("0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+		}else{
+			writeBody(out, body, start, body.length - start, response.split);
+		}
+		
+		return false;
+	}
+	
+	//Writes the given part of the body. When split it is sent in pieces of the given size, with a pause after each piece.
+	private static void writeBody(OutputStream out, byte[] body, int offset, int length, int split) throws IOException{
+		if (split <= 0){
+			out.write(body, offset, length);
+			return;
+		}
+		
+		for(int i = 0; i < length; i += split){
+			out.write(body, offset + i, Math.min(split, length - i));
+			out.flush();
+			
+			try{
+				Thread.sleep(1);
+			}catch(InterruptedException e){
+				throw new IOException("Interrupted while sending the body.", e);
+			}
+		}
+	}
+	
+	private static String reason(int status){
+		if (status == 200){
+			return "OK";
+		}else if(status == 204){
+			return "No Content";
+		}else if(status == 206){
+			return "Partial Content";
+		}else if(status == 304){
+			return "Not Modified";
+		}else if(status == 404){
+			return "Not Found";
+		}
+		
+		return "Status";
+	}
+	
+	//Returns a text-body of the given size, compressed with 'gzip', 'deflate' or 'deflate-raw' if wanted. Text is used so compression works like for real pages.
+	private byte[] body(int size, String compression) throws IOException{
+		String key = size + ((compression != null) ? "-" + compression : "");
+		byte[] body = bodies.get(key);
+		
+		if (body == null){
+			byte[] text = new byte[size];
+			byte[] words = "The quick brown fox jumps over the lazy dog. 0123456789\n".getBytes(StandardCharsets.ISO_8859_1);
+			
+			for(int i = 0; i < size; i++){
+				text[i] = words[(i + (i / words.length)) % words.length];
+			}
+			
+			body = text;
+			
+			if (compression != null){
+				ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+				OutputStream compressOut;
+				
+				if (compression.equals("gzip")){
+					compressOut = new GZIPOutputStream(bytesOut);
+				}else{
+					compressOut = new DeflaterOutputStream(bytesOut, new Deflater(Deflater.DEFAULT_COMPRESSION, compression.equals("deflate-raw")));
+				}
+				
+				compressOut.write(text);
+				compressOut.close();
+				body = bytesOut.toByteArray();
+			}
+			
+			bodies.put(key, body);
+		}
+		
+		return body;
+	}
+	
+	private HashMap<String, String> params(String target){
+		HashMap<String, String> params = new HashMap<String, String>();
+		int question = target.indexOf('?');
+		
+		if (question != -1){
+			for(String param: target.substring(question + 1).split("&")){
+				int equals = param.indexOf('=');
+				if (equals == -1){
+					params.put(param, "");
+				}else{
+					params.put(param.substring(0, equals), param.substring(equals + 1));
+				}
+			}
+		}
+		
+		return params;
+	}
+	
+	//Reads a line without the line-ending. Returns null on EOF.
+	private String readLine(InputStream in) throws IOException{
+		ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+		int ch;
+		
+		while((ch = in.read()) != -1){
+			if (ch == '\n'){
+				break;
+			}else if(ch != '\r'){
+				line.write(ch);
+			}
+		}
+		
+		if (ch == -1 && line.size() == 0){
+			return null;
+		}
+		
+		return new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+	}
+	
+	//Skips the given number of bytes. They are copied to the given stream if it is not null.
+	private void skip(InputStream in, long length, OutputStream copy) throws IOException{
+		byte[] buf = new byte[8192];
+		
+		while(length > 0){
+			int len = in.read(buf, 0, (int) Math.min(buf.length, length));
+			if (len == -1){
+				throw new IOException("The request-body ended too early.");
+			}
+			
+			if (copy != null){
+				copy.write(buf, 0, len);
+			}
+			
+			length -= len;
+		}
+	}
+}
@@ -0,0 +1,331 @@
+package org.kaspernj.fw.httpbrowser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+//The HTTP/2-side of HttpBrowserTestServer. Each stream is answered from a thread of its own with the same results as on HTTP/1.1, so results are sent interleaved, and the flow-control windows of the client are respected.
+//The connection keeps the default window of 64 KiB for request-bodies, so bigger uploads depend on the window-updates, and it is closed with GOAWAY after the keep-alive-max of the server has been reached.
+class HttpBrowserTestServerHttp2 {
+	//The number of concurrent streams the client is allowed.
+	private static final int MAX_CONCURRENT_STREAMS = 100;
+	
+	private HttpBrowserTestServer server;
+	private Socket sock;
+	private DataInputStream in;
+	private OutputStream out;
+	
+	private HttpBrowserHpackDecoder decoder = new HttpBrowserHpackDecoder();
+	private HttpBrowserHpackEncoder encoder = new HttpBrowserHpackEncoder();
+	
+	//The open streams and the windows of the client.
+	private HashMap<Integer, Stream> streams = new HashMap<Integer, Stream>();
+	private long sendWindow = HttpBrowserHttp2Connection.DEFAULT_WINDOW;
+	private int initialWindow = HttpBrowserHttp2Connection.DEFAULT_WINDOW;
+	private int maxFrameSize = HttpBrowserHttp2Connection.DEFAULT_FRAME_SIZE;
+	
+	//Streams after 'lastStreamId' are not answered once GOAWAY has been sent.
+	private int streamsOpened = 0;
+	private int lastStreamId = 0;
+	private boolean goAwaySent = false;
+	private boolean closed = false;
+	
+	private static class Stream {
+		int id;
+		ArrayList<String[]> headers = new ArrayList<String[]>();
+		long received = 0;
+		ByteArrayOutputStream compressed;
+		long window;
+		boolean reset = false;
+	}
+	
+	HttpBrowserTestServerHttp2(HttpBrowserTestServer inServer, Socket inSock, InputStream inIn, OutputStream inOut){
+		server = inServer;
+		sock = inSock;
+		in = new DataInputStream(inIn);
+		out = inOut;
+	}
+	
+	//Reads frames until the connection is closed. The preface has already been read.
+	void run() throws IOException{
+		synchronized(this){
+			byte[] settings = new byte[6];
+			settings[1] = HttpBrowserHttp2Connection.SETTINGS_MAX_CONCURRENT_STREAMS;
+			HttpBrowserHttp2Connection.putInt(settings, 2, MAX_CONCURRENT_STREAMS);
+			writeFrame(HttpBrowserHttp2Connection.SETTINGS, 0, 0, settings, 0, settings.length);
+			out.flush();
+		}
+		
+		byte[] head = new byte[9];
+		ByteArrayOutputStream headerBlock = null;
+		int headerFlags = 0;
+		
+		try{
+			while(true){
+				in.readFully(head);
+				int length = ((head[0] & 0xff) << 16) | ((head[1] & 0xff) << 8) | (head[2] & 0xff);
+				int type = head[3] & 0xff;
+				int flags = head[4] & 0xff;
+				int streamId = HttpBrowserHttp2Connection.readInt(head, 5) & 0x7fffffff;
+				
+				byte[] payload = new byte[length];
+				in.readFully(payload);
+				
+				if (type == HttpBrowserHttp2Connection.HEADERS){
+					int offset = ((flags & HttpBrowserHttp2Connection.FLAG_PRIORITY) != 0) ? 5 : 0;
+					headerBlock = new ByteArrayOutputStream();
+					headerBlock.write(payload, offset, length - offset);
+					headerFlags = flags;
+				}else if(type == HttpBrowserHttp2Connection.CONTINUATION){
+					headerBlock.write(payload, 0, length);
+				}
+				
+				synchronized(this){
+					if ((type == HttpBrowserHttp2Connection.HEADERS || type == HttpBrowserHttp2Connection.CONTINUATION) && (flags & HttpBrowserHttp2Connection.FLAG_END_HEADERS) != 0){
+						byte[] block = headerBlock.toByteArray();
+						readHeaders(streamId, headerFlags, block);
+					}else if(type == HttpBrowserHttp2Connection.DATA){
+						readData(streamId, flags, payload);
+					}else if(type == HttpBrowserHttp2Connection.SETTINGS && (flags & HttpBrowserHttp2Connection.FLAG_ACK) == 0){
+						readSettings(payload);
+					}else if(type == HttpBrowserHttp2Connection.WINDOW_UPDATE){
+						int increment = HttpBrowserHttp2Connection.readInt(payload, 0) & 0x7fffffff;
+						
+						if (streamId == 0){
+							sendWindow += increment;
+						}else if(streams.containsKey(streamId)){
+							streams.get(streamId).window += increment;
+						}
+						
+						notifyAll();
+					}else if(type == HttpBrowserHttp2Connection.PING && (flags & HttpBrowserHttp2Connection.FLAG_ACK) == 0){
+						writeFrame(HttpBrowserHttp2Connection.PING, HttpBrowserHttp2Connection.FLAG_ACK, 0, payload, 0, length);
+					}else if(type == HttpBrowserHttp2Connection.RST_STREAM && streams.containsKey(streamId)){
+						streams.remove(streamId).reset = true;
+						notifyAll();
+					}else if(type == HttpBrowserHttp2Connection.GOAWAY){
+						break;
+					}
+					
+					out.flush();
+				}
+			}
+		}catch(EOFException e){
+			//The client closed the connection.
+		}catch(SocketTimeoutException e){
+			//Idle for longer than the keep-alive timeout.
+			synchronized(this){
+				if (!goAwaySent){
+					writeGoAway();
+					out.flush();
+				}
+			}
+		}finally{
+			synchronized(this){
+				closed = true;
+				notifyAll();
+			}
+		}
+	}
+	
+	private void readHeaders(int streamId, int flags, byte[] block) throws IOException{
+		Stream stream = new Stream();
+		stream.id = streamId;
+		stream.window = initialWindow;
+		decoder.decode(block, 0, block.length, stream.headers);
+		
+		for(String[] header: stream.headers){
+			if (header[0].equals("content-encoding") && header[1].equals("gzip")){
+				stream.compressed = new ByteArrayOutputStream();
+			}
+		}
+		
+		if (goAwaySent && streamId > lastStreamId){
+			return;
+		}
+		
+		streams.put(streamId, stream);
+		streamsOpened += 1;
+		lastStreamId = streamId;
+		
+		//The streams that are open are answered before the connection is closed.
+		if (streamsOpened >= server.getKeepAliveMax()){
+			writeGoAway();
+		}
+		
+		if ((flags & HttpBrowserHttp2Connection.FLAG_END_STREAM) != 0){
+			startResponse(stream);
+		}
+	}
+	
+	//Counts the body of the request and gives the window back to the client right away. Compressed bodies are collected, so they can be counted by their inflated size.
+	private void readData(int streamId, int flags, byte[] payload) throws IOException{
+		int length = payload.length;
+		
+		if (length > 0){
+			byte[] increment = new byte[4];
+			HttpBrowserHttp2Connection.putInt(increment, 0, length);
+			writeFrame(HttpBrowserHttp2Connection.WINDOW_UPDATE, 0, 0, increment, 0, increment.length);
+			writeFrame(HttpBrowserHttp2Connection.WINDOW_UPDATE, 0, streamId, increment, 0, increment.length);
+		}
+		
+		Stream stream = streams.get(streamId);
+		if (stream == null){
+			return;
+		}
+		
+		stream.received += length;
+		server.addRequestBodyBytes(length);
+		
+		if (stream.compressed != null){
+			stream.compressed.write(payload, 0, length);
+		}
+		
+		if ((flags & HttpBrowserHttp2Connection.FLAG_END_STREAM) != 0 && stream.compressed != null){
+			stream.received = HttpBrowserTestServer.inflatedSize(stream.compressed.toByteArray());
+		}
+		
+		if ((flags & HttpBrowserHttp2Connection.FLAG_END_STREAM) != 0){
+			startResponse(stream);
+		}
+	}
+	
+	private void readSettings(byte[] payload) throws IOException{
+		for(int i = 0; i + 6 <= payload.length; i += 6){
+			int id = ((payload[i] & 0xff) << 8) | (payload[i + 1] & 0xff);
+			int value = HttpBrowserHttp2Connection.readInt(payload, i + 2);
+			
+			if (id == HttpBrowserHttp2Connection.SETTINGS_INITIAL_WINDOW_SIZE){
+				for(Stream stream: streams.values()){
+					stream.window += value - initialWindow;
+				}
+				
+				initialWindow = value;
+			}else if(id == HttpBrowserHttp2Connection.SETTINGS_MAX_FRAME_SIZE){
+				maxFrameSize = value;
+			}else if(id == HttpBrowserHttp2Connection.SETTINGS_HEADER_TABLE_SIZE){
+				encoder.setMaxTableSize(value);
+			}
+		}
+		
+		writeFrame(HttpBrowserHttp2Connection.SETTINGS, HttpBrowserHttp2Connection.FLAG_ACK, 0, payload, 0, 0);
+		notifyAll();
+	}
+	
+	private void startResponse(final Stream stream){
+		server.requestHandled();
+		
+		Thread thread = new Thread(new Runnable(){
+			public void run(){
+				try{
+					respond(stream);
+				}catch(IOException e){
+					//The client closed the connection.
+				}
+			}
+		}, "HttpBrowserTestServer-stream");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	//Sends the result of the stream in DATA-frames as the windows allow.
+	private void respond(Stream stream) throws IOException{
+		String method = "GET";
+		String path = "/";
+		
+		for(String[] header: stream.headers){
+			if (header[0].equals(":method")){
+				method = header[1];
+			}else if(header[0].equals(":path")){
+				path = header[1];
+			}
+		}
+		
+		HttpBrowserTestServer.Response response = server.response(method, path, stream.received);
+		byte[] body = response.body;
+		
+		ArrayList<String[]> headers = new ArrayList<String[]>();
+		headers.add(new String[]{":status", "200"});
+		headers.add(new String[]{"content-type", "text/plain"});
+		
+		if (response.encoding != null){
+			headers.add(new String[]{"content-encoding", response.encoding});
+		}
+		
+		headers.add(new String[]{"content-length", String.valueOf(body.length)});
+		
+		synchronized(this){
+			HttpBrowserRequestBuffer block = new HttpBrowserRequestBuffer();
+			encoder.encode(headers, block);
+			byte[] blockBytes = block.toByteArray();
+			
+			int flags = HttpBrowserHttp2Connection.FLAG_END_HEADERS | ((body.length == 0) ? HttpBrowserHttp2Connection.FLAG_END_STREAM : 0);
+			writeFrame(HttpBrowserHttp2Connection.HEADERS, flags, stream.id, blockBytes, 0, blockBytes.length);
+			out.flush();
+		}
+		
+		int offset = 0;
+		
+		while(offset < body.length){
+			synchronized(this){
+				while(!closed && !stream.reset && (sendWindow <= 0 || stream.window <= 0)){
+					try{
+						wait();
+					}catch(InterruptedException e){
+						return;
+					}
+				}
+				
+				if (closed || stream.reset){
+					return;
+				}
+				
+				int length = (int) Math.min(Math.min(sendWindow, stream.window), Math.min(maxFrameSize, body.length - offset));
+				boolean end = (offset + length == body.length);
+				writeFrame(HttpBrowserHttp2Connection.DATA, end ? HttpBrowserHttp2Connection.FLAG_END_STREAM : 0, stream.id, body, offset, length);
+				out.flush();
+				
+				sendWindow -= length;
+				stream.window -= length;
+				offset += length;
+			}
+		}
+		
+		synchronized(this){
+			streams.remove(stream.id);
+			
+			//Only the sending side is closed, so frames still coming from the client are read instead of making the socket reset the connection.
+			if (goAwaySent && streams.isEmpty()){
+				out.flush();
+				sock.shutdownOutput();
+			}
+		}
+	}
+	
+	private void writeGoAway() throws IOException{
+		byte[] payload = new byte[8];
+		HttpBrowserHttp2Connection.putInt(payload, 0, lastStreamId);
+		writeFrame(HttpBrowserHttp2Connection.GOAWAY, 0, 0, payload, 0, payload.length);
+		goAwaySent = true;
+	}
+	
+	private void writeFrame(int type, int flags, int streamId, byte[] payload, int offset, int length) throws IOException{
+		byte[] head = new byte[9];
+		head[0] = (byte) (length >>> 16);
+		head[1] = (byte) (length >>> 8);
+		head[2] = (byte) length;
+		head[3] = (byte) type;
+		head[4] = (byte) flags;
+		HttpBrowserHttp2Connection.putInt(head, 5, streamId);
+		
+		out.write(head);
+		out.write(payload, offset, length);
+	}
+}